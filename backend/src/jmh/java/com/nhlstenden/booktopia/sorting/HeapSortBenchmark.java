@@ -0,0 +1,84 @@
+package com.nhlstenden.booktopia.sorting;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the original list-based heap sort (List.get/set on boxed elements) with the
+ * array-backed {@link ArrayHeap} engine, with a binary and a 4-ary heap, on the keys of
+ * both datasets. The keys are shuffled so the heap does real work.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class HeapSortBenchmark {
+
+    @Param({"/books.csv", "/movies.csv"})
+    public String dataset;
+
+    private List<String> keys;
+    private HeapSort<String, Object> heapSort;
+
+    @Setup
+    public void setUp() throws Exception {
+        keys = new ArrayList<>();
+        for (Map<String, Object> item : BenchmarkData.loadItems(dataset)) {
+            keys.add(item.get("key").toString());
+        }
+        Collections.shuffle(keys, new Random(42));
+        // The generic heap sort does not use the tree services
+        heapSort = new HeapSort<>(null, null, null, null);
+    }
+
+    @Benchmark
+    public List<String> listHeapSort() {
+        List<String> list = new ArrayList<>(keys);
+        int n = list.size();
+        for (int i = n / 2 - 1; i >= 0; i--) {
+            heapify(list, n, i);
+        }
+        for (int i = n - 1; i > 0; i--) {
+            String temp = list.get(0);
+            list.set(0, list.get(i));
+            list.set(i, temp);
+            heapify(list, i, 0);
+        }
+        return list;
+    }
+
+    @Benchmark
+    public List<String> arrayHeapSortBinary() {
+        return heapSort.heapSort(keys, Comparator.naturalOrder(), 2);
+    }
+
+    @Benchmark
+    public List<String> arrayHeapSortQuaternary() {
+        return heapSort.heapSort(keys, Comparator.naturalOrder(), 4);
+    }
+
+    @Benchmark
+    public List<String> topHundred() {
+        return TopK.select(keys, Comparator.naturalOrder(), 100);
+    }
+
+    // The heapify of the original list-based HeapSort
+    private static void heapify(List<String> list, int n, int i) {
+        int largest = i;
+        int left = 2 * i + 1;
+        int right = 2 * i + 2;
+        if (left < n && list.get(left).compareTo(list.get(largest)) > 0) {
+            largest = left;
+        }
+        if (right < n && list.get(right).compareTo(list.get(largest)) > 0) {
+            largest = right;
+        }
+        if (largest != i) {
+            String swap = list.get(i);
+            list.set(i, list.get(largest));
+            list.set(largest, swap);
+            heapify(list, n, largest);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.nhlstenden.booktopia.sorting;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how the fork/join merge sort scales with the number of worker threads,
+ * compared with the sequential sort of the same row indices.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ParallelMergeSortBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int rows;
+
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    private long[] keys;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setUp() {
+        keys = new Random(42).longs(rows).toArray();
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    private int[] identity() {
+        int[] order = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            order[i] = i;
+        }
+        return order;
+    }
+
+    @Benchmark
+    public int[] sequential() {
+        int[] order = identity();
+        ParallelMergeSort.sort(order, (a, b) -> Long.compare(keys[a], keys[b]));
+        return order;
+    }
+
+    @Benchmark
+    public int[] parallel() {
+        int[] order = identity();
+        ParallelMergeSort.parallelSort(order, (a, b) -> Long.compare(keys[a], keys[b]),
+                pool, ParallelMergeSort.DEFAULT_PARALLEL_THRESHOLD);
+        return order;
+    }
+}
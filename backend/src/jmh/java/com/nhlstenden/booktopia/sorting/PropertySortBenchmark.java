@@ -0,0 +1,63 @@
+package com.nhlstenden.booktopia.sorting;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the ways of sorting the movies dataset by a property:
+ * comparing the string values (the original comparator), comparing typed values
+ * looked up per comparison, and extracting the sort keys once with {@link SortKeys}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PropertySortBenchmark {
+
+    @Param({"name", "year", "score", "budget"})
+    public String property;
+
+    private List<Map<String, Object>> items;
+
+    @Setup
+    public void loadMovies() throws Exception {
+        items = BenchmarkData.loadItems("/movies.csv");
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> stringComparator() {
+        List<Map<String, Object>> rows = new ArrayList<>(items);
+        rows.sort((item1, item2) -> {
+            Object val1 = item1.get(property);
+            Object val2 = item2.get(property);
+            if (val1 == null || val2 == null) {
+                return val1 == val2 ? 0 : (val1 == null ? -1 : 1);
+            }
+            return val1.toString().compareTo(val2.toString());
+        });
+        return rows;
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> typedComparator() {
+        List<Map<String, Object>> rows = new ArrayList<>(items);
+        List<Object> values = new ArrayList<>(rows.size());
+        for (Map<String, Object> item : rows) {
+            values.add(item.get(property));
+        }
+        Comparator<Object> valueOrder = ColumnType.infer(values).comparator();
+        rows.sort((item1, item2) -> valueOrder.compare(item1.get(property), item2.get(property)));
+        return rows;
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> extractedSortKeys() {
+        List<Object> values = new ArrayList<>(items.size());
+        for (Map<String, Object> item : items) {
+            values.add(item.get(property));
+        }
+        SortKeys sortKeys = SortKeys.extract(values);
+        return SortKeys.gather(items, sortKeys.sortedRows(true));
+    }
+}
@@ -0,0 +1,82 @@
+package com.nhlstenden.booktopia.sorting;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the multikey quicksort on text keys with the merge and heap sorts of the same row
+ * indices: the titles of the books dataset (about 11k rows) and synthetic titles (10M rows,
+ * which needs a heap of a few GB, for example -Xmx4g).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StringRadixSortBenchmark {
+
+    @Param({"books", "synthetic"})
+    public String dataset;
+
+    private static final int SYNTHETIC_ROWS = 10_000_000;
+
+    private SortKeys keys;
+    private int size;
+
+    @Setup
+    public void setUp() throws Exception {
+        List<Object> titles = new ArrayList<>();
+        if (dataset.equals("books")) {
+            for (Map<String, Object> item : BenchmarkData.loadItems("/books.csv")) {
+                titles.add(item.get("title"));
+            }
+        } else {
+            // Titles built from a small vocabulary, so many rows share long prefixes
+            String[] words = {"The", "Lord", "of", "the", "Rings", "Harry", "Potter", "and", "Secret",
+                    "History", "A", "Tale", "Two", "Cities", "Night", "Garden", "War", "Peace"};
+            Random random = new Random(42);
+            for (int i = 0; i < SYNTHETIC_ROWS; i++) {
+                StringBuilder title = new StringBuilder();
+                int length = 2 + random.nextInt(5);
+                for (int j = 0; j < length; j++) {
+                    title.append(j == 0 ? "" : " ").append(words[random.nextInt(words.length)]);
+                }
+                titles.add(title.toString());
+            }
+        }
+        keys = SortKeys.extract(titles, ColumnType.STRING);
+        size = keys.size();
+    }
+
+    private int[] identity() {
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        return order;
+    }
+
+    @Benchmark
+    public int[] radix() {
+        int[] order = identity();
+        keys.radixSort(order, true);
+        return order;
+    }
+
+    @Benchmark
+    public int[] merge() {
+        int[] order = identity();
+        keys.sort(order, true, false);
+        return order;
+    }
+
+    @Benchmark
+    public int[] heap() {
+        int[] order = identity();
+        ArrayHeap.sort(order, (a, b) -> keys.compare(a, b, true), ArrayHeap.DEFAULT_ARITY);
+        return order;
+    }
+}
@@ -225,4 +225,23 @@ public class AVLTree<T extends Comparable<T>> {
             inOrderTraversalWithValuesRec(node.right, keys, values);
         }
     }
+    
+    /**
+     * Visits the keys and values in the tree in order, without collecting them.
+     * 
+     * @param action The action to perform for each key-value pair; returning false stops the traversal
+     * @return False if the action stopped the traversal, true if every pair was visited
+     */
+    public boolean forEachInOrder(java.util.function.BiPredicate<? super T, ? super JSONObject> action) {
+        return forEachInOrderRec(root, action);
+    }
+    
+    private boolean forEachInOrderRec(Node node, java.util.function.BiPredicate<? super T, ? super JSONObject> action) {
+        if (node == null) {
+            return true;
+        }
+        return forEachInOrderRec(node.left, action)
+                && action.test(node.key, node.value)
+                && forEachInOrderRec(node.right, action);
+    }
 }
@@ -2,6 +2,7 @@ package com.nhlstenden.booktopia.BST;
 
 import java.util.Comparator;
 import java.util.List;
+import java.util.function.BiPredicate;
 import org.json.JSONObject;
 
 public class BinarySearchTree<T> {
@@ -158,6 +159,25 @@ public class BinarySearchTree<T> {
         }
     }
 
+    /**
+     * Visits the keys and values in the tree in order, without collecting them.
+     *
+     * @param action The action to perform for each key-value pair; returning false stops the traversal
+     * @return False if the action stopped the traversal, true if every pair was visited
+     */
+    public boolean forEachInOrder(BiPredicate<? super T, ? super JSONObject> action) {
+        return forEachInOrderRec(root, action);
+    }
+
+    private boolean forEachInOrderRec(Node node, BiPredicate<? super T, ? super JSONObject> action) {
+        if (node == null) {
+            return true;
+        }
+        return forEachInOrderRec(node.left, action)
+                && action.test(node.key, node.value)
+                && forEachInOrderRec(node.right, action);
+    }
+
     public void clear() {
         root = null;
     }
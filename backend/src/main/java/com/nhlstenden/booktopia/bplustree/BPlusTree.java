@@ -0,0 +1,451 @@
+package com.nhlstenden.booktopia.bplustree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+
+/**
+ * B+tree: all key-value pairs are stored in the leaves, which are linked from left to right, and
+ * the internal nodes only hold separator keys to route a lookup to the right leaf. Unlike
+ * {@link com.nhlstenden.booktopia.btree.BTree}, a full scan or a range read descends once to the
+ * first leaf and then walks the leaf chain, without returning to the internal nodes.
+ *
+ * Every node holds at most {@code order - 1} keys and, except for the root, at least
+ * {@code (order - 1) / 2}; a deletion that leaves a node with fewer borrows a key from a sibling or
+ * merges with it. Separators are not updated when the smallest key of a leaf is deleted, as they
+ * still route correctly.
+ *
+ * @param <K> The type of keys (must be Comparable)
+ * @param <V> The type of values
+ */
+public class BPlusTree<K extends Comparable<K>, V> {
+
+    /** The default number of children per internal node. */
+    public static final int DEFAULT_ORDER = 64;
+
+    private final int maxKeys;
+    private final int minKeys;
+    private Node root;
+    private Leaf first;
+    private int size;
+
+    /**
+     * Constructs an empty B+tree with {@link #DEFAULT_ORDER}.
+     */
+    public BPlusTree() {
+        this(DEFAULT_ORDER);
+    }
+
+    /**
+     * Constructs an empty B+tree.
+     *
+     * @param order The largest number of children of an internal node, at least 3
+     */
+    public BPlusTree(int order) {
+        if (order < 3) {
+            throw new IllegalArgumentException("The order of a B+tree must be at least 3");
+        }
+        this.maxKeys = order - 1;
+        this.minKeys = (order - 1) / 2;
+        this.first = new Leaf();
+        this.root = first;
+    }
+
+    /**
+     * Searches for the value of a key.
+     *
+     * @param key The key to search for
+     * @return The value associated with the key, or null if the key is not found
+     */
+    @SuppressWarnings("unchecked")
+    public V search(K key) {
+        Leaf leaf = findLeaf(key);
+        int position = leaf.find(key);
+        return position >= 0 ? (V) leaf.values[position] : null;
+    }
+
+    /**
+     * Inserts a key-value pair, replacing the value if the key is already present.
+     *
+     * @param key The key to insert
+     * @param value The value associated with the key
+     */
+    public void insert(K key, V value) {
+        Split split = root.insert(key, value);
+        if (split != null) {
+            Internal newRoot = new Internal();
+            newRoot.keys[0] = split.key;
+            newRoot.children[0] = root;
+            newRoot.children[1] = split.right;
+            newRoot.n = 1;
+            root = newRoot;
+        }
+    }
+
+    /**
+     * Deletes a key.
+     *
+     * @param key The key to delete
+     * @return True if the key was present
+     */
+    public boolean delete(K key) {
+        boolean deleted = root.delete(key);
+        if (root instanceof Internal && root.n == 0) {
+            root = ((Internal) root).child(0);
+        }
+        return deleted;
+    }
+
+    /**
+     * Removes all keys.
+     */
+    public void clear() {
+        first = new Leaf();
+        root = first;
+        size = 0;
+    }
+
+    /**
+     * @return The number of keys
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The number of levels, 1 for a tree that consists of a single leaf
+     */
+    public int height() {
+        int height = 1;
+        for (Node node = root; node instanceof Internal; node = ((Internal) node).child(0)) {
+            height++;
+        }
+        return height;
+    }
+
+    /**
+     * Visits every key-value pair in key order by walking the leaf chain.
+     *
+     * @param action The action to perform for each key-value pair
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        for (Leaf leaf = first; leaf != null; leaf = leaf.next) {
+            for (int i = 0; i < leaf.n; i++) {
+                action.accept((K) leaf.keys[i], (V) leaf.values[i]);
+            }
+        }
+    }
+
+    /**
+     * Visits the key-value pairs in a key range in key order: descends once to the leaf of the
+     * lower bound and walks the leaf chain from there.
+     *
+     * @param from The smallest key to visit, or null to start at the first key
+     * @param to The key to stop before, or null to continue to the last key
+     * @param action The action to perform for each key-value pair; returning false stops the walk
+     */
+    @SuppressWarnings("unchecked")
+    public void forEachInRange(K from, K to, BiPredicate<? super K, ? super V> action) {
+        Leaf leaf = from == null ? first : findLeaf(from);
+        int i = 0;
+        if (from != null) {
+            int position = leaf.find(from);
+            i = position >= 0 ? position : -position - 1;
+        }
+        for (; leaf != null; leaf = leaf.next, i = 0) {
+            for (; i < leaf.n; i++) {
+                K key = (K) leaf.keys[i];
+                if (to != null && key.compareTo(to) >= 0) {
+                    return;
+                }
+                if (!action.test(key, (V) leaf.values[i])) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return All keys in ascending order
+     */
+    public List<K> getSortedKeys() {
+        List<K> keys = new ArrayList<>(size);
+        forEach((key, value) -> keys.add(key));
+        return keys;
+    }
+
+    /**
+     * Collects all keys and their values in key order.
+     *
+     * @param keys List to store the keys in sorted order
+     * @param values List to store the corresponding values
+     */
+    public void inOrderTraversalWithValues(List<K> keys, List<? super V> values) {
+        forEach((key, value) -> {
+            keys.add(key);
+            values.add(value);
+        });
+    }
+
+    // Descends from the root to the leaf that holds, or would hold, a key
+    private Leaf findLeaf(K key) {
+        Node node = root;
+        while (node instanceof Internal) {
+            Internal internal = (Internal) node;
+            node = internal.child(internal.childIndex(key));
+        }
+        return (Leaf) node;
+    }
+
+    // A node that overflowed was split: the separator and the new right node for the parent
+    private final class Split {
+        private final Object key;
+        private final Node right;
+
+        Split(Object key, Node right) {
+            this.key = key;
+            this.right = right;
+        }
+    }
+
+    private abstract class Node {
+        // One slot more than allowed, so a node can overflow before it is split
+        final Object[] keys = new Object[maxKeys + 1];
+        int n;
+
+        // Returns the position of a key, or (-(insertion point) - 1) if absent
+        @SuppressWarnings("unchecked")
+        int find(Object key) {
+            int low = 0;
+            int high = n - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = ((K) keys[mid]).compareTo((K) key);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+
+        abstract Split insert(K key, V value);
+
+        abstract boolean delete(K key);
+    }
+
+    private final class Leaf extends Node {
+        final Object[] values = new Object[maxKeys + 1];
+        Leaf next;
+
+        @Override
+        Split insert(K key, V value) {
+            int position = find(key);
+            if (position >= 0) {
+                values[position] = value;
+                return null;
+            }
+            position = -position - 1;
+            System.arraycopy(keys, position, keys, position + 1, n - position);
+            System.arraycopy(values, position, values, position + 1, n - position);
+            keys[position] = key;
+            values[position] = value;
+            n++;
+            size++;
+            if (n <= maxKeys) {
+                return null;
+            }
+
+            // Move the upper half into a new leaf after this one
+            Leaf right = new Leaf();
+            int keep = n / 2;
+            right.n = n - keep;
+            System.arraycopy(keys, keep, right.keys, 0, right.n);
+            System.arraycopy(values, keep, right.values, 0, right.n);
+            Arrays.fill(keys, keep, n, null);
+            Arrays.fill(values, keep, n, null);
+            n = keep;
+            right.next = next;
+            next = right;
+            return new Split(right.keys[0], right);
+        }
+
+        @Override
+        boolean delete(K key) {
+            int position = find(key);
+            if (position < 0) {
+                return false;
+            }
+            removeAt(position);
+            size--;
+            return true;
+        }
+
+        void removeAt(int position) {
+            System.arraycopy(keys, position + 1, keys, position, n - position - 1);
+            System.arraycopy(values, position + 1, values, position, n - position - 1);
+            n--;
+            keys[n] = null;
+            values[n] = null;
+        }
+    }
+
+    private final class Internal extends Node {
+        // Object[] because an array of the inner Node class cannot be created
+        final Object[] children = new Object[maxKeys + 2];
+
+        // The only cast of a child back to its node type
+        @SuppressWarnings("unchecked")
+        Node child(int i) {
+            return (Node) children[i];
+        }
+
+        // The child to descend into: keys equal to a separator are in the child right of it
+        int childIndex(Object key) {
+            int position = find(key);
+            return position >= 0 ? position + 1 : -position - 1;
+        }
+
+        @Override
+        Split insert(K key, V value) {
+            int i = childIndex(key);
+            Split split = child(i).insert(key, value);
+            if (split == null) {
+                return null;
+            }
+            System.arraycopy(keys, i, keys, i + 1, n - i);
+            System.arraycopy(children, i + 1, children, i + 2, n - i);
+            keys[i] = split.key;
+            children[i + 1] = split.right;
+            n++;
+            if (n <= maxKeys) {
+                return null;
+            }
+
+            // Keep the lower half, move the upper half into a new node and push the middle key up
+            Internal right = new Internal();
+            int middle = n / 2;
+            right.n = n - middle - 1;
+            System.arraycopy(keys, middle + 1, right.keys, 0, right.n);
+            System.arraycopy(children, middle + 1, right.children, 0, right.n + 1);
+            Object separator = keys[middle];
+            Arrays.fill(keys, middle, n, null);
+            Arrays.fill(children, middle + 1, n + 1, null);
+            n = middle;
+            return new Split(separator, right);
+        }
+
+        @Override
+        boolean delete(K key) {
+            int i = childIndex(key);
+            Node child = child(i);
+            if (!child.delete(key)) {
+                return false;
+            }
+            if (child.n < minKeys) {
+                rebalance(i);
+            }
+            return true;
+        }
+
+        // Refills the underfull child i from a sibling, or merges it with one
+        private void rebalance(int i) {
+            Node left = i > 0 ? child(i - 1) : null;
+            Node right = i < n ? child(i + 1) : null;
+            if (left != null && left.n > minKeys) {
+                borrowFromLeft(i);
+            } else if (right != null && right.n > minKeys) {
+                borrowFromRight(i);
+            } else if (left != null) {
+                merge(i - 1);
+            } else if (right != null) {
+                merge(i);
+            }
+        }
+
+        private void borrowFromLeft(int i) {
+            Node child = child(i);
+            Node left = child(i - 1);
+            System.arraycopy(child.keys, 0, child.keys, 1, child.n);
+            if (child instanceof Leaf) {
+                Leaf leaf = (Leaf) child;
+                Leaf leftLeaf = (Leaf) left;
+                System.arraycopy(leaf.values, 0, leaf.values, 1, leaf.n);
+                leaf.keys[0] = leftLeaf.keys[leftLeaf.n - 1];
+                leaf.values[0] = leftLeaf.values[leftLeaf.n - 1];
+                leftLeaf.keys[leftLeaf.n - 1] = null;
+                leftLeaf.values[leftLeaf.n - 1] = null;
+                keys[i - 1] = leaf.keys[0];
+            } else {
+                Internal internal = (Internal) child;
+                Internal leftInternal = (Internal) left;
+                System.arraycopy(internal.children, 0, internal.children, 1, internal.n + 1);
+                internal.keys[0] = keys[i - 1];
+                internal.children[0] = leftInternal.children[leftInternal.n];
+                keys[i - 1] = leftInternal.keys[leftInternal.n - 1];
+                leftInternal.keys[leftInternal.n - 1] = null;
+                leftInternal.children[leftInternal.n] = null;
+            }
+            child.n++;
+            left.n--;
+        }
+
+        private void borrowFromRight(int i) {
+            Node child = child(i);
+            Node right = child(i + 1);
+            if (child instanceof Leaf) {
+                Leaf leaf = (Leaf) child;
+                Leaf rightLeaf = (Leaf) right;
+                leaf.keys[leaf.n] = rightLeaf.keys[0];
+                leaf.values[leaf.n] = rightLeaf.values[0];
+                leaf.n++;
+                rightLeaf.removeAt(0);
+                keys[i] = rightLeaf.keys[0];
+            } else {
+                Internal internal = (Internal) child;
+                Internal rightInternal = (Internal) right;
+                internal.keys[internal.n] = keys[i];
+                internal.children[internal.n + 1] = rightInternal.children[0];
+                internal.n++;
+                keys[i] = rightInternal.keys[0];
+                System.arraycopy(rightInternal.keys, 1, rightInternal.keys, 0, rightInternal.n - 1);
+                System.arraycopy(rightInternal.children, 1, rightInternal.children, 0, rightInternal.n);
+                rightInternal.n--;
+                rightInternal.keys[rightInternal.n] = null;
+                rightInternal.children[rightInternal.n + 1] = null;
+            }
+        }
+
+        // Appends child i + 1 to child i and removes their separator
+        private void merge(int i) {
+            Node left = child(i);
+            Node right = child(i + 1);
+            if (left instanceof Leaf) {
+                Leaf leftLeaf = (Leaf) left;
+                Leaf rightLeaf = (Leaf) right;
+                System.arraycopy(rightLeaf.keys, 0, leftLeaf.keys, leftLeaf.n, rightLeaf.n);
+                System.arraycopy(rightLeaf.values, 0, leftLeaf.values, leftLeaf.n, rightLeaf.n);
+                leftLeaf.n += rightLeaf.n;
+                leftLeaf.next = rightLeaf.next;
+            } else {
+                Internal leftInternal = (Internal) left;
+                Internal rightInternal = (Internal) right;
+                leftInternal.keys[leftInternal.n] = keys[i];
+                System.arraycopy(rightInternal.keys, 0, leftInternal.keys, leftInternal.n + 1, rightInternal.n);
+                System.arraycopy(rightInternal.children, 0, leftInternal.children, leftInternal.n + 1, rightInternal.n + 1);
+                leftInternal.n += rightInternal.n + 1;
+            }
+            System.arraycopy(keys, i + 1, keys, i, n - i - 1);
+            System.arraycopy(children, i + 2, children, i + 1, n - i - 1);
+            n--;
+            keys[n] = null;
+            children[n + 1] = null;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.nhlstenden.booktopia.btree;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.BiPredicate;
 import org.json.JSONObject;
 
 public class BTree<K extends Comparable<K>, V> {
@@ -89,6 +90,16 @@ public class BTree<K extends Comparable<K>, V> {
         }
     }
 
+    /**
+     * Performs an in-order traversal of the tree that hands each key and its value to an action,
+     * without collecting them
+     * @param action The action to perform for each key-value pair; returning false stops the traversal
+     * @return False if the action stopped the traversal, true if every pair was visited
+     */
+    public boolean forEachInOrder(BiPredicate<? super K, ? super JSONObject> action) {
+        return root == null || root.forEachInOrder(action);
+    }
+
     /**
      * Inserts a key-value pair into the B-tree.
      * 
@@ -1,6 +1,7 @@
 package com.nhlstenden.booktopia.btree;
 
 import java.util.List;
+import java.util.function.BiPredicate;
 import org.json.JSONObject;
 
 public class BTreeNode<K extends Comparable<K>, V> {
@@ -442,26 +443,49 @@ public class BTreeNode<K extends Comparable<K>, V> {
         }
     }
     
+    /**
+     * Performs an in-order traversal that hands each key and its value to an action, without
+     * collecting them; returns false as soon as the action does
+     */
+    protected boolean forEachInOrder(BiPredicate<? super K, ? super JSONObject> action) {
+        for (int i = 0; i < n; i++) {
+            if (!isLeaf && children[i] != null && !children[i].forEachInOrder(action)) {
+                return false;
+            }
+            
+            if (!action.test(keys[i], valueOf(keys[i]))) {
+                return false;
+            }
+        }
+        
+        return isLeaf || children[n] == null || children[n].forEachInOrder(action);
+    }
+    
     /**
      * Helper method to add a value to the values list
      */
     private void addValueToList(K key, List<JSONObject> valuesList) {
+        valuesList.add(valueOf(key));
+    }
+    
+    /**
+     * Returns the value of a key of this node, wrapped in a JSONObject if it is not one,
+     * or null if the key has no value
+     */
+    private JSONObject valueOf(K key) {
         if (values != null && values.has(key.toString())) {
             Object valueObj = values.get(key.toString());
             if (valueObj != null && valueObj != JSONObject.NULL) {
                 if (valueObj instanceof JSONObject) {
-                    valuesList.add((JSONObject)valueObj);
+                    return (JSONObject)valueObj;
                 } else {
                     JSONObject wrapper = new JSONObject();
                     wrapper.put("value", valueObj);
-                    valuesList.add(wrapper);
+                    return wrapper;
                 }
-            } else {
-                valuesList.add(null);
             }
-        } else {
-            valuesList.add(null);
         }
+        return null;
     }
 
     /**
@@ -0,0 +1,45 @@
+package com.nhlstenden.booktopia.controller;
+
+import com.nhlstenden.booktopia.services.QueryResultCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@RestController
+@CrossOrigin(origins = "*") // For development
+@RequestMapping("/api/cache")
+public class CacheController {
+
+    @Autowired
+    private QueryResultCache queryResultCache;
+
+    /**
+     * Gets the metrics of the query result cache: hit rate, evictions, invalidations and memory use.
+     *
+     * @return The cache metrics
+     */
+    @GetMapping("/stats")
+    public ResponseEntity<?> getStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("stats", queryResultCache.getStats());
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Drops all cached query results.
+     *
+     * @return The cache metrics after clearing
+     */
+    @PostMapping("/clear")
+    public ResponseEntity<?> clear() {
+        queryResultCache.clear();
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("stats", queryResultCache.getStats());
+        return ResponseEntity.ok(response);
+    }
+}
@@ -1,15 +1,25 @@
 package com.nhlstenden.booktopia.controller;
 
 import com.nhlstenden.booktopia.services.DataService;
+import com.nhlstenden.booktopia.services.FanOutExecutor;
+import com.nhlstenden.booktopia.services.MutationBatch;
+import com.nhlstenden.booktopia.services.Projection;
+import com.nhlstenden.booktopia.services.SearchService;
+import com.nhlstenden.booktopia.services.SearchSessions;
+import com.nhlstenden.booktopia.services.SuggestionIndex;
 import com.nhlstenden.booktopia.services.TreeService;
 import org.json.JSONObject;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.HashMap;
 import java.util.List;
@@ -20,10 +30,17 @@ import java.util.Map;
 @RequestMapping("/api/data")
 public class DataController {
 
+    // Streamed searches that run longer than this are ended
+    private static final long SEARCH_STREAM_TIMEOUT_MS = 60_000;
+
     @Autowired
     private DataService dataService;
     @Autowired
     private TreeService treeService;
+    @Autowired
+    private SearchSessions searchSessions;
+    @Autowired
+    private FanOutExecutor fanOutExecutor;
 
     /**
      * Adds a new data item to the current tree.
@@ -99,6 +116,43 @@ public class DataController {
         }
     }
     
+    /**
+     * Applies a JSON array of upserts and deletes to the current tree in one batch, e.g.
+     * [{"op": "upsert", "key": "42", "value": {...}}, {"op": "delete", "key": "43"}].
+     * The array is parsed as it streams in; nothing is applied if it is invalid.
+     * 
+     * @param body The request body
+     * @return The number of operations, applied writes and inserted, updated and deleted keys
+     */
+    @PostMapping("/batch")
+    public ResponseEntity<?> applyBatch(InputStream body) {
+        long startTime = System.currentTimeMillis();
+        
+        try {
+            MutationBatch<String, JSONObject> batch = MutationBatch.read(body);
+            MutationBatch.Result result = dataService.applyBatch(batch);
+            
+            long endTime = System.currentTimeMillis();
+            
+            Map<String, Object> response = new HashMap<>(result.toMap());
+            response.put("success", true);
+            response.put("operations", batch.getOperations());
+            response.put("applied", batch.size());
+            response.put("processingTimeMs", endTime - startTime);
+            
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            long endTime = System.currentTimeMillis();
+            
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("error", e.getMessage());
+            response.put("processingTimeMs", endTime - startTime);
+            
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+    
     /**
      * Imports data from a CSV file into the current tree.
      * 
@@ -179,19 +233,125 @@ public class DataController {
         }
     }
     
+    /**
+     * Gets the schema of the stored records: the columns with their inferred type,
+     * null count and estimated number of distinct values.
+     * 
+     * @param request The request, for conditional GETs with If-None-Match
+     * @return The columns, or 304 Not Modified if the data has not changed
+     */
+    @GetMapping("/schema")
+    public ResponseEntity<?> getSchema(WebRequest request) {
+        if (request.checkNotModified(ETags.of(dataService.getVersion(), request))) {
+            return null;
+        }
+        
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("columns", dataService.getSchema());
+        return ResponseEntity.ok(response);
+    }
+    
+    /**
+     * Gets the records of a key range in key order, for example all keys from "A" up to "B".
+     * 
+     * @param from The smallest key to return (optional, from the first key when omitted)
+     * @param to The key to stop before (optional, up to the last key when omitted)
+     * @param limit The maximum number of records to return (optional, 100 by default); pass the
+     *              returned "next" key as from to get the following records
+     * @param fields The fields to return for each record, e.g. title,authors (optional, all fields when omitted)
+     * @param request The request, for conditional GETs with If-None-Match
+     * @return The records, or 304 Not Modified if the data has not changed
+     */
+    @GetMapping("/range")
+    public ResponseEntity<?> getRange(@RequestParam(required = false) String from,
+                                      @RequestParam(required = false) String to,
+                                      @RequestParam(required = false, defaultValue = "100") int limit,
+                                      @RequestParam(required = false) String fields,
+                                      WebRequest request) {
+        long startTime = System.currentTimeMillis();
+        
+        if (request.checkNotModified(ETags.of(dataService.getVersion(), request))) {
+            return null;
+        }
+        
+        try {
+            Map<String, Object> rangeResult = dataService.getRange(from, to, limit, Projection.parse(fields));
+            
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("results", rangeResult.get("results"));
+            response.put("next", rangeResult.get("next"));
+            response.put("treeType", dataService.getCurrentTreeType());
+            response.put("processingTimeMs", rangeResult.get("processingTimeMs"));
+            
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            long endTime = System.currentTimeMillis();
+            
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("error", e.getMessage());
+            response.put("processingTimeMs", endTime - startTime);
+            
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+    
+    /**
+     * Gets the metrics of the key filter that answers exact key lookups of absent keys during a
+     * search without the tree: lookups, negatives, false positives and the false positive rate.
+     * 
+     * @return The key filter metrics
+     */
+    @GetMapping("/key-filter")
+    public ResponseEntity<?> getKeyFilterStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("stats", dataService.getKeyFilterStats());
+        return ResponseEntity.ok(response);
+    }
+    
     /**
      * Searches for data in the current tree.
      * 
      * @param query The search query
-     * @return The search results
+     * @param fields The fields to return for each result, e.g. title,authors (optional, all fields when omitted)
+     * @param fuzzy True to tolerate typos: match words within a few edits of the query words (optional, false by default)
+     * @param maxDistance The number of edits allowed per query word in a fuzzy search (optional, depends on the word length)
+     * @param ranked True to rank the results by relevance (BM25) and return only the best ones (optional, false by default)
+     * @param limit The maximum number of results of a fuzzy or ranked search (optional, 50 by default)
+     * @param request The request, for conditional GETs with If-None-Match
+     * @return The search results, or 304 Not Modified if the data has not changed
      */
     @GetMapping("/search")
-    public ResponseEntity<?> searchData(@RequestParam String query) {
+    public ResponseEntity<?> searchData(@RequestParam String query,
+                                        @RequestParam(required = false) String fields,
+                                        @RequestParam(required = false, defaultValue = "false") boolean fuzzy,
+                                        @RequestParam(required = false) Integer maxDistance,
+                                        @RequestParam(required = false, defaultValue = "false") boolean ranked,
+                                        @RequestParam(required = false, defaultValue = "50") int limit,
+                                        WebRequest request) {
         long startTime = System.currentTimeMillis();
         
+        // Answer with 304 Not Modified when the client already has this version of the response
+        if (request.checkNotModified(ETags.of(dataService.getVersion(), request))) {
+            return null;
+        }
+        
         try {
             // Search for the query
-            Map<String, Object> searchResult = dataService.searchData(query);
+            if (fuzzy && ranked) {
+                throw new IllegalArgumentException("A search is either fuzzy or ranked");
+            }
+            Map<String, Object> searchResult;
+            if (fuzzy) {
+                searchResult = dataService.fuzzySearch(query, maxDistance, limit, Projection.parse(fields));
+            } else if (ranked) {
+                searchResult = dataService.rankedSearch(query, limit, Projection.parse(fields));
+            } else {
+                searchResult = dataService.searchData(query, Projection.parse(fields));
+            }
             
             long endTime = System.currentTimeMillis();
             
@@ -205,6 +365,12 @@ public class DataController {
             response.put("found", results != null && !results.isEmpty());
             response.put("searchMethod", searchMethod);
             response.put("processingTimeMs", searchResult.get("processingTimeMs"));
+            if (fuzzy || ranked) {
+                response.put("total", searchResult.get("total"));
+            }
+            if (fuzzy) {
+                response.put("expansions", searchResult.get("expansions"));
+            }
             
             return ResponseEntity.ok(response);
         } catch (Exception e) {
@@ -219,6 +385,130 @@ public class DataController {
         }
     }
     
+    /**
+     * Streams the results of a search as Server-Sent Events while the search runs, for search as
+     * you type. The search runs in the background on the {@link FanOutExecutor} (a virtual thread
+     * when spring.threads.virtual.enabled is set) and sends these events:
+     * "exact" with the record whose key equals the query (first, if there is one), "matches" with
+     * a batch of partial matches in key order, and "done" with the number of matches. A newer search
+     * with the same clientId supersedes this one: its scan stops and the stream ends with a
+     * "cancelled" event. Invalid parameters end the stream with an "error" event.
+     * 
+     * @param query The search query
+     * @param clientId Identifies the client, e.g. a random id per browser tab (optional; without it
+     *                 searches are only cancelled when the client disconnects)
+     * @param fields The fields to return for each result, e.g. title,authors (optional, all fields when omitted)
+     * @param batchSize The maximum number of partial matches per event
+     * @return The event stream
+     */
+    @GetMapping(value = "/search/stream", produces = "text/event-stream")
+    public SseEmitter streamSearch(@RequestParam String query,
+                                   @RequestParam(required = false) String clientId,
+                                   @RequestParam(required = false) String fields,
+                                   @RequestParam(required = false, defaultValue = "100") int batchSize) {
+        SseEmitter emitter = new SseEmitter(SEARCH_STREAM_TIMEOUT_MS);
+        SearchSessions.Session session = searchSessions.start(clientId);
+        
+        // Stop scanning when the client goes away
+        emitter.onCompletion(session::cancel);
+        emitter.onTimeout(session::cancel);
+        emitter.onError(e -> session.cancel());
+        
+        fanOutExecutor.execute(() -> {
+            long startTime = System.currentTimeMillis();
+            try {
+                if (batchSize < 1) {
+                    throw new IllegalArgumentException("batchSize must be at least 1");
+                }
+                int count = dataService.streamSearch(query, Projection.parse(fields), batchSize, session::isCancelled,
+                        new SearchService.MatchSink() {
+                            @Override
+                            public void exactMatch(Map<String, Object> match) throws IOException {
+                                emitter.send(SseEmitter.event().name("exact").data(match));
+                            }
+                            
+                            @Override
+                            public void matches(List<Map<String, Object>> batch) throws IOException {
+                                emitter.send(SseEmitter.event().name("matches").data(batch));
+                            }
+                        });
+                
+                long endTime = System.currentTimeMillis();
+                
+                Map<String, Object> response = new HashMap<>();
+                if (count < 0) {
+                    if (session.isSuperseded()) {
+                        response.put("reason", "superseded");
+                        emitter.send(SseEmitter.event().name("cancelled").data(response));
+                    }
+                } else {
+                    response.put("success", true);
+                    response.put("count", count);
+                    response.put("processingTimeMs", endTime - startTime);
+                    emitter.send(SseEmitter.event().name("done").data(response));
+                }
+                emitter.complete();
+            } catch (IllegalArgumentException e) {
+                long endTime = System.currentTimeMillis();
+                
+                Map<String, Object> response = new HashMap<>();
+                response.put("success", false);
+                response.put("error", e.getMessage());
+                response.put("processingTimeMs", endTime - startTime);
+                try {
+                    emitter.send(SseEmitter.event().name("error").data(response));
+                    emitter.complete();
+                } catch (Exception sendFailed) {
+                    emitter.completeWithError(sendFailed);
+                }
+            } catch (Exception e) {
+                // Usually the client disconnected while results were sent
+                emitter.completeWithError(e);
+            } finally {
+                searchSessions.finish(session);
+            }
+        });
+        return emitter;
+    }
+    
+    /**
+     * Suggests keys, titles and names that start with a prefix, for typeahead. The suggestions come
+     * from an in-memory prefix index that is kept up to date on every change, so no records are scanned.
+     * 
+     * @param prefix The typed prefix (case-insensitive)
+     * @param k The maximum number of suggestions (1 to 20)
+     * @return The suggestions, most popular (most records) first
+     */
+    @GetMapping("/suggest")
+    public ResponseEntity<?> suggest(@RequestParam(required = false, defaultValue = "") String prefix,
+                                     @RequestParam(required = false, defaultValue = "10") int k) {
+        long startTime = System.nanoTime();
+        
+        try {
+            List<SuggestionIndex.Suggestion> suggestions = dataService.suggest(prefix, k);
+            
+            long endTime = System.nanoTime();
+            
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("prefix", prefix);
+            response.put("suggestions", suggestions);
+            response.put("processingTimeMs", (endTime - startTime) / 1_000_000);
+            response.put("processingTimeUs", (endTime - startTime) / 1_000);
+            
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            long endTime = System.nanoTime();
+            
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("error", e.getMessage());
+            response.put("processingTimeMs", (endTime - startTime) / 1_000_000);
+            
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+    
     /**
      * Gets all data sorted by a property.
      * 
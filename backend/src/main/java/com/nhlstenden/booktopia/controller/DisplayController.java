@@ -1,12 +1,17 @@
 package com.nhlstenden.booktopia.controller;
 
 import com.nhlstenden.booktopia.services.DataService;
+import com.nhlstenden.booktopia.services.JsonRowWriter;
+import com.nhlstenden.booktopia.services.Projection;
+import com.nhlstenden.booktopia.sorting.Page;
+import com.nhlstenden.booktopia.sorting.PageRequest;
+import com.nhlstenden.booktopia.sorting.SortOrder;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 @RestController
@@ -22,18 +27,50 @@ public class DisplayController {
      * 
      * @param sortBy The property to sort by (optional)
      * @param sortDirection The sort direction (ASC or DESC)
-     * @return The table display data
+     * @param sort Several properties to sort by in one pass, e.g. authors:asc,average_rating:desc
+     *             (optional, replaces sortBy and sortDirection)
+     * @param limit The maximum number of rows to return (optional, all rows when omitted)
+     * @param offset The number of rows to skip
+     * @param after The key of the last row of the previous page, for keyset pagination (optional)
+     * @param fields The columns to return besides the key, e.g. title,authors,average_rating
+     *               (optional, all columns when omitted)
+     * @param format json for a regular response, stream for a streamed JSON array of the rows or
+     *               ndjson for one row per line (optional, defaults to json)
+     * @param request The request, for conditional GETs with If-None-Match
+     * @return The table display data, or 304 Not Modified if the data has not changed
      */
     @GetMapping("/table")
     public ResponseEntity<?> getTableData(
             @RequestParam(required = false) String sortBy,
-            @RequestParam(required = false, defaultValue = "ASC") String sortDirection) {
+            @RequestParam(required = false, defaultValue = "ASC") String sortDirection,
+            @RequestParam(required = false) String sort,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false, defaultValue = "0") int offset,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) String fields,
+            @RequestParam(required = false, defaultValue = "json") String format,
+            WebRequest request) {
         
         long startTime = System.currentTimeMillis();
         
+        // Answer with 304 Not Modified when the client already has this version of the response
+        if (request.checkNotModified(ETags.of(dataService.getVersion(), request))) {
+            return null;
+        }
+        
         try {
+            Projection projection = Projection.parse(fields);
+            JsonRowWriter.Format streamFormat = JsonRowWriter.parseFormat(format);
+            if (streamFormat != null) {
+                // Write the rows straight to the response instead of building the table first
+                SortOrder order = toSortOrder(sortBy, sortDirection, sort);
+                PageRequest page = new PageRequest(limit, offset, after);
+                return StreamingResponses.stream(streamFormat, writer -> dataService.writeTableRows(order, page, projection, writer));
+            }
+            
             // Get data for table display
-            Map<String, Object> tableData = dataService.getTableDisplayData(sortBy, sortDirection);
+            Map<String, Object> tableData = dataService.getTableDisplayData(
+                    toSortOrder(sortBy, sortDirection, sort), new PageRequest(limit, offset, after), projection);
             
             long endTime = System.currentTimeMillis();
             
@@ -60,24 +97,57 @@ public class DisplayController {
      * 
      * @param sortBy The property to sort by (optional)
      * @param sortDirection The sort direction (ASC or DESC)
-     * @return The datacard display data
+     * @param sort Several properties to sort by in one pass, e.g. authors:asc,average_rating:desc
+     *             (optional, replaces sortBy and sortDirection)
+     * @param limit The maximum number of cards to return (optional, all cards when omitted)
+     * @param offset The number of cards to skip
+     * @param after The key of the last card of the previous page, for keyset pagination (optional)
+     * @param fields The values to return on each card, e.g. authors,average_rating
+     *               (optional, all values when omitted)
+     * @param format json for a regular response, stream for a streamed JSON array of the cards or
+     *               ndjson for one card per line (optional, defaults to json)
+     * @param request The request, for conditional GETs with If-None-Match
+     * @return The datacard display data, or 304 Not Modified if the data has not changed
      */
     @GetMapping("/cards")
     public ResponseEntity<?> getDataCardData(
             @RequestParam(required = false) String sortBy,
-            @RequestParam(required = false, defaultValue = "ASC") String sortDirection) {
+            @RequestParam(required = false, defaultValue = "ASC") String sortDirection,
+            @RequestParam(required = false) String sort,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false, defaultValue = "0") int offset,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) String fields,
+            @RequestParam(required = false, defaultValue = "json") String format,
+            WebRequest request) {
         
         long startTime = System.currentTimeMillis();
         
+        // Answer with 304 Not Modified when the client already has this version of the response
+        if (request.checkNotModified(ETags.of(dataService.getVersion(), request))) {
+            return null;
+        }
+        
         try {
+            Projection projection = Projection.parse(fields);
+            JsonRowWriter.Format streamFormat = JsonRowWriter.parseFormat(format);
+            if (streamFormat != null) {
+                // Write the cards straight to the response instead of building them first
+                SortOrder order = toSortOrder(sortBy, sortDirection, sort);
+                PageRequest page = new PageRequest(limit, offset, after);
+                return StreamingResponses.stream(streamFormat, writer -> dataService.writeDataCards(order, page, projection, writer));
+            }
+            
             // Get data for datacard display
-            List<Map<String, Object>> cardData = dataService.getDataCardDisplayData(sortBy, sortDirection);
+            Page<Map<String, Object>> cardData = dataService.getDataCardDisplayData(
+                    toSortOrder(sortBy, sortDirection, sort), new PageRequest(limit, offset, after), projection);
             
             long endTime = System.currentTimeMillis();
             
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
-            response.put("data", cardData);
+            response.put("data", cardData.getItems());
+            cardData.addPagingInfo(response);
             response.put("processingTimeMs", endTime - startTime);
             
             return ResponseEntity.ok(response);
@@ -92,4 +162,12 @@ public class DisplayController {
             return ResponseEntity.badRequest().body(response);
         }
     }
-}
\ No newline at end of file
+
+    // Parses the sort parameters; the sort parameter wins over sortBy and sortDirection
+    private SortOrder toSortOrder(String sortBy, String sortDirection, String sort) {
+        if (sort != null) {
+            return SortOrder.parse(sort);
+        }
+        return sortBy != null && !sortBy.isEmpty() ? SortOrder.of(sortBy, sortDirection) : null;
+    }
+}
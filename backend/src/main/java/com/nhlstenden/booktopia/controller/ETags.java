@@ -0,0 +1,39 @@
+package com.nhlstenden.booktopia.controller;
+
+import org.springframework.web.context.request.WebRequest;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Builds ETags for read endpoints from the mutation version of the data and the query parameters.
+ * As long as nothing has been inserted, deleted, imported or converted, the same request gets the
+ * same ETag, so a client that sends it back in If-None-Match is answered with 304 Not Modified
+ * without reading or serializing any rows.
+ *
+ * The tags are weak, because responses with the same data can still differ in their bytes
+ * (processingTimeMs, map order). They include the start time of the server, so tags handed out
+ * before a restart never match the reloaded data.
+ */
+final class ETags {
+
+    private static final String EPOCH = Long.toString(System.currentTimeMillis(), 36);
+
+    private ETags() {
+    }
+
+    /**
+     * Builds the ETag of a read request.
+     *
+     * @param version The mutation version of the data
+     * @param request The request, whose query parameters select the response
+     * @return The weak ETag
+     */
+    static String of(long version, WebRequest request) {
+        StringBuilder parameters = new StringBuilder();
+        for (Map.Entry<String, String[]> parameter : new TreeMap<>(request.getParameterMap()).entrySet()) {
+            parameters.append(parameter.getKey()).append('=').append(String.join(",", parameter.getValue())).append('&');
+        }
+        return "W/\"" + EPOCH + "-" + version + "-" + Integer.toHexString(parameters.toString().hashCode()) + "\"";
+    }
+}
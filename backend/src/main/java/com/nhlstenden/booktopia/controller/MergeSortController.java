@@ -1,10 +1,19 @@
 package com.nhlstenden.booktopia.controller;
 
+import com.nhlstenden.booktopia.services.JsonRowWriter;
+import com.nhlstenden.booktopia.services.Projection;
+import com.nhlstenden.booktopia.services.TreeService;
 import com.nhlstenden.booktopia.sorting.MergeSort;
+import com.nhlstenden.booktopia.sorting.Page;
+import com.nhlstenden.booktopia.sorting.PageRequest;
+import com.nhlstenden.booktopia.sorting.SortOrder;
 import org.json.JSONObject;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.*;
 
@@ -16,8 +25,12 @@ public class MergeSortController {
     @Autowired
     private MergeSort<String, JSONObject> mergeSortService;
 
+    @Autowired
+    private TreeService<String, JSONObject> treeService;
+
     /**
-     * GET endpoint to return all keys sorted using merge sort.
+     * GET endpoint to return all keys sorted by key. The tree traversal already delivers the keys
+     * in ascending order, so no merge sort is run.
      */
     @GetMapping("/keys")
     public ResponseEntity<?> mergeSortKeys() {
@@ -33,7 +46,8 @@ public class MergeSortController {
     }
 
     /**
-     * GET endpoint to return keys with their corresponding values sorted by key using merge sort.
+     * GET endpoint to return keys with their corresponding values sorted by key. The tree traversal
+     * already delivers them in ascending key order, so no merge sort is run.
      */
     @GetMapping("/keysWithValues")
     public ResponseEntity<?> mergeSortKeysWithValues() {
@@ -56,25 +70,103 @@ public class MergeSortController {
      *
      * @param property the property to sort by; default is "key"
      * @param direction sort direction ("ASC" or "DESC"); default is "ASC"
+     * @param sort several properties to sort by in one pass, e.g. authors:asc,average_rating:desc,title:asc;
+     *             replaces property and direction. With more than one property the rows are merge sorted
+     *             with a composite comparator and useIndex is ignored
+     * @param useIndex serve the rows from the maintained sort index instead of running merge sort; default is true
+     * @param algorithm "sequential" or "parallel" (fork/join) merge sort when useIndex is false; default is "sequential".
+     *                  "external" streams the rows as a JSON array through the external merge sort, which spills
+     *                  sorted runs to disk and does not need the sorted result in memory (useIndex is ignored)
+     * @param limit maximum number of rows to return; all rows when omitted
+     * @param offset number of rows to skip; default is 0
+     * @param after key of the last row of the previous page, for keyset pagination
+     * @param fields properties to return besides the key, e.g. title,authors; all properties when omitted
+     * @param format "json" (default), "stream" for a streamed JSON array of the rows or "ndjson" for one row
+     *               per line; streamed rows have no envelope and the paging information is sent in headers
+     * @param request the request; answered with 304 Not Modified when its If-None-Match matches the data version
      */
     @GetMapping("/sortByProperty")
     public ResponseEntity<?> mergeSortByProperty(
             @RequestParam(required = false, defaultValue = "key") String property,
-            @RequestParam(required = false, defaultValue = "ASC") String direction) {
+            @RequestParam(required = false, defaultValue = "ASC") String direction,
+            @RequestParam(required = false) String sort,
+            @RequestParam(required = false, defaultValue = "true") boolean useIndex,
+            @RequestParam(required = false, defaultValue = "sequential") String algorithm,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false, defaultValue = "0") int offset,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) String fields,
+            @RequestParam(required = false, defaultValue = "json") String format,
+            WebRequest request) {
         long startTime = System.currentTimeMillis();
+        // Answer with 304 Not Modified when the client already has this version of the response
+        if (request.checkNotModified(ETags.of(treeService.getVersion(), request))) {
+            return null;
+        }
         try {
-            boolean ascending = !"DESC".equalsIgnoreCase(direction);
-            List<Map<String, Object>> sortedData = mergeSortService.sortByProperty(property, ascending);
+            SortOrder order = sort != null ? SortOrder.parse(sort) : SortOrder.of(property, direction);
+            Projection projection = Projection.parse(fields);
+            JsonRowWriter.Format streamFormat = JsonRowWriter.parseFormat(format);
+            String sortProperty = order.first().getProperty();
+            boolean ascending = order.first().isAscending();
+            PageRequest page = new PageRequest(limit, offset, after);
+            if ("external".equalsIgnoreCase(algorithm)) {
+                // Validate before streaming starts; errors after that cannot change the status any more
+                if (!order.isSingle()) {
+                    throw new IllegalArgumentException("The external sort supports a single sort property");
+                }
+                if (after != null) {
+                    throw new IllegalArgumentException("The external sort does not support keyset cursors; use offset and limit");
+                }
+                if (streamFormat == JsonRowWriter.Format.NDJSON) {
+                    throw new IllegalArgumentException("The external sort streams a JSON array; use format=stream");
+                }
+                StreamingResponseBody body = out -> mergeSortService.externalSortByProperty(sortProperty, ascending, page, out);
+                return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+            }
+            boolean parallel = isParallel(algorithm);
+            boolean indexed = useIndex && order.isSingle();
+            Page<Map<String, Object>> sortedData;
+            if (!order.isSingle()) {
+                sortedData = mergeSortService.mergeSortBy(order, page, parallel, projection);
+            } else if (indexed) {
+                sortedData = mergeSortService.sortByProperty(sortProperty, ascending, page, projection);
+            } else {
+                sortedData = mergeSortService.mergeSortByProperty(sortProperty, ascending, page, parallel, projection);
+            }
+            if (streamFormat != null) {
+                Page<Map<String, Object>> rows = sortedData;
+                return StreamingResponses.stream(streamFormat, rows, writer -> {
+                    for (Map<String, Object> row : rows.getItems()) {
+                        writer.writeRow(row);
+                    }
+                });
+            }
             long endTime = System.currentTimeMillis();
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
-            response.put("data", sortedData);
-            response.put("property", property);
-            response.put("direction", direction);
+            response.put("data", sortedData.getItems());
+            sortedData.addPagingInfo(response);
+            response.put("property", sortProperty);
+            response.put("direction", ascending ? "ASC" : "DESC");
+            response.put("sort", order.toString());
+            response.put("indexed", indexed);
+            response.put("algorithm", indexed ? "index" : algorithm);
             response.put("processingTimeMs", endTime - startTime);
             return ResponseEntity.ok(response);
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(e.getMessage());
         }
     }
+
+    // Parses the algorithm request parameter
+    private boolean isParallel(String algorithm) {
+        if ("parallel".equalsIgnoreCase(algorithm)) {
+            return true;
+        }
+        if ("sequential".equalsIgnoreCase(algorithm)) {
+            return false;
+        }
+        throw new IllegalArgumentException("Unknown algorithm: " + algorithm + " (expected sequential, parallel or external)");
+    }
 }
@@ -1,10 +1,24 @@
 package com.nhlstenden.booktopia.controller;
 
+import com.nhlstenden.booktopia.services.JsonRowWriter;
+import com.nhlstenden.booktopia.services.Projection;
+import com.nhlstenden.booktopia.services.QueryResultCache;
+import com.nhlstenden.booktopia.services.TreeService;
+import com.nhlstenden.booktopia.sorting.AdaptiveSort;
 import com.nhlstenden.booktopia.sorting.HeapSort;
+import com.nhlstenden.booktopia.sorting.MergeSort;
+import com.nhlstenden.booktopia.sorting.Page;
+import com.nhlstenden.booktopia.sorting.PageRequest;
+import com.nhlstenden.booktopia.sorting.SortIndexService;
+import com.nhlstenden.booktopia.sorting.SortOrder;
+import com.nhlstenden.booktopia.sorting.RadixSort;
 import org.json.JSONObject;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.HashMap;
 import java.util.List;
@@ -17,17 +31,41 @@ public class SortingController {
 
     @Autowired
     private HeapSort<String, JSONObject> heapSort;
+
+    @Autowired
+    private MergeSort<String, JSONObject> mergeSort;
+
+    @Autowired
+    private RadixSort<String, JSONObject> radixSort;
+
+    @Autowired
+    private AdaptiveSort<String, JSONObject> adaptiveSort;
+
+    @Autowired
+    private SortIndexService<String, JSONObject> sortIndexService;
+
+    @Autowired
+    private TreeService<String, JSONObject> treeService;
+
+    @Autowired
+    private QueryResultCache queryResultCache;
     
     /**
      * Gets all available properties that can be used for sorting.
      * Uses heap sort algorithm for sorting the properties.
      * 
-     * @return A list of property names that can be used for sorting
+     * @param request The request, for conditional GETs with If-None-Match
+     * @return A list of property names that can be used for sorting, or 304 Not Modified if the data has not changed
      */
     @GetMapping("/sortable-properties")
-    public ResponseEntity<?> getSortableProperties() {
+    public ResponseEntity<?> getSortableProperties(WebRequest request) {
         long startTime = System.currentTimeMillis();
         
+        // Answer with 304 Not Modified when the client already has this version of the response
+        if (request.checkNotModified(ETags.of(treeService.getVersion(), request))) {
+            return null;
+        }
+        
         try {
             // Use HeapSort for sortable properties
             List<String> properties = heapSort.getSortableProperties();
@@ -57,26 +95,112 @@ public class SortingController {
      * 
      * @param property The property to sort by
      * @param direction The sort direction (ASC or DESC)
-     * @return A list of data items sorted by the specified property
+     * @param sort Several properties to sort by in one pass, e.g. authors:asc,average_rating:desc,title:asc
+     *             (optional, replaces property and direction; with more than one property the heap or merge
+     *             algorithm is used with a composite comparator and useIndex is ignored)
+     * @param useIndex Whether to serve the rows from the maintained sort index instead of running a sort
+     * @param algorithm The sort to run when useIndex is false: "heap" (default), "merge", "radix"
+     *                  (multikey quicksort on the characters of text properties), or "auto" to let the
+     *                  dispatcher pick one from the column statistics; the response reports its choice
+     * @param arity The number of children per heap node when running heap sort (2 or 4, default 4)
+     * @param external Whether to stream the rows as a JSON array through the external sort, which spills
+     *                 heap sorted runs to disk instead of holding the sorted result in memory (useIndex is ignored)
+     * @param limit The maximum number of rows to return (optional, all rows when omitted)
+     * @param offset The number of rows to skip
+     * @param after The key of the last row of the previous page, for keyset pagination (optional)
+     * @param fields Properties to return besides the key, e.g. title,authors; all properties when omitted
+     * @param format json for a regular response, stream for a streamed JSON array of the rows or ndjson
+     *               for one row per line (optional, defaults to json); the paging information is sent in
+     *               the X-Total-Count and X-Next-After headers
+     * @param request The request, for conditional GETs with If-None-Match
+     * @return A list of data items sorted by the specified property, or 304 Not Modified if the data has not changed
      */
     @GetMapping("/sort-by-property")
     public ResponseEntity<?> sortByProperty(
             @RequestParam(required = false, defaultValue = "key") String property,
-            @RequestParam(required = false, defaultValue = "ASC") String direction) {
+            @RequestParam(required = false, defaultValue = "ASC") String direction,
+            @RequestParam(required = false) String sort,
+            @RequestParam(required = false, defaultValue = "true") boolean useIndex,
+            @RequestParam(required = false, defaultValue = "heap") String algorithm,
+            @RequestParam(required = false, defaultValue = "4") int arity,
+            @RequestParam(required = false, defaultValue = "false") boolean external,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false, defaultValue = "0") int offset,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) String fields,
+            @RequestParam(required = false, defaultValue = "json") String format,
+            WebRequest request) {
         
         long startTime = System.currentTimeMillis();
         
+        // Answer with 304 Not Modified when the client already has this version of the response
+        if (request.checkNotModified(ETags.of(treeService.getVersion(), request))) {
+            return null;
+        }
+        
         try {
-            boolean ascending = !"DESC".equalsIgnoreCase(direction);
-            List<Map<String, Object>> sortedData = heapSort.sortByProperty(property, ascending);
+            SortOrder order = sort != null ? SortOrder.parse(sort) : SortOrder.of(property, direction);
+            Projection projection = Projection.parse(fields);
+            JsonRowWriter.Format streamFormat = JsonRowWriter.parseFormat(format);
+            String sortProperty = order.first().getProperty();
+            boolean ascending = order.first().isAscending();
+            PageRequest page = new PageRequest(limit, offset, after);
+            if (external) {
+                // Validate before streaming starts; errors after that cannot change the status any more
+                if (!order.isSingle()) {
+                    throw new IllegalArgumentException("The external sort supports a single sort property");
+                }
+                if (after != null) {
+                    throw new IllegalArgumentException("The external sort does not support keyset cursors; use offset and limit");
+                }
+                if (arity < 2) {
+                    throw new IllegalArgumentException("Heap arity must be at least 2, got " + arity);
+                }
+                if (streamFormat == JsonRowWriter.Format.NDJSON) {
+                    throw new IllegalArgumentException("The external sort streams a JSON array; use format=stream");
+                }
+                StreamingResponseBody body = out -> heapSort.externalSortByProperty(sortProperty, ascending, page, arity, out);
+                return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+            }
+            boolean indexed = useIndex && order.isSingle();
+            if (streamFormat != null && indexed) {
+                // The index holds the rows in order already, so the records are written without building data items
+                Page<Map.Entry<String, JSONObject>> entries = sortIndexService.sortedPage(sortProperty, ascending, page);
+                return StreamingResponses.stream(streamFormat, entries, writer -> {
+                    for (Map.Entry<String, JSONObject> entry : entries.getItems()) {
+                        writer.writeItem(entry.getKey(), entry.getValue(), projection);
+                    }
+                });
+            }
+            
+            // Identical sort requests are served from the cache until the data changes
+            String query = "sort-by-property?sort=" + order + "&algorithm=" + (indexed ? "index" : algorithm.toLowerCase())
+                    + "&arity=" + arity + "&fields=" + projection + "&" + page;
+            AdaptiveSort.Result result = queryResultCache.get(query, () -> sort(order, indexed, algorithm, arity, page, projection),
+                    sorted -> QueryResultCache.estimateBytes(sorted.getPage()));
+            Page<Map<String, Object>> sortedData = result.getPage();
+            if (streamFormat != null) {
+                return StreamingResponses.stream(streamFormat, sortedData, writer -> {
+                    for (Map<String, Object> row : sortedData.getItems()) {
+                        writer.writeRow(row);
+                    }
+                });
+            }
             
             long endTime = System.currentTimeMillis();
             
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
-            response.put("data", sortedData);
-            response.put("property", property);
-            response.put("direction", direction);
+            response.put("data", sortedData.getItems());
+            sortedData.addPagingInfo(response);
+            response.put("property", sortProperty);
+            response.put("direction", ascending ? "ASC" : "DESC");
+            response.put("sort", order.toString());
+            response.put("indexed", indexed);
+            response.put("algorithm", result.getAlgorithm());
+            if (result.getReason() != null) {
+                response.put("reason", result.getReason());
+            }
             response.put("processingTimeMs", endTime - startTime);
             
             return ResponseEntity.ok(response);
@@ -92,8 +216,40 @@ public class SortingController {
         }
     }
     
+    // Sorts one page of rows with the requested algorithm; the result reports the algorithm that ran
+    private AdaptiveSort.Result sort(SortOrder order, boolean indexed, String algorithm, int arity, PageRequest page,
+                                     Projection projection) {
+        String sortProperty = order.first().getProperty();
+        boolean ascending = order.first().isAscending();
+        Page<Map<String, Object>> sortedData;
+        if (!order.isSingle()) {
+            // One pass over key tuples with a composite comparator
+            if ("heap".equalsIgnoreCase(algorithm)) {
+                sortedData = heapSort.heapSortBy(order, page, arity, projection);
+            } else if ("merge".equalsIgnoreCase(algorithm)) {
+                sortedData = mergeSort.mergeSortBy(order, page, false, projection);
+            } else {
+                throw new IllegalArgumentException("Sorting by several properties supports the heap and merge algorithms");
+            }
+        } else if (indexed) {
+            return new AdaptiveSort.Result(heapSort.sortByProperty(sortProperty, ascending, page, projection), "index", null);
+        } else if ("heap".equalsIgnoreCase(algorithm)) {
+            sortedData = heapSort.heapSortByProperty(sortProperty, ascending, page, arity, projection);
+        } else if ("merge".equalsIgnoreCase(algorithm)) {
+            sortedData = mergeSort.mergeSortByProperty(sortProperty, ascending, page, false, projection);
+        } else if ("radix".equalsIgnoreCase(algorithm)) {
+            sortedData = radixSort.radixSortByProperty(sortProperty, ascending, page, projection);
+        } else if ("auto".equalsIgnoreCase(algorithm)) {
+            return adaptiveSort.sortByProperty(sortProperty, ascending, page, projection);
+        } else {
+            throw new IllegalArgumentException("Unknown algorithm: " + algorithm + " (expected heap, merge, radix or auto)");
+        }
+        return new AdaptiveSort.Result(sortedData, algorithm.toLowerCase(), null);
+    }
+    
     /**
-     * Gets all keys from the current tree, sorted using heap sort algorithm.
+     * Gets all keys from the current tree in ascending order. The tree traversal already
+     * delivers them sorted, so no heap sort is run.
      * 
      * @return A list of sorted keys
      */
@@ -102,7 +258,7 @@ public class SortingController {
         long startTime = System.currentTimeMillis();
         
         try {
-            // Sort keys using heap sort
+            // Get the keys in tree order
             List<String> sortedKeys = heapSort.sortKeys();
             
             long endTime = System.currentTimeMillis();
@@ -0,0 +1,65 @@
+package com.nhlstenden.booktopia.controller;
+
+import com.nhlstenden.booktopia.services.JsonRowWriter;
+import com.nhlstenden.booktopia.sorting.Page;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+
+/**
+ * Builds streamed responses for the format=stream and format=ndjson request parameters.
+ * The rows are written to the response while they are produced, so the first row goes out
+ * before the last one is read and the response is never held in memory as a whole.
+ * A streamed response has no success/processingTimeMs envelope; paging information of a
+ * page that is known up front is sent in the X-Total-Count and X-Next-After headers.
+ */
+final class StreamingResponses {
+
+    private StreamingResponses() {
+    }
+
+    /**
+     * Writes the rows of a streamed response.
+     */
+    interface Rows {
+        void writeTo(JsonRowWriter writer) throws IOException;
+    }
+
+    /**
+     * Creates a streamed response.
+     *
+     * @param format The streaming format
+     * @param rows Writes the rows
+     * @return The response
+     */
+    static ResponseEntity<StreamingResponseBody> stream(JsonRowWriter.Format format, Rows rows) {
+        return stream(format, null, rows);
+    }
+
+    /**
+     * Creates a streamed response for a page that has already been selected.
+     *
+     * @param format The streaming format
+     * @param page The page, for the paging headers (optional)
+     * @param rows Writes the rows of the page
+     * @return The response
+     */
+    static ResponseEntity<StreamingResponseBody> stream(JsonRowWriter.Format format, Page<?> page, Rows rows) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(format.getMediaType()));
+        if (page != null) {
+            response.header("X-Total-Count", String.valueOf(page.getTotal()));
+            if (page.getNextAfter() != null) {
+                response.header("X-Next-After", page.getNextAfter());
+            }
+        }
+        StreamingResponseBody body = out -> {
+            try (JsonRowWriter writer = new JsonRowWriter(out, format)) {
+                rows.writeTo(writer);
+            }
+        };
+        return response.body(body);
+    }
+}
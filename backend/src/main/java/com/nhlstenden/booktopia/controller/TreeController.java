@@ -24,7 +24,7 @@ public class TreeController {
     /**
      * Converts the current tree to a different type.
      * 
-     * @param targetTree The target tree type (AVL, BST, or BTREE)
+     * @param targetTree The target tree type (AVL, BST, BTREE or BPLUSTREE)
      * @return Information about the conversion
      */
     @PostMapping("/convert")
@@ -42,6 +42,9 @@ public class TreeController {
                 case "BTREE":
                     treeConverterService.convertToBTree();
                     break;
+                case "BPLUSTREE":
+                    treeConverterService.convertToBPlusTree();
+                    break;
                 default:
                     throw new IllegalArgumentException("Unknown tree type: " + targetTree);
             }
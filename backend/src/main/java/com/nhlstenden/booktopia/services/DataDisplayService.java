@@ -1,8 +1,16 @@
 package com.nhlstenden.booktopia.services;
 
+import com.nhlstenden.booktopia.sorting.CompositeSortKeys;
+import com.nhlstenden.booktopia.sorting.Page;
+import com.nhlstenden.booktopia.sorting.PageRequest;
+import com.nhlstenden.booktopia.sorting.SortIndexService;
+import com.nhlstenden.booktopia.sorting.SortKeys;
+import com.nhlstenden.booktopia.sorting.SortOrder;
 import org.json.JSONObject;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
 
 /**
@@ -18,43 +26,31 @@ public class DataDisplayService<K extends Comparable<K>, V> {
     @Autowired
     private TreeService<K, V> treeService;
     
+    @Autowired
+    private SortIndexService<K, V> sortIndexService;
+    
+    @Autowired
+    private SchemaRegistry<K, V> schemaRegistry;
+    
     /**
      * Gets all available properties that can be used for sorting.
-     * This extracts property names from the first few values in the current data structure.
+     * The column names come from the schema registry, which is kept up to date on every
+     * mutation, so no records have to be read.
      * 
      * @return A list of property names that can be used for sorting
      */
     public List<String> getSortableProperties() {
         long startTime = System.currentTimeMillis();
         
-        List<V> values = treeService.getAllValues();
-        
-        // Use a set to avoid duplicate property names
-        Set<String> propertyNames = new HashSet<>();
-        
-        // Always include "key" as a sortable property
-        propertyNames.add("key");
-        
-        // Extract property names from the first few values (up to 10)
-        int count = 0;
-        for (V value : values) {
-            if (value != null) {
-                if (value instanceof JSONObject) {
-                    JSONObject jsonObject = (JSONObject) value;
-                    for (String key : jsonObject.keySet()) {
-                        propertyNames.add(key);
-                    }
-                }
-                
-                // Limit to checking 10 values to avoid performance issues with large datasets
-                if (++count >= 10) {
-                    break;
-                }
+        // Always include "key" as a sortable property, before the columns in alphabetical order
+        List<String> columnNames = schemaRegistry.getColumnNames();
+        List<String> sortedProperties = new ArrayList<>(columnNames.size() + 1);
+        sortedProperties.add("key");
+        for (String column : columnNames) {
+            if (!column.equals("key")) {
+                sortedProperties.add(column);
             }
         }
-        
-        // Convert to list and sort alphabetically
-        List<String> sortedProperties = new ArrayList<>(propertyNames);
         Collections.sort(sortedProperties);
         
         long endTime = System.currentTimeMillis();
@@ -80,80 +76,65 @@ public class DataDisplayService<K extends Comparable<K>, V> {
      * @return A list of maps containing data formatted for table display
      */
     public List<Map<String, Object>> getTableDisplayData(String sortBy, String sortDirection) {
-        long startTime = System.currentTimeMillis();
-        
-        Map<String, Object> tableData = new HashMap<>();
-        
-        // Get all keys and values
-        List<K> keys = treeService.getAllKeys();
-        List<V> values = treeService.getAllValues();
+        return getTableDisplayPage(sortBy, sortDirection, PageRequest.unpaged()).getItems();
+    }
+    
+    /**
+     * Gets one page of data formatted for display in a table on the frontend.
+     * 
+     * @param sortBy The property to sort by (optional)
+     * @param sortDirection The sort direction ("ASC" or "DESC")
+     * @param page The requested page (limit/offset or keyset cursor)
+     * @return The requested page of table rows
+     */
+    public Page<Map<String, Object>> getTableDisplayPage(String sortBy, String sortDirection, PageRequest page) {
+        return getTableDisplayPage(toSortOrder(sortBy, sortDirection), page);
+    }
+    
+    /**
+     * Gets one page of data formatted for display in a table, sorted by one or more properties.
+     * 
+     * @param order The properties to sort by (optional; key order when null)
+     * @param page The requested page (limit/offset or keyset cursor)
+     * @return The requested page of table rows
+     */
+    public Page<Map<String, Object>> getTableDisplayPage(SortOrder order, PageRequest page) {
+        return getTableDisplayPage(order, page, Projection.ALL);
+    }
+    
+    /**
+     * Gets one page of data formatted for display in a table, with only the requested columns.
+     * 
+     * @param order The properties to sort by (optional; key order when null)
+     * @param page The requested page (limit/offset or keyset cursor)
+     * @param projection The columns to include besides the key
+     * @return The requested page of table rows
+     */
+    public Page<Map<String, Object>> getTableDisplayPage(SortOrder order, PageRequest page, Projection projection) {
+        // Get the records, already in the requested order when an order is specified
+        Page<Map.Entry<K, V>> entryPage = getEntries(order, page);
+        List<Map.Entry<K, V>> entries = entryPage.getItems();
         
         // Create a list to hold all row data
-        List<Map<String, Object>> rows = new ArrayList<>();
-        
-        // Create a set to track all column names
-        Set<String> columnNames = new HashSet<>();
-        columnNames.add("key"); // Always include key as a column
+        List<Map<String, Object>> rows = new ArrayList<>(entries.size());
         
         // Combine keys and values into row data
-        for (int i = 0; i < keys.size(); i++) {
-            K key = keys.get(i);
-            V value = i < values.size() ? values.get(i) : null;
+        for (Map.Entry<K, V> entry : entries) {
+            K key = entry.getKey();
+            V value = entry.getValue();
             
             Map<String, Object> row = new HashMap<>();
             row.put("key", key);
             
-            if (value != null) {
-                if (value instanceof JSONObject) {
-                    JSONObject jsonObject = (JSONObject) value;
-                    for (String propName : jsonObject.keySet()) {
-                        Object propValue = jsonObject.get(propName);
-                        row.put(propName, propValue);
-                        columnNames.add(propName);
-                    }
-                }
+            if (value instanceof JSONObject) {
+                // Only the requested columns are read from the record
+                projection.copy((JSONObject) value, row);
             }
             
             rows.add(row);
         }
         
-        // Sort the rows if sortBy is specified
-        if (sortBy != null && !sortBy.isEmpty()) {
-            final String finalSortBy = sortBy;
-            final boolean ascending = !"DESC".equalsIgnoreCase(sortDirection);
-            
-            Collections.sort(rows, (row1, row2) -> {
-                Object val1 = row1.get(finalSortBy);
-                Object val2 = row2.get(finalSortBy);
-                
-                if (val1 == null && val2 == null) {
-                    return 0;
-                } else if (val1 == null) {
-                    return ascending ? -1 : 1;
-                } else if (val2 == null) {
-                    return ascending ? 1 : -1;
-                }
-                
-                int compareResult = val1.toString().compareTo(val2.toString());
-                return ascending ? compareResult : -compareResult;
-            });
-        }
-        
-        // Convert column names to a sorted list
-        List<String> columns = new ArrayList<>(columnNames);
-        Collections.sort(columns);
-        
-        // Move "key" to the first position
-        if (columns.remove("key")) {
-            columns.add(0, "key");
-        }
-        
-        // Build the result
-        tableData.put("columns", columns);
-        tableData.put("rows", rows);
-        tableData.put("processingTimeMs", System.currentTimeMillis() - startTime);
-        
-        return rows; // Return just the rows for compatibility
+        return new Page<>(rows, entryPage.getTotal(), page, entryPage.getNextAfter());
     }
     
     /**
@@ -174,19 +155,54 @@ public class DataDisplayService<K extends Comparable<K>, V> {
      * @return A list of datacards with title and values
      */
     public List<Map<String, Object>> getDataCardDisplayData(String sortBy, String sortDirection) {
+        return getDataCardDisplayPage(sortBy, sortDirection, PageRequest.unpaged()).getItems();
+    }
+    
+    /**
+     * Gets one page of data formatted for display in datacards on the frontend.
+     * 
+     * @param sortBy The property to sort by (optional)
+     * @param sortDirection The sort direction ("ASC" or "DESC")
+     * @param page The requested page (limit/offset or keyset cursor)
+     * @return The requested page of datacards
+     */
+    public Page<Map<String, Object>> getDataCardDisplayPage(String sortBy, String sortDirection, PageRequest page) {
+        return getDataCardDisplayPage(toSortOrder(sortBy, sortDirection), page);
+    }
+    
+    /**
+     * Gets one page of data formatted for display in datacards, sorted by one or more properties.
+     * 
+     * @param order The properties to sort by (optional; key order when null)
+     * @param page The requested page (limit/offset or keyset cursor)
+     * @return The requested page of datacards
+     */
+    public Page<Map<String, Object>> getDataCardDisplayPage(SortOrder order, PageRequest page) {
+        return getDataCardDisplayPage(order, page, Projection.ALL);
+    }
+    
+    /**
+     * Gets one page of data formatted for display in datacards, with only the requested values.
+     * 
+     * @param order The properties to sort by (optional; key order when null)
+     * @param page The requested page (limit/offset or keyset cursor)
+     * @param projection The properties to include in the card values
+     * @return The requested page of datacards
+     */
+    public Page<Map<String, Object>> getDataCardDisplayPage(SortOrder order, PageRequest page, Projection projection) {
         long startTime = System.currentTimeMillis();
         
-        // Get all keys and values
-        List<K> keys = treeService.getAllKeys();
-        List<V> values = treeService.getAllValues();
+        // Get the records, already in the requested order when an order is specified
+        Page<Map.Entry<K, V>> entryPage = getEntries(toCardOrder(order), page);
+        List<Map.Entry<K, V>> entries = entryPage.getItems();
         
         // Create a list to hold all datacard data
-        List<Map<String, Object>> datacards = new ArrayList<>();
+        List<Map<String, Object>> datacards = new ArrayList<>(entries.size());
         
         // Combine keys and values into datacard format
-        for (int i = 0; i < keys.size(); i++) {
-            K key = keys.get(i);
-            V value = i < values.size() ? values.get(i) : null;
+        for (Map.Entry<K, V> entry : entries) {
+            K key = entry.getKey();
+            V value = entry.getValue();
             
             Map<String, Object> datacard = new HashMap<>();
             datacard.put("title", key);
@@ -194,12 +210,9 @@ public class DataDisplayService<K extends Comparable<K>, V> {
             if (value != null) {
                 Map<String, Object> cardValues = new HashMap<>();
                 
-                // Add all fields from the value
+                // Add the requested fields from the value
                 if (value instanceof JSONObject) {
-                    JSONObject jsonObject = (JSONObject) value;
-                    for (String field : jsonObject.keySet()) {
-                        cardValues.put(field, jsonObject.get(field));
-                    }
+                    projection.copy((JSONObject) value, cardValues);
                 }
                 
                 datacard.put("values", cardValues);
@@ -208,59 +221,185 @@ public class DataDisplayService<K extends Comparable<K>, V> {
             datacards.add(datacard);
         }
         
-        // Sort the datacards if sortBy is specified
-        if (sortBy != null && !sortBy.isEmpty()) {
-            final String finalSortBy = sortBy;
-            final boolean ascending = !"DESC".equalsIgnoreCase(sortDirection);
-            
-            Collections.sort(datacards, (card1, card2) -> {
-                if (finalSortBy.equals("title")) {
-                    K title1 = (K) card1.get("title");
-                    K title2 = (K) card2.get("title");
-                    
-                    if (title1 == null && title2 == null) {
-                        return 0;
-                    } else if (title1 == null) {
-                        return ascending ? -1 : 1;
-                    } else if (title2 == null) {
-                        return ascending ? 1 : -1;
-                    }
-                    
-                    int compareResult = title1.toString().compareTo(title2.toString());
-                    return ascending ? compareResult : -compareResult;
-                } else {
-                    Map<String, Object> values1 = (Map<String, Object>) card1.get("values");
-                    Map<String, Object> values2 = (Map<String, Object>) card2.get("values");
-                    
-                    if (values1 == null && values2 == null) {
-                        return 0;
-                    } else if (values1 == null) {
-                        return ascending ? -1 : 1;
-                    } else if (values2 == null) {
-                        return ascending ? 1 : -1;
+        long endTime = System.currentTimeMillis();
+        System.out.println("getDataCardDisplayData processing time: " + (endTime - startTime) + "ms");
+        
+        return new Page<>(datacards, entryPage.getTotal(), page, entryPage.getNextAfter());
+    }
+    
+    /**
+     * Writes one page of table rows to a streamed response. The rows are written straight from
+     * the records, without building a map per row; records in key order are written while the
+     * tree is traversed, so nothing is collected at all, and the traversal stops after the page.
+     * 
+     * @param order The properties to sort by (optional; key order when null)
+     * @param page The requested page (limit/offset or keyset cursor)
+     * @param writer The writer to write the rows to
+     * @return The number of rows written
+     * @throws IOException If the output cannot be written
+     */
+    public int writeTableRows(SortOrder order, PageRequest page, JsonRowWriter writer) throws IOException {
+        return writeTableRows(order, page, Projection.ALL, writer);
+    }
+    
+    /**
+     * Writes one page of table rows with only the requested columns to a streamed response.
+     * 
+     * @param order The properties to sort by (optional; key order when null)
+     * @param page The requested page (limit/offset or keyset cursor)
+     * @param projection The columns to write besides the key
+     * @param writer The writer to write the rows to
+     * @return The number of rows written
+     * @throws IOException If the output cannot be written
+     */
+    public int writeTableRows(SortOrder order, PageRequest page, Projection projection, JsonRowWriter writer) throws IOException {
+        return writeEntries(order, page, (key, value) -> writer.writeItem(key, value, projection));
+    }
+    
+    /**
+     * Writes one page of datacards to a streamed response, like {@link #writeTableRows}.
+     * 
+     * @param order The properties to sort by (optional; key order when null)
+     * @param page The requested page (limit/offset or keyset cursor)
+     * @param writer The writer to write the cards to
+     * @return The number of cards written
+     * @throws IOException If the output cannot be written
+     */
+    public int writeDataCards(SortOrder order, PageRequest page, JsonRowWriter writer) throws IOException {
+        return writeDataCards(order, page, Projection.ALL, writer);
+    }
+    
+    /**
+     * Writes one page of datacards with only the requested values to a streamed response.
+     * 
+     * @param order The properties to sort by (optional; key order when null)
+     * @param page The requested page (limit/offset or keyset cursor)
+     * @param projection The properties to write in the card values
+     * @param writer The writer to write the cards to
+     * @return The number of cards written
+     * @throws IOException If the output cannot be written
+     */
+    public int writeDataCards(SortOrder order, PageRequest page, Projection projection, JsonRowWriter writer) throws IOException {
+        return writeEntries(toCardOrder(order), page, (key, value) -> writer.writeCard(key, value, projection));
+    }
+    
+    // Writes the records of the page in the requested order with the given row writer
+    private int writeEntries(SortOrder order, PageRequest page, RowWriter<K, V> rowWriter) throws IOException {
+        long startTime = System.currentTimeMillis();
+        int[] written = {0};
+        if (order == null && page.getAfter() == null) {
+            // Key order: write the records of the page while the tree is traversed, up to its end
+            int[] seen = {0};
+            int end = page.getRequiredRows();
+            try {
+                treeService.forEachInRange(null, null, (key, value) -> {
+                    int position = seen[0]++;
+                    if (position >= end) {
+                        return false;
                     }
-                    
-                    Object val1 = values1.get(finalSortBy);
-                    Object val2 = values2.get(finalSortBy);
-                    
-                    if (val1 == null && val2 == null) {
-                        return 0;
-                    } else if (val1 == null) {
-                        return ascending ? -1 : 1;
-                    } else if (val2 == null) {
-                        return ascending ? 1 : -1;
+                    if (position >= page.getOffset()) {
+                        try {
+                            rowWriter.write(key, value);
+                            written[0]++;
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
                     }
-                    
-                    int compareResult = val1.toString().compareTo(val2.toString());
-                    return ascending ? compareResult : -compareResult;
-                }
-            });
+                    return true;
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        } else {
+            for (Map.Entry<K, V> entry : getEntries(order, page).getItems()) {
+                rowWriter.write(entry.getKey(), entry.getValue());
+                written[0]++;
+            }
         }
         
         long endTime = System.currentTimeMillis();
-        System.out.println("getDataCardDisplayData processing time: " + (endTime - startTime) + "ms");
+        System.out.println("Streamed " + written[0] + " rows in " + (endTime - startTime) + "ms");
+        return written[0];
+    }
+    
+    /**
+     * Writes one record to a streamed response.
+     */
+    private interface RowWriter<K, V> {
+        void write(K key, V value) throws IOException;
+    }
+    
+    // The title of a card is its key, so sorting cards by "title" sorts them by key
+    private SortOrder toCardOrder(SortOrder order) {
+        if (order == null) {
+            return null;
+        }
+        List<SortOrder.Field> fields = new ArrayList<>();
+        for (SortOrder.Field field : order.getFields()) {
+            fields.add("title".equals(field.getProperty()) ? new SortOrder.Field("key", field.isAscending()) : field);
+        }
+        return new SortOrder(fields);
+    }
+    
+    // Builds the sort order for the sortBy and sortDirection parameters; null when sortBy is not given
+    private SortOrder toSortOrder(String sortBy, String sortDirection) {
+        return sortBy != null && !sortBy.isEmpty() ? SortOrder.of(sortBy, sortDirection) : null;
+    }
+    
+    /**
+     * Gets a page of records of the current tree. When a single sort property is given the
+     * records are returned by walking the maintained sort index for that property; several
+     * properties are sorted in one pass with a composite comparator. Without an order the
+     * records are returned in key order.
+     * 
+     * @param order The properties to sort by (optional)
+     * @param page The requested page
+     * @return The requested page of records as key-value entries
+     */
+    private Page<Map.Entry<K, V>> getEntries(SortOrder order, PageRequest page) {
+        if (order != null && order.isSingle()) {
+            SortOrder.Field field = order.first();
+            return withRowCount(sortIndexService.sortedPage(field.getProperty(), field.isAscending(), page));
+        }
+        if (order != null) {
+            List<K> keys = new ArrayList<>();
+            List<V> values = new ArrayList<>();
+            treeService.forEach((key, value) -> {
+                keys.add(key);
+                values.add(value);
+            });
+            CompositeSortKeys sortKeys = CompositeSortKeys.extract(order, keys, values);
+            return withRowCount(sortKeys.select(page, row -> keys.get(row).toString(), false)
+                    .map(row -> new AbstractMap.SimpleImmutableEntry<>(keys.get(row), values.get(row))));
+        }
         
-        return datacards;
+        // Without a sort property the tree order is used, so a key cursor is where the walk starts.
+        // The walk stops one row after the page, which tells whether there is a next page.
+        K after = (K) page.getAfter();
+        int[] seen = {0};
+        int end = page.getRequiredRows();
+        List<Map.Entry<K, V>> entries = new ArrayList<>();
+        treeService.forEachInRange(after, null, (key, value) -> {
+            if (after != null && key.compareTo(after) == 0) {
+                return true;
+            }
+            int position = seen[0]++;
+            if (position >= page.getOffset() && position < end) {
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(key, value));
+            }
+            return position < end;
+        });
+        
+        String nextAfter = page.isLimited() && !entries.isEmpty() && seen[0] > end
+                ? entries.get(entries.size() - 1).getKey().toString()
+                : null;
+        return new Page<>(entries, schemaRegistry.getRowCount(), page, nextAfter);
+    }
+    
+    // Every path reports the number of records as its total, so a table keeps the same
+    // total whether it is shown in key order or sorted by a property.
+    private <T> Page<T> withRowCount(Page<T> sorted) {
+        return new Page<>(sorted.getItems(), schemaRegistry.getRowCount(), sorted.getRequest(), sorted.getNextAfter());
     }
     
     /**
@@ -289,34 +428,16 @@ public class DataDisplayService<K extends Comparable<K>, V> {
         
         List<V> values = treeService.getAllValues();
         
+        // Extract the property value of each record once and normalize it into a sort key,
+        // so that numbers and dates are compared by value rather than as strings
+        List<Object> propertyValues = new ArrayList<>(values.size());
+        for (V value : values) {
+            propertyValues.add(value instanceof JSONObject ? ((JSONObject) value).opt(property) : null);
+        }
+        SortKeys sortKeys = SortKeys.extract(propertyValues);
+        
         // Sort values by the specified property
-        values.sort((o1, o2) -> {
-            // Only compare JSONObjects based on their properties
-            if (o1 instanceof JSONObject && o2 instanceof JSONObject) {
-                JSONObject jsonObject1 = (JSONObject) o1;
-                JSONObject jsonObject2 = (JSONObject) o2;
-                
-                if (!jsonObject1.has(property) && !jsonObject2.has(property)) {
-                    return 0;
-                } else if (!jsonObject1.has(property)) {
-                    return -1;
-                } else if (!jsonObject2.has(property)) {
-                    return 1;
-                }
-                
-                // Compare the property values
-                try {
-                    String val1 = jsonObject1.get(property).toString();
-                    String val2 = jsonObject2.get(property).toString();
-                    return val1.compareTo(val2);
-                } catch (Exception e) {
-                    System.err.println("Error comparing values by property: " + property);
-                    return 0;
-                }
-            } else {
-                return 0;
-            }
-        });
+        values = SortKeys.gather(values, sortKeys.sortedRows(true));
         
         long endTime = System.currentTimeMillis();
         System.out.println("getAllValuesSortedBy processing time: " + (endTime - startTime) + "ms");
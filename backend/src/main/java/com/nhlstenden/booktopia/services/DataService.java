@@ -2,7 +2,11 @@ package com.nhlstenden.booktopia.services;
 
 import com.nhlstenden.booktopia.AVL.AVLTree;
 import com.nhlstenden.booktopia.BST.BinarySearchTree;
+import com.nhlstenden.booktopia.bplustree.BPlusTree;
 import com.nhlstenden.booktopia.btree.BTree;
+import com.nhlstenden.booktopia.sorting.Page;
+import com.nhlstenden.booktopia.sorting.PageRequest;
+import com.nhlstenden.booktopia.sorting.SortOrder;
 import org.json.JSONObject;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -10,6 +14,7 @@ import org.springframework.stereotype.Service;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.util.*;
+import java.util.function.BooleanSupplier;
 
 /**
  * Main facade service for the application that handles data operations
@@ -36,6 +41,18 @@ public class DataService<K extends Comparable<K>, V> {
     @Autowired
     private SearchService<K, V> searchService;
     
+    @Autowired
+    private QueryResultCache queryResultCache;
+    
+    @Autowired
+    private SchemaRegistry<K, V> schemaRegistry;
+    
+    @Autowired
+    private SuggestionIndex<K, V> suggestionIndex;
+    
+    @Autowired
+    private KeyFilter<K, V> keyFilter;
+    
     /**
      * Adds a new key-value pair to the current tree structure.
      *
@@ -71,6 +88,17 @@ public class DataService<K extends Comparable<K>, V> {
         removeData(key);
     }
     
+    /**
+     * Applies a batch of upserts and deletes to the current tree structure in key order,
+     * with only the last write per key applied.
+     *
+     * @param batch The writes to apply
+     * @return The number of inserted, updated and deleted keys
+     */
+    public MutationBatch.Result applyBatch(MutationBatch<K, V> batch) {
+        return treeService.applyBatch(batch);
+    }
+    
     /**
      * Searches for a specific key in the current tree structure.
      *
@@ -88,12 +116,85 @@ public class DataService<K extends Comparable<K>, V> {
     /**
      * Returns the current tree type.
      *
-     * @return A string representing the current tree type: "AVL", "BST", or "BTree"
+     * @return A string representing the current tree type: "AVL", "BST", "BTree" or "BPlusTree"
      */
     public String getCurrentTreeType() {
         return treeService.getCurrentTreeType();
     }
     
+    /**
+     * Returns the mutation version of the data, which increases on every change.
+     *
+     * @return The current mutation version
+     */
+    public long getVersion() {
+        return treeService.getVersion();
+    }
+    
+    /**
+     * Returns the records of a key range in key order, at most a limited number. On a B+tree this
+     * descends once to the lower bound and walks the linked leaves.
+     *
+     * @param from The smallest key to return, or null to start at the first key
+     * @param to The key to stop before, or null to continue to the last key
+     * @param limit The maximum number of records to return
+     * @param projection The fields to include in the results besides the key
+     * @return A map with the records and, if the range has more records, the key to continue from
+     */
+    public Map<String, Object> getRange(K from, K to, int limit, Projection projection) {
+        long startTime = System.currentTimeMillis();
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be at least 1");
+        }
+        
+        List<Map<String, Object>> results = new ArrayList<>();
+        Object[] next = {null};
+        treeService.forEachInRange(from, to, (key, value) -> {
+            if (results.size() == limit) {
+                next[0] = key;
+                return false;
+            }
+            Map<String, Object> result = new HashMap<>();
+            result.put("key", key);
+            if (value instanceof JSONObject) {
+                projection.copy((JSONObject) value, result);
+            } else if (value != null) {
+                result.put("value", value);
+            }
+            results.add(result);
+            return true;
+        });
+        
+        long endTime = System.currentTimeMillis();
+        System.out.println("getRange processing time: " + (endTime - startTime) + "ms");
+        
+        Map<String, Object> resultMap = new HashMap<>();
+        resultMap.put("results", results);
+        resultMap.put("next", next[0]);
+        resultMap.put("processingTimeMs", endTime - startTime);
+        return resultMap;
+    }
+    
+    /**
+     * Returns the schema of the stored records: per column the inferred type, null count
+     * and estimated number of distinct values.
+     *
+     * @return The schema of all columns in alphabetical order
+     */
+    public List<SchemaRegistry.ColumnSchema> getSchema() {
+        return schemaRegistry.getColumns();
+    }
+    
+    /**
+     * Returns the metrics of the key filter that lets searches skip exact key lookups of absent
+     * keys, including its observed and expected false positive rate.
+     *
+     * @return The key filter metrics
+     */
+    public Map<String, Object> getKeyFilterStats() {
+        return keyFilter.getStats();
+    }
+    
     /**
      * Converts the current tree structure to an AVL Tree.
      *
@@ -133,6 +234,19 @@ public class DataService<K extends Comparable<K>, V> {
         return result;
     }
     
+    /**
+     * Converts the current tree structure to a B+tree.
+     *
+     * @return The converted B+tree
+     */
+    public BPlusTree<K, V> convertToBPlusTree() {
+        long startTime = System.currentTimeMillis();
+        BPlusTree<K, V> result = treeConverterService.convertToBPlusTree();
+        long endTime = System.currentTimeMillis();
+        System.out.println("convertToBPlusTree processing time: " + (endTime - startTime) + "ms");
+        return result;
+    }
+    
     /**
      * Imports data from a CSV file into the current tree structure.
      *
@@ -224,23 +338,127 @@ public class DataService<K extends Comparable<K>, V> {
      * @return A map containing column definitions and row data
      */
     public Map<String, Object> getTableDisplayData(String sortBy, String sortDirection) {
+        return getTableDisplayData(sortBy, sortDirection, PageRequest.unpaged());
+    }
+    
+    /**
+     * Gets one page of data formatted for table display.
+     *
+     * @param sortBy The property to sort by (optional)
+     * @param sortDirection The sort direction ("ASC" or "DESC")
+     * @param page The requested page (limit/offset or keyset cursor)
+     * @return A map containing column definitions, row data and paging information
+     */
+    public Map<String, Object> getTableDisplayData(String sortBy, String sortDirection, PageRequest page) {
+        return getTableDisplayData(sortBy != null && !sortBy.isEmpty() ? SortOrder.of(sortBy, sortDirection) : null, page);
+    }
+    
+    /**
+     * Gets one page of data formatted for table display, sorted by one or more properties.
+     *
+     * @param order The properties to sort by (optional; key order when null)
+     * @param page The requested page (limit/offset or keyset cursor)
+     * @return A map containing column definitions, row data and paging information
+     */
+    public Map<String, Object> getTableDisplayData(SortOrder order, PageRequest page) {
+        return getTableDisplayData(order, page, Projection.ALL);
+    }
+    
+    /**
+     * Gets one page of data formatted for table display, with only the requested columns.
+     *
+     * @param order The properties to sort by (optional; key order when null)
+     * @param page The requested page (limit/offset or keyset cursor)
+     * @param projection The columns to include besides the key
+     * @return A map containing column definitions, row data and paging information
+     */
+    public Map<String, Object> getTableDisplayData(SortOrder order, PageRequest page, Projection projection) {
         long startTime = System.currentTimeMillis();
         
-        List<Map<String, Object>> rows = dataDisplayService.getTableDisplayData(sortBy, sortDirection);
-        
-        // Create a proper response with columns and rows
-        Map<String, Object> result = new HashMap<>();
-        
-        // Get sortable properties for columns
-        List<String> properties = dataDisplayService.getSortableProperties();
+        // Identical table requests are served from the cache until the data changes
+        Map<String, Object> tableData = queryResultCache.get("table?sort=" + order + "&" + page + "&fields=" + projection, () -> {
+            Page<Map<String, Object>> rows = dataDisplayService.getTableDisplayPage(order, page, projection);
+            
+            // Create a proper response with columns and rows
+            Map<String, Object> data = new HashMap<>();
+            
+            // Get sortable properties for columns, or the requested columns with a projection
+            List<String> properties;
+            if (projection.isAll()) {
+                properties = dataDisplayService.getSortableProperties();
+            } else {
+                properties = new ArrayList<>();
+                properties.add("key");
+                properties.addAll(projection.getFields());
+            }
+            
+            data.put("columns", properties);
+            data.put("rows", rows.getItems());
+            rows.addPagingInfo(data);
+            return data;
+        });
         
-        result.put("columns", properties);
-        result.put("rows", rows);
+        // The cached map is shared, so the processing time goes into a copy
+        Map<String, Object> result = new HashMap<>(tableData);
         result.put("processingTimeMs", System.currentTimeMillis() - startTime);
         
         return result;
     }
     
+    /**
+     * Writes one page of table rows to a streamed response, without building the rows in memory.
+     *
+     * @param order The properties to sort by (optional; key order when null)
+     * @param page The requested page (limit/offset or keyset cursor)
+     * @param writer The writer to write the rows to
+     * @return The number of rows written
+     * @throws IOException If the output cannot be written
+     */
+    public int writeTableRows(SortOrder order, PageRequest page, JsonRowWriter writer) throws IOException {
+        return writeTableRows(order, page, Projection.ALL, writer);
+    }
+    
+    /**
+     * Writes one page of table rows with only the requested columns to a streamed response.
+     *
+     * @param order The properties to sort by (optional; key order when null)
+     * @param page The requested page (limit/offset or keyset cursor)
+     * @param projection The columns to write besides the key
+     * @param writer The writer to write the rows to
+     * @return The number of rows written
+     * @throws IOException If the output cannot be written
+     */
+    public int writeTableRows(SortOrder order, PageRequest page, Projection projection, JsonRowWriter writer) throws IOException {
+        return dataDisplayService.writeTableRows(order, page, projection, writer);
+    }
+    
+    /**
+     * Writes one page of datacards to a streamed response, without building the cards in memory.
+     *
+     * @param order The properties to sort by (optional; key order when null)
+     * @param page The requested page (limit/offset or keyset cursor)
+     * @param writer The writer to write the cards to
+     * @return The number of cards written
+     * @throws IOException If the output cannot be written
+     */
+    public int writeDataCards(SortOrder order, PageRequest page, JsonRowWriter writer) throws IOException {
+        return writeDataCards(order, page, Projection.ALL, writer);
+    }
+    
+    /**
+     * Writes one page of datacards with only the requested values to a streamed response.
+     *
+     * @param order The properties to sort by (optional; key order when null)
+     * @param page The requested page (limit/offset or keyset cursor)
+     * @param projection The properties to write in the card values
+     * @param writer The writer to write the cards to
+     * @return The number of cards written
+     * @throws IOException If the output cannot be written
+     */
+    public int writeDataCards(SortOrder order, PageRequest page, Projection projection, JsonRowWriter writer) throws IOException {
+        return dataDisplayService.writeDataCards(order, page, projection, writer);
+    }
+    
     /**
      * Gets data formatted for card display.
      *
@@ -262,8 +480,44 @@ public class DataService<K extends Comparable<K>, V> {
      * @return A list of datacards with title and values
      */
     public List<Map<String, Object>> getDataCardDisplayData(String sortBy, String sortDirection) {
+        return getDataCardDisplayData(sortBy, sortDirection, PageRequest.unpaged()).getItems();
+    }
+    
+    /**
+     * Gets one page of data formatted for card display.
+     *
+     * @param sortBy The property to sort by (optional)
+     * @param sortDirection The sort direction ("ASC" or "DESC")
+     * @param page The requested page (limit/offset or keyset cursor)
+     * @return The requested page of datacards
+     */
+    public Page<Map<String, Object>> getDataCardDisplayData(String sortBy, String sortDirection, PageRequest page) {
+        return getDataCardDisplayData(sortBy != null && !sortBy.isEmpty() ? SortOrder.of(sortBy, sortDirection) : null, page);
+    }
+    
+    /**
+     * Gets one page of data formatted for card display, sorted by one or more properties.
+     *
+     * @param order The properties to sort by (optional; key order when null)
+     * @param page The requested page (limit/offset or keyset cursor)
+     * @return The requested page of datacards
+     */
+    public Page<Map<String, Object>> getDataCardDisplayData(SortOrder order, PageRequest page) {
+        return getDataCardDisplayData(order, page, Projection.ALL);
+    }
+    
+    /**
+     * Gets one page of data formatted for card display, with only the requested card values.
+     *
+     * @param order The properties to sort by (optional; key order when null)
+     * @param page The requested page (limit/offset or keyset cursor)
+     * @param projection The properties to include in the card values
+     * @return The requested page of datacards
+     */
+    public Page<Map<String, Object>> getDataCardDisplayData(SortOrder order, PageRequest page, Projection projection) {
         long startTime = System.currentTimeMillis();
-        List<Map<String, Object>> result = dataDisplayService.getDataCardDisplayData(sortBy, sortDirection);
+        Page<Map<String, Object>> result = queryResultCache.get("cards?sort=" + order + "&" + page + "&fields=" + projection,
+                () -> dataDisplayService.getDataCardDisplayPage(order, page, projection));
         long endTime = System.currentTimeMillis();
         System.out.println("getDataCardDisplayData processing time: " + (endTime - startTime) + "ms");
         return result;
@@ -294,8 +548,24 @@ public class DataService<K extends Comparable<K>, V> {
      * @return A map containing search results and metadata
      */
     public Map<String, Object> searchData(String query) {
+        return searchData(query, Projection.ALL);
+    }
+    
+    /**
+     * Searches for data in the current tree structure, returning only the requested fields
+     * of the matches. All fields are still searched.
+     * 
+     * @param query The search query
+     * @param projection The fields to include in the results besides the key
+     * @return A map containing search results and metadata
+     */
+    public Map<String, Object> searchData(String query, Projection projection) {
         long startTime = System.currentTimeMillis();
-        Map<String, Object> result = searchService.searchData(query);
+        
+        // Identical searches are served from the cache until the data changes; the cached map is shared,
+        // so the processing time goes into a copy
+        Map<String, Object> result = new HashMap<>(queryResultCache.get("search?query=" + query + "&fields=" + projection,
+                () -> searchService.searchData(query, projection)));
         long endTime = System.currentTimeMillis();
         
         // Update processing time with the total time including this method
@@ -304,4 +574,74 @@ public class DataService<K extends Comparable<K>, V> {
         System.out.println("searchData processing time: " + (endTime - startTime) + "ms");
         return result;
     }
+    
+    /**
+     * Searches typo-tolerantly for records with words within a few edits of the query words,
+     * see {@link SearchService#fuzzySearch}.
+     * 
+     * @param query The search query
+     * @param maxDistance The number of edits allowed per query word, or null to depend on the word length
+     * @param limit The maximum number of results
+     * @param projection The fields to include in the results besides the key
+     * @return A map containing search results and metadata
+     */
+    public Map<String, Object> fuzzySearch(String query, Integer maxDistance, int limit, Projection projection) {
+        long startTime = System.currentTimeMillis();
+        
+        Map<String, Object> result = new HashMap<>(queryResultCache.get("fuzzy?query=" + query + "&maxDistance=" + maxDistance
+                + "&limit=" + limit + "&fields=" + projection, () -> searchService.fuzzySearch(query, maxDistance, limit, projection)));
+        long endTime = System.currentTimeMillis();
+        result.put("processingTimeMs", endTime - startTime);
+        
+        System.out.println("fuzzySearch processing time: " + (endTime - startTime) + "ms");
+        return result;
+    }
+    
+    /**
+     * Searches by relevance and returns the best results only, see {@link SearchService#rankedSearch}.
+     * 
+     * @param query The search query
+     * @param limit The number of results to return
+     * @param projection The fields to include in the results besides the key
+     * @return A map containing search results and metadata
+     */
+    public Map<String, Object> rankedSearch(String query, int limit, Projection projection) {
+        long startTime = System.currentTimeMillis();
+        
+        Map<String, Object> result = new HashMap<>(queryResultCache.get("ranked?query=" + query + "&limit=" + limit
+                + "&fields=" + projection, () -> searchService.rankedSearch(query, limit, projection)));
+        long endTime = System.currentTimeMillis();
+        result.put("processingTimeMs", endTime - startTime);
+        
+        System.out.println("rankedSearch processing time: " + (endTime - startTime) + "ms");
+        return result;
+    }
+    
+    /**
+     * Streams the results of a search while it runs, see {@link SearchService#streamSearch}.
+     * Streamed searches are not cached, since they are usually cancelled before they finish.
+     * 
+     * @param query The search query
+     * @param projection The fields to include in the results besides the key
+     * @param batchSize The maximum number of partial matches per batch
+     * @param cancelled Returns true once the results are no longer wanted
+     * @param sink Receives the exact match and the batches of partial matches
+     * @return The number of matches handed out, or -1 if the search was cancelled
+     * @throws IOException If the sink fails to pass on results
+     */
+    public int streamSearch(String query, Projection projection, int batchSize, BooleanSupplier cancelled,
+                            SearchService.MatchSink sink) throws IOException {
+        return searchService.streamSearch(query, projection, batchSize, cancelled, sink);
+    }
+    
+    /**
+     * Returns typeahead suggestions: the most popular keys, titles and names that start with a prefix.
+     * 
+     * @param prefix The typed prefix
+     * @param limit The maximum number of suggestions
+     * @return The suggestions, most popular first
+     */
+    public List<SuggestionIndex.Suggestion> suggest(String prefix, int limit) {
+        return suggestionIndex.suggest(prefix, limit);
+    }
 }
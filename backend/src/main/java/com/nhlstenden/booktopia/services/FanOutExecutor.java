@@ -0,0 +1,104 @@
+package com.nhlstenden.booktopia.services;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the parts of a request that are split into independent tasks, such as the chunks of a
+ * linear search. With {@code spring.threads.virtual.enabled} (the same switch that moves Tomcat's
+ * request handling onto virtual threads) every task gets its own virtual thread; otherwise the
+ * tasks run on the common fork/join pool.
+ *
+ * Callers split CPU-bound work into at most {@link #getParallelism()} tasks, so virtual threads
+ * do not run more work at once than the pool would; they only avoid tying up platform threads
+ * while the request waits for its tasks.
+ */
+@Service
+public class FanOutExecutor {
+
+    private final boolean virtualThreads;
+    private final ExecutorService executor;
+
+    /**
+     * Constructs a new FanOutExecutor.
+     *
+     * @param virtualThreads True to run tasks on virtual threads, false for the common fork/join pool
+     */
+    public FanOutExecutor(@Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+        this.executor = virtualThreads ? Executors.newVirtualThreadPerTaskExecutor() : ForkJoinPool.commonPool();
+    }
+
+    /**
+     * @return True if tasks run on virtual threads
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * @return The number of tasks worth splitting CPU-bound work into
+     */
+    public int getParallelism() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Runs a task in the background, for work that continues after the request handler returns,
+     * such as a streamed response. The task gets its own virtual thread, or a common pool thread
+     * when virtual threads are disabled.
+     *
+     * @param task The task to run
+     */
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * Runs tasks concurrently and waits for all of them. A single task runs on the calling thread.
+     *
+     * @param tasks The tasks to run
+     * @return The results in the order of the tasks
+     * @throws RuntimeException The exception of the first failed task, or an IllegalStateException
+     *         wrapping a checked exception or an interruption
+     */
+    public <T> List<T> invokeAll(List<? extends Callable<T>> tasks) {
+        List<T> results = new ArrayList<>(tasks.size());
+        try {
+            if (tasks.size() == 1) {
+                results.add(tasks.get(0).call());
+                return results;
+            }
+            for (Future<T> future : executor.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for tasks", e);
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        } catch (Exception e) {
+            throw rethrow(e);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable cause) {
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IllegalStateException(cause);
+    }
+}
@@ -0,0 +1,444 @@
+package com.nhlstenden.booktopia.services;
+
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Typo-tolerant word index over the record keys and the text columns of {@code suggest.columns}.
+ * Every distinct word is stored in a BK-tree keyed by Levenshtein distance, with the records that
+ * contain it. A fuzzy lookup only visits the BK-tree nodes whose distance to the query word lies
+ * within the allowed number of edits of their parent's distance (by the triangle inequality no
+ * other node can match), so it examines a small part of the dictionary instead of all words.
+ *
+ * Words that no record contains anymore stay in the BK-tree but are skipped; the tree is rebuilt
+ * from the remaining words once they make up less than half of it, and after every reset.
+ *
+ * @param <K> The type of keys in the trees (must be Comparable)
+ * @param <V> The type of values in the trees
+ */
+@Service
+public class FuzzyIndex<K extends Comparable<K>, V> implements TreeChangeListener<K, V> {
+
+    /** The largest number of edits a query word may be away from a matching word. */
+    public static final int MAX_DISTANCE = 2;
+
+    private final TreeService<K, V> treeService;
+    private final List<String> columns;
+    private final ReentrantLock lock = new ReentrantLock();
+    private boolean stale = true;
+
+    // The records containing each word, with the number of occurrences per record
+    private final Map<String, Map<K, Integer>> postings = new HashMap<>();
+    private Node root;
+    private int treeWords;
+
+    /**
+     * Constructs a new FuzzyIndex and registers it for tree mutations.
+     *
+     * @param treeService The tree service whose records are indexed
+     * @param columns The comma separated text columns to index besides the keys
+     */
+    public FuzzyIndex(TreeService<K, V> treeService,
+                      @Value("${suggest.columns:title,authors,director,star}") String columns) {
+        this.treeService = treeService;
+        this.columns = SuggestionIndex.parseColumns(columns);
+        treeService.addChangeListener(this);
+    }
+
+    /**
+     * Returns the default number of edits allowed for a query word: none for words of up to two
+     * characters, one for up to five characters and two for longer words.
+     *
+     * @param word The query word
+     * @return The number of edits allowed
+     */
+    public static int defaultDistance(String word) {
+        return word.length() <= 2 ? 0 : word.length() <= 5 ? 1 : 2;
+    }
+
+    /**
+     * Splits a text into lowercase words of letters and digits.
+     *
+     * @param text The text
+     * @return The words in text order
+     */
+    public static List<String> tokenize(String text) {
+        List<String> words = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Finds the records that contain, for every word of the query, a word within the allowed number
+     * of edits. Records are ranked by the sum of the edits of their closest words.
+     *
+     * @param query The query, e.g. "Harri Poter"
+     * @param maxDistance The number of edits allowed per query word, or null for {@link #defaultDistance}
+     * @param limit The maximum number of records to return
+     * @return The matching records and the words each query word was matched with
+     */
+    public Result<K> search(String query, Integer maxDistance, int limit) {
+        if (maxDistance != null && (maxDistance < 0 || maxDistance > MAX_DISTANCE)) {
+            throw new IllegalArgumentException("maxDistance must be between 0 and " + MAX_DISTANCE);
+        }
+        List<String> queryWords = new ArrayList<>(new LinkedHashSet<>(tokenize(query == null ? "" : query)));
+        lockFresh();
+        try {
+            Map<String, List<String>> expansions = new LinkedHashMap<>();
+            Map<K, Integer> scores = null;
+            int[] visited = {0};
+            for (String queryWord : queryWords) {
+                int distance = maxDistance != null ? maxDistance : defaultDistance(queryWord);
+                List<String> words = new ArrayList<>();
+                Map<K, Integer> wordScores = new HashMap<>();
+                for (Map.Entry<String, Integer> match : lookup(queryWord, distance, visited).entrySet()) {
+                    words.add(match.getKey());
+                    for (K key : postings.get(match.getKey()).keySet()) {
+                        wordScores.merge(key, match.getValue(), Math::min);
+                    }
+                }
+                expansions.put(queryWord, words);
+
+                // A record has to match every query word
+                if (scores == null) {
+                    scores = wordScores;
+                } else {
+                    Map<K, Integer> both = new HashMap<>();
+                    for (Map.Entry<K, Integer> score : scores.entrySet()) {
+                        Integer wordScore = wordScores.get(score.getKey());
+                        if (wordScore != null) {
+                            both.put(score.getKey(), score.getValue() + wordScore);
+                        }
+                    }
+                    scores = both;
+                }
+            }
+
+            List<Map.Entry<K, Integer>> ranked = new ArrayList<>(scores == null ? Collections.emptySet() : scores.entrySet());
+            ranked.sort(Map.Entry.<K, Integer>comparingByValue().thenComparing(Map.Entry.comparingByKey()));
+            List<Map.Entry<K, Integer>> matches = new ArrayList<>(ranked.subList(0, Math.min(limit, ranked.size())));
+            return new Result<>(matches, ranked.size(), expansions, visited[0], treeWords);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of distinct words that at least one record contains
+     */
+    public int size() {
+        lockFresh();
+        try {
+            return postings.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onInsert(K key, V previous, V value) {
+        lock.lock();
+        try {
+            if (stale) {
+                return;
+            }
+            if (previous != null) {
+                updateRecord(key, previous, -1);
+            } else {
+                updateText(key, key.toString(), 1);
+            }
+            updateRecord(key, value, 1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onDelete(K key, V previous) {
+        lock.lock();
+        try {
+            if (stale || previous == null) {
+                return;
+            }
+            updateText(key, key.toString(), -1);
+            updateRecord(key, previous, -1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onReset() {
+        lock.lock();
+        try {
+            stale = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Takes the lock with the index up to date. A stale index is rebuilt under the tree's write
+    // lock, taken before the index's own lock as writers do, so no write can change the tree
+    // during the traversal and then reach the rebuilt index twice or not at all
+    private void lockFresh() {
+        lock.lock();
+        while (stale) {
+            lock.unlock();
+            treeService.runExclusively(() -> {
+                lock.lock();
+                try {
+                    refreshIfStale();
+                } finally {
+                    lock.unlock();
+                }
+            });
+            lock.lock();
+        }
+    }
+
+    // Rebuilds the index from the tree after a reset, with the tree's write lock held
+    private void refreshIfStale() {
+        if (!stale) {
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        postings.clear();
+        root = null;
+        treeWords = 0;
+        stale = false;
+        treeService.forEach((key, value) -> {
+            updateText(key, key.toString(), 1);
+            updateRecord(key, value, 1);
+        });
+        long endTime = System.currentTimeMillis();
+        System.out.println("Built fuzzy index (" + postings.size() + " words) in " + (endTime - startTime) + "ms");
+    }
+
+    // Adds or removes the words of the indexed columns of a record
+    private void updateRecord(K key, V value, int delta) {
+        if (!(value instanceof JSONObject)) {
+            return;
+        }
+        JSONObject jsonObj = (JSONObject) value;
+        for (String column : columns) {
+            Object propValue = jsonObj.opt(column);
+            if (propValue != null && propValue != JSONObject.NULL) {
+                updateText(key, propValue.toString(), delta);
+            }
+        }
+    }
+
+    // Adds or removes the words of a text of a record
+    private void updateText(K key, String text, int delta) {
+        for (String word : tokenize(text)) {
+            Map<K, Integer> records = postings.get(word);
+            if (delta > 0) {
+                if (records == null) {
+                    records = new HashMap<>();
+                    postings.put(word, records);
+                    addToTree(word);
+                }
+                records.merge(key, delta, Integer::sum);
+            } else if (records != null) {
+                records.computeIfPresent(key, (k, count) -> count + delta > 0 ? count + delta : null);
+                if (records.isEmpty()) {
+                    postings.remove(word);
+                }
+            }
+        }
+        // Rebuild the BK-tree when most of its words are gone
+        if (delta < 0 && treeWords > 64 && postings.size() * 2 < treeWords) {
+            root = null;
+            treeWords = 0;
+            for (String word : postings.keySet()) {
+                addToTree(word);
+            }
+        }
+    }
+
+    // Inserts a word into the BK-tree unless it is there already
+    private void addToTree(String word) {
+        if (root == null) {
+            root = new Node(word);
+            treeWords++;
+            return;
+        }
+        Node node = root;
+        while (true) {
+            // The exact distance selects the child, so it is not bounded here
+            int distance = distance(word, node.word, Integer.MAX_VALUE);
+            if (distance == 0) {
+                return;
+            }
+            Node child = node.child(distance);
+            if (child == null) {
+                node.setChild(distance, new Node(word));
+                treeWords++;
+                return;
+            }
+            node = child;
+        }
+    }
+
+    // Returns the words within the given distance of a word that records contain, with their distances
+    private Map<String, Integer> lookup(String word, int maxDistance, int[] visited) {
+        Map<String, Integer> matches = new TreeMap<>();
+        if (root == null) {
+            return matches;
+        }
+        Deque<Node> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            Node node = pending.pop();
+            visited[0]++;
+            // Beyond its farthest child plus maxDistance, neither the node nor a child can match,
+            // so the distance computation can stop as soon as it exceeds that bound
+            int bound = Math.max(0, node.children.length - 1) + maxDistance;
+            int distance = distance(word, node.word, bound);
+            if (distance > bound) {
+                continue;
+            }
+            if (distance <= maxDistance && postings.containsKey(node.word)) {
+                matches.put(node.word, distance);
+            }
+            // Only children at a distance within maxDistance of this node's distance can match
+            int from = Math.max(1, distance - maxDistance);
+            int to = Math.min(node.children.length - 1, distance + maxDistance);
+            for (int childDistance = from; childDistance <= to; childDistance++) {
+                if (node.children[childDistance] != null) {
+                    pending.push(node.children[childDistance]);
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Computes the Levenshtein distance between two words: the number of inserted, deleted or
+     * replaced characters that turn one into the other.
+     *
+     * @param a The first word
+     * @param b The second word
+     * @param limit The distance above which the exact value is not needed
+     * @return The distance, or a value above the limit if the distance exceeds it
+     */
+    static int distance(String a, String b, int limit) {
+        if (Math.abs(a.length() - b.length()) > limit) {
+            return limit + 1;
+        }
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin > limit) {
+                return limit + 1;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+
+    /**
+     * A BK-tree node: a word and its children by their distance to the word.
+     */
+    private static class Node {
+        final String word;
+        Node[] children = new Node[0];
+
+        Node(String word) {
+            this.word = word;
+        }
+
+        Node child(int distance) {
+            return distance < children.length ? children[distance] : null;
+        }
+
+        void setChild(int distance, Node child) {
+            if (distance >= children.length) {
+                children = Arrays.copyOf(children, distance + 1);
+            }
+            children[distance] = child;
+        }
+    }
+
+    /**
+     * The outcome of a fuzzy search.
+     *
+     * @param <K> The type of keys
+     */
+    public static class Result<K> {
+        private final List<Map.Entry<K, Integer>> matches;
+        private final int total;
+        private final Map<String, List<String>> expansions;
+        private final int visitedWords;
+        private final int dictionarySize;
+
+        Result(List<Map.Entry<K, Integer>> matches, int total, Map<String, List<String>> expansions,
+               int visitedWords, int dictionarySize) {
+            this.matches = matches;
+            this.total = total;
+            this.expansions = expansions;
+            this.visitedWords = visitedWords;
+            this.dictionarySize = dictionarySize;
+        }
+
+        /**
+         * @return The keys of the best matching records with their total number of edits, best first
+         */
+        public List<Map.Entry<K, Integer>> getMatches() {
+            return matches;
+        }
+
+        /**
+         * @return The number of matching records, including those beyond the limit
+         */
+        public int getTotal() {
+            return total;
+        }
+
+        /**
+         * @return The dictionary words each query word was matched with
+         */
+        public Map<String, List<String>> getExpansions() {
+            return expansions;
+        }
+
+        /**
+         * @return The number of BK-tree words compared with the query words
+         */
+        public int getVisitedWords() {
+            return visitedWords;
+        }
+
+        /**
+         * @return The number of words in the BK-tree
+         */
+        public int getDictionarySize() {
+            return dictionarySize;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.nhlstenden.booktopia.services;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Open addressing hash table from keys to values, kept by {@link TreeService} next to the active
+ * tree so point reads take one probe sequence instead of a descent. Slots are probed linearly
+ * from a Fibonacci hash of the key; deleted slots become tombstones, which are reused by inserts
+ * and dropped when the table is rehashed. The table grows at 75% occupancy, tombstones included.
+ *
+ * Writers must be serialized by the caller. Reads take no lock: slots are written with release
+ * and read with acquire semantics, value before key, so a read that finds a key also sees its
+ * value, and a rehashed table is published as a whole through a volatile field, so a read never
+ * probes a half-copied one.
+ *
+ * @param <K> The type of keys
+ * @param <V> The type of values
+ */
+public final class HashIndex<K, V> {
+
+    private static final Object TOMBSTONE = new Object();
+    private static final int MIN_CAPACITY = 16;
+    private static final double MAX_LOAD = 0.75;
+    // Ordered access to the slots of the key and value arrays
+    private static final VarHandle SLOT = MethodHandles.arrayElementVarHandle(Object[].class);
+
+    private volatile Table table = new Table(MIN_CAPACITY);
+    private int size;
+    private int tombstones;
+
+    /**
+     * Returns the value of a key.
+     *
+     * @param key The key to look up
+     * @return The value, or null if the key is absent
+     */
+    @SuppressWarnings("unchecked")
+    public V get(K key) {
+        Table current = table;
+        Object[] keys = current.keys;
+        int mask = keys.length - 1;
+        for (int slot = current.slot(key), probes = 0; probes < keys.length; slot = (slot + 1) & mask, probes++) {
+            Object stored = SLOT.getAcquire(keys, slot);
+            if (stored == null) {
+                return null;
+            }
+            if (stored != TOMBSTONE && stored.equals(key)) {
+                return (V) SLOT.getAcquire(current.values, slot);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Inserts or replaces the value of a key.
+     *
+     * @param key The key
+     * @param value The value, not null
+     */
+    public void put(K key, V value) {
+        if ((size + tombstones + 1) > table.keys.length * MAX_LOAD) {
+            // Grow when live keys fill the table; otherwise clearing the tombstones makes enough room
+            rehash(size + 1 > table.keys.length * MAX_LOAD / 2 ? table.keys.length * 2 : table.keys.length);
+        }
+        Table current = table;
+        Object[] keys = current.keys;
+        int mask = keys.length - 1;
+        int free = -1;
+        for (int slot = current.slot(key); ; slot = (slot + 1) & mask) {
+            Object stored = keys[slot];
+            if (stored == null) {
+                if (free < 0) {
+                    free = slot;
+                } else {
+                    tombstones--;
+                }
+                // The value is released before the key, so a read that acquires the key sees its value
+                SLOT.setRelease(current.values, free, value);
+                SLOT.setRelease(keys, free, key);
+                size++;
+                return;
+            }
+            if (stored == TOMBSTONE) {
+                if (free < 0) {
+                    free = slot;
+                }
+            } else if (stored.equals(key)) {
+                SLOT.setRelease(current.values, slot, value);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes a key.
+     *
+     * @param key The key to remove
+     */
+    public void remove(K key) {
+        Table current = table;
+        Object[] keys = current.keys;
+        int mask = keys.length - 1;
+        for (int slot = current.slot(key), probes = 0; probes < keys.length; slot = (slot + 1) & mask, probes++) {
+            Object stored = keys[slot];
+            if (stored == null) {
+                return;
+            }
+            if (stored != TOMBSTONE && stored.equals(key)) {
+                SLOT.setRelease(keys, slot, TOMBSTONE);
+                SLOT.setRelease(current.values, slot, null);
+                size--;
+                tombstones++;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes all keys and shrinks the table.
+     */
+    public void clear() {
+        table = new Table(MIN_CAPACITY);
+        size = 0;
+        tombstones = 0;
+    }
+
+    /**
+     * @return The number of keys
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The number of slots
+     */
+    public int capacity() {
+        return table.keys.length;
+    }
+
+    // Copies the live keys into a new table and publishes it; the volatile write of the table
+    // makes the plain writes of the copy visible to the reads that pick it up
+    private void rehash(int capacity) {
+        Table old = table;
+        Table copy = new Table(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < old.keys.length; i++) {
+            Object key = old.keys[i];
+            if (key != null && key != TOMBSTONE) {
+                int slot = copy.slot(key);
+                while (copy.keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                copy.keys[slot] = key;
+                copy.values[slot] = old.values[i];
+            }
+        }
+        tombstones = 0;
+        table = copy;
+    }
+
+    private static final class Table {
+        private final Object[] keys;
+        private final Object[] values;
+        private final int shift;
+
+        Table(int capacity) {
+            keys = new Object[capacity];
+            values = new Object[capacity];
+            shift = Integer.numberOfLeadingZeros(capacity) + 1;
+        }
+
+        // The top bits of the key's hash times the golden ratio, which spreads similar hashes apart
+        int slot(Object key) {
+            return (key.hashCode() * 0x9E3779B9) >>> shift;
+        }
+    }
+}
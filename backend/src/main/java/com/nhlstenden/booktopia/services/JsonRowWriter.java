@@ -0,0 +1,230 @@
+package com.nhlstenden.booktopia.services;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Map;
+
+/**
+ * Writes rows to a response stream as they are produced, with a Jackson {@link JsonGenerator}.
+ * Rows are written straight from the records (a key and its JSON properties), so no map per row
+ * and no response object around the rows are built, and the generator only buffers a few
+ * kilobytes before the bytes go out. The rows are written either as one JSON array or as
+ * newline delimited JSON (one row per line).
+ */
+public class JsonRowWriter implements Closeable {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * The output formats for streamed rows.
+     */
+    public enum Format {
+        /** A single JSON array, sent in chunks. */
+        ARRAY("application/json"),
+        /** Newline delimited JSON: one row object per line. */
+        NDJSON("application/x-ndjson");
+
+        private final String mediaType;
+
+        Format(String mediaType) {
+            this.mediaType = mediaType;
+        }
+
+        public String getMediaType() {
+            return mediaType;
+        }
+    }
+
+    private final JsonGenerator generator;
+    private final Format format;
+    private int rows;
+
+    /**
+     * Starts writing rows to the output.
+     *
+     * @param out The stream to write to; it is flushed but not closed
+     * @param format The output format
+     * @throws IOException If the output cannot be written
+     */
+    public JsonRowWriter(OutputStream out, Format format) throws IOException {
+        this.generator = JSON_FACTORY.createGenerator(out);
+        this.generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        this.format = format;
+        if (format == Format.ARRAY) {
+            generator.writeStartArray();
+        } else {
+            generator.setRootValueSeparator(new SerializedString("\n"));
+        }
+    }
+
+    /**
+     * Parses the format request parameter.
+     *
+     * @param format "json" for a regular response, "stream" for a streamed JSON array or "ndjson"
+     * @return The streaming format, or null for a regular (non-streamed) response
+     * @throws IllegalArgumentException If the format is unknown
+     */
+    public static Format parseFormat(String format) {
+        if (format == null || format.equalsIgnoreCase("json")) {
+            return null;
+        }
+        if (format.equalsIgnoreCase("stream")) {
+            return Format.ARRAY;
+        }
+        if (format.equalsIgnoreCase("ndjson")) {
+            return Format.NDJSON;
+        }
+        throw new IllegalArgumentException("Unknown format: " + format + " (expected json, stream or ndjson)");
+    }
+
+    /**
+     * Writes a record as a data item: the key plus all properties of the value.
+     *
+     * @param key The record key
+     * @param value The record, usually a JSONObject
+     * @throws IOException If the output cannot be written
+     */
+    public void writeItem(Object key, Object value) throws IOException {
+        writeItem(key, value, Projection.ALL);
+    }
+
+    /**
+     * Writes a record as a data item with only the properties of a projection.
+     *
+     * @param key The record key
+     * @param value The record, usually a JSONObject
+     * @param projection The properties to write besides the key
+     * @throws IOException If the output cannot be written
+     */
+    public void writeItem(Object key, Object value, Projection projection) throws IOException {
+        generator.writeStartObject();
+        generator.writeFieldName("key");
+        writeValue(key);
+        writeProperties(value, projection);
+        generator.writeEndObject();
+        rowWritten();
+    }
+
+    /**
+     * Writes a record as a datacard: the key as title and the properties as values.
+     *
+     * @param key The record key
+     * @param value The record, usually a JSONObject
+     * @throws IOException If the output cannot be written
+     */
+    public void writeCard(Object key, Object value) throws IOException {
+        writeCard(key, value, Projection.ALL);
+    }
+
+    /**
+     * Writes a record as a datacard with only the properties of a projection as values.
+     *
+     * @param key The record key
+     * @param value The record, usually a JSONObject
+     * @param projection The properties to write as values
+     * @throws IOException If the output cannot be written
+     */
+    public void writeCard(Object key, Object value, Projection projection) throws IOException {
+        generator.writeStartObject();
+        generator.writeFieldName("title");
+        writeValue(key);
+        if (value != null) {
+            generator.writeFieldName("values");
+            generator.writeStartObject();
+            writeProperties(value, projection);
+            generator.writeEndObject();
+        }
+        generator.writeEndObject();
+        rowWritten();
+    }
+
+    /**
+     * Writes a row that has already been built as a map.
+     *
+     * @param row The row
+     * @throws IOException If the output cannot be written
+     */
+    public void writeRow(Map<String, ?> row) throws IOException {
+        generator.writeStartObject();
+        for (Map.Entry<String, ?> field : row.entrySet()) {
+            generator.writeFieldName(field.getKey());
+            writeValue(field.getValue());
+        }
+        generator.writeEndObject();
+        rowWritten();
+    }
+
+    /**
+     * @return The number of rows written so far
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Ends the array (or the last line) and flushes the output.
+     */
+    @Override
+    public void close() throws IOException {
+        if (format == Format.ARRAY) {
+            generator.writeEndArray();
+        } else if (rows > 0) {
+            generator.writeRaw('\n');
+        }
+        generator.close();
+    }
+
+    private void writeProperties(Object value, Projection projection) throws IOException {
+        if (value instanceof JSONObject) {
+            JSONObject jsonObj = (JSONObject) value;
+            Iterable<String> propNames = projection.isAll() ? jsonObj.keySet() : projection.getFields();
+            for (String propName : propNames) {
+                Object propValue = jsonObj.opt(propName);
+                if (propValue != null) {
+                    generator.writeFieldName(propName);
+                    writeValue(propValue);
+                }
+            }
+        }
+    }
+
+    private void writeValue(Object value) throws IOException {
+        if (value == null || value == JSONObject.NULL) {
+            generator.writeNull();
+        } else if (value instanceof String) {
+            generator.writeString((String) value);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            generator.writeNumber(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            generator.writeNumber(((Number) value).doubleValue());
+        } else if (value instanceof BigDecimal) {
+            generator.writeNumber((BigDecimal) value);
+        } else if (value instanceof BigInteger) {
+            generator.writeNumber((BigInteger) value);
+        } else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        } else if (value instanceof JSONObject) {
+            generator.writeStartObject();
+            writeProperties(value, Projection.ALL);
+            generator.writeEndObject();
+        } else {
+            generator.writeString(value.toString());
+        }
+    }
+
+    // Sends the first row right away, so the time to first byte does not depend on the buffer size
+    private void rowWritten() throws IOException {
+        rows++;
+        if (rows == 1) {
+            generator.flush();
+        }
+    }
+}
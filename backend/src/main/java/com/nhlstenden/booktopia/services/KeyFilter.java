@@ -0,0 +1,259 @@
+package com.nhlstenden.booktopia.services;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Counting Bloom filter over the keys of the active tree, so an exact key lookup for a query that
+ * is not a key (almost every free-text search) is answered without descending the tree. A negative
+ * answer is always right; a positive answer is wrong with a small probability, and the caller then
+ * finds nothing in the tree and reports it with {@link #falsePositive()}.
+ *
+ * Every slot is a counter instead of a bit, so deletes are supported: a delete decrements the
+ * slots that the insert incremented. A counter that reaches 255 stays there, so it can never drop
+ * to zero while a key still uses it. The filter follows the active tree: it is rebuilt after a
+ * reset (import, conversion to another tree type) and when the tree outgrows its capacity.
+ *
+ * @param <K> The type of keys in the trees (must be Comparable)
+ * @param <V> The type of values in the trees
+ */
+@Service
+public class KeyFilter<K extends Comparable<K>, V> implements TreeChangeListener<K, V> {
+
+    private static final int MIN_CAPACITY = 1024;
+    private static final int SATURATED = 0xFF;
+
+    private final TreeService<K, V> treeService;
+    private final int bitsPerKey;
+    private final int hashFunctions;
+    private final ReentrantLock lock = new ReentrantLock();
+    private boolean stale = true;
+
+    private byte[] counters = new byte[0];
+    private int capacity;
+    private int keys;
+
+    private long lookups;
+    private long negatives;
+    private long falsePositives;
+    private long rebuilds;
+
+    /**
+     * Constructs a new KeyFilter and registers it for tree mutations.
+     *
+     * @param treeService The tree service whose keys are filtered
+     * @param bitsPerKey The number of counters per key; 10 gives a false positive rate of about 1%
+     */
+    public KeyFilter(TreeService<K, V> treeService,
+                     @Value("${search.key-filter.bits-per-key:10}") int bitsPerKey) {
+        if (bitsPerKey < 1) {
+            throw new IllegalArgumentException("search.key-filter.bits-per-key must be at least 1");
+        }
+        this.treeService = treeService;
+        this.bitsPerKey = bitsPerKey;
+        this.hashFunctions = Math.max(1, (int) Math.round(bitsPerKey * Math.log(2)));
+        treeService.addChangeListener(this);
+    }
+
+    /**
+     * Tells whether a key may be in the active tree.
+     *
+     * @param key The key to look up
+     * @return False if the key is certainly absent, true if it may be present
+     */
+    public boolean mightContain(K key) {
+        long hash = hash(key);
+        lockFresh();
+        try {
+            lookups++;
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32) | 1;
+            for (int i = 0; i < hashFunctions; i++) {
+                if (counters[slot(h1 + i * h2)] == 0) {
+                    negatives++;
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records that a key for which {@link #mightContain} returned true was not in the tree.
+     */
+    public void falsePositive() {
+        lock.lock();
+        try {
+            falsePositives++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the filter metrics: lookups, negatives (lookups answered without the tree), false
+     * positives, the observed false positive rate (false positives among the lookups of absent
+     * keys), the false positive rate expected from the share of used counters, and the size.
+     *
+     * @return The filter metrics
+     */
+    public Map<String, Object> getStats() {
+        lock.lock();
+        try {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            long absent = negatives + falsePositives;
+            stats.put("lookups", lookups);
+            stats.put("negatives", negatives);
+            stats.put("falsePositives", falsePositives);
+            stats.put("falsePositiveRate", absent == 0 ? 0.0 : (double) falsePositives / absent);
+            stats.put("expectedFalsePositiveRate", expectedFalsePositiveRate());
+            stats.put("keys", keys);
+            stats.put("counters", counters.length);
+            stats.put("hashFunctions", hashFunctions);
+            stats.put("rebuilds", rebuilds);
+            return stats;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onInsert(K key, V previous, V value) {
+        if (previous != null) {
+            return;
+        }
+        long hash = hash(key);
+        lock.lock();
+        try {
+            if (stale) {
+                return;
+            }
+            if (keys == capacity) {
+                // Rebuilt with a larger table on the next lookup, once the tree holds the new key
+                stale = true;
+                return;
+            }
+            add(hash, 1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onDelete(K key, V previous) {
+        if (previous == null) {
+            return;
+        }
+        long hash = hash(key);
+        lock.lock();
+        try {
+            if (!stale) {
+                add(hash, -1);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onReset() {
+        lock.lock();
+        try {
+            stale = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Takes the lock with the filter up to date. A stale filter is rebuilt under the tree's write
+    // lock, taken before the filter's own lock as writers do, so no write can change the tree
+    // during the traversal and then reach the rebuilt filter twice or not at all
+    private void lockFresh() {
+        lock.lock();
+        while (stale) {
+            lock.unlock();
+            treeService.runExclusively(() -> {
+                lock.lock();
+                try {
+                    refreshIfStale();
+                } finally {
+                    lock.unlock();
+                }
+            });
+            lock.lock();
+        }
+    }
+
+    // Rebuilds the filter from the tree, with room for twice the current number of keys; called
+    // with the tree's write lock held
+    private void refreshIfStale() {
+        if (!stale) {
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        // One traversal: the hashes are kept until the number of keys, and so the size, is known
+        long[][] hashes = {new long[MIN_CAPACITY]};
+        int[] size = {0};
+        treeService.forEach((key, value) -> {
+            if (size[0] == hashes[0].length) {
+                hashes[0] = Arrays.copyOf(hashes[0], size[0] * 2);
+            }
+            hashes[0][size[0]++] = hash(key);
+        });
+        capacity = Math.max(MIN_CAPACITY, size[0] * 2);
+        counters = new byte[(int) Math.min(Integer.MAX_VALUE - 8, (long) capacity * bitsPerKey)];
+        keys = 0;
+        stale = false;
+        rebuilds++;
+        for (int i = 0; i < size[0]; i++) {
+            add(hashes[0][i], 1);
+        }
+        long endTime = System.currentTimeMillis();
+        System.out.println("Built key filter (" + keys + " keys, " + counters.length + " counters) in "
+                + (endTime - startTime) + "ms");
+    }
+
+    // Increments or decrements the counters of a key
+    private void add(long hash, int delta) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < hashFunctions; i++) {
+            int slot = slot(h1 + i * h2);
+            int count = counters[slot] & SATURATED;
+            if (count != SATURATED && count + delta >= 0) {
+                counters[slot] = (byte) (count + delta);
+            }
+        }
+        keys += delta;
+    }
+
+    private int slot(int hash) {
+        return (int) ((hash & 0xFFFFFFFFL) % counters.length);
+    }
+
+    // The chance that all counters of an absent key are in use
+    private double expectedFalsePositiveRate() {
+        if (counters.length == 0) {
+            return 0.0;
+        }
+        int used = 0;
+        for (byte counter : counters) {
+            if (counter != 0) {
+                used++;
+            }
+        }
+        return Math.pow((double) used / counters.length, hashFunctions);
+    }
+
+    // The halves of the key's text hash serve as the two hashes of double hashing
+    private static long hash(Object key) {
+        return TextHash.hash64(key.toString());
+    }
+}
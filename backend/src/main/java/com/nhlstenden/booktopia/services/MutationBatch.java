@@ -0,0 +1,234 @@
+package com.nhlstenden.booktopia.services;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+
+/**
+ * A batch of upserts and deletes that {@link TreeService#applyBatch} applies in one go.
+ * The writes are kept sorted by key, so consecutive tree descents touch neighbouring nodes,
+ * and repeated writes to the same key are coalesced: only the last write of a key is applied.
+ *
+ * @param <K> The type of keys in the trees (must be Comparable)
+ * @param <V> The type of values in the trees
+ */
+public class MutationBatch<K extends Comparable<K>, V> {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    // The last write per key in key order; a null value deletes the key
+    private final TreeMap<K, V> writes = new TreeMap<>();
+    private int operations;
+
+    /**
+     * Adds an insert or update of a key.
+     *
+     * @param key The key to write
+     * @param value The new value
+     */
+    public void upsert(K key, V value) {
+        if (key == null || value == null) {
+            throw new IllegalArgumentException("An upsert needs a key and a value");
+        }
+        writes.put(key, value);
+        operations++;
+    }
+
+    /**
+     * Adds a delete of a key.
+     *
+     * @param key The key to delete
+     */
+    public void delete(K key) {
+        if (key == null) {
+            throw new IllegalArgumentException("A delete needs a key");
+        }
+        writes.put(key, null);
+        operations++;
+    }
+
+    /**
+     * @return The number of operations added, including the ones that were coalesced
+     */
+    public int getOperations() {
+        return operations;
+    }
+
+    /**
+     * @return The number of writes that are applied: one per distinct key
+     */
+    public int size() {
+        return writes.size();
+    }
+
+    /**
+     * Visits the coalesced writes in key order.
+     *
+     * @param action Receives the key and the new value, or null if the key is deleted
+     */
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        writes.forEach(action);
+    }
+
+    /**
+     * Reads a batch from a JSON array of operations, parsing the array as it streams in:
+     * <pre>
+     * [{"op": "upsert", "key": "42", "value": {"title": "..."}},
+     *  {"op": "delete", "key": "43"}]
+     * </pre>
+     *
+     * @param in The JSON input
+     * @return The batch
+     * @throws IOException If the input cannot be read
+     * @throws IllegalArgumentException If the input is not a valid array of operations
+     */
+    public static MutationBatch<String, JSONObject> read(InputStream in) throws IOException {
+        MutationBatch<String, JSONObject> batch = new MutationBatch<>();
+        try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IllegalArgumentException("A batch must be a JSON array of operations");
+            }
+            int index = 0;
+            for (JsonToken token = parser.nextToken(); token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+                if (token != JsonToken.START_OBJECT) {
+                    throw new IllegalArgumentException("Operation " + index + " is not a JSON object");
+                }
+                readOperation(parser, index, batch);
+                index++;
+            }
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Invalid batch JSON: " + e.getOriginalMessage());
+        }
+        return batch;
+    }
+
+    // Reads the fields of one operation object; the parser is positioned on its START_OBJECT
+    private static void readOperation(JsonParser parser, int index, MutationBatch<String, JSONObject> batch)
+            throws IOException {
+        String op = null;
+        String key = null;
+        JSONObject value = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken token = parser.nextToken();
+            switch (field) {
+                case "op":
+                    op = parser.getValueAsString();
+                    break;
+                case "key":
+                    key = token.isScalarValue() && token != JsonToken.VALUE_NULL ? parser.getValueAsString() : null;
+                    break;
+                case "value":
+                    if (token != JsonToken.START_OBJECT) {
+                        throw new IllegalArgumentException("The value of operation " + index + " is not a JSON object");
+                    }
+                    value = readObject(parser);
+                    break;
+                default:
+                    parser.skipChildren();
+                    break;
+            }
+        }
+
+        if (key == null) {
+            throw new IllegalArgumentException("Operation " + index + " has no key");
+        }
+        if ("upsert".equals(op)) {
+            if (value == null) {
+                throw new IllegalArgumentException("Upsert " + index + " has no value");
+            }
+            batch.upsert(key, value);
+        } else if ("delete".equals(op)) {
+            batch.delete(key);
+        } else {
+            throw new IllegalArgumentException("Unknown op in operation " + index + ": " + op
+                    + " (expected upsert or delete)");
+        }
+    }
+
+    // Copies the object the parser is positioned on into a JSONObject
+    private static JSONObject readObject(JsonParser parser) throws IOException {
+        StringWriter json = new StringWriter();
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(json)) {
+            generator.copyCurrentStructure(parser);
+        }
+        return new JSONObject(json.toString());
+    }
+
+    /**
+     * The outcome of an applied batch.
+     */
+    public static class Result {
+        private int inserted;
+        private int updated;
+        private int deleted;
+        private int missing;
+
+        void inserted() {
+            inserted++;
+        }
+
+        void updated() {
+            updated++;
+        }
+
+        void deleted() {
+            deleted++;
+        }
+
+        void missing() {
+            missing++;
+        }
+
+        /**
+         * @return The number of upserts of keys that did not exist yet
+         */
+        public int getInserted() {
+            return inserted;
+        }
+
+        /**
+         * @return The number of upserts that replaced an existing value
+         */
+        public int getUpdated() {
+            return updated;
+        }
+
+        /**
+         * @return The number of deleted keys
+         */
+        public int getDeleted() {
+            return deleted;
+        }
+
+        /**
+         * @return The number of deletes of keys that did not exist
+         */
+        public int getMissing() {
+            return missing;
+        }
+
+        /**
+         * @return The counts as a map for a response
+         */
+        public Map<String, Object> toMap() {
+            Map<String, Object> counts = new HashMap<>();
+            counts.put("inserted", inserted);
+            counts.put("updated", updated);
+            counts.put("deleted", deleted);
+            counts.put("missing", missing);
+            return counts;
+        }
+    }
+}
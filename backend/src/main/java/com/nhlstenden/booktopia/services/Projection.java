@@ -0,0 +1,113 @@
+package com.nhlstenden.booktopia.services;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The columns to include in result rows, as given by a {@code fields} request parameter such as
+ * {@code title,authors,average_rating}. Rows are built from the requested columns only, so the
+ * other properties of a record are never read, copied into the row or serialized. The record key
+ * is always part of a row, because it identifies the row and is the keyset cursor.
+ */
+public final class Projection {
+
+    /** Includes all properties of the records. */
+    public static final Projection ALL = new Projection(null);
+
+    // The requested properties in request order, or null for all properties
+    private final List<String> fields;
+
+    private Projection(List<String> fields) {
+        this.fields = fields == null ? null : Collections.unmodifiableList(fields);
+    }
+
+    /**
+     * Parses a fields parameter: comma separated property names. "key" may be listed but is
+     * always included anyway.
+     *
+     * @param fields The fields parameter (optional; all properties when null or blank)
+     * @return The parsed projection
+     * @throws IllegalArgumentException If a property name is empty
+     */
+    public static Projection parse(String fields) {
+        if (fields == null || fields.isBlank()) {
+            return ALL;
+        }
+        Set<String> names = new LinkedHashSet<>();
+        for (String part : fields.split(",")) {
+            String name = part.trim();
+            if (name.isEmpty()) {
+                throw new IllegalArgumentException("Empty property name in fields parameter: " + fields);
+            }
+            if (!name.equals("key")) {
+                names.add(name);
+            }
+        }
+        return new Projection(new ArrayList<>(names));
+    }
+
+    /**
+     * Creates a projection on the given properties.
+     *
+     * @param fields The properties to include besides the key
+     * @return The projection
+     */
+    public static Projection of(String... fields) {
+        return parse(String.join(",", fields));
+    }
+
+    /**
+     * @return True if all properties are included
+     */
+    public boolean isAll() {
+        return fields == null;
+    }
+
+    /**
+     * @return The requested properties besides the key, or null if all properties are included
+     */
+    public List<String> getFields() {
+        return fields;
+    }
+
+    /**
+     * @param property A property name
+     * @return True if rows include the property
+     */
+    public boolean includes(String property) {
+        return fields == null || property.equals("key") || fields.contains(property);
+    }
+
+    /**
+     * Copies the included properties of a record into a row. With a projection only the
+     * requested properties are looked up; properties the record does not have are left out.
+     *
+     * @param record The record
+     * @param row The row to copy the properties into
+     */
+    public void copy(JSONObject record, Map<String, Object> row) {
+        if (fields == null) {
+            for (String propName : record.keySet()) {
+                row.put(propName, record.get(propName));
+            }
+            return;
+        }
+        for (String propName : fields) {
+            Object propValue = record.opt(propName);
+            if (propValue != null) {
+                row.put(propName, propValue);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return fields == null ? "*" : String.join(",", fields);
+    }
+}
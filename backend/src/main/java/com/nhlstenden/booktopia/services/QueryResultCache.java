@@ -0,0 +1,306 @@
+package com.nhlstenden.booktopia.services;
+
+import com.nhlstenden.booktopia.sorting.Page;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Caches the results of search, sort and display queries, so identical requests are not
+ * recomputed from scratch as long as the data has not changed.
+ *
+ * Entries are keyed by the normalized query and belong to one mutation version of the tree
+ * (see {@link TreeService#getVersion()}); as soon as the version changes, all entries are
+ * dropped. The cache is bounded by the estimated size of the results in bytes
+ * ({@code cache.query.max-size-mb}) and evicts with a segmented LRU policy: new entries start in
+ * a probation segment and move to a protected segment (80% of the capacity) when they are hit
+ * again, so a burst of one-off queries only evicts other one-off queries. Results larger than
+ * half the capacity are not cached.
+ */
+@Service
+public class QueryResultCache {
+
+    // Share of the capacity for entries that were requested more than once
+    private static final double PROTECTED_SHARE = 0.8;
+
+    // Estimated memory of objects without payload: headers, references and hash table slots
+    private static final int OBJECT_BYTES = 16;
+    private static final int REFERENCE_BYTES = 8;
+    private static final int MAP_ENTRY_BYTES = 40;
+
+    private final TreeService<?, ?> treeService;
+    private final long maxWeight;
+    private final Segment probation = new Segment();
+    private final Segment protectedSegment = new Segment();
+    // Guards the segments and counters (a monitor would pin virtual threads waiting for it)
+    private final ReentrantLock lock = new ReentrantLock();
+    private long version = -1;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+    private long rejections;
+
+    /**
+     * Constructs a new QueryResultCache.
+     *
+     * @param treeService The tree service whose version the cached results belong to
+     * @param maxSizeMb The estimated memory in megabytes that cached results may use
+     */
+    public QueryResultCache(TreeService<?, ?> treeService,
+                            @Value("${cache.query.max-size-mb:64}") long maxSizeMb) {
+        if (maxSizeMb < 0) {
+            throw new IllegalArgumentException("cache.query.max-size-mb must not be negative");
+        }
+        this.treeService = treeService;
+        this.maxWeight = maxSizeMb * 1024 * 1024;
+    }
+
+    /**
+     * Returns the cached result of a query, or computes and caches it.
+     *
+     * @param query The normalized query, including every parameter that changes the result
+     * @param loader Computes the result on a miss
+     * @return The result; cached results are shared and must not be modified
+     */
+    public <T> T get(String query, Supplier<T> loader) {
+        return get(query, loader, QueryResultCache::estimateBytes);
+    }
+
+    /**
+     * Returns the cached result of a query, or computes and caches it.
+     *
+     * @param query The normalized query, including every parameter that changes the result
+     * @param loader Computes the result on a miss
+     * @param weigher Estimates the memory of a result in bytes
+     * @return The result; cached results are shared and must not be modified
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String query, Supplier<T> loader, ToLongFunction<? super T> weigher) {
+        long loadVersion;
+        lock.lock();
+        try {
+            loadVersion = treeService.getVersion();
+            invalidateIfChanged(loadVersion);
+            Entry entry = probation.remove(query);
+            if (entry != null) {
+                hits++;
+                promote(query, entry);
+                return (T) entry.value;
+            }
+            entry = protectedSegment.get(query);
+            if (entry != null) {
+                hits++;
+                return (T) entry.value;
+            }
+            misses++;
+        } finally {
+            lock.unlock();
+        }
+
+        // Compute outside the lock, so other queries are not blocked by a slow one
+        T value = loader.get();
+        long weight = query.length() * 2L + MAP_ENTRY_BYTES + weigher.applyAsLong(value);
+
+        lock.lock();
+        try {
+            // A result computed while the data changed may be stale, so it is not cached
+            if (treeService.getVersion() == loadVersion && version == loadVersion) {
+                put(query, new Entry(value, weight));
+            }
+        } finally {
+            lock.unlock();
+        }
+        return value;
+    }
+
+    /**
+     * Drops all cached results.
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            invalidations += probation.size() + protectedSegment.size();
+            probation.clear();
+            protectedSegment.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the cache metrics: hits, misses and hit rate, evictions (entries dropped to make
+     * room), invalidations (entries dropped because the data changed), rejections (results too
+     * large to cache), and the number of entries and their estimated memory use.
+     *
+     * @return The cache metrics
+     */
+    public Map<String, Object> getStats() {
+        lock.lock();
+        try {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            long requests = hits + misses;
+            stats.put("hits", hits);
+            stats.put("misses", misses);
+            stats.put("hitRate", requests == 0 ? 0.0 : (double) hits / requests);
+            stats.put("evictions", evictions);
+            stats.put("invalidations", invalidations);
+            stats.put("rejections", rejections);
+            stats.put("entries", probation.size() + protectedSegment.size());
+            stats.put("protectedEntries", protectedSegment.size());
+            stats.put("weightBytes", probation.weight + protectedSegment.weight);
+            stats.put("maxWeightBytes", maxWeight);
+            stats.put("version", version);
+            return stats;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void invalidateIfChanged(long currentVersion) {
+        if (version != currentVersion) {
+            clear();
+            version = currentVersion;
+        }
+    }
+
+    // Adds a new entry to the probation segment and evicts least recently used entries if the cache is full
+    private void put(String query, Entry entry) {
+        if (entry.weight > maxWeight / 2) {
+            rejections++;
+            return;
+        }
+        // Another request may have loaded the same query in the meantime
+        if (probation.remove(query) == null) {
+            protectedSegment.remove(query);
+        }
+        probation.put(query, entry);
+        while (probation.weight + protectedSegment.weight > maxWeight) {
+            (probation.isEmpty() ? protectedSegment : probation).removeEldest();
+            evictions++;
+        }
+    }
+
+    // Moves an entry that was hit in the probation segment to the protected segment
+    private void promote(String query, Entry entry) {
+        long protectedCapacity = (long) (maxWeight * PROTECTED_SHARE);
+        if (entry.weight > protectedCapacity) {
+            probation.put(query, entry);
+            return;
+        }
+        protectedSegment.put(query, entry);
+        // Entries pushed out of the protected segment get another chance in the probation segment
+        while (protectedSegment.weight > protectedCapacity) {
+            Map.Entry<String, Entry> eldest = protectedSegment.removeEldest();
+            probation.put(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    /**
+     * Estimates the memory of a query result in bytes: maps, lists, pages, JSON records and
+     * their strings and numbers. Values shared with the tree are counted as well, so the
+     * estimate is an upper bound of the memory the cached result keeps alive.
+     *
+     * @param value The result
+     * @return The estimated size in bytes
+     */
+    public static long estimateBytes(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof String) {
+            return OBJECT_BYTES + 24 + ((String) value).length() * 2L;
+        }
+        if (value instanceof Map) {
+            long bytes = OBJECT_BYTES + 32;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                bytes += MAP_ENTRY_BYTES + estimateBytes(entry.getKey()) + estimateBytes(entry.getValue());
+            }
+            return bytes;
+        }
+        if (value instanceof Collection) {
+            long bytes = OBJECT_BYTES + 24;
+            for (Object element : (Collection<?>) value) {
+                bytes += REFERENCE_BYTES + estimateBytes(element);
+            }
+            return bytes;
+        }
+        if (value instanceof JSONObject) {
+            JSONObject jsonObj = (JSONObject) value;
+            long bytes = OBJECT_BYTES + 32;
+            for (String propName : jsonObj.keySet()) {
+                bytes += MAP_ENTRY_BYTES + estimateBytes(propName) + estimateBytes(jsonObj.opt(propName));
+            }
+            return bytes;
+        }
+        if (value instanceof Page) {
+            return OBJECT_BYTES + 32 + estimateBytes(((Page<?>) value).getItems());
+        }
+        return OBJECT_BYTES + REFERENCE_BYTES;
+    }
+
+    /**
+     * A cached result with its estimated size.
+     */
+    private static class Entry {
+        final Object value;
+        final long weight;
+
+        Entry(Object value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * One LRU segment: entries in access order with their total weight.
+     */
+    private static class Segment {
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long weight;
+
+        Entry get(String query) {
+            return entries.get(query);
+        }
+
+        void put(String query, Entry entry) {
+            Entry previous = entries.put(query, entry);
+            weight += entry.weight - (previous == null ? 0 : previous.weight);
+        }
+
+        Entry remove(String query) {
+            Entry entry = entries.remove(query);
+            if (entry != null) {
+                weight -= entry.weight;
+            }
+            return entry;
+        }
+
+        Map.Entry<String, Entry> removeEldest() {
+            Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+            Map.Entry<String, Entry> eldest = iterator.next();
+            iterator.remove();
+            weight -= eldest.getValue().weight;
+            return eldest;
+        }
+
+        boolean isEmpty() {
+            return entries.isEmpty();
+        }
+
+        int size() {
+            return entries.size();
+        }
+
+        void clear() {
+            entries.clear();
+            weight = 0;
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package com.nhlstenden.booktopia.services;
+
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Inverted index for relevance ranked search. Every word of the ranked columns lists the records
+ * that contain it with its number of occurrences per column; a query is scored with BM25F: the
+ * occurrences in each column are normalized by the column's length relative to its average length
+ * and weighted by the column's boost before BM25's saturation is applied, so a query word in a
+ * short title counts more than the same word in a long author list.
+ *
+ * A search walks the postings of the query words only and keeps the best records in a bounded
+ * heap, so the caller only looks up and serializes the top results.
+ *
+ * @param <K> The type of keys in the trees (must be Comparable)
+ * @param <V> The type of values in the trees
+ */
+@Service
+public class RelevanceIndex<K extends Comparable<K>, V> implements TreeChangeListener<K, V> {
+
+    // BM25 term frequency saturation and length normalization
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private final TreeService<K, V> treeService;
+    private final String[] fields;
+    private final double[] boosts;
+    private final ReentrantLock lock = new ReentrantLock();
+    private boolean stale = true;
+
+    // The records containing each word, with the occurrences per ranked column
+    private final Map<String, Map<K, int[]>> postings = new HashMap<>();
+    // The number of words per ranked column of every record, and their sums
+    private final Map<K, int[]> lengths = new HashMap<>();
+    private final long[] totalLengths;
+
+    /**
+     * Constructs a new RelevanceIndex and registers it for tree mutations.
+     *
+     * @param treeService The tree service whose records are indexed
+     * @param fields The comma separated columns to rank by, each with an optional boost, e.g. title^3,authors^2,publisher
+     */
+    public RelevanceIndex(TreeService<K, V> treeService,
+                          @Value("${search.rank.fields:title^3,name^3,authors^2,director^2,writer,star,publisher,genre}") String fields) {
+        this.treeService = treeService;
+        List<String> names = new ArrayList<>();
+        List<Double> weights = new ArrayList<>();
+        for (String field : fields.split(",")) {
+            if (field.isBlank()) {
+                continue;
+            }
+            String[] parts = field.trim().split("\\^", 2);
+            double boost = parts.length == 2 ? Double.parseDouble(parts[1]) : 1.0;
+            if (boost <= 0) {
+                throw new IllegalArgumentException("The boost of " + parts[0] + " must be positive");
+            }
+            names.add(parts[0]);
+            weights.add(boost);
+        }
+        this.fields = names.toArray(new String[0]);
+        this.boosts = new double[weights.size()];
+        for (int i = 0; i < boosts.length; i++) {
+            boosts[i] = weights.get(i);
+        }
+        this.totalLengths = new long[this.fields.length];
+        treeService.addChangeListener(this);
+    }
+
+    /**
+     * Returns the records that contain at least one word of the query, ranked by BM25F.
+     *
+     * @param query The query, e.g. "harry potter prince"
+     * @param limit The maximum number of records to return
+     * @return The best records with their scores, and the number of records that contain a query word
+     */
+    public Result<K> search(String query, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be at least 1");
+        }
+        Set<String> queryWords = new LinkedHashSet<>(FuzzyIndex.tokenize(query == null ? "" : query));
+        lockFresh();
+        try {
+            int documents = lengths.size();
+            double[] averageLengths = new double[fields.length];
+            for (int field = 0; field < fields.length; field++) {
+                averageLengths[field] = documents == 0 ? 0 : (double) totalLengths[field] / documents;
+            }
+
+            // Term at a time: add the contribution of every query word to the scores of its records
+            Map<K, Double> scores = new HashMap<>();
+            for (String word : queryWords) {
+                Map<K, int[]> records = postings.get(word);
+                if (records == null) {
+                    continue;
+                }
+                double idf = Math.log(1 + (documents - records.size() + 0.5) / (records.size() + 0.5));
+                for (Map.Entry<K, int[]> posting : records.entrySet()) {
+                    double frequency = weightedFrequency(posting.getValue(), lengths.get(posting.getKey()), averageLengths);
+                    scores.merge(posting.getKey(), idf * frequency / (K1 + frequency), Double::sum);
+                }
+            }
+
+            // Keep the best records in a heap whose head is the worst of them
+            Comparator<Map.Entry<K, Double>> ranking = Map.Entry.<K, Double>comparingByValue().reversed()
+                    .thenComparing(Map.Entry.comparingByKey());
+            PriorityQueue<Map.Entry<K, Double>> best = new PriorityQueue<>(Math.min(limit, scores.size()) + 1, ranking.reversed());
+            for (Map.Entry<K, Double> score : scores.entrySet()) {
+                if (best.size() < limit) {
+                    best.add(score);
+                } else if (ranking.compare(score, best.peek()) < 0) {
+                    best.poll();
+                    best.add(score);
+                }
+            }
+            List<Map.Entry<K, Double>> matches = new ArrayList<>(best);
+            matches.sort(ranking);
+            return new Result<>(matches, scores.size());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of distinct words in the ranked columns
+     */
+    public int size() {
+        lockFresh();
+        try {
+            return postings.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onInsert(K key, V previous, V value) {
+        lock.lock();
+        try {
+            if (stale) {
+                return;
+            }
+            if (previous != null) {
+                updateRecord(key, previous, -1);
+            }
+            updateRecord(key, value, 1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onDelete(K key, V previous) {
+        lock.lock();
+        try {
+            if (!stale && previous != null) {
+                updateRecord(key, previous, -1);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onReset() {
+        lock.lock();
+        try {
+            stale = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Takes the lock with the index up to date. A stale index is rebuilt under the tree's write
+    // lock, taken before the index's own lock as writers do, so no write can change the tree
+    // during the traversal and then reach the rebuilt index twice or not at all
+    private void lockFresh() {
+        lock.lock();
+        while (stale) {
+            lock.unlock();
+            treeService.runExclusively(() -> {
+                lock.lock();
+                try {
+                    refreshIfStale();
+                } finally {
+                    lock.unlock();
+                }
+            });
+            lock.lock();
+        }
+    }
+
+    // Rebuilds the index from the tree after a reset, with the tree's write lock held
+    private void refreshIfStale() {
+        if (!stale) {
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        postings.clear();
+        lengths.clear();
+        Arrays.fill(totalLengths, 0);
+        stale = false;
+        treeService.forEach((key, value) -> updateRecord(key, value, 1));
+        long endTime = System.currentTimeMillis();
+        System.out.println("Built relevance index (" + postings.size() + " words, " + lengths.size() + " records) in "
+                + (endTime - startTime) + "ms");
+    }
+
+    // Adds or removes the words of the ranked columns of a record
+    private void updateRecord(K key, V value, int delta) {
+        if (!(value instanceof JSONObject)) {
+            return;
+        }
+        JSONObject jsonObj = (JSONObject) value;
+        int[] length = new int[fields.length];
+        Map<String, int[]> frequencies = new HashMap<>();
+        for (int field = 0; field < fields.length; field++) {
+            Object propValue = jsonObj.opt(fields[field]);
+            if (propValue == null || propValue == JSONObject.NULL) {
+                continue;
+            }
+            for (String word : FuzzyIndex.tokenize(propValue.toString())) {
+                frequencies.computeIfAbsent(word, w -> new int[fields.length])[field]++;
+                length[field]++;
+            }
+        }
+
+        for (int field = 0; field < fields.length; field++) {
+            totalLengths[field] += delta * length[field];
+        }
+        if (delta > 0) {
+            lengths.put(key, length);
+            for (Map.Entry<String, int[]> frequency : frequencies.entrySet()) {
+                postings.computeIfAbsent(frequency.getKey(), w -> new HashMap<>()).put(key, frequency.getValue());
+            }
+        } else {
+            lengths.remove(key);
+            for (String word : frequencies.keySet()) {
+                Map<K, int[]> records = postings.get(word);
+                if (records != null) {
+                    records.remove(key);
+                    if (records.isEmpty()) {
+                        postings.remove(word);
+                    }
+                }
+            }
+        }
+    }
+
+    // The boosted occurrences of a word in a record, each column normalized by its relative length
+    private double weightedFrequency(int[] frequencies, int[] length, double[] averageLengths) {
+        double weighted = 0;
+        for (int field = 0; field < fields.length; field++) {
+            if (frequencies[field] > 0) {
+                double norm = 1 - B + B * length[field] / averageLengths[field];
+                weighted += boosts[field] * frequencies[field] / norm;
+            }
+        }
+        return weighted;
+    }
+
+    /**
+     * The outcome of a ranked search.
+     *
+     * @param <K> The type of keys
+     */
+    public static class Result<K> {
+        private final List<Map.Entry<K, Double>> matches;
+        private final int total;
+
+        Result(List<Map.Entry<K, Double>> matches, int total) {
+            this.matches = matches;
+            this.total = total;
+        }
+
+        /**
+         * @return The keys of the best records with their scores, best first
+         */
+        public List<Map.Entry<K, Double>> getMatches() {
+            return matches;
+        }
+
+        /**
+         * @return The number of records that contain a query word, including those beyond the limit
+         */
+        public int getTotal() {
+            return total;
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package com.nhlstenden.booktopia.services;
+
+import com.nhlstenden.booktopia.sorting.ColumnType;
+import org.json.JSONObject;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps the schema of the stored records: the column names, their inferred types, null counts
+ * and estimated number of distinct values. The registry is updated on every insert and delete
+ * (including every row of a CSV import), so column discovery no longer has to traverse the tree.
+ *
+ * Types are inferred from mismatch counts per type that are maintained incrementally, with the
+ * same rules as {@link ColumnType#infer}. Distinct values are estimated with a HyperLogLog sketch
+ * per column (about 2% error); deletes do not lower the estimate until the registry is rebuilt.
+ * A column is dropped as soon as the last record that has it, even with a blank value, is removed.
+ * After the tree is cleared or replaced (import, conversion) the registry is rebuilt from the
+ * tree the next time it is used.
+ *
+ * @param <K> The type of keys in the trees (must be Comparable)
+ * @param <V> The type of values in the trees
+ */
+@Service
+public class SchemaRegistry<K extends Comparable<K>, V> implements TreeChangeListener<K, V> {
+
+    private final TreeService<K, V> treeService;
+    // A lock rather than synchronized, so waiting virtual threads do not pin their carrier thread
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, ColumnStats> columns = new HashMap<>();
+    private List<String> columnNames = Collections.emptyList();
+    private int rows;
+    private boolean stale = true;
+
+    /**
+     * Constructs a new SchemaRegistry and registers it for tree mutations.
+     *
+     * @param treeService The tree service whose records are described
+     */
+    public SchemaRegistry(TreeService<K, V> treeService) {
+        this.treeService = treeService;
+        treeService.addChangeListener(this);
+    }
+
+    /**
+     * @return The names of all columns of the records in alphabetical order, without "key"
+     */
+    public List<String> getColumnNames() {
+        lockFresh();
+        try {
+            return columnNames;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the inferred type of a column.
+     *
+     * @param column The column name
+     * @return The column type, or null if no record has the column
+     */
+    public ColumnType getType(String column) {
+        lockFresh();
+        try {
+            ColumnStats stats = columns.get(column);
+            return stats == null ? null : stats.type();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of records
+     */
+    public int getRowCount() {
+        lockFresh();
+        try {
+            return rows;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the schema of one column.
+     *
+     * @param column The column name
+     * @return The column schema, or null if no record has the column
+     */
+    public ColumnSchema getColumn(String column) {
+        lockFresh();
+        try {
+            ColumnStats stats = columns.get(column);
+            return stats == null ? null : stats.toSchema(column, rows);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The schema of all columns in alphabetical order
+     */
+    public List<ColumnSchema> getColumns() {
+        lockFresh();
+        try {
+            List<ColumnSchema> schema = new ArrayList<>(columnNames.size());
+            for (String column : columnNames) {
+                schema.add(columns.get(column).toSchema(column, rows));
+            }
+            return schema;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onInsert(K key, V previous, V value) {
+        lock.lock();
+        try {
+            // A rebuild already sees the inserted record
+            if (refreshIfStale()) {
+                return;
+            }
+            if (previous != null) {
+                remove(previous);
+            }
+            if (value != null) {
+                add(value);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onDelete(K key, V previous) {
+        lock.lock();
+        try {
+            if (refreshIfStale()) {
+                return;
+            }
+            if (previous != null) {
+                remove(previous);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onReset() {
+        lock.lock();
+        try {
+            columns.clear();
+            columnNames = Collections.emptyList();
+            rows = 0;
+            stale = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Takes the lock with the registry up to date. A stale registry is rebuilt under the tree's
+    // write lock, taken before the registry's own lock as writers do, so no write can change the
+    // tree during the traversal and then reach the rebuilt registry twice or not at all
+    private void lockFresh() {
+        lock.lock();
+        while (stale) {
+            lock.unlock();
+            treeService.runExclusively(() -> {
+                lock.lock();
+                try {
+                    refreshIfStale();
+                } finally {
+                    lock.unlock();
+                }
+            });
+            lock.lock();
+        }
+    }
+
+    // Rebuilds the registry from the tree after a reset, with the tree's write lock held; returns
+    // true if it was rebuilt
+    private boolean refreshIfStale() {
+        if (!stale) {
+            return false;
+        }
+        long startTime = System.currentTimeMillis();
+        stale = false;
+        treeService.forEach((key, value) -> {
+            if (value != null) {
+                add(value);
+            }
+        });
+        long endTime = System.currentTimeMillis();
+        System.out.println("Rebuilt schema registry (" + rows + " rows, " + columns.size() + " columns) in "
+                + (endTime - startTime) + "ms");
+        return true;
+    }
+
+    private void add(V value) {
+        rows++;
+        if (!(value instanceof JSONObject)) {
+            return;
+        }
+        JSONObject jsonObj = (JSONObject) value;
+        for (String column : jsonObj.keySet()) {
+            ColumnStats stats = columns.get(column);
+            if (stats == null) {
+                stats = new ColumnStats();
+                columns.put(column, stats);
+                updateColumnNames();
+            }
+            stats.add(jsonObj.opt(column));
+        }
+    }
+
+    private void remove(V value) {
+        rows--;
+        if (!(value instanceof JSONObject)) {
+            return;
+        }
+        JSONObject jsonObj = (JSONObject) value;
+        for (String column : jsonObj.keySet()) {
+            ColumnStats stats = columns.get(column);
+            if (stats != null) {
+                stats.remove(jsonObj.opt(column));
+                // The last record with the column is gone
+                if (stats.records == 0) {
+                    columns.remove(column);
+                    updateColumnNames();
+                }
+            }
+        }
+    }
+
+    private void updateColumnNames() {
+        List<String> names = new ArrayList<>(columns.keySet());
+        Collections.sort(names);
+        columnNames = Collections.unmodifiableList(names);
+    }
+
+    /**
+     * The running statistics of one column.
+     */
+    private static class ColumnStats {
+        // Number of registers of the HyperLogLog sketch, 2^PRECISION
+        private static final int PRECISION = 11;
+        private static final int REGISTERS = 1 << PRECISION;
+
+        // The records that have the column, including those with a blank value
+        private int records;
+        private int present;
+        private int integerMismatches;
+        private int decimalMismatches;
+        private int dateMismatches;
+        private final byte[] registers = new byte[REGISTERS];
+
+        void add(Object value) {
+            records++;
+            update(value, 1);
+            if (!ColumnType.isBlank(value)) {
+                long hash = TextHash.hash64(value.toString());
+                int register = (int) (hash >>> (64 - PRECISION));
+                int rank = Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1;
+                if (rank > registers[register]) {
+                    registers[register] = (byte) rank;
+                }
+            }
+        }
+
+        void remove(Object value) {
+            records--;
+            update(value, -1);
+        }
+
+        private void update(Object value, int delta) {
+            if (ColumnType.isBlank(value)) {
+                return;
+            }
+            present += delta;
+            if (!ColumnType.INTEGER.accepts(value)) {
+                integerMismatches += delta;
+            }
+            if (!ColumnType.DECIMAL.accepts(value)) {
+                decimalMismatches += delta;
+            }
+            if (!ColumnType.DATE.accepts(value)) {
+                dateMismatches += delta;
+            }
+        }
+
+        ColumnType type() {
+            return ColumnType.fromMismatches(present, integerMismatches, decimalMismatches, dateMismatches);
+        }
+
+        // Estimates the number of distinct values with the HyperLogLog estimator and the
+        // linear counting correction for small cardinalities
+        long distinctEstimate() {
+            double sum = 0;
+            int zeros = 0;
+            for (byte register : registers) {
+                sum += 1.0 / (1L << register);
+                if (register == 0) {
+                    zeros++;
+                }
+            }
+            double alpha = 0.7213 / (1 + 1.079 / REGISTERS);
+            double estimate = alpha * REGISTERS * REGISTERS / sum;
+            if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+                estimate = REGISTERS * Math.log((double) REGISTERS / zeros);
+            }
+            return Math.min(Math.round(estimate), present);
+        }
+
+        ColumnSchema toSchema(String name, int rows) {
+            return new ColumnSchema(name, type(), present, rows - present, distinctEstimate());
+        }
+    }
+
+    /**
+     * The schema of one column: its name, inferred type, how many records have a value for it,
+     * how many do not (missing or blank), and the estimated number of distinct values.
+     */
+    public static class ColumnSchema {
+        private final String name;
+        private final ColumnType type;
+        private final int valueCount;
+        private final int nullCount;
+        private final long distinctEstimate;
+
+        public ColumnSchema(String name, ColumnType type, int valueCount, int nullCount, long distinctEstimate) {
+            this.name = name;
+            this.type = type;
+            this.valueCount = valueCount;
+            this.nullCount = nullCount;
+            this.distinctEstimate = distinctEstimate;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public ColumnType getType() {
+            return type;
+        }
+
+        public int getValueCount() {
+            return valueCount;
+        }
+
+        public int getNullCount() {
+            return nullCount;
+        }
+
+        public long getDistinctEstimate() {
+            return distinctEstimate;
+        }
+    }
+}
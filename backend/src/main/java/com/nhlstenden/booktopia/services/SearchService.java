@@ -3,7 +3,11 @@ package com.nhlstenden.booktopia.services;
 import org.json.JSONObject;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.function.BooleanSupplier;
 
 /**
  * Service for searching data in the tree structures.
@@ -15,9 +19,30 @@ import java.util.*;
 @Service
 public class SearchService<K extends Comparable<K>, V> {
 
+    // Trees smaller than this are searched in one piece
+    private static final int MIN_CHUNK_SIZE = 2048;
+    
+    // Records a streamed search scans between checks for cancellation
+    private static final int STREAM_CHUNK_SIZE = 256;
+    
+    // Longest time a streamed search holds back found matches while it fills a batch
+    private static final long STREAM_FLUSH_INTERVAL_MS = 50;
+
     @Autowired
     private TreeService<K, V> treeService;
     
+    @Autowired
+    private FanOutExecutor fanOutExecutor;
+    
+    @Autowired
+    private FuzzyIndex<K, V> fuzzyIndex;
+    
+    @Autowired
+    private KeyFilter<K, V> keyFilter;
+    
+    @Autowired
+    private RelevanceIndex<K, V> relevanceIndex;
+    
     /**
      * Searches for data in the current tree structure.
      * This method uses the tree-specific search algorithms when possible for exact key matches,
@@ -27,6 +52,18 @@ public class SearchService<K extends Comparable<K>, V> {
      * @return A map containing the search results and the search method used
      */
     public Map<String, Object> searchData(String query) {
+        return searchData(query, Projection.ALL);
+    }
+    
+    /**
+     * Searches for data in the current tree structure like {@link #searchData(String)}, but only
+     * copies the requested fields of the matches into the results. All fields are still searched.
+     * 
+     * @param query The search query
+     * @param projection The fields to include in the results besides the key
+     * @return A map containing the search results and the search method used
+     */
+    public Map<String, Object> searchData(String query, Projection projection) {
         long startTime = System.currentTimeMillis();
         
         if (query == null || query.trim().isEmpty()) {
@@ -48,18 +85,15 @@ public class SearchService<K extends Comparable<K>, V> {
         // First, try an exact key search using the tree's native search algorithm
         try {
             // Try to use the query as a key for exact match - use String directly since our keys are Strings
-            V exactMatch = treeService.search((K) query);
+            V exactMatch = findExact(query);
             if (exactMatch != null) {
                 // Found an exact match by key
                 Map<String, Object> result = new HashMap<>();
                 result.put("key", query);
                 
-                // Add all fields from the value
+                // Add the requested fields from the value
                 if (exactMatch instanceof JSONObject) {
-                    JSONObject jsonObject = (JSONObject) exactMatch;
-                    for (String field : jsonObject.keySet()) {
-                        result.put(field, jsonObject.get(field));
-                    }
+                    projection.copy((JSONObject) exactMatch, result);
                 } else {
                     result.put("value", exactMatch);
                 }
@@ -77,63 +111,25 @@ public class SearchService<K extends Comparable<K>, V> {
             System.out.println("Could not perform exact key search: " + e.getMessage());
         }
         
-        // Get all keys and values for partial matching
-        List<K> keys = treeService.getAllKeys();
-        List<V> values = treeService.getAllValues();
+        // Collect the keys and values in one traversal, so the chunks see aligned pairs
+        List<K> keys = new ArrayList<>();
+        List<V> values = new ArrayList<>();
+        treeService.forEach((key, value) -> {
+            keys.add(key);
+            values.add(value);
+        });
         
-        // Search through all data for partial matches
-        for (int i = 0; i < keys.size(); i++) {
-            K key = keys.get(i);
-            V value = i < values.size() ? values.get(i) : null;
-            
-            // Skip if this key was already added as an exact match
-            if (key.equals(query) && !results.isEmpty()) {
-                continue;
-            }
-            
-            boolean matches = false;
-            
-            // Check if key contains the query
-            if (key.toString().toLowerCase().contains(lowerQuery)) {
-                matches = true;
-            }
-            
-            // Check if any value contains the query
-            if (!matches && value != null) {
-                if (value instanceof JSONObject) {
-                    JSONObject jsonObject = (JSONObject) value;
-                    for (String field : jsonObject.keySet()) {
-                        String fieldValue = jsonObject.get(field).toString();
-                        if (fieldValue.toLowerCase().contains(lowerQuery)) {
-                            matches = true;
-                            break;
-                        }
-                    }
-                } else {
-                    String valueString = value.toString();
-                    if (valueString.toLowerCase().contains(lowerQuery)) {
-                        matches = true;
-                    }
-                }
-            }
-            
-            // If there's a match, add to results
-            if (matches) {
-                Map<String, Object> result = new HashMap<>();
-                result.put("key", key);
-                
-                // Add all fields from the value
-                if (value instanceof JSONObject) {
-                    JSONObject jsonObject = (JSONObject) value;
-                    for (String field : jsonObject.keySet()) {
-                        result.put(field, jsonObject.get(field));
-                    }
-                } else {
-                    result.put("value", value);
-                }
-                
-                results.add(result);
-            }
+        // Search through all data for partial matches, in chunks that run concurrently on large trees
+        boolean skipQueryKey = !results.isEmpty();
+        int chunks = Math.max(1, Math.min(fanOutExecutor.getParallelism(), keys.size() / MIN_CHUNK_SIZE));
+        List<Callable<List<Map<String, Object>>>> tasks = new ArrayList<>(chunks);
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            int from = (int) ((long) keys.size() * chunk / chunks);
+            int to = (int) ((long) keys.size() * (chunk + 1) / chunks);
+            tasks.add(() -> findMatches(keys, values, from, to, query, lowerQuery, skipQueryKey, projection));
+        }
+        for (List<Map<String, Object>> matches : fanOutExecutor.invokeAll(tasks)) {
+            results.addAll(matches);
         }
         
         long endTime = System.currentTimeMillis();
@@ -147,4 +143,276 @@ public class SearchService<K extends Comparable<K>, V> {
         
         return resultMap;
     }
+    
+    /**
+     * Searches typo-tolerantly: finds the records that contain, for every word of the query, a word
+     * of their key or text columns within a few edits (see {@link FuzzyIndex}), so "Harri Poter"
+     * finds the Harry Potter books. Results are ranked by their total number of edits.
+     * 
+     * @param query The search query
+     * @param maxDistance The number of edits allowed per query word, or null to depend on the word length
+     * @param limit The maximum number of results
+     * @param projection The fields to include in the results besides the key
+     * @return A map containing the search results, the search method used and the matched words
+     */
+    public Map<String, Object> fuzzySearch(String query, Integer maxDistance, int limit, Projection projection) {
+        long startTime = System.currentTimeMillis();
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be at least 1");
+        }
+        
+        FuzzyIndex.Result<K> fuzzyResult = fuzzyIndex.search(query, maxDistance, limit);
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (Map.Entry<K, Integer> match : fuzzyResult.getMatches()) {
+            V value = treeService.search(match.getKey());
+            Map<String, Object> result = new HashMap<>();
+            result.put("key", match.getKey());
+            result.put("distance", match.getValue());
+            if (value instanceof JSONObject) {
+                projection.copy((JSONObject) value, result);
+            } else if (value != null) {
+                result.put("value", value);
+            }
+            results.add(result);
+        }
+        
+        long endTime = System.currentTimeMillis();
+        System.out.println("fuzzySearch processing time: " + (endTime - startTime) + "ms (" + fuzzyResult.getVisitedWords()
+                + " of " + fuzzyResult.getDictionarySize() + " words compared)");
+        
+        Map<String, Object> resultMap = new HashMap<>();
+        resultMap.put("results", results);
+        resultMap.put("total", fuzzyResult.getTotal());
+        resultMap.put("expansions", fuzzyResult.getExpansions());
+        resultMap.put("searchMethod", "Fuzzy Search");
+        resultMap.put("processingTimeMs", endTime - startTime);
+        return resultMap;
+    }
+    
+    /**
+     * Searches by relevance: scores the records that contain any word of the query with BM25 over
+     * the ranked columns (see {@link RelevanceIndex}) and returns only the best ones, best first.
+     * 
+     * @param query The search query
+     * @param limit The number of results to return
+     * @param projection The fields to include in the results besides the key
+     * @return A map containing the best results with their scores, the number of matching records and the search method used
+     */
+    public Map<String, Object> rankedSearch(String query, int limit, Projection projection) {
+        long startTime = System.currentTimeMillis();
+        
+        RelevanceIndex.Result<K> ranked = relevanceIndex.search(query, limit);
+        List<Map<String, Object>> results = new ArrayList<>(ranked.getMatches().size());
+        for (Map.Entry<K, Double> match : ranked.getMatches()) {
+            V value = treeService.search(match.getKey());
+            Map<String, Object> result = new HashMap<>();
+            result.put("key", match.getKey());
+            result.put("score", match.getValue());
+            if (value instanceof JSONObject) {
+                projection.copy((JSONObject) value, result);
+            } else if (value != null) {
+                result.put("value", value);
+            }
+            results.add(result);
+        }
+        
+        long endTime = System.currentTimeMillis();
+        System.out.println("rankedSearch processing time: " + (endTime - startTime) + "ms (top " + results.size()
+                + " of " + ranked.getTotal() + " matches)");
+        
+        Map<String, Object> resultMap = new HashMap<>();
+        resultMap.put("results", results);
+        resultMap.put("total", ranked.getTotal());
+        resultMap.put("searchMethod", "Ranked Search (BM25)");
+        resultMap.put("processingTimeMs", endTime - startTime);
+        return resultMap;
+    }
+    
+    /**
+     * Searches like {@link #searchData(String, Projection)}, but hands out the results while the
+     * search runs: first the record whose key equals the query, found with the tree's own search,
+     * then the partial matches in key order in batches. The records are matched while the tree is
+     * traversed, without copying it; before the key lookup and between chunks of records the search
+     * checks whether it was cancelled and stops right away if so.
+     * 
+     * @param query The search query
+     * @param projection The fields to include in the results besides the key
+     * @param batchSize The maximum number of partial matches per batch
+     * @param cancelled Returns true once the results are no longer wanted
+     * @param sink Receives the exact match and the batches of partial matches
+     * @return The number of matches handed out, or -1 if the search was cancelled
+     * @throws IOException If the sink fails to pass on results
+     */
+    public int streamSearch(String query, Projection projection, int batchSize, BooleanSupplier cancelled,
+                            MatchSink sink) throws IOException {
+        long startTime = System.currentTimeMillis();
+        if (query == null || query.trim().isEmpty()) {
+            return 0;
+        }
+        if (cancelled.getAsBoolean()) {
+            return -1;
+        }
+        String lowerQuery = query.toLowerCase();
+        int count = 0;
+        
+        V exactMatch = findExact(query);
+        if (exactMatch != null) {
+            Map<String, Object> result = new HashMap<>();
+            result.put("key", query);
+            if (exactMatch instanceof JSONObject) {
+                projection.copy((JSONObject) exactMatch, result);
+            } else {
+                result.put("value", exactMatch);
+            }
+            sink.exactMatch(result);
+            count++;
+        }
+        
+        // The records are matched while the tree is traversed, so a cancelled search stops
+        // without having read or copied the rest of the tree
+        boolean skipQueryKey = exactMatch != null;
+        int[] scanned = {0};
+        int[] handedOut = {count};
+        long[] lastFlush = {System.currentTimeMillis()};
+        List<Map<String, Object>> batch = new ArrayList<>();
+        boolean[] stopped = {false};
+        try {
+            treeService.forEachInRange(null, null, (key, value) -> {
+                if (scanned[0]++ % STREAM_CHUNK_SIZE == 0) {
+                    if (cancelled.getAsBoolean()) {
+                        System.out.println("streamSearch cancelled after " + (scanned[0] - 1) + " records");
+                        stopped[0] = true;
+                        return false;
+                    }
+                    
+                    // Hand out full batches, and a partial one when the last one went out a while ago
+                    try {
+                        while (batch.size() >= batchSize) {
+                            List<Map<String, Object>> full = new ArrayList<>(batch.subList(0, batchSize));
+                            batch.subList(0, batchSize).clear();
+                            sink.matches(full);
+                            handedOut[0] += full.size();
+                            lastFlush[0] = System.currentTimeMillis();
+                        }
+                        if (!batch.isEmpty() && System.currentTimeMillis() - lastFlush[0] >= STREAM_FLUSH_INTERVAL_MS) {
+                            sink.matches(new ArrayList<>(batch));
+                            handedOut[0] += batch.size();
+                            batch.clear();
+                            lastFlush[0] = System.currentTimeMillis();
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                Map<String, Object> match = matchRecord(key, value, query, lowerQuery, skipQueryKey, projection);
+                if (match != null) {
+                    batch.add(match);
+                }
+                return true;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (stopped[0] || cancelled.getAsBoolean()) {
+            return -1;
+        }
+        count = handedOut[0];
+        for (int from = 0; from < batch.size(); from += batchSize) {
+            List<Map<String, Object>> last = new ArrayList<>(batch.subList(from, Math.min(batch.size(), from + batchSize)));
+            sink.matches(last);
+            count += last.size();
+        }
+        
+        long endTime = System.currentTimeMillis();
+        System.out.println("streamSearch processing time: " + (endTime - startTime) + "ms");
+        return count;
+    }
+    
+    /**
+     * Receives the results of {@link #streamSearch} as they are found.
+     */
+    public interface MatchSink {
+        void exactMatch(Map<String, Object> match) throws IOException;
+        
+        void matches(List<Map<String, Object>> batch) throws IOException;
+    }
+    
+    // Looks up the query as a key, skipping the tree when the key filter rules the key out
+    private V findExact(String query) {
+        if (!keyFilter.mightContain((K) query)) {
+            return null;
+        }
+        V exactMatch = treeService.search((K) query);
+        if (exactMatch == null) {
+            keyFilter.falsePositive();
+        }
+        return exactMatch;
+    }
+    
+    /**
+     * Finds the records in a range of the keys whose key or any value contains the query.
+     */
+    private List<Map<String, Object>> findMatches(List<K> keys, List<V> values, int from, int to, String query,
+                                                  String lowerQuery, boolean skipQueryKey, Projection projection) {
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            Map<String, Object> result = matchRecord(keys.get(i), values.get(i), query, lowerQuery, skipQueryKey, projection);
+            if (result != null) {
+                results.add(result);
+            }
+        }
+        return results;
+    }
+    
+    /**
+     * Returns the search result for a record whose key or any value contains the query, or null
+     * if the record does not match.
+     */
+    private Map<String, Object> matchRecord(K key, V value, String query, String lowerQuery, boolean skipQueryKey,
+                                            Projection projection) {
+        // Skip if this key was already added as an exact match
+        if (skipQueryKey && key.equals(query)) {
+            return null;
+        }
+        
+        boolean matches = false;
+        
+        // Check if key contains the query
+        if (key.toString().toLowerCase().contains(lowerQuery)) {
+            matches = true;
+        }
+        
+        // Check if any value contains the query
+        if (!matches && value != null) {
+            if (value instanceof JSONObject) {
+                JSONObject jsonObject = (JSONObject) value;
+                for (String field : jsonObject.keySet()) {
+                    String fieldValue = jsonObject.get(field).toString();
+                    if (fieldValue.toLowerCase().contains(lowerQuery)) {
+                        matches = true;
+                        break;
+                    }
+                }
+            } else {
+                String valueString = value.toString();
+                if (valueString.toLowerCase().contains(lowerQuery)) {
+                    matches = true;
+                }
+            }
+        }
+        
+        if (!matches) {
+            return null;
+        }
+        Map<String, Object> result = new HashMap<>();
+        result.put("key", key);
+        
+        // Add the requested fields from the value
+        if (value instanceof JSONObject) {
+            projection.copy((JSONObject) value, result);
+        } else {
+            result.put("value", value);
+        }
+        return result;
+    }
 }
\ No newline at end of file
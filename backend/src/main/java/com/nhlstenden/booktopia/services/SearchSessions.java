@@ -0,0 +1,92 @@
+package com.nhlstenden.booktopia.services;
+
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Tracks the running streamed search of every client, so a search that is superseded by a newer
+ * query of the same client (the next keystroke in the search bar) is cancelled instead of scanning
+ * the rest of the tree for results nobody reads anymore.
+ */
+@Service
+public class SearchSessions {
+
+    private final ConcurrentMap<String, Session> running = new ConcurrentHashMap<>();
+
+    /**
+     * Starts a search session, cancelling the running session of the same client.
+     *
+     * @param clientId Identifies the client, e.g. one browser tab (optional; sessions without a
+     *                 client id never supersede each other)
+     * @return The new session
+     */
+    public Session start(String clientId) {
+        Session session = new Session(clientId);
+        if (clientId != null) {
+            Session previous = running.put(clientId, session);
+            if (previous != null) {
+                previous.supersede();
+            }
+        }
+        return session;
+    }
+
+    /**
+     * Ends a session; the client has no running search afterwards unless it started a newer one.
+     *
+     * @param session The session to end
+     */
+    public void finish(Session session) {
+        if (session.clientId != null) {
+            running.remove(session.clientId, session);
+        }
+    }
+
+    /**
+     * @return The number of clients with a running search
+     */
+    public int getRunning() {
+        return running.size();
+    }
+
+    /**
+     * One streamed search of a client.
+     */
+    public static class Session {
+        private final String clientId;
+        private volatile boolean cancelled;
+        private volatile boolean superseded;
+
+        Session(String clientId) {
+            this.clientId = clientId;
+        }
+
+        /**
+         * Cancels the search, e.g. because the client disconnected.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        void supersede() {
+            superseded = true;
+            cancelled = true;
+        }
+
+        /**
+         * @return True if the search should stop
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * @return True if the search was cancelled by a newer search of the same client
+         */
+        public boolean isSuperseded() {
+            return superseded;
+        }
+    }
+}
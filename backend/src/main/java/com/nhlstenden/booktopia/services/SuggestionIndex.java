@@ -0,0 +1,452 @@
+package com.nhlstenden.booktopia.services;
+
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Prefix index for typeahead suggestions over the record keys and a few text columns (titles and
+ * names). The values are stored in a ternary search trie, case-insensitively, with the number of
+ * records that have each value as its popularity. Multi-valued columns such as authors list their
+ * values separated by '/'; every value is suggested on its own.
+ *
+ * The trie lives in parallel arrays instead of one object per node. Every node caches the most
+ * popular values below it, so a suggestion only walks down the prefix and reads the cached list.
+ * The index is updated on every insert and delete; an update drops the cached lists on its path
+ * only, and they are rebuilt from the cached lists of the children on the next lookup.
+ *
+ * @param <K> The type of keys in the trees (must be Comparable)
+ * @param <V> The type of values in the trees
+ */
+@Service
+public class SuggestionIndex<K extends Comparable<K>, V> implements TreeChangeListener<K, V> {
+
+    /** The largest number of suggestions per lookup. */
+    public static final int MAX_SUGGESTIONS = 20;
+
+    private static final int NO_NODE = -1;
+    private static final int[] NO_TERMS = new int[0];
+    private static final int INITIAL_NODES = 1024;
+
+    private final TreeService<K, V> treeService;
+    private final List<String> columns;
+    private final ReentrantLock lock = new ReentrantLock();
+    private boolean stale = true;
+
+    // Trie nodes: the character, the lower, equal and higher child, and the value ending here
+    private char[] chars = new char[INITIAL_NODES];
+    private int[] lower = new int[INITIAL_NODES];
+    private int[] equal = new int[INITIAL_NODES];
+    private int[] higher = new int[INITIAL_NODES];
+    private int[] termOf = new int[INITIAL_NODES];
+    // The most popular values below each node, or null until a lookup needs them
+    private int[][] topTerms = new int[INITIAL_NODES][];
+    private int nodes;
+    private int root = NO_NODE;
+
+    // Values by term id: the text as first seen and the number of records per column (0 is the key)
+    private final List<String> termTexts = new ArrayList<>();
+    private final List<int[]> termCounts = new ArrayList<>();
+    private final Map<String, Integer> termIds = new HashMap<>();
+
+    /**
+     * Constructs a new SuggestionIndex and registers it for tree mutations.
+     *
+     * @param treeService The tree service whose records are indexed
+     * @param columns The comma separated columns to suggest values of, besides the keys
+     */
+    public SuggestionIndex(TreeService<K, V> treeService,
+                           @Value("${suggest.columns:title,authors,director,star}") String columns) {
+        this.treeService = treeService;
+        this.columns = parseColumns(columns);
+        treeService.addChangeListener(this);
+    }
+
+    /**
+     * Parses a comma separated list of column names, such as the value of {@code suggest.columns}.
+     *
+     * @param columns The comma separated column names; blank entries are skipped
+     * @return The trimmed column names in their order
+     */
+    static List<String> parseColumns(String columns) {
+        List<String> names = new ArrayList<>();
+        for (String column : columns.split(",")) {
+            if (!column.isBlank()) {
+                names.add(column.trim());
+            }
+        }
+        return Collections.unmodifiableList(names);
+    }
+
+    /**
+     * @return The indexed columns besides the keys
+     */
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    /**
+     * Returns the most popular values that start with a prefix, ignoring case.
+     *
+     * @param prefix The typed prefix; all values when empty
+     * @param limit The maximum number of suggestions, at most {@link #MAX_SUGGESTIONS}
+     * @return The suggestions, most popular first and alphabetically among equally popular ones
+     */
+    public List<Suggestion> suggest(String prefix, int limit) {
+        if (limit < 1 || limit > MAX_SUGGESTIONS) {
+            throw new IllegalArgumentException("The number of suggestions must be between 1 and " + MAX_SUGGESTIONS);
+        }
+        String normalized = prefix == null ? "" : prefix.toLowerCase(Locale.ROOT);
+        lockFresh();
+        try {
+            int[] top;
+            if (normalized.isEmpty()) {
+                top = top(root);
+            } else {
+                int node = find(normalized);
+                if (node == NO_NODE) {
+                    return Collections.emptyList();
+                }
+                // The values with this prefix: the one ending here and those below the equal child
+                top = merge(own(node), top(equal[node]));
+            }
+            List<Suggestion> suggestions = new ArrayList<>(Math.min(limit, top.length));
+            for (int i = 0; i < top.length && suggestions.size() < limit; i++) {
+                suggestions.add(toSuggestion(top[i]));
+            }
+            return suggestions;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of distinct values that at least one record has
+     */
+    public int size() {
+        lockFresh();
+        try {
+            int size = 0;
+            for (int[] counts : termCounts) {
+                if (total(counts) > 0) {
+                    size++;
+                }
+            }
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onInsert(K key, V previous, V value) {
+        lock.lock();
+        try {
+            if (stale) {
+                return;
+            }
+            if (previous != null) {
+                update(previous, -1);
+            } else {
+                add(key.toString(), 0, 1);
+            }
+            update(value, 1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onDelete(K key, V previous) {
+        lock.lock();
+        try {
+            if (stale || previous == null) {
+                return;
+            }
+            add(key.toString(), 0, -1);
+            update(previous, -1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onReset() {
+        lock.lock();
+        try {
+            stale = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Takes the lock with the trie up to date. A stale trie is rebuilt under the tree's write
+    // lock, taken before the trie's own lock as writers do, so no write can change the tree
+    // during the traversal and then reach the rebuilt trie twice or not at all
+    private void lockFresh() {
+        lock.lock();
+        while (stale) {
+            lock.unlock();
+            treeService.runExclusively(() -> {
+                lock.lock();
+                try {
+                    refreshIfStale();
+                } finally {
+                    lock.unlock();
+                }
+            });
+            lock.lock();
+        }
+    }
+
+    // Rebuilds the trie from the tree after a reset, with the tree's write lock held
+    private void refreshIfStale() {
+        if (!stale) {
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        nodes = 0;
+        root = NO_NODE;
+        termTexts.clear();
+        termCounts.clear();
+        termIds.clear();
+        stale = false;
+        treeService.forEach((key, value) -> {
+            add(key.toString(), 0, 1);
+            update(value, 1);
+        });
+        long endTime = System.currentTimeMillis();
+        System.out.println("Built suggestion index (" + termTexts.size() + " values, " + nodes + " nodes) in "
+                + (endTime - startTime) + "ms");
+    }
+
+    // Adds or removes the values of the indexed columns of a record
+    private void update(V value, int delta) {
+        if (!(value instanceof JSONObject)) {
+            return;
+        }
+        JSONObject jsonObj = (JSONObject) value;
+        for (int column = 0; column < columns.size(); column++) {
+            Object propValue = jsonObj.opt(columns.get(column));
+            if (propValue == null || propValue == JSONObject.NULL) {
+                continue;
+            }
+            for (String part : propValue.toString().split("/")) {
+                add(part.trim(), column + 1, delta);
+            }
+        }
+    }
+
+    // Changes the count of a value in a column, inserting the value into the trie if it is new
+    private void add(String text, int column, int delta) {
+        if (text.isEmpty()) {
+            return;
+        }
+        String normalized = text.toLowerCase(Locale.ROOT);
+        Integer term = termIds.get(normalized);
+        if (term == null) {
+            if (delta < 0) {
+                return;
+            }
+            term = termTexts.size();
+            termTexts.add(text);
+            termCounts.add(new int[columns.size() + 1]);
+            termIds.put(normalized, term);
+            int node = insert(normalized);
+            termOf[node] = term;
+        } else {
+            invalidate(normalized);
+        }
+        int[] counts = termCounts.get(term);
+        counts[column] = Math.max(0, counts[column] + delta);
+    }
+
+    // Returns the node of the last character of a text, creating the missing nodes;
+    // the cached lists on the path are dropped. New nodes are assigned to a local first,
+    // because creating a node may replace the arrays.
+    private int insert(String text) {
+        if (root == NO_NODE) {
+            root = newNode(text.charAt(0));
+        }
+        int node = root;
+        int i = 0;
+        while (true) {
+            topTerms[node] = null;
+            char c = text.charAt(i);
+            if (c < chars[node]) {
+                if (lower[node] == NO_NODE) {
+                    int child = newNode(c);
+                    lower[node] = child;
+                }
+                node = lower[node];
+            } else if (c > chars[node]) {
+                if (higher[node] == NO_NODE) {
+                    int child = newNode(c);
+                    higher[node] = child;
+                }
+                node = higher[node];
+            } else if (i + 1 < text.length()) {
+                if (equal[node] == NO_NODE) {
+                    int child = newNode(text.charAt(i + 1));
+                    equal[node] = child;
+                }
+                node = equal[node];
+                i++;
+            } else {
+                topTerms[node] = null;
+                return node;
+            }
+        }
+    }
+
+    // Drops the cached lists of all nodes whose subtree contains the text
+    private void invalidate(String text) {
+        int node = root;
+        int i = 0;
+        while (node != NO_NODE) {
+            topTerms[node] = null;
+            char c = text.charAt(i);
+            if (c < chars[node]) {
+                node = lower[node];
+            } else if (c > chars[node]) {
+                node = higher[node];
+            } else if (++i < text.length()) {
+                node = equal[node];
+            } else {
+                return;
+            }
+        }
+    }
+
+    // Returns the node of the last character of a prefix, or NO_NODE
+    private int find(String prefix) {
+        int node = root;
+        int i = 0;
+        while (node != NO_NODE) {
+            char c = prefix.charAt(i);
+            if (c < chars[node]) {
+                node = lower[node];
+            } else if (c > chars[node]) {
+                node = higher[node];
+            } else if (++i < prefix.length()) {
+                node = equal[node];
+            } else {
+                return node;
+            }
+        }
+        return NO_NODE;
+    }
+
+    // Returns the most popular values in the subtree of a node, from the cache or the children's lists
+    private int[] top(int node) {
+        if (node == NO_NODE) {
+            return NO_TERMS;
+        }
+        if (topTerms[node] == null) {
+            topTerms[node] = merge(merge(own(node), top(lower[node])), merge(top(equal[node]), top(higher[node])));
+        }
+        return topTerms[node];
+    }
+
+    // Returns the value ending at a node as a list, if any record has it
+    private int[] own(int node) {
+        int term = termOf[node];
+        return term >= 0 && total(termCounts.get(term)) > 0 ? new int[]{term} : NO_TERMS;
+    }
+
+    // Merges two lists in popularity order into one of at most MAX_SUGGESTIONS values; the lists are
+    // never modified, so a node with a single non-empty child list shares it
+    private int[] merge(int[] first, int[] second) {
+        if (second.length == 0) {
+            return first;
+        }
+        if (first.length == 0) {
+            return second;
+        }
+        int[] merged = new int[Math.min(MAX_SUGGESTIONS, first.length + second.length)];
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < merged.length; k++) {
+            if (j == second.length || (i < first.length && compare(first[i], second[j]) <= 0)) {
+                merged[k] = first[i++];
+            } else {
+                merged[k] = second[j++];
+            }
+        }
+        return merged;
+    }
+
+    // Orders values by popularity, most popular first, then alphabetically
+    private int compare(int term1, int term2) {
+        int result = Integer.compare(total(termCounts.get(term2)), total(termCounts.get(term1)));
+        return result != 0 ? result : termTexts.get(term1).compareToIgnoreCase(termTexts.get(term2));
+    }
+
+    private int newNode(char c) {
+        if (nodes == chars.length) {
+            int capacity = nodes * 2;
+            chars = Arrays.copyOf(chars, capacity);
+            lower = Arrays.copyOf(lower, capacity);
+            equal = Arrays.copyOf(equal, capacity);
+            higher = Arrays.copyOf(higher, capacity);
+            termOf = Arrays.copyOf(termOf, capacity);
+            topTerms = Arrays.copyOf(topTerms, capacity);
+        }
+        chars[nodes] = c;
+        lower[nodes] = NO_NODE;
+        equal[nodes] = NO_NODE;
+        higher[nodes] = NO_NODE;
+        termOf[nodes] = -1;
+        topTerms[nodes] = null;
+        return nodes++;
+    }
+
+    private Suggestion toSuggestion(int term) {
+        int[] counts = termCounts.get(term);
+        List<String> fields = new ArrayList<>();
+        for (int column = 0; column < counts.length; column++) {
+            if (counts[column] > 0) {
+                fields.add(column == 0 ? "key" : columns.get(column - 1));
+            }
+        }
+        return new Suggestion(termTexts.get(term), total(counts), fields);
+    }
+
+    private static int total(int[] counts) {
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * A suggested value: its text, the number of records that have it, and the columns it occurs in.
+     */
+    public static class Suggestion {
+        private final String text;
+        private final int count;
+        private final List<String> fields;
+
+        public Suggestion(String text, int count, List<String> fields) {
+            this.text = text;
+            this.count = count;
+            this.fields = fields;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public List<String> getFields() {
+            return fields;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.nhlstenden.booktopia.services;
+
+/**
+ * 64-bit hash of a text for the probabilistic structures (the key filter and the distinct value
+ * sketches of the schema registry): FNV-1a over the characters, finished with the fmix64 mixer
+ * of MurmurHash3, so every output bit depends on every input bit.
+ */
+final class TextHash {
+
+    private TextHash() {
+    }
+
+    /**
+     * @param text The text to hash
+     * @return The 64-bit hash
+     */
+    static long hash64(String text) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < text.length(); i++) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
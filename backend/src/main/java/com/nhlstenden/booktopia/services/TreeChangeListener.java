@@ -0,0 +1,34 @@
+package com.nhlstenden.booktopia.services;
+
+/**
+ * Callback interface for components that keep derived structures (indexes, statistics)
+ * in sync with the active tree in {@link TreeService}.
+ *
+ * @param <K> The type of keys in the trees
+ * @param <V> The type of values in the trees
+ */
+public interface TreeChangeListener<K extends Comparable<K>, V> {
+
+    /**
+     * Called after a key-value pair was inserted or updated.
+     *
+     * @param key The inserted key
+     * @param previous The value previously stored under the key, or null if the key is new
+     * @param value The new value
+     */
+    void onInsert(K key, V previous, V value);
+
+    /**
+     * Called after a key was deleted.
+     *
+     * @param key The deleted key
+     * @param previous The value that was stored under the key, or null if the key was absent
+     */
+    void onDelete(K key, V previous);
+
+    /**
+     * Called after the tree was cleared or replaced as a whole (import, conversion).
+     * Listeners should drop their state and rebuild it lazily.
+     */
+    void onReset();
+}
@@ -2,17 +2,19 @@ package com.nhlstenden.booktopia.services;
 
 import com.nhlstenden.booktopia.AVL.AVLTree;
 import com.nhlstenden.booktopia.BST.BinarySearchTree;
+import com.nhlstenden.booktopia.bplustree.BPlusTree;
 import com.nhlstenden.booktopia.btree.BTree;
 import org.json.JSONObject;
 
 import java.util.*;
+import java.util.function.BiConsumer;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 /**
  * A service that allows converting between different tree data structures.
- * This service supports AVL Trees, Binary Search Trees, and B-Trees.
+ * This service supports AVL Trees, Binary Search Trees, B-Trees and B+trees.
  * 
  * @param <K> The type of keys in the trees (must be Comparable)
  * @param <V> The type of values in the trees
@@ -26,7 +28,7 @@ public class TreeConverterService<K extends Comparable<K>, V> {
     /**
      * Returns the current active tree type.
      * 
-     * @return A string representing the current tree type: "AVL", "BST", or "BTree"
+     * @return A string representing the current tree type: "AVL", "BST", "BTree" or "BPlusTree"
      */
     public String getCurrentTreeType() {
         return treeService.getCurrentTreeType();
@@ -209,6 +211,37 @@ public class TreeConverterService<K extends Comparable<K>, V> {
         return newBTree;
     }
     
+    /**
+     * Converts the current tree structure to a B+tree.
+     * This preserves all data from the current tree. The pairs are visited in key order,
+     * so every insert appends to the rightmost leaf.
+     * 
+     * @return The converted B+tree
+     */
+    public BPlusTree<K, V> convertToBPlusTree() {
+        long startTime = System.currentTimeMillis();
+        
+        BPlusTree<K, V> newBPlusTree = new BPlusTree<>();
+        treeService.forEach((key, value) -> {
+            if (value == null) {
+                System.out.println("Warning: Skipping null value for key: " + key);
+                return;
+            }
+            newBPlusTree.insert(key, value);
+        });
+        
+        System.out.println("Converting to B+tree - Found " + newBPlusTree.size() + " key-value pairs");
+        
+        // Update current tree type and tree
+        treeService.setCurrentTreeType("BPlusTree");
+        treeService.setBPlusTree(newBPlusTree);
+        
+        long endTime = System.currentTimeMillis();
+        System.out.println("convertToBPlusTree processing time: " + (endTime - startTime) + "ms");
+        
+        return newBPlusTree;
+    }
+    
     /**
      * Delegates the search to the underlying TreeService
      * 
@@ -255,4 +288,13 @@ public class TreeConverterService<K extends Comparable<K>, V> {
     public List<V> getAllValues() {
         return treeService.getAllValues();
     }
+    
+    /**
+     * Delegates visiting all key-value pairs in key order to the underlying TreeService
+     * 
+     * @param action The action to perform for each key-value pair
+     */
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        treeService.forEach(action);
+    }
 }
\ No newline at end of file
@@ -2,10 +2,16 @@ package com.nhlstenden.booktopia.services;
 
 import com.nhlstenden.booktopia.AVL.AVLTree;
 import com.nhlstenden.booktopia.BST.BinarySearchTree;
+import com.nhlstenden.booktopia.bplustree.BPlusTree;
 import com.nhlstenden.booktopia.btree.BTree;
 import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
 
 /**
  * Core service for tree operations.
@@ -19,11 +25,21 @@ public class TreeService<K extends Comparable<K>, V> {
     private AVLTree<K> avlTree;
     private BinarySearchTree<K> bst;
     private BTree<K, V> bTree;
+    private BPlusTree<K, V> bPlusTree;
     private String currentTreeType;
     private int bTreeDegree;
+    private final List<TreeChangeListener<K, V>> listeners = new ArrayList<>();
+    private final AtomicLong version = new AtomicLong();
+    // Serializes writers, so a batch is applied without other writes in between
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // Answers point reads of the active tree without a descent; null when disabled, and rebuilt
+    // on the next read after the active tree was replaced
+    private volatile HashIndex<K, V> hashIndex;
+    private volatile boolean hashIndexStale = true;
     
     public TreeService() {
         bTree = new BTree<>(3);
+        bPlusTree = new BPlusTree<>();
         currentTreeType = "BTree";
         bTreeDegree = 3;
     }
@@ -31,7 +47,7 @@ public class TreeService<K extends Comparable<K>, V> {
     /**
      * Returns the current active tree type.
      * 
-     * @return A string representing the current tree type: "AVL", "BST", or "BTree"
+     * @return A string representing the current tree type: "AVL", "BST", "BTree" or "BPlusTree"
      */
     public String getCurrentTreeType() {
         return currentTreeType;
@@ -40,10 +56,72 @@ public class TreeService<K extends Comparable<K>, V> {
     /**
      * Sets the current tree type.
      * 
-     * @param treeType The tree type to set ("AVL", "BST", or "BTree")
+     * @param treeType The tree type to set ("AVL", "BST", "BTree" or "BPlusTree")
      */
     public void setCurrentTreeType(String treeType) {
         this.currentTreeType = treeType;
+        hashIndexStale = true;
+        version.incrementAndGet();
+    }
+    
+    /**
+     * Enables or disables the hash index that answers point reads ({@link #search}) in constant
+     * time next to the active tree. Ordered reads such as {@link #getAllKeys()} always use the tree.
+     * 
+     * @param enabled True to keep a hash index of the active tree
+     */
+    @Value("${tree.hash-index.enabled:false}")
+    public void setHashIndexEnabled(boolean enabled) {
+        writeLock.lock();
+        try {
+            hashIndex = enabled ? new HashIndex<>() : null;
+            hashIndexStale = true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * @return True if point reads are answered by the hash index
+     */
+    public boolean isHashIndexEnabled() {
+        return hashIndex != null;
+    }
+    
+    /**
+     * Returns the mutation version of the data. The version increases on every insert, delete,
+     * clear, import and conversion, so two reads with the same version see the same data.
+     * 
+     * @return The current mutation version
+     */
+    public long getVersion() {
+        return version.get();
+    }
+    
+    /**
+     * Registers a listener that is notified about every mutation of the active tree.
+     * 
+     * @param listener The listener to register
+     */
+    public void addChangeListener(TreeChangeListener<K, V> listener) {
+        listeners.add(listener);
+    }
+    
+    /**
+     * Runs an action under the write lock, so no write is applied while it runs. A listener that
+     * rebuilds its state from a traversal does so this way, so that no write it is notified about
+     * can change the tree during the traversal. Like a writer, the action takes the listener's own
+     * lock only after the write lock.
+     * 
+     * @param action The action to run
+     */
+    public void runExclusively(Runnable action) {
+        writeLock.lock();
+        try {
+            action.run();
+        } finally {
+            writeLock.unlock();
+        }
     }
     
     /**
@@ -53,6 +131,7 @@ public class TreeService<K extends Comparable<K>, V> {
      */
     public void setAVLTree(AVLTree<K> avlTree) {
         this.avlTree = avlTree;
+        notifyReset();
     }
     
     /**
@@ -62,6 +141,7 @@ public class TreeService<K extends Comparable<K>, V> {
      */
     public void setBST(BinarySearchTree<K> bst) {
         this.bst = bst;
+        notifyReset();
     }
     
     /**
@@ -71,6 +151,17 @@ public class TreeService<K extends Comparable<K>, V> {
      */
     public void setBTree(BTree<K, V> bTree) {
         this.bTree = bTree;
+        notifyReset();
+    }
+    
+    /**
+     * Sets the B+tree.
+     * 
+     * @param bPlusTree The B+tree to set
+     */
+    public void setBPlusTree(BPlusTree<K, V> bPlusTree) {
+        this.bPlusTree = bPlusTree;
+        notifyReset();
     }
     
     /**
@@ -100,6 +191,15 @@ public class TreeService<K extends Comparable<K>, V> {
         return bTree;
     }
     
+    /**
+     * Gets the current B+tree.
+     * 
+     * @return The current B+tree
+     */
+    public BPlusTree<K, V> getBPlusTree() {
+        return bPlusTree;
+    }
+    
     /**
      * Retrieves all keys from the current active tree structure in sorted order.
      * 
@@ -121,6 +221,10 @@ public class TreeService<K extends Comparable<K>, V> {
             case "BTree":
                 keys = bTree.getSortedKeys();
                 break;
+                
+            case "BPlusTree":
+                keys = bPlusTree.getSortedKeys();
+                break;
         }
         
         long endTime = System.currentTimeMillis();
@@ -173,6 +277,14 @@ public class TreeService<K extends Comparable<K>, V> {
                     }
                 }
                 break;
+                
+            case "BPlusTree":
+                bPlusTree.forEach((key, value) -> {
+                    if (value != null) {
+                        values.add(value);
+                    }
+                });
+                break;
         }
         
         long endTime = System.currentTimeMillis();
@@ -180,6 +292,57 @@ public class TreeService<K extends Comparable<K>, V> {
         return values;
     }
     
+    /**
+     * Visits every key-value pair of the current active tree structure in key order.
+     * Unlike {@link #getAllKeys()} and {@link #getAllValues()}, keys and values are
+     * guaranteed to stay aligned, and nothing is collected.
+     * 
+     * @param action The action to perform for each key-value pair
+     */
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        forEachInRange(null, null, (key, value) -> {
+            action.accept(key, value);
+            return true;
+        });
+    }
+    
+    /**
+     * Visits the key-value pairs of a key range of the current active tree structure in key order,
+     * without collecting them. The B+tree descends once and walks its leaves from the lower bound;
+     * the other trees are traversed from the start. The traversal ends at the upper bound or as
+     * soon as the action returns false.
+     * 
+     * @param from The smallest key to visit, or null to start at the first key
+     * @param to The key to stop before, or null to continue to the last key
+     * @param action The action to perform for each key-value pair; returning false stops the walk
+     */
+    public void forEachInRange(K from, K to, BiPredicate<? super K, ? super V> action) {
+        if (currentTreeType.equals("BPlusTree")) {
+            bPlusTree.forEachInRange(from, to, action);
+            return;
+        }
+        
+        BiPredicate<K, JSONObject> visitor = (key, value) -> {
+            if (from != null && key.compareTo(from) < 0) {
+                return true;
+            }
+            return (to == null || key.compareTo(to) < 0) && action.test(key, (V) value);
+        };
+        switch (currentTreeType) {
+            case "AVL":
+                avlTree.forEachInOrder(visitor);
+                break;
+                
+            case "BST":
+                bst.forEachInOrder(visitor);
+                break;
+                
+            case "BTree":
+                bTree.forEachInOrder(visitor);
+                break;
+        }
+    }
+    
     /**
      * Inserts a key-value pair into the current active tree structure.
      * 
@@ -188,7 +351,77 @@ public class TreeService<K extends Comparable<K>, V> {
      */
     public void insert(K key, V value) {
         long startTime = System.currentTimeMillis();
+        writeLock.lock();
+        try {
+            put(key, value, listeners.isEmpty() ? null : find(key));
+        } finally {
+            writeLock.unlock();
+        }
+        
+        long endTime = System.currentTimeMillis();
+        System.out.println("insert processing time: " + (endTime - startTime) + "ms");
+    }
+    
+    /**
+     * Deletes a key-value pair from the current active tree structure.
+     * 
+     * @param key The key to delete
+     */
+    public void delete(K key) {
+        long startTime = System.currentTimeMillis();
+        writeLock.lock();
+        try {
+            remove(key, listeners.isEmpty() ? null : find(key));
+        } finally {
+            writeLock.unlock();
+        }
         
+        long endTime = System.currentTimeMillis();
+        System.out.println("delete processing time: " + (endTime - startTime) + "ms");
+    }
+    
+    /**
+     * Applies a batch of upserts and deletes to the current active tree structure under a single
+     * acquisition of the write lock, so no other write is interleaved. The writes are applied in
+     * key order and only the last write per key is applied. Deletes of absent keys are skipped.
+     * Listeners are notified of every applied write, as with {@link #insert} and {@link #delete}.
+     * 
+     * @param batch The writes to apply
+     * @return The number of inserted, updated and deleted keys
+     */
+    public MutationBatch.Result applyBatch(MutationBatch<K, V> batch) {
+        long startTime = System.currentTimeMillis();
+        MutationBatch.Result result = new MutationBatch.Result();
+        writeLock.lock();
+        try {
+            batch.forEach((key, value) -> {
+                V previous = find(key);
+                if (value != null) {
+                    put(key, value, previous);
+                    if (previous == null) {
+                        result.inserted();
+                    } else {
+                        result.updated();
+                    }
+                } else if (previous != null) {
+                    remove(key, previous);
+                    result.deleted();
+                } else {
+                    result.missing();
+                }
+            });
+        } finally {
+            writeLock.unlock();
+        }
+        
+        long endTime = System.currentTimeMillis();
+        System.out.println("applyBatch processing time: " + (endTime - startTime) + "ms (" + batch.size()
+                + " writes of " + batch.getOperations() + " operations)");
+        return result;
+    }
+    
+    // Inserts into the active tree and notifies the listeners; the caller holds the write lock
+    private void put(K key, V value, V previous) {
         switch (currentTreeType) {
             case "AVL":
                 if (value instanceof JSONObject) {
@@ -219,20 +452,38 @@ public class TreeService<K extends Comparable<K>, V> {
                     bTree.insert(key, (V)btreeJsonValue);
                 }
                 break;
+                
+            case "BPlusTree":
+                if (value instanceof JSONObject) {
+                    bPlusTree.insert(key, value);
+                } else {
+                    JSONObject bplustreeJsonValue = new JSONObject();
+                    bplustreeJsonValue.put(key.toString(), value);
+                    bPlusTree.insert(key, (V)bplustreeJsonValue);
+                }
+                break;
         }
         
-        long endTime = System.currentTimeMillis();
-        System.out.println("insert processing time: " + (endTime - startTime) + "ms");
+        version.incrementAndGet();
+        HashIndex<K, V> index = hashIndexStale ? null : hashIndex;
+        if (listeners.isEmpty() && index == null) {
+            return;
+        }
+        V stored = findInTree(key);
+        if (index != null) {
+            if (stored != null) {
+                index.put(key, stored);
+            } else {
+                index.remove(key);
+            }
+        }
+        for (TreeChangeListener<K, V> listener : listeners) {
+            listener.onInsert(key, previous, stored);
+        }
     }
     
-    /**
-     * Deletes a key-value pair from the current active tree structure.
-     * 
-     * @param key The key to delete
-     */
-    public void delete(K key) {
-        long startTime = System.currentTimeMillis();
-        
+    // Deletes from the active tree and notifies the listeners; the caller holds the write lock
+    private void remove(K key, V previous) {
         switch (currentTreeType) {
             case "AVL":
                 avlTree.delete(key);
@@ -245,10 +496,20 @@ public class TreeService<K extends Comparable<K>, V> {
             case "BTree":
                 bTree.delete(key);
                 break;
+                
+            case "BPlusTree":
+                bPlusTree.delete(key);
+                break;
         }
         
-        long endTime = System.currentTimeMillis();
-        System.out.println("delete processing time: " + (endTime - startTime) + "ms");
+        version.incrementAndGet();
+        HashIndex<K, V> index = hashIndex;
+        if (index != null && !hashIndexStale) {
+            index.remove(key);
+        }
+        for (TreeChangeListener<K, V> listener : listeners) {
+            listener.onDelete(key, previous);
+        }
     }
     
     /**
@@ -259,6 +520,63 @@ public class TreeService<K extends Comparable<K>, V> {
      */
     public V search(K key) {
         long startTime = System.currentTimeMillis();
+        V result = find(key);
+        
+        long endTime = System.currentTimeMillis();
+        System.out.println("search processing time: " + (endTime - startTime) + "ms");
+        return result;
+    }
+    
+    /**
+     * Looks up a key without timing output, in the hash index if enabled and otherwise in the
+     * current active tree.
+     * 
+     * @param key The key to search for
+     * @return The value associated with the key, or null if the key is not found
+     */
+    private V find(K key) {
+        HashIndex<K, V> index = hashIndex;
+        if (index == null) {
+            return findInTree(key);
+        }
+        if (hashIndexStale) {
+            index = rebuildHashIndex();
+            if (index == null) {
+                return findInTree(key);
+            }
+        }
+        return index.get(key);
+    }
+    
+    // Refills the hash index from the active tree, unless another thread just did; null if the
+    // index was disabled in the meantime
+    private HashIndex<K, V> rebuildHashIndex() {
+        writeLock.lock();
+        try {
+            HashIndex<K, V> index = hashIndex;
+            if (index != null && hashIndexStale) {
+                long startTime = System.currentTimeMillis();
+                HashIndex<K, V> rebuilt = new HashIndex<>();
+                forEach((key, value) -> {
+                    if (value != null) {
+                        rebuilt.put(key, value);
+                    }
+                });
+                hashIndex = rebuilt;
+                hashIndexStale = false;
+                index = rebuilt;
+                
+                long endTime = System.currentTimeMillis();
+                System.out.println("Built hash index (" + rebuilt.size() + " keys) in " + (endTime - startTime) + "ms");
+            }
+            return index;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    // Looks up a key in the current active tree
+    private V findInTree(K key) {
         V result = null;
         
         switch (currentTreeType) {
@@ -275,24 +593,43 @@ public class TreeService<K extends Comparable<K>, V> {
             case "BTree":
                 result = bTree.search(key);
                 break;
+                
+            case "BPlusTree":
+                result = bPlusTree.search(key);
+                break;
         }
         
-        long endTime = System.currentTimeMillis();
-        System.out.println("search processing time: " + (endTime - startTime) + "ms");
         return result;
     }
 
     public void clear() {
-        switch (currentTreeType) {
-            case "AVL":
-                avlTree = new AVLTree<>();
-                break;
-            case "BST":
-                bst.clear();
-                break;
-            case "BTree":
-                bTree = new BTree<>(bTreeDegree);
-                break;
+        writeLock.lock();
+        try {
+            switch (currentTreeType) {
+                case "AVL":
+                    avlTree = new AVLTree<>();
+                    break;
+                case "BST":
+                    bst.clear();
+                    break;
+                case "BTree":
+                    bTree = new BTree<>(bTreeDegree);
+                    break;
+                case "BPlusTree":
+                    bPlusTree = new BPlusTree<>();
+                    break;
+            }
+            notifyReset();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    private void notifyReset() {
+        hashIndexStale = true;
+        version.incrementAndGet();
+        for (TreeChangeListener<K, V> listener : listeners) {
+            listener.onReset();
         }
     }
 
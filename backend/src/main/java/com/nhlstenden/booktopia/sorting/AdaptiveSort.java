@@ -0,0 +1,113 @@
+package com.nhlstenden.booktopia.sorting;
+
+import com.nhlstenden.booktopia.services.Projection;
+import com.nhlstenden.booktopia.services.TreeConverterService;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+/**
+ * Service for sorting data by a property with an algorithm chosen from the column statistics
+ * (see {@link SortDispatcher}), so callers no longer have to pick merge, heap or radix sort.
+ * The result reports the chosen algorithm and why it was chosen.
+ *
+ * @param <K> The type of keys (must be Comparable)
+ * @param <V> The type of values
+ */
+@Service
+public class AdaptiveSort<K extends Comparable<K>, V> {
+
+    private final TreeConverterService<K, V> treeConverterService;
+
+    public AdaptiveSort(TreeConverterService<K, V> treeConverterService) {
+        this.treeConverterService = treeConverterService;
+    }
+
+    /**
+     * Sorts data by a specific property and returns one page of it. Sorts by key reuse the
+     * traversal order and limited pages are selected with a bounded heap; all other requests
+     * are sorted with the algorithm the dispatcher picks for the rows.
+     *
+     * @param property The property to sort by. Use "key" to sort by the key.
+     * @param ascending True for ascending order, false for descending
+     * @param page The requested page (limit/offset or keyset cursor)
+     * @return The requested page of data items and the chosen algorithm
+     */
+    public Result sortByProperty(String property, boolean ascending, PageRequest page) {
+        return sortByProperty(property, ascending, page, Projection.ALL);
+    }
+
+    /**
+     * Sorts data by a specific property and returns one page of it, with only the requested
+     * properties in the data items.
+     *
+     * @param property The property to sort by. Use "key" to sort by the key.
+     * @param ascending True for ascending order, false for descending
+     * @param page The requested page (limit/offset or keyset cursor)
+     * @param projection The properties to include in the data items besides the key
+     * @return The requested page of data items and the chosen algorithm
+     */
+    public Result sortByProperty(String property, boolean ascending, PageRequest page, Projection projection) {
+        long startTime = System.currentTimeMillis();
+        TreeRows<K> rows = TreeRows.collect(treeConverterService);
+        SortKeys sortKeys = rows.sortKeys(property);
+
+        // The dispatcher only runs for an unlimited page that is not already in key order
+        SortDispatcher.Choice[] choice = new SortDispatcher.Choice[1];
+        Page<Integer> order = rows.select(property, sortKeys, ascending, page, (keys, array, asc) -> {
+            choice[0] = SortDispatcher.choose(keys, array, asc);
+            SortDispatcher.sort(choice[0].getAlgorithm(), keys, array, asc);
+        });
+
+        String algorithm;
+        String reason;
+        SortPlanner.Plan plan = SortPlanner.planTreeRows(property, ascending, sortKeys.getType());
+        if (plan != SortPlanner.Plan.SORT) {
+            algorithm = "tree-order";
+            reason = plan == SortPlanner.Plan.KEEP
+                    ? "rows are already in key order"
+                    : "rows are in reverse key order";
+        } else if (page.isLimited()) {
+            algorithm = "top-k";
+            reason = "limited page: the first " + page.getRequiredRows() + " rows are selected with a bounded heap";
+        } else {
+            algorithm = choice[0] == null ? "none" : choice[0].getAlgorithm().getLabel();
+            reason = choice[0] == null ? "no rows to sort" : choice[0].getReason();
+        }
+
+        // Only the rows of the page are turned into data items
+        Page<Map<String, Object>> result = rows.items(order, projection);
+
+        long endTime = System.currentTimeMillis();
+        System.out.println("Adaptive sort by property (" + algorithm + ": " + reason + ") completed in "
+                + (endTime - startTime) + " ms");
+        return new Result(result, algorithm, reason);
+    }
+
+    /**
+     * A sorted page together with the algorithm that produced it.
+     */
+    public static class Result {
+        private final Page<Map<String, Object>> page;
+        private final String algorithm;
+        private final String reason;
+
+        public Result(Page<Map<String, Object>> page, String algorithm, String reason) {
+            this.page = page;
+            this.algorithm = algorithm;
+            this.reason = reason;
+        }
+
+        public Page<Map<String, Object>> getPage() {
+            return page;
+        }
+
+        public String getAlgorithm() {
+            return algorithm;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+    }
+}
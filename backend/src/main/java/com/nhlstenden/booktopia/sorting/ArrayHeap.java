@@ -0,0 +1,141 @@
+package com.nhlstenden.booktopia.sorting;
+
+import java.util.function.IntBinaryOperator;
+
+/**
+ * An array-backed d-ary max-heap over int elements (usually row indices), used for heap sort
+ * and for bounded top-K selection. Elements are compared with an {@link IntBinaryOperator},
+ * so the heap works on a primitive array instead of boxed list elements.
+ *
+ * The heap is built bottom-up (Floyd's method, O(n)). During the sort-down phase the hole left
+ * by the root is first moved down to a leaf along the larger children and the last element is
+ * then sifted up from there, which needs about half the comparisons of a plain sift-down.
+ * With arity 4 the children of a node are adjacent in memory and the heap is half as deep
+ * as a binary heap, which is friendlier to the cache.
+ */
+public final class ArrayHeap {
+
+    /**
+     * The arity used when none is given.
+     */
+    public static final int DEFAULT_ARITY = 4;
+
+    private ArrayHeap() {
+    }
+
+    /**
+     * Sorts the array in ascending order with heap sort. The sort is not stable; use a total
+     * order (for example with a tie breaker on the row index) for a deterministic result.
+     *
+     * @param array The elements to sort
+     * @param comparator Compares two elements
+     * @param arity The number of children per heap node (2 for a binary heap)
+     */
+    public static void sort(int[] array, IntBinaryOperator comparator, int arity) {
+        checkArity(arity);
+        heapify(array, array.length, comparator, arity);
+        sortDown(array, array.length, comparator, arity);
+    }
+
+    /**
+     * Selects the k smallest of the elements 0 .. n-1 with a bounded max-heap of size k,
+     * in O(n log k) time and O(k) memory.
+     *
+     * @param n The number of elements; the elements are the indices 0 .. n-1
+     * @param comparator Compares two elements
+     * @param k The number of elements to select
+     * @param arity The number of children per heap node
+     * @return At most k elements in ascending order
+     */
+    public static int[] topK(int n, IntBinaryOperator comparator, int k, int arity) {
+        checkArity(arity);
+        int size = Math.max(0, Math.min(k, n));
+        int[] heap = new int[size];
+        if (size == 0) {
+            return heap;
+        }
+
+        // The heap holds the best k elements seen so far; its root is the current k-th element
+        for (int i = 0; i < size; i++) {
+            heap[i] = i;
+        }
+        heapify(heap, size, comparator, arity);
+        for (int element = size; element < n; element++) {
+            if (comparator.applyAsInt(element, heap[0]) < 0) {
+                siftDown(heap, size, 0, element, comparator, arity);
+            }
+        }
+
+        sortDown(heap, size, comparator, arity);
+        return heap;
+    }
+
+    private static void checkArity(int arity) {
+        if (arity < 2) {
+            throw new IllegalArgumentException("Heap arity must be at least 2, got " + arity);
+        }
+    }
+
+    // Floyd's bottom-up heap construction: sift down every inner node, starting at the last one
+    private static void heapify(int[] heap, int size, IntBinaryOperator comparator, int arity) {
+        for (int i = (size - 2) / arity; i >= 0; i--) {
+            siftDown(heap, size, i, heap[i], comparator, arity);
+        }
+    }
+
+    // Places the value at index i and moves it down until its children are not larger
+    private static void siftDown(int[] heap, int size, int i, int value, IntBinaryOperator comparator, int arity) {
+        while (true) {
+            int largest = largestChild(heap, size, i, comparator, arity);
+            if (largest < 0 || comparator.applyAsInt(heap[largest], value) <= 0) {
+                break;
+            }
+            heap[i] = heap[largest];
+            i = largest;
+        }
+        heap[i] = value;
+    }
+
+    // Repeatedly moves the root to the end of the shrinking heap
+    private static void sortDown(int[] heap, int size, IntBinaryOperator comparator, int arity) {
+        for (int end = size - 1; end > 0; end--) {
+            int value = heap[end];
+            heap[end] = heap[0];
+
+            // Move the hole at the root down to a leaf, always following the largest child
+            int hole = 0;
+            int child;
+            while ((child = largestChild(heap, end, hole, comparator, arity)) >= 0) {
+                heap[hole] = heap[child];
+                hole = child;
+            }
+
+            // Sift the displaced last element up from the leaf
+            while (hole > 0) {
+                int parent = (hole - 1) / arity;
+                if (comparator.applyAsInt(heap[parent], value) >= 0) {
+                    break;
+                }
+                heap[hole] = heap[parent];
+                hole = parent;
+            }
+            heap[hole] = value;
+        }
+    }
+
+    // Returns the index of the largest child of node i, or -1 if it is a leaf
+    private static int largestChild(int[] heap, int size, int i, IntBinaryOperator comparator, int arity) {
+        int first = arity * i + 1;
+        if (first >= size) {
+            return -1;
+        }
+        int last = Math.min(first + arity, size);
+        int largest = first;
+        for (int child = first + 1; child < last; child++) {
+            if (comparator.applyAsInt(heap[child], heap[largest]) > 0) {
+                largest = child;
+            }
+        }
+        return largest;
+    }
+}
@@ -0,0 +1,404 @@
+package com.nhlstenden.booktopia.sorting;
+
+import java.util.Collection;
+import java.util.Comparator;
+
+/**
+ * The value type of a column, inferred from the stored values.
+ * The CSV import stores every field as a string, so without a type ratings, budgets and
+ * page counts would sort lexicographically ("10" before "9"). Each type provides a
+ * comparator that parses the raw values in place, without allocating per comparison,
+ * and a normalization to a typed sort key for indexes.
+ *
+ * Blank values count as missing and sort before all other values; values that do not
+ * match the type sort before all valid values of that type.
+ */
+public enum ColumnType {
+
+    /**
+     * Whole numbers such as page counts and vote counts.
+     */
+    INTEGER {
+        @Override
+        public boolean matches(String text) {
+            return parseLong(text) != INVALID_LONG;
+        }
+
+        @Override
+        protected int compareNonBlank(Object a, Object b) {
+            return Long.compare(longValue(a), longValue(b));
+        }
+
+        @Override
+        protected Comparable<?> normalizeNonBlank(Object value) {
+            return longValue(value);
+        }
+    },
+
+    /**
+     * Decimal numbers such as ratings, budgets and gross revenue.
+     */
+    DECIMAL {
+        @Override
+        public boolean matches(String text) {
+            return !Double.isNaN(parseDecimal(text));
+        }
+
+        @Override
+        protected int compareNonBlank(Object a, Object b) {
+            return Double.compare(doubleValue(a), doubleValue(b));
+        }
+
+        @Override
+        protected Comparable<?> normalizeNonBlank(Object value) {
+            return doubleValue(value);
+        }
+    },
+
+    /**
+     * Dates written as month/day/year, for example 9/16/2006.
+     */
+    DATE {
+        @Override
+        public boolean matches(String text) {
+            return parseDate(text) >= 0;
+        }
+
+        @Override
+        protected int compareNonBlank(Object a, Object b) {
+            return Integer.compare(parseDate(a.toString()), parseDate(b.toString()));
+        }
+
+        @Override
+        protected Comparable<?> normalizeNonBlank(Object value) {
+            return parseDate(value.toString());
+        }
+    },
+
+    /**
+     * Any other text, compared lexicographically.
+     */
+    STRING {
+        @Override
+        public boolean matches(String text) {
+            return true;
+        }
+
+        @Override
+        protected int compareNonBlank(Object a, Object b) {
+            return a.toString().compareTo(b.toString());
+        }
+
+        @Override
+        protected Comparable<?> normalizeNonBlank(Object value) {
+            return value.toString();
+        }
+    };
+
+    /**
+     * Checks whether a non-blank text value can be read as this type.
+     *
+     * @param text The text to check
+     * @return True if the text is a valid value of this type
+     */
+    public abstract boolean matches(String text);
+
+    protected abstract int compareNonBlank(Object a, Object b);
+
+    protected abstract Comparable<?> normalizeNonBlank(Object value);
+
+    private final Comparator<Object> comparator = (a, b) -> {
+        boolean blankA = isBlank(a);
+        boolean blankB = isBlank(b);
+        if (blankA || blankB) {
+            return blankA == blankB ? 0 : (blankA ? -1 : 1);
+        }
+        return compareNonBlank(a, b);
+    };
+
+    /**
+     * Returns the comparator for raw values of this type. Blank and null values sort first.
+     *
+     * @return A comparator over raw (unnormalized) values
+     */
+    public Comparator<Object> comparator() {
+        return comparator;
+    }
+
+    /**
+     * Converts a raw value into a typed sort key (Long, Double, Integer date or String).
+     * Keys of the same type compare with their natural order.
+     *
+     * @param value The raw value
+     * @return The sort key, or null for blank values
+     */
+    public Comparable<?> normalize(Object value) {
+        return isBlank(value) ? null : normalizeNonBlank(value);
+    }
+
+    /**
+     * Checks whether a raw value is compatible with this type; blank values are always compatible.
+     *
+     * @param value The raw value
+     * @return True if the value can be compared as this type
+     */
+    public boolean accepts(Object value) {
+        if (isBlank(value)) {
+            return true;
+        }
+        if (value instanceof Number) {
+            return this != DATE && (this != INTEGER || !(value instanceof Double || value instanceof Float));
+        }
+        return matches(value.toString());
+    }
+
+    /**
+     * Infers the narrowest type that the non-blank values are compatible with. A small share
+     * of mismatching values (malformed CSV rows) is tolerated; those values sort first.
+     *
+     * @param values The raw values of the column
+     * @return The inferred type; STRING if the values are mixed or there are no values
+     */
+    public static ColumnType infer(Iterable<?> values) {
+        int total = 0;
+        int integerMismatches = 0;
+        int decimalMismatches = 0;
+        int dateMismatches = 0;
+
+        // With a known size, text columns are recognized without parsing every value
+        int maxTolerated = values instanceof Collection
+                ? (int) (((Collection<?>) values).size() * MISMATCH_TOLERANCE)
+                : Integer.MAX_VALUE;
+
+        for (Object value : values) {
+            if (isBlank(value)) {
+                continue;
+            }
+            total++;
+            if (integerMismatches <= maxTolerated && !INTEGER.accepts(value)) {
+                integerMismatches++;
+            }
+            if (decimalMismatches <= maxTolerated && !DECIMAL.accepts(value)) {
+                decimalMismatches++;
+            }
+            if (dateMismatches <= maxTolerated && !DATE.accepts(value)) {
+                dateMismatches++;
+            }
+            if (integerMismatches > maxTolerated && decimalMismatches > maxTolerated && dateMismatches > maxTolerated) {
+                return STRING;
+            }
+        }
+
+        return fromMismatches(total, integerMismatches, decimalMismatches, dateMismatches);
+    }
+
+    /**
+     * Picks the narrowest type from the number of non-blank values and how many of them each
+     * type rejects, like {@link #infer}. Lets counts that are maintained incrementally (on
+     * insert and delete) be turned into the same type that inferring from the values gives.
+     *
+     * @param total The number of non-blank values
+     * @param integerMismatches The number of values INTEGER does not accept
+     * @param decimalMismatches The number of values DECIMAL does not accept
+     * @param dateMismatches The number of values DATE does not accept
+     * @return The inferred type; STRING if there are no values
+     */
+    public static ColumnType fromMismatches(int total, int integerMismatches, int decimalMismatches, int dateMismatches) {
+        int tolerated = (int) (total * MISMATCH_TOLERANCE);
+        if (total == 0) {
+            return STRING;
+        }
+        if (integerMismatches <= tolerated) {
+            return INTEGER;
+        }
+        if (decimalMismatches <= tolerated) {
+            return DECIMAL;
+        }
+        return dateMismatches <= tolerated ? DATE : STRING;
+    }
+
+    // Share of non-blank values that may fail to parse before a column falls back to STRING
+    private static final double MISMATCH_TOLERANCE = 0.01;
+
+    /**
+     * Checks whether a raw value counts as missing: null or blank text.
+     *
+     * @param value The raw value
+     * @return True if the value is blank
+     */
+    public static boolean isBlank(Object value) {
+        if (value == null) {
+            return true;
+        }
+        if (value instanceof String) {
+            return ((String) value).isBlank();
+        }
+        return !(value instanceof Number) && value.toString().isBlank();
+    }
+
+    private static long longValue(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return parseLong(value.toString());
+    }
+
+    private static double doubleValue(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        double parsed = parseDecimal(value.toString());
+        return Double.isNaN(parsed) ? Double.NEGATIVE_INFINITY : parsed;
+    }
+
+    private static final long INVALID_LONG = Long.MIN_VALUE;
+
+    /**
+     * Parses a whole number of at most 18 digits without allocating.
+     *
+     * @return The value, or INVALID_LONG if the text is not a whole number
+     */
+    private static long parseLong(String text) {
+        int length = text.length();
+        int i = 0;
+        while (i < length && text.charAt(i) == ' ') {
+            i++;
+        }
+        while (length > i && text.charAt(length - 1) == ' ') {
+            length--;
+        }
+        boolean negative = false;
+        if (i < length && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+            negative = text.charAt(i) == '-';
+            i++;
+        }
+        if (i == length || length - i > 18) {
+            return INVALID_LONG;
+        }
+        long result = 0;
+        for (; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return INVALID_LONG;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return negative ? -result : result;
+    }
+
+    /**
+     * Parses a plain decimal number such as 4.57, 19000000.0 or -3 without allocating.
+     * Falls back to Double.parseDouble for other notations.
+     *
+     * @return The value, or NaN if the text is not a number
+     */
+    private static double parseDecimal(String text) {
+        int length = text.length();
+        int i = 0;
+        while (i < length && text.charAt(i) == ' ') {
+            i++;
+        }
+        while (length > i && text.charAt(length - 1) == ' ') {
+            length--;
+        }
+        boolean negative = false;
+        if (i < length && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+            negative = text.charAt(i) == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean seenPoint = false;
+        for (; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (digits >= 18) {
+                    return parseDecimalSlow(text);
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                if (mantissa != 0) {
+                    digits++;
+                }
+                if (seenPoint) {
+                    scale++;
+                }
+            } else if (c == '.' && !seenPoint) {
+                seenPoint = true;
+            } else {
+                return parseDecimalSlow(text);
+            }
+        }
+        if (digits == 0 && mantissa == 0 && !containsDigit(text)) {
+            return Double.NaN;
+        }
+
+        double value = mantissa;
+        if (scale > 0) {
+            value = scale < POWERS_OF_TEN.length ? value / POWERS_OF_TEN[scale] : value / Math.pow(10, scale);
+        }
+        return negative ? -value : value;
+    }
+
+    private static double parseDecimalSlow(String text) {
+        try {
+            double value = Double.parseDouble(text.trim());
+            return Double.isInfinite(value) ? Double.NaN : value;
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static boolean containsDigit(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (Character.isDigit(text.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18
+    };
+
+    /**
+     * Parses a month/day/year date into a sortable number (yyyymmdd) without allocating.
+     *
+     * @return The date as yyyymmdd, or -1 if the text is not such a date
+     */
+    private static int parseDate(String text) {
+        int month = 0;
+        int day = 0;
+        int year = 0;
+        int part = 0;
+        int digits = 0;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (++digits > 4) {
+                    return -1;
+                }
+                int digit = c - '0';
+                if (part == 0) {
+                    month = month * 10 + digit;
+                } else if (part == 1) {
+                    day = day * 10 + digit;
+                } else {
+                    year = year * 10 + digit;
+                }
+            } else if (c == '/' && part < 2 && digits > 0) {
+                part++;
+                digits = 0;
+            } else if (c != ' ' || digits > 0 && part == 2) {
+                return -1;
+            }
+        }
+        if (part != 2 || digits == 0 || month < 1 || month > 12 || day < 1 || day > 31) {
+            return -1;
+        }
+        return year * 10000 + month * 100 + day;
+    }
+}
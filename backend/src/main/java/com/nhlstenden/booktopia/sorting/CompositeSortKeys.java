@@ -0,0 +1,133 @@
+package com.nhlstenden.booktopia.sorting;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntFunction;
+
+/**
+ * The sort keys of several columns, for sorting by a {@link SortOrder} in a single pass.
+ * Every column is extracted and normalized once per row (see {@link SortKeys}); the composite
+ * comparator then compares the key tuple of two rows column by column, each in its own direction,
+ * and breaks remaining ties by row index. Rows passed in key order therefore sort stably, and
+ * the row indices can be sorted with the parallel merge sort like a single column.
+ */
+public class CompositeSortKeys {
+
+    private final SortKeys[] columns;
+    private final boolean[] ascending;
+    private final int size;
+
+    private CompositeSortKeys(SortKeys[] columns, boolean[] ascending, int size) {
+        this.columns = columns;
+        this.ascending = ascending;
+        this.size = size;
+    }
+
+    /**
+     * Extracts the sort keys of all properties of the order from the records.
+     *
+     * @param order The properties to sort by
+     * @param keys The record keys, one per row
+     * @param values The records, aligned with the keys
+     * @return The extracted sort keys
+     */
+    public static CompositeSortKeys extract(SortOrder order, List<?> keys, List<?> values) {
+        List<SortOrder.Field> fields = order.getFields();
+        SortKeys[] columns = new SortKeys[fields.size()];
+        boolean[] ascending = new boolean[fields.size()];
+        for (int column = 0; column < columns.length; column++) {
+            String property = fields.get(column).getProperty();
+            List<Object> propertyValues = new ArrayList<>(keys.size());
+            for (int row = 0; row < keys.size(); row++) {
+                propertyValues.add(propertyValue(property, keys.get(row), values.get(row)));
+            }
+            columns[column] = SortKeys.extract(propertyValues);
+            ascending[column] = fields.get(column).isAscending();
+        }
+        return new CompositeSortKeys(columns, ascending, keys.size());
+    }
+
+    /**
+     * Returns the value of a property of a record; "key" is the record key itself.
+     *
+     * @param property The property name
+     * @param key The record key
+     * @param value The record
+     * @return The property value, or null if the record does not have it
+     */
+    public static Object propertyValue(String property, Object key, Object value) {
+        if (property.equals("key")) {
+            return key;
+        }
+        return value instanceof JSONObject ? ((JSONObject) value).opt(property) : null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Compares the key tuples of two rows, breaking ties by row index.
+     *
+     * @param row1 The index of the first row
+     * @param row2 The index of the second row
+     * @return A negative number, zero or a positive number as row1 sorts before, with or after row2
+     */
+    public int compare(int row1, int row2) {
+        for (int column = 0; column < columns.length; column++) {
+            int result = columns[column].compareKeys(row1, row2);
+            if (result != 0) {
+                return ascending[column] ? result : -result;
+            }
+        }
+        return Integer.compare(row1, row2);
+    }
+
+    /**
+     * Sorts all rows by their key tuples.
+     *
+     * @param parallel True to sort with the fork/join parallel merge sort
+     * @return The row indices in sorted order
+     */
+    public int[] sortedRows(boolean parallel) {
+        int[] rows = new int[size];
+        for (int i = 0; i < size; i++) {
+            rows[i] = i;
+        }
+        if (parallel) {
+            ParallelMergeSort.parallelSort(rows, this::compare);
+        } else {
+            ParallelMergeSort.naturalSort(rows, this::compare);
+        }
+        return rows;
+    }
+
+    /**
+     * Selects one page of rows in the composite order. A limited page only selects the
+     * first offset + limit rows with a bounded heap instead of sorting all rows.
+     *
+     * @param page The requested page
+     * @param keyOf Returns the record key of a row, used for keyset cursors
+     * @param parallel True to sort an unlimited page in parallel
+     * @return The row indices of the requested page
+     */
+    public Page<Integer> select(PageRequest page, IntFunction<String> keyOf, boolean parallel) {
+        return select(page, keyOf, parallel ? ParallelMergeSort::parallelSort : ParallelMergeSort::naturalSort);
+    }
+
+    /**
+     * Selects one page of rows in the composite order, sorting an unlimited page with the given sort.
+     *
+     * @param page The requested page
+     * @param keyOf Returns the record key of a row, used for keyset cursors
+     * @param sorter Sorts an array of row indices in place with the given order
+     * @return The row indices of the requested page
+     */
+    public Page<Integer> select(PageRequest page, IntFunction<String> keyOf, BiConsumer<int[], IntBinaryOperator> sorter) {
+        return Page.select(size, this::compare, page, keyOf, rows -> sorter.accept(rows, this::compare));
+    }
+}
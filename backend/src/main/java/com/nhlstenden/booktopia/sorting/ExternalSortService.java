@@ -0,0 +1,357 @@
+package com.nhlstenden.booktopia.sorting;
+
+import com.nhlstenden.booktopia.services.TreeService;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.IntBinaryOperator;
+
+/**
+ * Sorts the records of the active tree by a property without holding the sorted result in memory.
+ *
+ * The records are read from the tree in key order and rendered to their JSON form. Whenever the
+ * buffered rows exceed the memory budget ({@code sorting.external.memory-budget-mb}), the buffer is
+ * sorted and spilled as a run to a temp file in a compact binary format. The runs are then merged
+ * with a {@link LoserTree} and the rows are written straight to the output stream as a JSON array.
+ * If all rows fit in the budget, nothing is spilled and the buffer is written directly.
+ *
+ * @param <K> The type of keys (must be Comparable)
+ * @param <V> The type of values
+ */
+@Service
+public class ExternalSortService<K extends Comparable<K>, V> {
+
+    // Estimated per-row memory besides the payload: the buffered references, array slots and key
+    private static final int ROW_OVERHEAD_BYTES = 96;
+    private static final int IO_BUFFER_BYTES = 64 * 1024;
+
+    private final TreeService<K, V> treeService;
+    private final long memoryBudgetBytes;
+    private final Path tempDirectory;
+
+    /**
+     * Constructs a new ExternalSortService.
+     *
+     * @param treeService The tree service whose records are sorted
+     * @param memoryBudgetMb The memory in megabytes that buffered rows may use before a run is spilled
+     * @param tempDirectory The directory for the run files; the system temp directory when empty
+     */
+    public ExternalSortService(TreeService<K, V> treeService,
+                               @Value("${sorting.external.memory-budget-mb:64}") long memoryBudgetMb,
+                               @Value("${sorting.external.temp-dir:}") String tempDirectory) {
+        if (memoryBudgetMb <= 0) {
+            throw new IllegalArgumentException("sorting.external.memory-budget-mb must be positive");
+        }
+        this.treeService = treeService;
+        this.memoryBudgetBytes = memoryBudgetMb * 1024 * 1024;
+        this.tempDirectory = Paths.get(tempDirectory.isBlank() ? System.getProperty("java.io.tmpdir") : tempDirectory);
+    }
+
+    /**
+     * Sorts the records by a property and writes them to the output as a JSON array of data items
+     * (the key plus all properties). Records with equal values stay in key order.
+     *
+     * @param property The property to sort by; "key" sorts by the record key
+     * @param ascending True for ascending order, false for descending
+     * @param page The rows to write; keyset cursors are not supported
+     * @param runSorter Sorts the row indices of one run in place with the given order
+     * @param out The stream to write the JSON array to
+     * @return The number of rows written
+     * @throws IOException If a run file or the output cannot be written
+     */
+    public int sortByProperty(String property, boolean ascending, PageRequest page,
+                              BiConsumer<int[], IntBinaryOperator> runSorter, OutputStream out) throws IOException {
+        if (page.getAfter() != null) {
+            throw new IllegalArgumentException("The external sort does not support keyset cursors; use offset and limit");
+        }
+        long startTime = System.currentTimeMillis();
+
+        // The column type has to be known up front, so all runs are ordered the same way
+        List<Object> propertyValues = new ArrayList<>();
+        treeService.forEach((key, value) -> {
+            if (value != null) {
+                propertyValues.add(propertyValue(property, key, value));
+            }
+        });
+        ColumnType type = ColumnType.infer(propertyValues);
+        propertyValues.clear();
+
+        List<RunFile> runs = new ArrayList<>();
+        RowBuffer buffer = new RowBuffer();
+        try {
+            try {
+                treeService.forEach((key, value) -> {
+                    if (value == null) {
+                        return;
+                    }
+                    buffer.add(propertyValue(property, key, value), toItemJson(key, value));
+                    if (buffer.bytes > memoryBudgetBytes) {
+                        try {
+                            runs.add(spill(buffer, type, ascending, runSorter));
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            JsonArrayWriter writer = new JsonArrayWriter(out, page);
+            if (runs.isEmpty()) {
+                // Everything fit in the budget: write the sorted buffer directly
+                SortKeys keys = SortKeys.extract(buffer.propertyValues, type);
+                for (int row : sortRows(keys, ascending, runSorter)) {
+                    if (!writer.write(buffer.payloads.get(row))) {
+                        break;
+                    }
+                }
+            } else {
+                if (!buffer.payloads.isEmpty()) {
+                    runs.add(spill(buffer, type, ascending, runSorter));
+                }
+                merge(runs, ascending, writer);
+            }
+            writer.finish();
+
+            long endTime = System.currentTimeMillis();
+            System.out.println("External sort by property completed in " + (endTime - startTime) + " ms using "
+                    + runs.size() + " spilled runs");
+            return writer.written;
+        } finally {
+            for (RunFile run : runs) {
+                Files.deleteIfExists(run.path);
+            }
+        }
+    }
+
+    private Object propertyValue(String property, K key, V value) {
+        if (property.equals("key")) {
+            return key;
+        }
+        return value instanceof JSONObject ? ((JSONObject) value).opt(property) : null;
+    }
+
+    // Renders a record as the data item that is sent to the client
+    private byte[] toItemJson(K key, V value) {
+        JSONObject item = new JSONObject();
+        item.put("key", key);
+        if (value instanceof JSONObject) {
+            JSONObject jsonObj = (JSONObject) value;
+            for (String propName : jsonObj.keySet()) {
+                item.put(propName, jsonObj.get(propName));
+            }
+        }
+        return item.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private int[] sortRows(SortKeys keys, boolean ascending, BiConsumer<int[], IntBinaryOperator> runSorter) {
+        int[] rows = new int[keys.size()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = i;
+        }
+        runSorter.accept(rows, (row1, row2) -> keys.compare(row1, row2, ascending));
+        return rows;
+    }
+
+    /**
+     * Sorts the buffered rows and writes them to a new run file. Each record is the encoded sort key
+     * (a long, or a presence flag plus UTF-8 text), the row's sequence number in key order as the
+     * tie breaker, and the length-prefixed JSON payload.
+     */
+    private RunFile spill(RowBuffer buffer, ColumnType type, boolean ascending,
+                          BiConsumer<int[], IntBinaryOperator> runSorter) throws IOException {
+        SortKeys keys = SortKeys.extract(buffer.propertyValues, type);
+        int[] rows = sortRows(keys, ascending, runSorter);
+
+        Path path = Files.createTempFile(tempDirectory, "booktopia-sort-", ".run");
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(path), IO_BUFFER_BYTES))) {
+            for (int row : rows) {
+                if (keys.isNumeric()) {
+                    output.writeLong(keys.numericKey(row));
+                } else {
+                    String text = keys.textKey(row);
+                    output.writeBoolean(text != null);
+                    if (text != null) {
+                        writeBytes(output, text.getBytes(StandardCharsets.UTF_8));
+                    }
+                }
+                output.writeLong(buffer.firstSequence + row);
+                writeBytes(output, buffer.payloads.get(row));
+            }
+        }
+
+        RunFile run = new RunFile(path, rows.length, keys.isNumeric());
+        buffer.clear();
+        return run;
+    }
+
+    private static void writeBytes(DataOutputStream output, byte[] bytes) throws IOException {
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    // K-way merges the runs with a loser tree, writing the rows until the page is complete
+    private void merge(List<RunFile> runFiles, boolean ascending, JsonArrayWriter writer) throws IOException {
+        List<RunReader> readers = new ArrayList<>(runFiles.size());
+        try {
+            for (RunFile run : runFiles) {
+                RunReader reader = new RunReader(run);
+                reader.advance();
+                readers.add(reader);
+            }
+
+            LoserTree tree = new LoserTree(readers.size(), (a, b) -> compareHeads(readers.get(a), readers.get(b), ascending));
+            while (true) {
+                RunReader winner = readers.get(tree.winner());
+                if (winner.exhausted || !writer.write(winner.payload)) {
+                    break;
+                }
+                winner.advance();
+                tree.replay();
+            }
+        } finally {
+            for (RunReader reader : readers) {
+                reader.input.close();
+            }
+        }
+    }
+
+    private static int compareHeads(RunReader a, RunReader b, boolean ascending) {
+        if (a.exhausted || b.exhausted) {
+            return a.exhausted == b.exhausted ? 0 : (a.exhausted ? 1 : -1);
+        }
+        int result = a.numeric
+                ? SortKeys.compareKeys(a.numericKey, b.numericKey)
+                : SortKeys.compareKeys(a.textKey, b.textKey);
+        if (result == 0) {
+            return Long.compare(a.sequence, b.sequence);
+        }
+        return ascending ? result : -result;
+    }
+
+    /**
+     * The rows of the current run, kept until the memory budget is exceeded.
+     */
+    private static class RowBuffer {
+        final List<Object> propertyValues = new ArrayList<>();
+        final List<byte[]> payloads = new ArrayList<>();
+        long firstSequence = 0;
+        long bytes = 0;
+
+        void add(Object propertyValue, byte[] payload) {
+            propertyValues.add(propertyValue);
+            payloads.add(payload);
+            bytes += payload.length + ROW_OVERHEAD_BYTES
+                    + (propertyValue instanceof String ? 2L * ((String) propertyValue).length() : 0);
+        }
+
+        void clear() {
+            firstSequence += payloads.size();
+            propertyValues.clear();
+            payloads.clear();
+            bytes = 0;
+        }
+    }
+
+    private static class RunFile {
+        final Path path;
+        final int rows;
+        final boolean numeric;
+
+        RunFile(Path path, int rows, boolean numeric) {
+            this.path = path;
+            this.rows = rows;
+            this.numeric = numeric;
+        }
+    }
+
+    /**
+     * Reads the records of a run one at a time.
+     */
+    private static class RunReader {
+        final DataInputStream input;
+        final boolean numeric;
+        int remaining;
+        boolean exhausted;
+        long numericKey;
+        String textKey;
+        long sequence;
+        byte[] payload;
+
+        RunReader(RunFile run) throws IOException {
+            this.input = new DataInputStream(new BufferedInputStream(Files.newInputStream(run.path), IO_BUFFER_BYTES));
+            this.numeric = run.numeric;
+            this.remaining = run.rows;
+        }
+
+        void advance() throws IOException {
+            if (remaining == 0) {
+                exhausted = true;
+                payload = null;
+                return;
+            }
+            remaining--;
+            if (numeric) {
+                numericKey = input.readLong();
+            } else {
+                textKey = input.readBoolean() ? new String(readBytes(), StandardCharsets.UTF_8) : null;
+            }
+            sequence = input.readLong();
+            payload = readBytes();
+        }
+
+        private byte[] readBytes() throws IOException {
+            byte[] bytes = new byte[input.readInt()];
+            input.readFully(bytes);
+            return bytes;
+        }
+    }
+
+    /**
+     * Writes rows as a JSON array, skipping the page offset and stopping at the page limit.
+     */
+    private static class JsonArrayWriter {
+        private final OutputStream out;
+        private final PageRequest page;
+        private int skipped;
+        int written;
+
+        JsonArrayWriter(OutputStream out, PageRequest page) throws IOException {
+            this.out = out;
+            this.page = page;
+            out.write('[');
+        }
+
+        // Returns false once the page is complete
+        boolean write(byte[] payload) throws IOException {
+            if (skipped < page.getOffset()) {
+                skipped++;
+                return true;
+            }
+            if (page.isLimited() && written >= page.getLimit()) {
+                return false;
+            }
+            if (written > 0) {
+                out.write(',');
+            }
+            out.write(payload);
+            written++;
+            return !page.isLimited() || written < page.getLimit();
+        }
+
+        void finish() throws IOException {
+            out.write(']');
+            out.flush();
+        }
+    }
+}
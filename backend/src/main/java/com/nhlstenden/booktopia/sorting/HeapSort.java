@@ -1,9 +1,13 @@
 package com.nhlstenden.booktopia.sorting;
 
+import com.nhlstenden.booktopia.services.Projection;
+import com.nhlstenden.booktopia.services.SchemaRegistry;
 import com.nhlstenden.booktopia.services.TreeConverterService;
 import org.json.JSONObject;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.*;
 
 /**
@@ -17,18 +21,29 @@ import java.util.*;
 public class HeapSort<K extends Comparable<K>, V> {
     
     private final TreeConverterService<K, V> treeConverterService;
+    private final SortIndexService<K, V> sortIndexService;
+    private final ExternalSortService<K, V> externalSortService;
+    private final SchemaRegistry<K, V> schemaRegistry;
     
     /**
      * Constructs a new HeapSort service with a reference to the TreeConverterService.
      * 
      * @param treeConverterService The tree converter service to use
+     * @param sortIndexService The sort index service used for indexed property sorts
+     * @param externalSortService The external sort service used for sorts that stream their result
+     * @param schemaRegistry The schema registry that provides the sortable properties
      */
-    public HeapSort(TreeConverterService<K, V> treeConverterService) {
+    public HeapSort(TreeConverterService<K, V> treeConverterService, SortIndexService<K, V> sortIndexService,
+                    ExternalSortService<K, V> externalSortService, SchemaRegistry<K, V> schemaRegistry) {
         this.treeConverterService = treeConverterService;
+        this.sortIndexService = sortIndexService;
+        this.externalSortService = externalSortService;
+        this.schemaRegistry = schemaRegistry;
     }
     
     /**
-     * Sorts the keys from the current active tree using heap sort algorithm.
+     * Returns the keys from the current active tree in ascending order.
+     * The in-order traversal already delivers them sorted, so no heap sort is run.
      * 
      * @return A list of keys sorted in ascending order
      */
@@ -38,55 +53,32 @@ public class HeapSort<K extends Comparable<K>, V> {
         // Get all keys from the current tree
         List<K> keys = treeConverterService.getAllKeys();
         
-        // Apply heap sort
-        heapSort(keys);
-        
         long endTime = System.currentTimeMillis();
-        System.out.println("Heap sort completed in " + (endTime - startTime) + " ms");
+        System.out.println("Keys read in tree order (no heap sort needed) in " + (endTime - startTime) + " ms");
         
         return keys;
     }
     
     /**
-     * Sorts the keys from the current active tree using heap sort algorithm
-     * and returns the corresponding values in the same order.
+     * Returns the keys from the current active tree with their corresponding values
+     * in ascending key order. The in-order traversal already delivers them sorted,
+     * so no heap sort is run.
      * 
      * @return A map of sorted keys to their corresponding values
      */
     public Map<K, V> sortKeysWithValues() {
         long startTime = System.currentTimeMillis();
         
-        // Get all keys and values
-        List<K> keys = treeConverterService.getAllKeys();
-        List<V> values = treeConverterService.getAllValues();
-        
-        // Create key-value pairs for sorting
-        List<KeyValuePair<K, V>> pairs = new ArrayList<>();
-        for (int i = 0; i < keys.size(); i++) {
-            K key = keys.get(i);
-            V value = i < values.size() ? values.get(i) : null;
-            
-            // If value is null, try to get it using search
-            if (value == null) {
-                value = treeConverterService.search(key);
-            }
-            
+        // Create a LinkedHashMap to preserve the traversal order
+        Map<K, V> sortedMap = new LinkedHashMap<>();
+        treeConverterService.forEach((key, value) -> {
             if (value != null) {
-                pairs.add(new KeyValuePair<>(key, value));
+                sortedMap.put(key, value);
             }
-        }
-        
-        // Sort the pairs by key using heap sort
-        heapSortPairs(pairs);
-        
-        // Create a LinkedHashMap to preserve the sorted order
-        Map<K, V> sortedMap = new LinkedHashMap<>();
-        for (KeyValuePair<K, V> pair : pairs) {
-            sortedMap.put(pair.key, pair.value);
-        }
+        });
         
         long endTime = System.currentTimeMillis();
-        System.out.println("Heap sort with values completed in " + (endTime - startTime) + " ms");
+        System.out.println("Keys with values read in tree order (no heap sort needed) in " + (endTime - startTime) + " ms");
         
         return sortedMap;
     }
@@ -98,32 +90,14 @@ public class HeapSort<K extends Comparable<K>, V> {
      * @return A list of property names
      */
     public List<String> getSortableProperties() {
-        List<V> values = treeConverterService.getAllValues();
-        
-        // Use a set to avoid duplicate property names
-        Set<String> propertyNames = new HashSet<>();
-        
-        // Always include "key" as a sortable property
-        propertyNames.add("key");
-        
-        // Extract property names from the first few values (up to 10)
-        int count = 0;
-        for (V value : values) {
-            if (value != null && value instanceof JSONObject) {
-                JSONObject jsonObj = (JSONObject) value;
-                for (String key : jsonObj.keySet()) {
-                    propertyNames.add(key);
-                }
-                
-                // Limit to checking 10 values to avoid performance issues with large datasets
-                if (++count >= 10) {
-                    break;
-                }
+        // The column names come from the schema registry, so no records have to be read
+        List<String> sortedProperties = new ArrayList<>();
+        sortedProperties.add("key");
+        for (String column : schemaRegistry.getColumnNames()) {
+            if (!column.equals("key")) {
+                sortedProperties.add(column);
             }
         }
-        
-        // Convert to list and sort alphabetically
-        List<String> sortedProperties = new ArrayList<>(propertyNames);
         Collections.sort(sortedProperties);
         
         return sortedProperties;
@@ -135,115 +109,98 @@ public class HeapSort<K extends Comparable<K>, V> {
      * @param list The list to sort
      */
     public void heapSort(List<K> list) {
-        int n = list.size();
-        
-        // Build max heap
-        for (int i = n / 2 - 1; i >= 0; i--) {
-            heapify(list, n, i);
-        }
-        
-        // Extract elements from heap one by one
-        for (int i = n - 1; i > 0; i--) {
-            // Move current root to end
-            K temp = list.get(0);
-            list.set(0, list.get(i));
-            list.set(i, temp);
-            
-            // Call max heapify on the reduced heap
-            heapify(list, i, 0);
+        heapSort(list, ArrayHeap.DEFAULT_ARITY);
+    }
+    
+    /**
+     * Implements the heap sort algorithm for a list of comparable elements, in place.
+     * 
+     * @param list The list to sort
+     * @param arity The number of children per heap node
+     */
+    public void heapSort(List<K> list, int arity) {
+        List<K> sorted = heapSort(list, Comparator.naturalOrder(), arity);
+        for (int i = 0; i < sorted.size(); i++) {
+            list.set(i, sorted.get(i));
         }
     }
     
     /**
-     * Heapify a subtree rooted with node i which is an index in the list.
-     * n is the size of the heap.
+     * Heap sorts any list with the array-backed heap engine. The positions of the elements
+     * are sorted in a primitive array, so the heap never goes through List.get/set.
+     * Equal elements keep their original order.
      * 
-     * @param list The list to heapify
-     * @param n The size of the heap
-     * @param i The root index of the subtree
+     * @param items The items to sort
+     * @param comparator The order to sort the items in
+     * @param arity The number of children per heap node
+     * @return A new list with the items in ascending order
      */
-    private void heapify(List<K> list, int n, int i) {
-        int largest = i;  // Initialize largest as root
-        int left = 2 * i + 1;  // Left child
-        int right = 2 * i + 2;  // Right child
-        
-        // If left child is larger than root
-        if (left < n && list.get(left).compareTo(list.get(largest)) > 0) {
-            largest = left;
+    public <T> List<T> heapSort(List<T> items, Comparator<? super T> comparator, int arity) {
+        Object[] elements = items.toArray();
+        int[] positions = new int[elements.length];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = i;
         }
         
-        // If right child is larger than largest so far
-        if (right < n && list.get(right).compareTo(list.get(largest)) > 0) {
-            largest = right;
-        }
+        // Ties are broken by position, so the unstable heap sort gives a deterministic order
+        ArrayHeap.sort(positions, (a, b) -> {
+            int result = comparator.compare((T) elements[a], (T) elements[b]);
+            return result != 0 ? result : Integer.compare(a, b);
+        }, arity);
         
-        // If largest is not root
-        if (largest != i) {
-            K swap = list.get(i);
-            list.set(i, list.get(largest));
-            list.set(largest, swap);
-            
-            // Recursively heapify the affected sub-tree
-            heapify(list, n, largest);
+        List<T> sorted = new ArrayList<>(positions.length);
+        for (int position : positions) {
+            sorted.add((T) elements[position]);
         }
+        return sorted;
     }
     
     /**
-     * Implements the heap sort algorithm for a list of key-value pairs.
+     * Returns data ordered by a specific property by walking the maintained sort index.
+     * The index is built on first use and kept up to date on insert and delete.
      * 
-     * @param pairs The list of key-value pairs to sort
+     * @param property The property to sort by
+     * @param ascending True for ascending order, false for descending
+     * @return A list of data items sorted by the specified property
      */
-    private void heapSortPairs(List<KeyValuePair<K, V>> pairs) {
-        int n = pairs.size();
-        
-        // Build max heap
-        for (int i = n / 2 - 1; i >= 0; i--) {
-            heapifyPairs(pairs, n, i);
-        }
-        
-        // Extract elements from heap one by one
-        for (int i = n - 1; i > 0; i--) {
-            // Move current root to end
-            KeyValuePair<K, V> temp = pairs.get(0);
-            pairs.set(0, pairs.get(i));
-            pairs.set(i, temp);
-            
-            // Call max heapify on the reduced heap
-            heapifyPairs(pairs, i, 0);
-        }
+    public List<Map<String, Object>> sortByProperty(String property, boolean ascending) {
+        return sortByProperty(property, ascending, PageRequest.unpaged()).getItems();
+    }
+    
+    /**
+     * Returns one page of data ordered by a specific property from the maintained sort index.
+     * Only the rows up to the end of the page are visited.
+     * 
+     * @param property The property to sort by
+     * @param ascending True for ascending order, false for descending
+     * @param page The requested page (limit/offset or keyset cursor)
+     * @return The requested page of data items
+     */
+    public Page<Map<String, Object>> sortByProperty(String property, boolean ascending, PageRequest page) {
+        return sortByProperty(property, ascending, page, Projection.ALL);
     }
     
     /**
-     * Heapify a subtree of key-value pairs rooted with node i.
+     * Returns one page of data ordered by a specific property from the maintained sort index,
+     * with only the requested properties in the data items.
      * 
-     * @param pairs The list of key-value pairs
-     * @param n The size of the heap
-     * @param i The root index of the subtree
+     * @param property The property to sort by
+     * @param ascending True for ascending order, false for descending
+     * @param page The requested page (limit/offset or keyset cursor)
+     * @param projection The properties to include in the data items besides the key
+     * @return The requested page of data items
      */
-    private void heapifyPairs(List<KeyValuePair<K, V>> pairs, int n, int i) {
-        int largest = i;  // Initialize largest as root
-        int left = 2 * i + 1;  // Left child
-        int right = 2 * i + 2;  // Right child
+    public Page<Map<String, Object>> sortByProperty(String property, boolean ascending, PageRequest page,
+                                                    Projection projection) {
+        long startTime = System.currentTimeMillis();
         
-        // If left child is larger than root
-        if (left < n && pairs.get(left).key.compareTo(pairs.get(largest).key) > 0) {
-            largest = left;
-        }
+        Page<Map<String, Object>> result = sortIndexService.sortedPage(property, ascending, page)
+                .map(entry -> toItem(entry.getKey(), entry.getValue(), projection));
         
-        // If right child is larger than largest so far
-        if (right < n && pairs.get(right).key.compareTo(pairs.get(largest).key) > 0) {
-            largest = right;
-        }
+        long endTime = System.currentTimeMillis();
+        System.out.println("Indexed sort by property completed in " + (endTime - startTime) + " ms");
         
-        // If largest is not root
-        if (largest != i) {
-            KeyValuePair<K, V> swap = pairs.get(i);
-            pairs.set(i, pairs.get(largest));
-            pairs.set(largest, swap);
-            
-            // Recursively heapify the affected sub-tree
-            heapifyPairs(pairs, n, largest);
-        }
+        return result;
     }
     
     /**
@@ -253,87 +210,141 @@ public class HeapSort<K extends Comparable<K>, V> {
      * @param ascending True for ascending order, false for descending
      * @return A list of data items sorted by the specified property
      */
-    public List<Map<String, Object>> sortByProperty(String property, boolean ascending) {
+    public List<Map<String, Object>> heapSortByProperty(String property, boolean ascending) {
+        return heapSortByProperty(property, ascending, PageRequest.unpaged()).getItems();
+    }
+    
+    /**
+     * Sorts data by a specific property and returns one page of it. When a limit is given,
+     * only the first offset + limit rows are selected with a bounded heap (O(n log k)).
+     * 
+     * @param property The property to sort by
+     * @param ascending True for ascending order, false for descending
+     * @param page The requested page (limit/offset or keyset cursor)
+     * @return The requested page of data items
+     */
+    public Page<Map<String, Object>> heapSortByProperty(String property, boolean ascending, PageRequest page) {
+        return heapSortByProperty(property, ascending, page, ArrayHeap.DEFAULT_ARITY);
+    }
+    
+    /**
+     * Sorts data by a specific property and returns one page of it. An unlimited page is
+     * heap sorted with the given arity; a limited page is selected with a bounded heap.
+     * 
+     * @param property The property to sort by
+     * @param ascending True for ascending order, false for descending
+     * @param page The requested page (limit/offset or keyset cursor)
+     * @param arity The number of children per heap node
+     * @return The requested page of data items
+     */
+    public Page<Map<String, Object>> heapSortByProperty(String property, boolean ascending, PageRequest page, int arity) {
+        return heapSortByProperty(property, ascending, page, arity, Projection.ALL);
+    }
+    
+    /**
+     * Sorts data by a specific property and returns one page of it, with only the requested
+     * properties in the data items.
+     * 
+     * @param property The property to sort by
+     * @param ascending True for ascending order, false for descending
+     * @param page The requested page (limit/offset or keyset cursor)
+     * @param arity The number of children per heap node
+     * @param projection The properties to include in the data items besides the key
+     * @return The requested page of data items
+     */
+    public Page<Map<String, Object>> heapSortByProperty(String property, boolean ascending, PageRequest page, int arity,
+                                                        Projection projection) {
         long startTime = System.currentTimeMillis();
         
-        // Get all keys and values
-        List<K> keys = treeConverterService.getAllKeys();
-        List<V> values = treeConverterService.getAllValues();
+        // Normalize the property values into sort keys and order the row indices by them,
+        // so comparisons no longer look up and convert the values of both rows
+        Page<Map<String, Object>> result = TreeRows.collect(treeConverterService).sortByProperty(property, ascending, page,
+                (sortKeys, rows, asc) -> ArrayHeap.sort(rows, (row1, row2) -> sortKeys.compare(row1, row2, asc), arity),
+                projection);
         
-        // Create a list to hold all data items
-        List<Map<String, Object>> dataItems = new ArrayList<>();
+        long endTime = System.currentTimeMillis();
+        System.out.println("Heap sort by property completed in " + (endTime - startTime) + " ms");
         
-        // Combine keys and values into data items
-        for (int i = 0; i < keys.size(); i++) {
-            K key = keys.get(i);
-            V value = i < values.size() ? values.get(i) : null;
-            
-            // If value is null, try to get it using search
-            if (value == null) {
-                value = treeConverterService.search(key);
-            }
-            
-            if (value != null) {
-                Map<String, Object> item = new HashMap<>();
-                item.put("key", key);
-                
-                // Add all properties from the value
-                if (value instanceof JSONObject) {
-                    JSONObject jsonObj = (JSONObject) value;
-                    for (String propName : jsonObj.keySet()) {
-                        item.put(propName, jsonObj.get(propName));
-                    }
-                }
-                
-                dataItems.add(item);
-            }
-        }
+        return result;
+    }
+    
+    /**
+     * Sorts data by several properties in one pass and returns one page of it. The property
+     * values of every row are extracted once into key tuples, which are compared by a single
+     * composite comparator; an unlimited page is heap sorted with the given arity.
+     * 
+     * @param order The properties to sort by, each with its own direction
+     * @param page The requested page (limit/offset or keyset cursor)
+     * @param arity The number of children per heap node
+     * @return The requested page of data items
+     */
+    public Page<Map<String, Object>> heapSortBy(SortOrder order, PageRequest page, int arity) {
+        return heapSortBy(order, page, arity, Projection.ALL);
+    }
+    
+    /**
+     * Sorts data by several properties in one pass and returns one page of it, with only the
+     * requested properties in the data items.
+     * 
+     * @param order The properties to sort by, each with its own direction
+     * @param page The requested page (limit/offset or keyset cursor)
+     * @param arity The number of children per heap node
+     * @param projection The properties to include in the data items besides the key
+     * @return The requested page of data items
+     */
+    public Page<Map<String, Object>> heapSortBy(SortOrder order, PageRequest page, int arity, Projection projection) {
+        long startTime = System.currentTimeMillis();
         
-        // Sort the data items by the specified property
-        Collections.sort(dataItems, new Comparator<Map<String, Object>>() {
-            @Override
-            public int compare(Map<String, Object> item1, Map<String, Object> item2) {
-                Object val1 = property.equals("key") ? item1.get("key") : item1.get(property);
-                Object val2 = property.equals("key") ? item2.get("key") : item2.get(property);
-                
-                // Handle null values
-                if (val1 == null && val2 == null) {
-                    return 0;
-                } else if (val1 == null) {
-                    return ascending ? -1 : 1;
-                } else if (val2 == null) {
-                    return ascending ? 1 : -1;
-                }
-                
-                // Compare as strings
-                int result = val1.toString().compareTo(val2.toString());
-                return ascending ? result : -result;
-            }
-        });
+        // Rows with equal tuples are ordered by row index, which keeps the heap sort deterministic
+        Page<Map<String, Object>> result = TreeRows.collect(treeConverterService).sortBy(order, page,
+                (rows, rowOrder) -> ArrayHeap.sort(rows, rowOrder, arity), projection);
         
         long endTime = System.currentTimeMillis();
-        System.out.println("Heap sort by property completed in " + (endTime - startTime) + " ms");
+        System.out.println("Heap sort by " + order + " completed in " + (endTime - startTime) + " ms");
         
-        return dataItems;
+        return result;
     }
     
     /**
-     * Inner class to represent a key-value pair for sorting.
+     * Sorts data by a specific property with an external sort and streams it as a JSON array.
+     * Runs are heap sorted and spilled to temp files when the rows exceed the memory budget,
+     * then merged while writing.
+     * 
+     * @param property The property to sort by
+     * @param ascending True for ascending order, false for descending
+     * @param page The rows to write (limit/offset)
+     * @param arity The number of children per heap node
+     * @param out The stream to write the JSON array of data items to
+     * @return The number of rows written
+     * @throws IOException If a run file or the output cannot be written
      */
-    private static class KeyValuePair<K extends Comparable<K>, V> {
-        K key;
-        V value;
-        
-        public KeyValuePair(K key, V value) {
-            this.key = key;
-            this.value = value;
+    public int externalSortByProperty(String property, boolean ascending, PageRequest page, int arity,
+                                      OutputStream out) throws IOException {
+        return externalSortService.sortByProperty(property, ascending, page,
+                (rows, rowOrder) -> ArrayHeap.sort(rows, rowOrder, arity), out);
+    }
+    
+    /**
+     * Builds a data item combining the key and the projected properties from the value.
+     * 
+     * @param key The key of the data item
+     * @param value The value of the data item
+     * @param projection The properties to include besides the key
+     * @return The data item as a map
+     */
+    private Map<String, Object> toItem(K key, V value, Projection projection) {
+        Map<String, Object> item = new HashMap<>();
+        item.put("key", key);
+        if (value instanceof JSONObject) {
+            projection.copy((JSONObject) value, item);
         }
+        return item;
     }
     
     /**
      * Creates a new tree of the specified type with the data sorted using heap sort.
      * 
-     * @param targetTreeType The type of tree to create ("AVL", "BST", or "BTree")
+     * @param targetTreeType The type of tree to create ("AVL", "BST", "BTree" or "BPlusTree")
      * @return The processing time in milliseconds
      */
     public long createSortedTree(String targetTreeType) {
@@ -357,6 +368,9 @@ public class HeapSort<K extends Comparable<K>, V> {
                 case "BTree":
                     treeConverterService.convertToBTree();
                     break;
+                case "BPlusTree":
+                    treeConverterService.convertToBPlusTree();
+                    break;
                 default:
                     throw new IllegalArgumentException("Unknown tree type: " + targetTreeType);
             }
@@ -373,6 +387,9 @@ public class HeapSort<K extends Comparable<K>, V> {
             case "BTree":
                 treeConverterService.convertToBTree();
                 break;
+            case "BPlusTree":
+                treeConverterService.convertToBPlusTree();
+                break;
         }
         
         // Insert the sorted data
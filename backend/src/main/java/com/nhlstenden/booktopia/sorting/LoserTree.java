@@ -0,0 +1,72 @@
+package com.nhlstenden.booktopia.sorting;
+
+import java.util.function.IntBinaryOperator;
+
+/**
+ * A loser tree (tournament tree) for k-way merging of sorted sources.
+ * Every inner node stores the loser of the match played there and the overall winner is
+ * kept at the root, so after the winning source advances only the matches on the path
+ * from its leaf to the root are replayed: log2(k) comparisons per element, about half of
+ * what a binary heap needs.
+ *
+ * The sources are identified by their index 0 .. k-1 and compared with a comparator on
+ * those indices; exhausted sources must compare greater than all other sources.
+ */
+public final class LoserTree {
+
+    private final int size;
+    private final int[] losers;
+    private final IntBinaryOperator comparator;
+    private int winner;
+
+    /**
+     * Builds the tree by playing all matches once.
+     *
+     * @param size The number of sources (k)
+     * @param comparator Compares the current elements of two sources
+     */
+    public LoserTree(int size, IntBinaryOperator comparator) {
+        if (size < 1) {
+            throw new IllegalArgumentException("A loser tree needs at least one source");
+        }
+        this.size = size;
+        this.losers = new int[size];
+        this.comparator = comparator;
+
+        // winners[node] is the winner of the subtree at node; leaves are size .. 2 * size - 1
+        int[] winners = new int[2 * size];
+        for (int source = 0; source < size; source++) {
+            winners[size + source] = source;
+        }
+        for (int node = size - 1; node >= 1; node--) {
+            int left = winners[2 * node];
+            int right = winners[2 * node + 1];
+            boolean leftWins = comparator.applyAsInt(left, right) <= 0;
+            winners[node] = leftWins ? left : right;
+            losers[node] = leftWins ? right : left;
+        }
+        this.winner = size == 1 ? 0 : winners[1];
+    }
+
+    /**
+     * @return The index of the source with the smallest current element
+     */
+    public int winner() {
+        return winner;
+    }
+
+    /**
+     * Replays the matches of the winning source after it has advanced to its next element.
+     */
+    public void replay() {
+        int current = winner;
+        for (int node = (size + current) / 2; node >= 1; node /= 2) {
+            if (comparator.applyAsInt(losers[node], current) < 0) {
+                int swap = losers[node];
+                losers[node] = current;
+                current = swap;
+            }
+        }
+        winner = current;
+    }
+}
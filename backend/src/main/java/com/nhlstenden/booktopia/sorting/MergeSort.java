@@ -1,18 +1,26 @@
 package com.nhlstenden.booktopia.sorting;
 
+import com.nhlstenden.booktopia.services.Projection;
 import com.nhlstenden.booktopia.services.TreeConverterService;
 import org.json.JSONObject;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.*;
 
 @Service
 public class MergeSort<K extends Comparable<K>, V> {
 
     private final TreeConverterService<K, V> treeConverterService;
+    private final SortIndexService<K, V> sortIndexService;
+    private final ExternalSortService<K, V> externalSortService;
 
-    public MergeSort(TreeConverterService<K, V> treeConverterService) {
+    public MergeSort(TreeConverterService<K, V> treeConverterService, SortIndexService<K, V> sortIndexService,
+                     ExternalSortService<K, V> externalSortService) {
         this.treeConverterService = treeConverterService;
+        this.sortIndexService = sortIndexService;
+        this.externalSortService = externalSortService;
     }
 
     // Generic merge sort algorithm for any type T.
@@ -27,7 +35,7 @@ public class MergeSort<K extends Comparable<K>, V> {
     }
 
     private <T> List<T> merge(List<T> left, List<T> right, Comparator<T> comparator) {
-        List<T> result = new ArrayList<>();
+        List<T> result = new ArrayList<>(left.size() + right.size());
         int i = 0, j = 0;
         while (i < left.size() && j < right.size()) {
             if (comparator.compare(left.get(i), right.get(j)) <= 0) {
@@ -46,51 +54,81 @@ public class MergeSort<K extends Comparable<K>, V> {
     }
 
     /**
-     * Sorts the keys from the active tree using merge sort.
+     * Returns the keys from the active tree in ascending order.
+     * The in-order traversal already delivers them sorted, so no merge sort is run.
      * @return a List of keys sorted in ascending order.
      */
     public List<K> sortKeys() {
         long startTime = System.currentTimeMillis();
-        List<K> keys = treeConverterService.getAllKeys();
-        List<K> sortedKeys = mergeSort(keys, Comparator.naturalOrder());
+        List<K> sortedKeys = treeConverterService.getAllKeys();
         long endTime = System.currentTimeMillis();
-        System.out.println("Merge sort (keys) completed in " + (endTime - startTime) + " ms");
+        System.out.println("Keys read in tree order (no merge sort needed) in " + (endTime - startTime) + " ms");
         return sortedKeys;
     }
 
     /**
-     * Sorts the keys from the active tree and returns the corresponding values in order.
+     * Returns the keys from the active tree with their corresponding values in ascending key order.
+     * The in-order traversal already delivers them sorted, so no merge sort is run.
      * @return a Map of sorted keys to their corresponding values.
      */
     public Map<K, V> sortKeysWithValues() {
         long startTime = System.currentTimeMillis();
-        List<K> keys = treeConverterService.getAllKeys();
-        List<V> values = treeConverterService.getAllValues();
-        List<KeyValuePair<K, V>> pairs = new ArrayList<>();
-
-        for (int i = 0; i < keys.size(); i++) {
-            K key = keys.get(i);
-            V value = i < values.size() ? values.get(i) : null;
-            if (value == null) {
-                value = treeConverterService.search(key);
-            }
+        // Create a LinkedHashMap to preserve the traversal order.
+        Map<K, V> sortedMap = new LinkedHashMap<>();
+        treeConverterService.forEach((key, value) -> {
             if (value != null) {
-                pairs.add(new KeyValuePair<>(key, value));
+                sortedMap.put(key, value);
             }
-        }
+        });
 
-        // Use merge sort for the list of key-value pairs using key's natural order.
-        List<KeyValuePair<K, V>> sortedPairs = mergeSort(pairs, (p1, p2) -> p1.key.compareTo(p2.key));
+        long endTime = System.currentTimeMillis();
+        System.out.println("Keys with values read in tree order (no merge sort needed) in " + (endTime - startTime) + " ms");
+        return sortedMap;
+    }
 
-        // Create a LinkedHashMap to preserve the sorted order.
-        Map<K, V> sortedMap = new LinkedHashMap<>();
-        for (KeyValuePair<K, V> pair : sortedPairs) {
-            sortedMap.put(pair.key, pair.value);
-        }
+    /**
+     * Returns the data of the tree ordered by a specific property.
+     *
+     * The rows are served by walking the maintained sort index for the property,
+     * so no merge sort is needed once the index has been built.
+     *
+     * @param property the property to sort by (e.g. "author", "rating"). Use "key" to sort by the key.
+     * @param ascending true for ascending order; false for descending.
+     * @return a List of data items (maps) sorted by the specified property.
+     */
+    public List<Map<String, Object>> sortByProperty(String property, boolean ascending) {
+        return sortByProperty(property, ascending, PageRequest.unpaged()).getItems();
+    }
+
+    /**
+     * Returns one page of the data ordered by a specific property, served from the sort index.
+     *
+     * @param property the property to sort by. Use "key" to sort by the key.
+     * @param ascending true for ascending order; false for descending.
+     * @param page the requested page (limit/offset or keyset cursor).
+     * @return the requested page of data items.
+     */
+    public Page<Map<String, Object>> sortByProperty(String property, boolean ascending, PageRequest page) {
+        return sortByProperty(property, ascending, page, Projection.ALL);
+    }
 
+    /**
+     * Returns one page of the data ordered by a specific property, served from the sort index,
+     * with only the requested properties in the data items.
+     *
+     * @param property the property to sort by. Use "key" to sort by the key.
+     * @param ascending true for ascending order; false for descending.
+     * @param page the requested page (limit/offset or keyset cursor).
+     * @param projection the properties to include in the data items besides the key.
+     * @return the requested page of data items.
+     */
+    public Page<Map<String, Object>> sortByProperty(String property, boolean ascending, PageRequest page, Projection projection) {
+        long startTime = System.currentTimeMillis();
+        Page<Map<String, Object>> result = sortIndexService.sortedPage(property, ascending, page)
+                .map(entry -> toItem(entry.getKey(), (JSONObject) entry.getValue(), projection));
         long endTime = System.currentTimeMillis();
-        System.out.println("Merge sort (keys with values) completed in " + (endTime - startTime) + " ms");
-        return sortedMap;
+        System.out.println("Indexed sort by property completed in " + (endTime - startTime) + " ms");
+        return result;
     }
 
     /**
@@ -103,61 +141,117 @@ public class MergeSort<K extends Comparable<K>, V> {
      * @param ascending true for ascending order; false for descending.
      * @return a List of data items (maps) sorted by the specified property.
      */
-    public List<Map<String, Object>> sortByProperty(String property, boolean ascending) {
+    public List<Map<String, Object>> mergeSortByProperty(String property, boolean ascending) {
+        return mergeSortByProperty(property, ascending, PageRequest.unpaged()).getItems();
+    }
+
+    /**
+     * Sorts the data by a specific property and returns one page of it.
+     * When a limit is given, only the first offset + limit rows are selected with a
+     * bounded heap (O(n log k)) instead of merge sorting all rows.
+     *
+     * @param property the property to sort by. Use "key" to sort by the key.
+     * @param ascending true for ascending order; false for descending.
+     * @param page the requested page (limit/offset or keyset cursor).
+     * @return the requested page of data items.
+     */
+    public Page<Map<String, Object>> mergeSortByProperty(String property, boolean ascending, PageRequest page) {
+        return mergeSortByProperty(property, ascending, page, false);
+    }
+
+    /**
+     * Sorts the data by a specific property and returns one page of it.
+     *
+     * @param property the property to sort by. Use "key" to sort by the key.
+     * @param ascending true for ascending order; false for descending.
+     * @param page the requested page (limit/offset or keyset cursor).
+     * @param parallel true to merge sort an unlimited page with fork/join tasks.
+     * @return the requested page of data items.
+     */
+    public Page<Map<String, Object>> mergeSortByProperty(String property, boolean ascending, PageRequest page, boolean parallel) {
+        return mergeSortByProperty(property, ascending, page, parallel, Projection.ALL);
+    }
+
+    /**
+     * Sorts the data by a specific property and returns one page of it, with only the
+     * requested properties in the data items.
+     *
+     * @param property the property to sort by. Use "key" to sort by the key.
+     * @param ascending true for ascending order; false for descending.
+     * @param page the requested page (limit/offset or keyset cursor).
+     * @param parallel true to merge sort an unlimited page with fork/join tasks.
+     * @param projection the properties to include in the data items besides the key.
+     * @return the requested page of data items.
+     */
+    public Page<Map<String, Object>> mergeSortByProperty(String property, boolean ascending, PageRequest page, boolean parallel,
+                                                         Projection projection) {
         long startTime = System.currentTimeMillis();
-        List<K> keys = treeConverterService.getAllKeys();
-        List<V> values = treeConverterService.getAllValues();
-        List<Map<String, Object>> dataItems = new ArrayList<>();
-
-        // Build data items by combining the key and the properties from the JSON record.
-        for (int i = 0; i < keys.size(); i++) {
-            K key = keys.get(i);
-            V value = i < values.size() ? values.get(i) : null;
-            if (value == null) {
-                value = treeConverterService.search(key);
-            }
-            if (value != null && value instanceof JSONObject) {
-                JSONObject jsonObj = (JSONObject) value;
-                Map<String, Object> item = new HashMap<>();
-                item.put("key", key);
-                for (String propName : jsonObj.keySet()) {
-                    item.put(propName, jsonObj.get(propName));
-                }
-                dataItems.add(item);
-            }
-        }
+        // Normalize the values into sort keys once, then merge sort the row indices
+        // (or select a limited page with a bounded heap). Equal values stay in key order.
+        Page<Map<String, Object>> result = TreeRows.collect(treeConverterService).sortByProperty(property, ascending, page,
+                (sortKeys, rows, asc) -> sortKeys.sort(rows, asc, parallel), projection);
 
-        // Use merge sort to sort data items by the given property.
-        List<Map<String, Object>> sortedItems = mergeSort(dataItems, new Comparator<Map<String, Object>>() {
-            @Override
-            public int compare(Map<String, Object> item1, Map<String, Object> item2) {
-                Object val1 = property.equals("key") ? item1.get("key") : item1.get(property);
-                Object val2 = property.equals("key") ? item2.get("key") : item2.get(property);
-                if (val1 == null && val2 == null) {
-                    return 0;
-                } else if (val1 == null) {
-                    return ascending ? -1 : 1;
-                } else if (val2 == null) {
-                    return ascending ? 1 : -1;
-                }
-                int result = val1.toString().compareTo(val2.toString());
-                return ascending ? result : -result;
-            }
-        });
+        long endTime = System.currentTimeMillis();
+        System.out.println((parallel ? "Parallel merge" : "Merge") + " sort by property completed in " + (endTime - startTime) + " ms");
+        return result;
+    }
+
+    /**
+     * Sorts the data by several properties in one pass and returns one page of it.
+     * The property values of every row are extracted once into key tuples, which are
+     * compared by a single composite comparator (see {@link CompositeSortKeys}).
+     *
+     * @param order the properties to sort by, each with its own direction.
+     * @param page the requested page (limit/offset or keyset cursor).
+     * @param parallel true to merge sort an unlimited page with fork/join tasks.
+     * @return the requested page of data items.
+     */
+    public Page<Map<String, Object>> mergeSortBy(SortOrder order, PageRequest page, boolean parallel) {
+        return mergeSortBy(order, page, parallel, Projection.ALL);
+    }
+
+    /**
+     * Sorts the data by several properties in one pass and returns one page of it, with only
+     * the requested properties in the data items.
+     *
+     * @param order the properties to sort by, each with its own direction.
+     * @param page the requested page (limit/offset or keyset cursor).
+     * @param parallel true to merge sort an unlimited page with fork/join tasks.
+     * @param projection the properties to include in the data items besides the key.
+     * @return the requested page of data items.
+     */
+    public Page<Map<String, Object>> mergeSortBy(SortOrder order, PageRequest page, boolean parallel, Projection projection) {
+        long startTime = System.currentTimeMillis();
+        // The rows are collected in key order, so rows with equal tuples stay in key order.
+        Page<Map<String, Object>> result = TreeRows.collect(treeConverterService).sortBy(order, page,
+                parallel ? ParallelMergeSort::parallelSort : ParallelMergeSort::naturalSort, projection);
 
         long endTime = System.currentTimeMillis();
-        System.out.println("Merge sort by property completed in " + (endTime - startTime) + " ms");
-        return sortedItems;
+        System.out.println((parallel ? "Parallel merge" : "Merge") + " sort by " + order + " completed in " + (endTime - startTime) + " ms");
+        return result;
     }
 
-    // Inner class to hold key-value pairs for sorting purposes.
-    private static class KeyValuePair<K extends Comparable<K>, V> {
-        K key;
-        V value;
+    /**
+     * Sorts the data by a specific property with an external merge sort and streams it as a JSON array.
+     * Sorted runs are spilled to temp files when the rows exceed the memory budget and merged
+     * while writing, so the sorted result is never held in memory as a whole.
+     *
+     * @param property the property to sort by. Use "key" to sort by the key.
+     * @param ascending true for ascending order; false for descending.
+     * @param page the rows to write (limit/offset).
+     * @param out the stream to write the JSON array of data items to.
+     * @return the number of rows written.
+     * @throws IOException if a run file or the output cannot be written.
+     */
+    public int externalSortByProperty(String property, boolean ascending, PageRequest page, OutputStream out) throws IOException {
+        return externalSortService.sortByProperty(property, ascending, page, ParallelMergeSort::naturalSort, out);
+    }
 
-        public KeyValuePair(K key, V value) {
-            this.key = key;
-            this.value = value;
-        }
+    // Builds a data item combining the key and the projected properties from the JSON record.
+    private Map<String, Object> toItem(K key, JSONObject jsonObj, Projection projection) {
+        Map<String, Object> item = new HashMap<>();
+        item.put("key", key);
+        projection.copy(jsonObj, item);
+        return item;
     }
 }
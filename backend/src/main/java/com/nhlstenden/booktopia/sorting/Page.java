@@ -0,0 +1,176 @@
+package com.nhlstenden.booktopia.sorting;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntFunction;
+
+/**
+ * One page of a sorted result together with the information needed to request the next page.
+ *
+ * @param <T> The type of the rows
+ */
+public class Page<T> {
+
+    private final List<T> items;
+    private final int total;
+    private final PageRequest request;
+    private final String nextAfter;
+
+    public Page(List<T> items, int total, PageRequest request, String nextAfter) {
+        this.items = items;
+        this.total = total;
+        this.request = request;
+        this.nextAfter = nextAfter;
+    }
+
+    /**
+     * Cuts a page out of unsorted rows, given as the row indices 0 .. size-1. When the request
+     * is limited, only the first {@code offset + limit} rows are selected with a bounded heap;
+     * otherwise the rows are fully sorted with the given sort function.
+     *
+     * @param size The number of rows
+     * @param order The total order of the row indices (ties must be broken by key)
+     * @param page The requested page
+     * @param keyOf Returns the key of a row, used for keyset cursors
+     * @param fullSort Sorts the row indices in place when no limit is given
+     * @return The row indices of the requested page
+     */
+    public static Page<Integer> select(int size, IntBinaryOperator order, PageRequest page,
+                                       IntFunction<String> keyOf, Consumer<int[]> fullSort) {
+        int[] candidates;
+        if (page.getAfter() != null) {
+            int cursor = -1;
+            for (int row = 0; row < size; row++) {
+                if (page.getAfter().equals(keyOf.apply(row))) {
+                    cursor = row;
+                    break;
+                }
+            }
+            if (cursor < 0) {
+                throw new IllegalArgumentException("Unknown cursor key: " + page.getAfter());
+            }
+            int count = 0;
+            candidates = new int[size];
+            for (int row = 0; row < size; row++) {
+                if (order.applyAsInt(row, cursor) > 0) {
+                    candidates[count++] = row;
+                }
+            }
+            candidates = Arrays.copyOf(candidates, count);
+        } else {
+            candidates = new int[size];
+            for (int row = 0; row < size; row++) {
+                candidates[row] = row;
+            }
+        }
+
+        int[] sorted;
+        if (page.isLimited()) {
+            int[] rows = candidates;
+            int[] positions = ArrayHeap.topK(rows.length, (a, b) -> order.applyAsInt(rows[a], rows[b]),
+                    page.getRequiredRows(), ArrayHeap.DEFAULT_ARITY);
+            sorted = new int[positions.length];
+            for (int i = 0; i < positions.length; i++) {
+                sorted[i] = rows[positions[i]];
+            }
+        } else {
+            fullSort.accept(candidates);
+            sorted = candidates;
+        }
+
+        int from = Math.min(page.getOffset(), sorted.length);
+        int to = page.isLimited() ? Math.min(sorted.length, from + page.getLimit()) : sorted.length;
+        return new Page<>(boxed(sorted, from, to), size, page,
+                page.isLimited() && to > from && candidates.length > to ? keyOf.apply(sorted[to - 1]) : null);
+    }
+
+    /**
+     * Cuts a page out of row indices that are already in the requested order, without comparing them.
+     *
+     * @param ordered The row indices in the requested order
+     * @param page The requested page
+     * @param keyOf Returns the key of a row, used for keyset cursors
+     * @return The row indices of the requested page
+     */
+    public static Page<Integer> slice(int[] ordered, PageRequest page, IntFunction<String> keyOf) {
+        int total = ordered.length;
+
+        int start = 0;
+        if (page.getAfter() != null) {
+            start = -1;
+            for (int i = 0; i < total; i++) {
+                if (page.getAfter().equals(keyOf.apply(ordered[i]))) {
+                    start = i + 1;
+                    break;
+                }
+            }
+            if (start < 0) {
+                throw new IllegalArgumentException("Unknown cursor key: " + page.getAfter());
+            }
+        }
+
+        int from = (int) Math.min((long) start + page.getOffset(), total);
+        int to = page.isLimited() ? (int) Math.min(total, (long) from + page.getLimit()) : total;
+        return new Page<>(boxed(ordered, from, to), total, page,
+                page.isLimited() && to > from && total > to ? keyOf.apply(ordered[to - 1]) : null);
+    }
+
+    // Only the rows of the page itself are boxed
+    private static List<Integer> boxed(int[] rows, int from, int to) {
+        List<Integer> items = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            items.add(rows[i]);
+        }
+        return items;
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public PageRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * @return The key to pass as {@code after} to fetch the next page, or null if this is the last page
+     */
+    public String getNextAfter() {
+        return nextAfter;
+    }
+
+    /**
+     * Converts the rows of this page while keeping the paging information.
+     *
+     * @param mapper The conversion to apply to each row
+     * @return A page with the converted rows
+     */
+    public <R> Page<R> map(Function<? super T, ? extends R> mapper) {
+        List<R> mapped = new ArrayList<>(items.size());
+        for (T item : items) {
+            mapped.add(mapper.apply(item));
+        }
+        return new Page<>(mapped, total, request, nextAfter);
+    }
+
+    /**
+     * Adds the paging information of this page to a response map.
+     *
+     * @param response The response map to add the information to
+     */
+    public void addPagingInfo(Map<String, Object> response) {
+        response.put("total", total);
+        response.put("offset", request.getOffset());
+        response.put("limit", request.getLimit());
+        response.put("nextAfter", nextAfter);
+    }
+}
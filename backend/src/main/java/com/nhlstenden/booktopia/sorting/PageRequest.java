@@ -0,0 +1,66 @@
+package com.nhlstenden.booktopia.sorting;
+
+/**
+ * Describes which slice of a sorted result is requested.
+ * A page is selected either by offset ({@code offset}/{@code limit}) or by keyset
+ * ({@code after}/{@code limit}), where {@code after} is the key of the last row of the
+ * previous page. Without a limit the whole result is returned.
+ */
+public class PageRequest {
+
+    private final Integer limit;
+    private final int offset;
+    private final String after;
+
+    public PageRequest(Integer limit, int offset, String after) {
+        if (limit != null && limit < 0) {
+            throw new IllegalArgumentException("limit must not be negative: " + limit);
+        }
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset must not be negative: " + offset);
+        }
+        this.limit = limit;
+        this.offset = offset;
+        this.after = after == null || after.isEmpty() ? null : after;
+    }
+
+    /**
+     * Creates a request for the complete, unpaged result.
+     *
+     * @return A page request without limit, offset or cursor
+     */
+    public static PageRequest unpaged() {
+        return new PageRequest(null, 0, null);
+    }
+
+    public Integer getLimit() {
+        return limit;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public String getAfter() {
+        return after;
+    }
+
+    /**
+     * @return True if only a bounded number of rows is requested
+     */
+    public boolean isLimited() {
+        return limit != null;
+    }
+
+    /**
+     * @return The number of rows that have to be produced in sorted order to answer this request
+     */
+    public int getRequiredRows() {
+        return limit == null ? Integer.MAX_VALUE : (int) Math.min(Integer.MAX_VALUE, (long) offset + limit);
+    }
+
+    @Override
+    public String toString() {
+        return "limit=" + limit + "&offset=" + offset + "&after=" + after;
+    }
+}
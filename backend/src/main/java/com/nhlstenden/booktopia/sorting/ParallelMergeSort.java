@@ -0,0 +1,200 @@
+package com.nhlstenden.booktopia.sorting;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntBinaryOperator;
+
+/**
+ * A stable merge sort over an int array (usually row indices) that works in place with a
+ * single auxiliary buffer. Runs up to {@link #INSERTION_CUTOFF} elements are insertion sorted,
+ * and merges of halves that are already in order are skipped.
+ *
+ * In parallel mode both halves of a range larger than the parallelism threshold are sorted
+ * as fork/join tasks. The halves use disjoint parts of the array and the buffer, so the
+ * tasks need no synchronization.
+ */
+public final class ParallelMergeSort {
+
+    /**
+     * Ranges up to this length are insertion sorted.
+     */
+    public static final int INSERTION_CUTOFF = 32;
+
+    /**
+     * Ranges up to this length are sorted sequentially, even in parallel mode;
+     * splitting them further costs more in task overhead than it gains.
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 8192;
+
+    private ParallelMergeSort() {
+    }
+
+    /**
+     * Sorts the array on the calling thread.
+     *
+     * @param array The values to sort
+     * @param comparator Compares two values of the array
+     */
+    public static void sort(int[] array, IntBinaryOperator comparator) {
+        new SortTask(array, new int[array.length], 0, array.length, comparator, Integer.MAX_VALUE).compute();
+    }
+
+    /**
+     * Sorts the array with fork/join tasks in the common pool.
+     *
+     * @param array The values to sort
+     * @param comparator Compares two values of the array
+     */
+    public static void parallelSort(int[] array, IntBinaryOperator comparator) {
+        parallelSort(array, comparator, ForkJoinPool.commonPool(), DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * Sorts the array with fork/join tasks.
+     *
+     * @param array The values to sort
+     * @param comparator Compares two values of the array
+     * @param pool The pool to run the tasks in
+     * @param threshold Ranges up to this length are sorted without forking
+     */
+    public static void parallelSort(int[] array, IntBinaryOperator comparator, ForkJoinPool pool, int threshold) {
+        if (threshold < INSERTION_CUTOFF) {
+            throw new IllegalArgumentException("Parallel threshold must be at least " + INSERTION_CUTOFF);
+        }
+        SortTask task = new SortTask(array, new int[array.length], 0, array.length, comparator, threshold);
+        if (array.length <= threshold) {
+            task.compute();
+        } else {
+            pool.invoke(task);
+        }
+    }
+
+    /**
+     * Sorts the array with a run-adaptive (natural) merge sort on the calling thread. The input is
+     * split into the runs it already contains; strictly descending runs are reversed and runs shorter
+     * than {@link #INSERTION_CUTOFF} are extended by insertion sort. Adjacent runs are then merged
+     * pairwise. Sorted input costs n - 1 comparisons, and input made of a few sorted stretches
+     * (for example a sorted list with appended records) costs O(n log r) for r runs.
+     *
+     * @param array The values to sort
+     * @param comparator Compares two values of the array
+     */
+    public static void naturalSort(int[] array, IntBinaryOperator comparator) {
+        int length = array.length;
+        if (length < 2) {
+            return;
+        }
+
+        // runStarts[r] is the first index of run r; runStarts[runCount] is the end of the array
+        int[] runStarts = new int[length / INSERTION_CUTOFF + 2];
+        int runCount = 0;
+        int start = 0;
+        while (start < length) {
+            int end = start + 1;
+            if (end < length && comparator.applyAsInt(array[start], array[end]) > 0) {
+                while (end < length && comparator.applyAsInt(array[end - 1], array[end]) > 0) {
+                    end++;
+                }
+                reverse(array, start, end);
+            } else {
+                while (end < length && comparator.applyAsInt(array[end - 1], array[end]) <= 0) {
+                    end++;
+                }
+            }
+            if (end - start < INSERTION_CUTOFF && end < length) {
+                end = Math.min(start + INSERTION_CUTOFF, length);
+                insertionSort(array, start, end, comparator);
+            }
+            runStarts[runCount++] = start;
+            start = end;
+        }
+        runStarts[runCount] = length;
+
+        int[] buffer = new int[length];
+        while (runCount > 1) {
+            int merged = 0;
+            for (int run = 0; run < runCount; run += 2) {
+                if (run + 1 < runCount) {
+                    merge(array, buffer, runStarts[run], runStarts[run + 1], runStarts[run + 2], comparator);
+                }
+                runStarts[merged++] = runStarts[run];
+            }
+            runStarts[merged] = length;
+            runCount = merged;
+        }
+    }
+
+    private static void reverse(int[] array, int from, int to) {
+        for (int i = from, j = to - 1; i < j; i++, j--) {
+            int swap = array[i];
+            array[i] = array[j];
+            array[j] = swap;
+        }
+    }
+
+    private static class SortTask extends RecursiveAction {
+        private final int[] array;
+        private final int[] buffer;
+        private final int from;
+        private final int to;
+        private final IntBinaryOperator comparator;
+        private final int threshold;
+
+        SortTask(int[] array, int[] buffer, int from, int to, IntBinaryOperator comparator, int threshold) {
+            this.array = array;
+            this.buffer = buffer;
+            this.from = from;
+            this.to = to;
+            this.comparator = comparator;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void compute() {
+            sortRange(from, to, to - from > threshold);
+        }
+
+        private void sortRange(int lo, int hi, boolean fork) {
+            if (hi - lo <= INSERTION_CUTOFF) {
+                insertionSort(array, lo, hi, comparator);
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            if (fork) {
+                invokeAll(new SortTask(array, buffer, lo, mid, comparator, threshold),
+                        new SortTask(array, buffer, mid, hi, comparator, threshold));
+            } else {
+                sortRange(lo, mid, false);
+                sortRange(mid, hi, false);
+            }
+            merge(array, buffer, lo, mid, hi, comparator);
+        }
+    }
+
+    private static void insertionSort(int[] array, int lo, int hi, IntBinaryOperator comparator) {
+        for (int i = lo + 1; i < hi; i++) {
+            int value = array[i];
+            int j = i - 1;
+            while (j >= lo && comparator.applyAsInt(array[j], value) > 0) {
+                array[j + 1] = array[j];
+                j--;
+            }
+            array[j + 1] = value;
+        }
+    }
+
+    // Merges the sorted ranges [lo, mid) and [mid, hi); only the left range is copied out
+    private static void merge(int[] array, int[] buffer, int lo, int mid, int hi, IntBinaryOperator comparator) {
+        if (comparator.applyAsInt(array[mid - 1], array[mid]) <= 0) {
+            return;
+        }
+        System.arraycopy(array, lo, buffer, lo, mid - lo);
+        int i = lo, j = mid, k = lo;
+        while (i < mid && j < hi) {
+            array[k++] = comparator.applyAsInt(buffer[i], array[j]) <= 0 ? buffer[i++] : array[j++];
+        }
+        while (i < mid) {
+            array[k++] = buffer[i++];
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.nhlstenden.booktopia.sorting;
+
+import org.json.JSONObject;
+
+import java.util.*;
+
+/**
+ * An ordered index over a single property of the stored records.
+ * Records are grouped into buckets by their typed property value (see {@link ColumnType});
+ * within a bucket the records
+ * are kept in key order, so walking the index gives the same order as a stable sort of
+ * the in-order tree traversal. The index is kept up to date with {@link #add} and
+ * {@link #remove}, so sorted views can be served by an ordered walk instead of a full sort.
+ *
+ * @param <K> The type of keys (must be Comparable)
+ * @param <V> The type of values
+ */
+public class PropertySortIndex<K extends Comparable<K>, V> {
+
+    // Normalized keys of one column all have the same type; missing values sort first
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final Comparator<Object> NORMALIZED_ORDER =
+            Comparator.nullsFirst((a, b) -> ((Comparable) a).compareTo(b));
+
+    private final String property;
+    private final ColumnType type;
+    private final TreeMap<Object, TreeMap<K, V>> buckets;
+    private int size;
+
+    /**
+     * Creates an empty index for the given property that compares values as strings.
+     *
+     * @param property The property to index; "key" indexes the record keys
+     */
+    public PropertySortIndex(String property) {
+        this(property, ColumnType.STRING);
+    }
+
+    /**
+     * Creates an empty index for the given property.
+     *
+     * @param property The property to index; "key" indexes the record keys
+     * @param type The value type of the property, used to order the values
+     */
+    public PropertySortIndex(String property, ColumnType type) {
+        this.property = property;
+        this.type = type;
+        this.buckets = new TreeMap<>(NORMALIZED_ORDER);
+        this.size = 0;
+    }
+
+    public String getProperty() {
+        return property;
+    }
+
+    public ColumnType getType() {
+        return type;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds a record to the index.
+     *
+     * @param key The record key
+     * @param value The record value
+     */
+    public void add(K key, V value) {
+        TreeMap<K, V> bucket = buckets.computeIfAbsent(sortValue(key, value), k -> new TreeMap<>());
+        if (bucket.put(key, value) == null) {
+            size++;
+        }
+    }
+
+    /**
+     * Removes a record from the index.
+     *
+     * @param key The record key
+     * @param value The value the record was indexed with
+     */
+    public void remove(K key, V value) {
+        Object sortValue = sortValue(key, value);
+        TreeMap<K, V> bucket = buckets.get(sortValue);
+        if (bucket != null && bucket.remove(key) != null) {
+            size--;
+            if (bucket.isEmpty()) {
+                buckets.remove(sortValue);
+            }
+        }
+    }
+
+    /**
+     * Walks the index in the requested direction. Records with equal property values
+     * are always returned in ascending key order.
+     *
+     * @param ascending True for ascending order, false for descending
+     * @return An iterator over the indexed records
+     */
+    public Iterator<Map.Entry<K, V>> iterator(boolean ascending) {
+        Collection<TreeMap<K, V>> ordered = ascending ? buckets.values() : buckets.descendingMap().values();
+        return flatten(Collections.emptyIterator(), ordered.iterator());
+    }
+
+    /**
+     * Walks the index in the requested direction, starting right after the given record.
+     * This allows keyset pagination without skipping over the preceding rows.
+     *
+     * @param ascending True for ascending order, false for descending
+     * @param afterKey The key of the record to continue after
+     * @param afterValue The value of the record to continue after
+     * @return An iterator over the records following the given record
+     */
+    public Iterator<Map.Entry<K, V>> iterator(boolean ascending, K afterKey, V afterValue) {
+        Object start = sortValue(afterKey, afterValue);
+
+        // Records with the same property value follow in key order, in both directions
+        TreeMap<K, V> startBucket = buckets.get(start);
+        Iterator<Map.Entry<K, V>> first = startBucket == null
+                ? Collections.emptyIterator()
+                : startBucket.tailMap(afterKey, false).entrySet().iterator();
+
+        NavigableMap<Object, TreeMap<K, V>> rest = ascending
+                ? buckets.tailMap(start, false)
+                : buckets.headMap(start, false).descendingMap();
+        return flatten(first, rest.values().iterator());
+    }
+
+    private Iterator<Map.Entry<K, V>> flatten(Iterator<Map.Entry<K, V>> first, Iterator<TreeMap<K, V>> bucketIterator) {
+        return new Iterator<Map.Entry<K, V>>() {
+            private Iterator<Map.Entry<K, V>> current = first;
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext() && bucketIterator.hasNext()) {
+                    current = bucketIterator.next().entrySet().iterator();
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public Map.Entry<K, V> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
+    /**
+     * Extracts the typed value the index is ordered by. Missing and blank values become null.
+     */
+    private Object sortValue(K key, V value) {
+        return type.normalize(rawValue(key, value));
+    }
+
+    private Object rawValue(K key, V value) {
+        if (property.equals("key")) {
+            return key;
+        }
+        if (value instanceof JSONObject) {
+            return ((JSONObject) value).opt(property);
+        }
+        return null;
+    }
+}
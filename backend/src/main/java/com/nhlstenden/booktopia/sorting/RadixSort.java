@@ -0,0 +1,74 @@
+package com.nhlstenden.booktopia.sorting;
+
+import com.nhlstenden.booktopia.services.Projection;
+import com.nhlstenden.booktopia.services.TreeConverterService;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+/**
+ * Service for sorting data by a text property with a radix sort instead of a comparison sort.
+ * Text columns such as title, authors, director or publisher are sorted with a multikey
+ * quicksort (see {@link StringRadixSort}), which looks at each character of a shared prefix
+ * only once per row. Numeric and date columns are merge sorted on their encoded keys.
+ *
+ * @param <K> The type of keys (must be Comparable)
+ * @param <V> The type of values
+ */
+@Service
+public class RadixSort<K extends Comparable<K>, V> {
+
+    private final TreeConverterService<K, V> treeConverterService;
+
+    public RadixSort(TreeConverterService<K, V> treeConverterService) {
+        this.treeConverterService = treeConverterService;
+    }
+
+    /**
+     * Sorts data by a specific property using radix sort.
+     *
+     * @param property The property to sort by. Use "key" to sort by the key.
+     * @param ascending True for ascending order, false for descending
+     * @return A list of data items sorted by the specified property
+     */
+    public List<Map<String, Object>> radixSortByProperty(String property, boolean ascending) {
+        return radixSortByProperty(property, ascending, PageRequest.unpaged()).getItems();
+    }
+
+    /**
+     * Sorts data by a specific property and returns one page of it. When a limit is given,
+     * only the first offset + limit rows are selected with a bounded heap (O(n log k)).
+     *
+     * @param property The property to sort by. Use "key" to sort by the key.
+     * @param ascending True for ascending order, false for descending
+     * @param page The requested page (limit/offset or keyset cursor)
+     * @return The requested page of data items
+     */
+    public Page<Map<String, Object>> radixSortByProperty(String property, boolean ascending, PageRequest page) {
+        return radixSortByProperty(property, ascending, page, Projection.ALL);
+    }
+
+    /**
+     * Sorts data by a specific property and returns one page of it, with only the requested
+     * properties in the data items.
+     *
+     * @param property The property to sort by. Use "key" to sort by the key.
+     * @param ascending True for ascending order, false for descending
+     * @param page The requested page (limit/offset or keyset cursor)
+     * @param projection The properties to include in the data items besides the key
+     * @return The requested page of data items
+     */
+    public Page<Map<String, Object>> radixSortByProperty(String property, boolean ascending, PageRequest page,
+                                                         Projection projection) {
+        long startTime = System.currentTimeMillis();
+        TreeRows<K> rows = TreeRows.collect(treeConverterService);
+        SortKeys sortKeys = rows.sortKeys(property);
+        Page<Map<String, Object>> result = rows.items(rows.select(property, sortKeys, ascending, page,
+                (keys, order, asc) -> keys.radixSort(order, asc)), projection);
+
+        long endTime = System.currentTimeMillis();
+        System.out.println("Radix sort by property (" + sortKeys.getType() + ") completed in "
+                + (endTime - startTime) + " ms");
+        return result;
+    }
+}
@@ -0,0 +1,248 @@
+package com.nhlstenden.booktopia.sorting;
+
+import java.util.*;
+
+/**
+ * Picks a sort algorithm for a column from statistics of the rows to sort, instead of
+ * having the caller choose one by hand. The rules are checked in order:
+ * <ol>
+ *     <li>Nearly sorted rows (few descents) are merge sorted with the run-adaptive
+ *     {@link ParallelMergeSort#naturalSort}, which is close to linear on them.</li>
+ *     <li>Columns with at most {@link #COUNTING_MAX_DISTINCT} distinct values, such as
+ *     language_code, rating or genre, are counting sorted in linear time.</li>
+ *     <li>Text columns are radix sorted with {@link StringRadixSort}.</li>
+ *     <li>Numeric and date columns are packed with the row index into a long[] and sorted with
+ *     the primitive dual-pivot quicksort of {@link Arrays#sort(long[])}.</li>
+ * </ol>
+ * Every algorithm produces the order of {@link SortKeys#compare}, so the choice never changes
+ * the result. The rows to sort must be in ascending row order, as passed by {@link SortKeys#select}.
+ */
+public final class SortDispatcher {
+
+    /**
+     * Columns with at most this many distinct values are counting sorted.
+     */
+    public static final int COUNTING_MAX_DISTINCT = 256;
+
+    /**
+     * Rows with at most one descent per this many rows count as nearly sorted.
+     */
+    public static final int NEARLY_SORTED_ROWS_PER_DESCENT = 100;
+
+    // Row indices are stored in the low 32 bits of a packed key
+    private static final int ROW_BITS = 32;
+    private static final long ROW_MASK = (1L << ROW_BITS) - 1;
+
+    private SortDispatcher() {
+    }
+
+    /**
+     * The algorithms the dispatcher can choose from.
+     */
+    public enum Algorithm {
+        MERGE("merge"),
+        COUNTING("counting"),
+        RADIX("radix"),
+        DUAL_PIVOT("dual-pivot");
+
+        private final String label;
+
+        Algorithm(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    /**
+     * The algorithm chosen for a column, with the reason for choosing it.
+     */
+    public static final class Choice {
+        private final Algorithm algorithm;
+        private final String reason;
+
+        Choice(Algorithm algorithm, String reason) {
+            this.algorithm = algorithm;
+            this.reason = reason;
+        }
+
+        public Algorithm getAlgorithm() {
+            return algorithm;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+    }
+
+    /**
+     * Chooses an algorithm from the type, cardinality and presortedness of the rows.
+     *
+     * @param keys The sort keys of the column
+     * @param rows The row indices to sort, in ascending row order
+     * @param ascending True for ascending order, false for descending
+     * @return The chosen algorithm and the reason
+     */
+    public static Choice choose(SortKeys keys, int[] rows, boolean ascending) {
+        int descents = 0;
+        for (int i = 1; i < rows.length; i++) {
+            if (keys.compare(rows[i - 1], rows[i], ascending) > 0) {
+                descents++;
+            }
+        }
+        if ((long) descents * NEARLY_SORTED_ROWS_PER_DESCENT <= rows.length) {
+            return new Choice(Algorithm.MERGE, "nearly sorted: " + descents + " descents in " + rows.length + " rows");
+        }
+
+        int distinct = countDistinct(keys, rows, COUNTING_MAX_DISTINCT);
+        if (distinct <= COUNTING_MAX_DISTINCT) {
+            return new Choice(Algorithm.COUNTING, "low cardinality: " + distinct + " distinct values");
+        }
+
+        if (!keys.isNumeric()) {
+            return new Choice(Algorithm.RADIX, "text column with more than " + COUNTING_MAX_DISTINCT + " distinct values");
+        }
+        return new Choice(Algorithm.DUAL_PIVOT, keys.getType().name().toLowerCase()
+                + " column with more than " + COUNTING_MAX_DISTINCT + " distinct values");
+    }
+
+    /**
+     * Sorts row indices in place with the given algorithm. Radix sort only applies to text keys and
+     * the dual-pivot sort only to numeric keys; on other columns they fall back to the merge sort.
+     *
+     * @param algorithm The algorithm to use
+     * @param keys The sort keys of the column
+     * @param rows The row indices to sort, in ascending row order
+     * @param ascending True for ascending order, false for descending
+     */
+    public static void sort(Algorithm algorithm, SortKeys keys, int[] rows, boolean ascending) {
+        switch (algorithm) {
+            case MERGE:
+                keys.sort(rows, ascending, false);
+                break;
+            case COUNTING:
+                countingSort(keys, rows, ascending);
+                break;
+            case RADIX:
+                keys.radixSort(rows, ascending);
+                break;
+            case DUAL_PIVOT:
+                if (keys.isNumeric()) {
+                    dualPivotSort(keys, rows, ascending);
+                } else {
+                    keys.sort(rows, ascending, false);
+                }
+                break;
+        }
+    }
+
+    // Counts the distinct keys of the rows, stopping once the limit is exceeded
+    private static int countDistinct(SortKeys keys, int[] rows, int limit) {
+        Set<Object> seen = new HashSet<>();
+        for (int row : rows) {
+            seen.add(key(keys, row));
+            if (seen.size() > limit) {
+                break;
+            }
+        }
+        return seen.size();
+    }
+
+    private static Object key(SortKeys keys, int row) {
+        return keys.isNumeric() ? (Object) keys.numericKey(row) : keys.textKey(row);
+    }
+
+    /**
+     * A stable counting sort: the distinct keys are ordered once, then every row is placed
+     * directly into the range of its key. Rows with equal keys keep their input order.
+     */
+    private static void countingSort(SortKeys keys, int[] rows, boolean ascending) {
+        // Give every distinct key a bucket and remember one row with that key
+        Map<Object, Integer> buckets = new HashMap<>();
+        List<Integer> representatives = new ArrayList<>();
+        int[] bucketOfRow = new int[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            Integer bucket = buckets.putIfAbsent(key(keys, rows[i]), representatives.size());
+            if (bucket == null) {
+                bucket = representatives.size();
+                representatives.add(rows[i]);
+            }
+            bucketOfRow[i] = bucket;
+        }
+
+        // Order the buckets by comparing their representatives, then compute where each bucket starts
+        Integer[] order = new Integer[representatives.size()];
+        for (int bucket = 0; bucket < order.length; bucket++) {
+            order[bucket] = bucket;
+        }
+        Arrays.sort(order, (b1, b2) -> keys.compare(representatives.get(b1), representatives.get(b2), ascending));
+        int[] counts = new int[order.length];
+        for (int bucket : bucketOfRow) {
+            counts[bucket]++;
+        }
+        int[] positions = new int[order.length];
+        int position = 0;
+        for (int bucket : order) {
+            positions[bucket] = position;
+            position += counts[bucket];
+        }
+
+        int[] input = rows.clone();
+        for (int i = 0; i < input.length; i++) {
+            rows[positions[bucketOfRow[i]]++] = input[i];
+        }
+    }
+
+    /**
+     * Sorts numeric keys with the primitive dual-pivot quicksort. Each row becomes one long with
+     * the key in the high bits and the row index in the low 32 bits, so sorting the longs orders
+     * the rows by key with ties by row index. Keys whose range does not fit in the high bits (for
+     * example decimals, which are encoded as IEEE 754 bits) are first replaced by their rank.
+     */
+    private static void dualPivotSort(SortKeys keys, int[] rows, boolean ascending) {
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int row : rows) {
+            min = Math.min(min, keys.numericKey(row));
+            max = Math.max(max, keys.numericKey(row));
+        }
+
+        long[] high = new long[rows.length];
+        long limit = 1L << (63 - ROW_BITS);
+        if (rows.length > 0 && max - min >= 0 && max - min < limit) {
+            for (int i = 0; i < rows.length; i++) {
+                high[i] = keys.numericKey(rows[i]) - min;
+            }
+        } else {
+            // Replace the keys by their rank among the distinct keys
+            long[] distinct = new long[rows.length];
+            for (int i = 0; i < rows.length; i++) {
+                distinct[i] = keys.numericKey(rows[i]);
+            }
+            Arrays.sort(distinct);
+            int count = 0;
+            for (int i = 0; i < distinct.length; i++) {
+                if (i == 0 || distinct[i] != distinct[i - 1]) {
+                    distinct[count++] = distinct[i];
+                }
+            }
+            for (int i = 0; i < rows.length; i++) {
+                high[i] = Arrays.binarySearch(distinct, 0, count, keys.numericKey(rows[i]));
+            }
+            max = count - 1;
+            min = 0;
+        }
+
+        long[] packed = new long[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            long key = ascending ? high[i] : (max - min) - high[i];
+            packed[i] = (key << ROW_BITS) | rows[i];
+        }
+        Arrays.sort(packed);
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = (int) (packed[i] & ROW_MASK);
+        }
+    }
+}
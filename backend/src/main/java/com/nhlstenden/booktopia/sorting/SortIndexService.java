@@ -0,0 +1,211 @@
+package com.nhlstenden.booktopia.sorting;
+
+import com.nhlstenden.booktopia.services.SchemaRegistry;
+import com.nhlstenden.booktopia.services.TreeChangeListener;
+import com.nhlstenden.booktopia.services.TreeService;
+import org.json.JSONObject;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A service that maintains ordered per-property indexes over the active tree.
+ * Indexes are built lazily the first time a property is sorted on and are updated
+ * on every insert and delete, so sorted views no longer need a full sort per request.
+ *
+ * An index is built under the tree's write lock, so no write is missed while it is built, and
+ * is published once it is complete. Pages are read from an index under a read lock, and the
+ * updates of the indexes take the write lock, so a page never sees an index half updated.
+ *
+ * @param <K> The type of keys (must be Comparable)
+ * @param <V> The type of values
+ */
+@Service
+public class SortIndexService<K extends Comparable<K>, V> implements TreeChangeListener<K, V> {
+
+    private final TreeService<K, V> treeService;
+    private final SchemaRegistry<K, V> schemaRegistry;
+    private final Map<String, PropertySortIndex<K, V>> indexes = new HashMap<>();
+    // Taken after the tree's write lock, as in a notification, so it is never held while waiting
+    // for the tree; a lock rather than synchronized, so waiting virtual threads do not pin their
+    // carrier thread
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Constructs a new SortIndexService and registers it for tree mutations.
+     *
+     * @param treeService The tree service whose data is indexed
+     * @param schemaRegistry The schema registry that knows the column types
+     */
+    public SortIndexService(TreeService<K, V> treeService, SchemaRegistry<K, V> schemaRegistry) {
+        this.treeService = treeService;
+        this.schemaRegistry = schemaRegistry;
+        treeService.addChangeListener(this);
+    }
+
+    /**
+     * Returns one page of records ordered by a property. Only the rows up to the end of
+     * the requested page are visited; a keyset cursor seeks directly to its position.
+     *
+     * @param property The property to sort by
+     * @param ascending True for ascending order, false for descending
+     * @param page The requested page
+     * @return The requested page of records in sorted order
+     */
+    public Page<Map.Entry<K, V>> sortedPage(String property, boolean ascending, PageRequest page) {
+        // The cursor is looked up before the read lock is taken, since a lookup may wait for the tree
+        K afterKey = (K) page.getAfter();
+        V afterValue = null;
+        if (afterKey != null) {
+            afterValue = treeService.search(afterKey);
+            if (afterValue == null) {
+                throw new IllegalArgumentException("Unknown cursor key: " + page.getAfter());
+            }
+        }
+
+        while (true) {
+            PropertySortIndex<K, V> index = getIndex(property);
+            lock.readLock().lock();
+            try {
+                // A reset may have dropped the index in the meantime; it is then built again
+                if (indexes.get(property) == index) {
+                    return readPage(index, ascending, page, afterKey, afterValue);
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+
+    // Reads a page from an index; the caller holds the read lock
+    private Page<Map.Entry<K, V>> readPage(PropertySortIndex<K, V> index, boolean ascending, PageRequest page,
+                                           K afterKey, V afterValue) {
+        Iterator<Map.Entry<K, V>> iterator = afterKey != null
+                ? index.iterator(ascending, afterKey, afterValue)
+                : index.iterator(ascending);
+
+        for (int skipped = 0; skipped < page.getOffset() && iterator.hasNext(); skipped++) {
+            iterator.next();
+        }
+
+        int limit = page.isLimited() ? page.getLimit() : index.size();
+        List<Map.Entry<K, V>> entries = new ArrayList<>(Math.min(limit, index.size()));
+        while (entries.size() < limit && iterator.hasNext()) {
+            entries.add(iterator.next());
+        }
+
+        String nextAfter = page.isLimited() && !entries.isEmpty() && iterator.hasNext()
+                ? entries.get(entries.size() - 1).getKey().toString()
+                : null;
+        return new Page<>(entries, index.size(), page, nextAfter);
+    }
+
+    // Gets the index for a property, building it from the active tree on first use
+    private PropertySortIndex<K, V> getIndex(String property) {
+        PropertySortIndex<K, V> index = publishedIndex(property);
+        if (index != null) {
+            return index;
+        }
+        List<PropertySortIndex<K, V>> built = new ArrayList<>(1);
+        treeService.runExclusively(() -> {
+            // Another request may have built it while this one waited for the tree
+            PropertySortIndex<K, V> published = publishedIndex(property);
+            if (published == null) {
+                published = buildIndex(property);
+                lock.writeLock().lock();
+                try {
+                    indexes.put(property, published);
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+            built.add(published);
+        });
+        return built.get(0);
+    }
+
+    private PropertySortIndex<K, V> publishedIndex(String property) {
+        lock.readLock().lock();
+        try {
+            return indexes.get(property);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Builds an index from the active tree; the caller holds the tree's write lock
+    private PropertySortIndex<K, V> buildIndex(String property) {
+        long startTime = System.currentTimeMillis();
+
+        List<K> keys = new ArrayList<>();
+        List<V> values = new ArrayList<>();
+        List<Object> propertyValues = new ArrayList<>();
+        treeService.forEach((key, value) -> {
+            if (value != null) {
+                keys.add(key);
+                values.add(value);
+                propertyValues.add(property.equals("key") ? key
+                        : value instanceof JSONObject ? ((JSONObject) value).opt(property) : null);
+            }
+        });
+
+        // Take the column type from the schema registry (or infer it for the key) so numbers and dates
+        // are ordered by value. The type is kept until the next reset; later values that do not match it sort first.
+        ColumnType type = property.equals("key") ? null : schemaRegistry.getType(property);
+        if (type == null) {
+            type = ColumnType.infer(propertyValues);
+        }
+        PropertySortIndex<K, V> index = new PropertySortIndex<>(property, type);
+        for (int i = 0; i < keys.size(); i++) {
+            index.add(keys.get(i), values.get(i));
+        }
+
+        long endTime = System.currentTimeMillis();
+        System.out.println("Built " + type + " sort index for '" + property + "' in " + (endTime - startTime) + " ms");
+
+        return index;
+    }
+
+    @Override
+    public void onInsert(K key, V previous, V value) {
+        lock.writeLock().lock();
+        try {
+            for (PropertySortIndex<K, V> index : indexes.values()) {
+                if (previous != null) {
+                    index.remove(key, previous);
+                }
+                if (value != null) {
+                    index.add(key, value);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onDelete(K key, V previous) {
+        if (previous == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            for (PropertySortIndex<K, V> index : indexes.values()) {
+                index.remove(key, previous);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onReset() {
+        lock.writeLock().lock();
+        try {
+            indexes.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.nhlstenden.booktopia.sorting;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntFunction;
+
+/**
+ * The sort keys of one column, extracted and normalized once per row (a Schwartzian transform).
+ * Numbers and dates are encoded into a long[] whose signed order is the column order, text is
+ * kept in a String[]. Sorting then only permutes row indices and compares array elements,
+ * instead of looking up and parsing both property values in every comparison.
+ *
+ * Rows with equal keys keep their original order, so when the rows are passed in key order
+ * the result matches a stable sort with the key as tie breaker.
+ */
+public class SortKeys {
+
+    // Encoded key of blank values; sorts before everything else
+    private static final long BLANK = Long.MIN_VALUE;
+
+    private final ColumnType type;
+    private final long[] numericKeys;
+    private final String[] textKeys;
+    private final int size;
+
+    private SortKeys(ColumnType type, long[] numericKeys, String[] textKeys, int size) {
+        this.type = type;
+        this.numericKeys = numericKeys;
+        this.textKeys = textKeys;
+        this.size = size;
+    }
+
+    /**
+     * Extracts the sort keys of a column, inferring its type from the values.
+     *
+     * @param values The raw property values, one per row
+     * @return The extracted sort keys
+     */
+    public static SortKeys extract(List<?> values) {
+        return extract(values, ColumnType.infer(values));
+    }
+
+    /**
+     * Extracts the sort keys of a column of a known type.
+     *
+     * @param values The raw property values, one per row
+     * @param type The column type to order the values by
+     * @return The extracted sort keys
+     */
+    public static SortKeys extract(List<?> values, ColumnType type) {
+        int size = values.size();
+        if (type == ColumnType.STRING) {
+            String[] textKeys = new String[size];
+            for (int i = 0; i < size; i++) {
+                Comparable<?> normalized = type.normalize(values.get(i));
+                textKeys[i] = normalized == null ? null : normalized.toString();
+            }
+            return new SortKeys(type, null, textKeys, size);
+        }
+
+        long[] numericKeys = new long[size];
+        for (int i = 0; i < size; i++) {
+            numericKeys[i] = encode(type, type.normalize(values.get(i)));
+        }
+        return new SortKeys(type, numericKeys, null, size);
+    }
+
+    /**
+     * Encodes a normalized numeric or date key as a long with the same order.
+     * Doubles are mapped onto their IEEE 754 bits with the sign handled, so that
+     * the signed long order equals Double.compare.
+     */
+    private static long encode(ColumnType type, Comparable<?> normalized) {
+        if (normalized == null) {
+            return BLANK;
+        }
+        if (type == ColumnType.DECIMAL) {
+            long bits = Double.doubleToLongBits((Double) normalized);
+            return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+        }
+        long value = ((Number) normalized).longValue();
+        // Keep unparsable values (Long.MIN_VALUE) after blank ones
+        return value == BLANK ? BLANK + 1 : value;
+    }
+
+    public ColumnType getType() {
+        return type;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // True if the keys are encoded as longs, false if they are kept as text
+    boolean isNumeric() {
+        return numericKeys != null;
+    }
+
+    long numericKey(int row) {
+        return numericKeys[row];
+    }
+
+    String textKey(int row) {
+        return textKeys[row];
+    }
+
+    /**
+     * Compares two encoded keys in the same order as {@link #compare}, without the row tie breaker.
+     */
+    static int compareKeys(long key1, long key2) {
+        return Long.compare(key1, key2);
+    }
+
+    static int compareKeys(String text1, String text2) {
+        if (text1 == null || text2 == null) {
+            return text1 == text2 ? 0 : (text1 == null ? -1 : 1);
+        }
+        return text1.compareTo(text2);
+    }
+
+    // Compares the keys of two rows in ascending order, without the row tie breaker
+    int compareKeys(int row1, int row2) {
+        return numericKeys != null
+                ? compareKeys(numericKeys[row1], numericKeys[row2])
+                : compareKeys(textKeys[row1], textKeys[row2]);
+    }
+
+    /**
+     * Compares the keys of two rows, breaking ties by row index.
+     *
+     * @param row1 The index of the first row
+     * @param row2 The index of the second row
+     * @param ascending True for ascending key order, false for descending
+     * @return A negative number, zero or a positive number as row1 sorts before, with or after row2
+     */
+    public int compare(int row1, int row2, boolean ascending) {
+        int result = compareKeys(row1, row2);
+        if (result == 0) {
+            return Integer.compare(row1, row2);
+        }
+        return ascending ? result : -result;
+    }
+
+    /**
+     * @param ascending True for ascending key order, false for descending
+     * @return A comparator over row indices in the requested order
+     */
+    public Comparator<Integer> rowOrder(boolean ascending) {
+        return (row1, row2) -> compare(row1, row2, ascending);
+    }
+
+    /**
+     * Sorts all rows by their key.
+     *
+     * @param ascending True for ascending order, false for descending
+     * @return The row indices in sorted order
+     */
+    public int[] sortedRows(boolean ascending) {
+        return sortedRows(ascending, false);
+    }
+
+    /**
+     * Sorts all rows by their key, optionally with a fork/join parallel merge sort.
+     *
+     * @param ascending True for ascending order, false for descending
+     * @param parallel True to sort in parallel
+     * @return The row indices in sorted order
+     */
+    public int[] sortedRows(boolean ascending, boolean parallel) {
+        int[] rows = new int[size];
+        for (int i = 0; i < size; i++) {
+            rows[i] = i;
+        }
+        sort(rows, ascending, parallel);
+        return rows;
+    }
+
+    /**
+     * Sorts row indices in place by their key with a stable merge sort (see {@link ParallelMergeSort}).
+     * The sequential sort merges the runs already present in the rows, so columns that are (nearly)
+     * sorted or reverse sorted already, like the movie years, take close to linear time.
+     *
+     * @param rows The row indices to sort
+     * @param ascending True for ascending order, false for descending
+     * @param parallel True to sort in parallel
+     */
+    public void sort(int[] rows, boolean ascending, boolean parallel) {
+        IntBinaryOperator order = (row1, row2) -> compare(row1, row2, ascending);
+        if (parallel) {
+            ParallelMergeSort.parallelSort(rows, order);
+        } else {
+            ParallelMergeSort.naturalSort(rows, order);
+        }
+    }
+
+    /**
+     * Sorts row indices in place by their key with the string radix sort (see {@link StringRadixSort}).
+     * Only text keys are radix sorted; numeric keys are merge sorted as in {@link #sort}.
+     *
+     * @param rows The row indices to sort
+     * @param ascending True for ascending order, false for descending
+     */
+    public void radixSort(int[] rows, boolean ascending) {
+        if (textKeys != null) {
+            StringRadixSort.sort(rows, textKeys, ascending);
+        } else {
+            sort(rows, ascending, false);
+        }
+    }
+
+    /**
+     * Selects one page of rows ordered by their key. A limited page only selects the
+     * first offset + limit rows with a bounded heap instead of sorting all rows.
+     *
+     * @param ascending True for ascending order, false for descending
+     * @param page The requested page
+     * @param keyOf Returns the record key of a row, used for keyset cursors
+     * @param parallel True to sort an unlimited page in parallel
+     * @return The row indices of the requested page
+     */
+    public Page<Integer> select(boolean ascending, PageRequest page, IntFunction<String> keyOf, boolean parallel) {
+        return select(ascending, page, keyOf, parallel ? ParallelMergeSort::parallelSort : ParallelMergeSort::naturalSort);
+    }
+
+    /**
+     * Selects one page of rows ordered by their key, sorting an unlimited page with the given sort.
+     *
+     * @param ascending True for ascending order, false for descending
+     * @param page The requested page
+     * @param keyOf Returns the record key of a row, used for keyset cursors
+     * @param sorter Sorts an array of row indices in place with the given order
+     * @return The row indices of the requested page
+     */
+    public Page<Integer> select(boolean ascending, PageRequest page, IntFunction<String> keyOf,
+                                BiConsumer<int[], IntBinaryOperator> sorter) {
+        IntBinaryOperator order = (row1, row2) -> compare(row1, row2, ascending);
+        return Page.select(size, order, page, keyOf, rows -> sorter.accept(rows, order));
+    }
+
+    /**
+     * Gathers rows in the given order.
+     *
+     * @param rows The rows, aligned with the extracted keys
+     * @param order The row indices in the order to return them
+     * @return The reordered rows
+     */
+    public static <T> List<T> gather(List<T> rows, int[] order) {
+        List<T> result = new ArrayList<>(order.length);
+        for (int row : order) {
+            result.add(rows.get(row));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,117 @@
+package com.nhlstenden.booktopia.sorting;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An ordering by one or more properties, as given by a {@code sort} request parameter such as
+ * {@code authors:asc,average_rating:desc,title:asc}. Later properties break ties of earlier ones.
+ */
+public final class SortOrder {
+
+    private final List<Field> fields;
+
+    public SortOrder(List<Field> fields) {
+        if (fields.isEmpty()) {
+            throw new IllegalArgumentException("A sort order needs at least one property");
+        }
+        this.fields = Collections.unmodifiableList(new ArrayList<>(fields));
+    }
+
+    /**
+     * Parses a sort specification: comma separated {@code property:direction} pairs, where the
+     * direction is asc or desc (case-insensitive) and defaults to asc when omitted.
+     *
+     * @param spec The sort specification
+     * @return The parsed sort order
+     * @throws IllegalArgumentException If the specification is empty or has an unknown direction
+     */
+    public static SortOrder parse(String spec) {
+        if (spec == null || spec.isBlank()) {
+            throw new IllegalArgumentException("The sort parameter is empty");
+        }
+        List<Field> fields = new ArrayList<>();
+        for (String part : spec.split(",")) {
+            String[] pieces = part.trim().split(":", 2);
+            String property = pieces[0].trim();
+            if (property.isEmpty()) {
+                throw new IllegalArgumentException("Missing property in sort parameter: " + spec);
+            }
+            boolean ascending = true;
+            if (pieces.length > 1) {
+                String direction = pieces[1].trim();
+                if (direction.equalsIgnoreCase("desc")) {
+                    ascending = false;
+                } else if (!direction.equalsIgnoreCase("asc")) {
+                    throw new IllegalArgumentException("Unknown sort direction '" + direction + "' for " + property
+                            + " (expected asc or desc)");
+                }
+            }
+            fields.add(new Field(property, ascending));
+        }
+        return new SortOrder(fields);
+    }
+
+    /**
+     * Creates an ordering by a single property.
+     *
+     * @param property The property to sort by
+     * @param direction The sort direction ("ASC" or "DESC")
+     * @return The sort order
+     */
+    public static SortOrder of(String property, String direction) {
+        return new SortOrder(List.of(new Field(property, !"DESC".equalsIgnoreCase(direction))));
+    }
+
+    public List<Field> getFields() {
+        return fields;
+    }
+
+    /**
+     * @return True if the order has only one property, which the single-property sorts can handle
+     */
+    public boolean isSingle() {
+        return fields.size() == 1;
+    }
+
+    /**
+     * @return The first (most significant) property of the order
+     */
+    public Field first() {
+        return fields.get(0);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder spec = new StringBuilder();
+        for (Field field : fields) {
+            if (spec.length() > 0) {
+                spec.append(',');
+            }
+            spec.append(field.property).append(':').append(field.ascending ? "asc" : "desc");
+        }
+        return spec.toString();
+    }
+
+    /**
+     * One property of a sort order with its direction.
+     */
+    public static final class Field {
+        private final String property;
+        private final boolean ascending;
+
+        public Field(String property, boolean ascending) {
+            this.property = property;
+            this.ascending = ascending;
+        }
+
+        public String getProperty() {
+            return property;
+        }
+
+        public boolean isAscending() {
+            return ascending;
+        }
+    }
+}
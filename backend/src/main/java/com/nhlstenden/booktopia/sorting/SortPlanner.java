@@ -0,0 +1,61 @@
+package com.nhlstenden.booktopia.sorting;
+
+/**
+ * Decides how rows read from a tree have to be processed to reach a requested order.
+ * Tree traversals already return the rows in ascending key order, so a sort by key can be
+ * skipped entirely (or replaced by a reversal) instead of re-sorting rows that are already in place.
+ */
+public final class SortPlanner {
+
+    /**
+     * The way to bring the source rows into the requested order.
+     */
+    public enum Plan {
+        /** The rows are already in the requested order. */
+        KEEP,
+        /** The rows are in the opposite order and can be reversed. */
+        REVERSE,
+        /** The rows have to be sorted. */
+        SORT
+    }
+
+    private SortPlanner() {
+    }
+
+    /**
+     * Plans how to order rows read from a tree in key order by one of their properties.
+     * The trees order the keys by their natural order, while the sort keys compare a column
+     * by its inferred type; the traversal order is only reused when the key column is compared
+     * as text, since keys that look like numbers would be sorted numerically.
+     *
+     * @param property The property to sort by
+     * @param ascending True for ascending order, false for descending
+     * @param type The inferred type of the property column
+     * @return KEEP or REVERSE if the traversal order can be used, SORT otherwise
+     */
+    public static Plan planTreeRows(String property, boolean ascending, ColumnType type) {
+        if (type != ColumnType.STRING || !property.equals("key")) {
+            return Plan.SORT;
+        }
+        // The keys are unique, so the reversed key order has no ties that would have to stay stable
+        return ascending ? Plan.KEEP : Plan.REVERSE;
+    }
+
+    /**
+     * Returns the row indices 0 .. size-1 in the order given by a KEEP or REVERSE plan.
+     *
+     * @param size The number of source rows
+     * @param plan KEEP for the source order, REVERSE for the opposite order
+     * @return The row indices in the planned order
+     */
+    public static int[] orderedRows(int size, Plan plan) {
+        if (plan == Plan.SORT) {
+            throw new IllegalArgumentException("The rows have to be sorted");
+        }
+        int[] rows = new int[size];
+        for (int i = 0; i < size; i++) {
+            rows[i] = plan == Plan.KEEP ? i : size - 1 - i;
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,164 @@
+package com.nhlstenden.booktopia.sorting;
+
+import java.util.Arrays;
+
+/**
+ * A multikey quicksort (three-way radix quicksort) over row indices with text keys.
+ *
+ * Instead of comparing whole strings, the rows are partitioned by a single character at a time:
+ * rows whose character at the current depth is smaller, equal or larger than the pivot character.
+ * Only the equal part moves on to the next character, so a shared prefix is inspected once per
+ * row rather than once per comparison. Ranges up to {@link #INSERTION_CUTOFF} rows are insertion
+ * sorted on the remaining suffixes.
+ *
+ * Characters are the UTF-16 code units of the strings, so the order is the same as
+ * {@link String#compareTo}. Missing (null) keys sort before all other keys and rows with equal
+ * keys stay in row index order, matching {@link SortKeys#compare}.
+ */
+public final class StringRadixSort {
+
+    /**
+     * Ranges up to this length are insertion sorted.
+     */
+    public static final int INSERTION_CUTOFF = 16;
+
+    // The character value past the end of a string; sorts before every real character
+    private static final int END = -1;
+
+    private StringRadixSort() {
+    }
+
+    /**
+     * Sorts row indices in place by their keys.
+     *
+     * @param rows The row indices to sort
+     * @param keys The key of every row, indexed by row; null for a missing key
+     * @param ascending True for ascending key order, false for descending
+     */
+    public static void sort(int[] rows, String[] keys, boolean ascending) {
+        // Rows without a key go first, in row order
+        int nulls = 0;
+        for (int row : rows) {
+            if (keys[row] == null) {
+                nulls++;
+            }
+        }
+        if (nulls > 0) {
+            int[] copy = rows.clone();
+            int nullIndex = 0;
+            int keyIndex = nulls;
+            for (int row : copy) {
+                if (keys[row] == null) {
+                    rows[nullIndex++] = row;
+                } else {
+                    rows[keyIndex++] = row;
+                }
+            }
+            Arrays.sort(rows, 0, nulls);
+        }
+
+        sort(rows, keys, nulls, rows.length, 0);
+
+        if (!ascending) {
+            // Reverse the order of the keys, but keep rows with equal keys in row order
+            reverse(rows, 0, rows.length);
+            int start = 0;
+            while (start < rows.length) {
+                int end = start + 1;
+                while (end < rows.length && equalKeys(keys[rows[start]], keys[rows[end]])) {
+                    end++;
+                }
+                reverse(rows, start, end);
+                start = end;
+            }
+        }
+    }
+
+    // Sorts rows[lo, hi), whose keys all share their first depth characters
+    private static void sort(int[] rows, String[] keys, int lo, int hi, int depth) {
+        while (hi - lo > INSERTION_CUTOFF) {
+            int pivot = medianOfThree(charAt(keys[rows[lo]], depth),
+                    charAt(keys[rows[(lo + hi) >>> 1]], depth),
+                    charAt(keys[rows[hi - 1]], depth));
+
+            // rows[lo, lt) < pivot, rows[lt, i) == pivot, rows[gt, hi) > pivot
+            int lt = lo;
+            int gt = hi;
+            int i = lo;
+            while (i < gt) {
+                int c = charAt(keys[rows[i]], depth);
+                if (c < pivot) {
+                    swap(rows, lt++, i++);
+                } else if (c > pivot) {
+                    swap(rows, i, --gt);
+                } else {
+                    i++;
+                }
+            }
+
+            sort(rows, keys, lo, lt, depth);
+            if (pivot == END) {
+                // The keys in the middle are equal; order them by row index
+                Arrays.sort(rows, lt, gt);
+            } else {
+                sort(rows, keys, lt, gt, depth + 1);
+            }
+            lo = gt;
+        }
+        insertionSort(rows, keys, lo, hi, depth);
+    }
+
+    private static void insertionSort(int[] rows, String[] keys, int lo, int hi, int depth) {
+        for (int i = lo + 1; i < hi; i++) {
+            int row = rows[i];
+            int j = i - 1;
+            while (j >= lo && compareFrom(rows[j], row, keys, depth) > 0) {
+                rows[j + 1] = rows[j];
+                j--;
+            }
+            rows[j + 1] = row;
+        }
+    }
+
+    // Compares the keys of two rows from the given depth on, breaking ties by row index
+    private static int compareFrom(int row1, int row2, String[] keys, int depth) {
+        String key1 = keys[row1];
+        String key2 = keys[row2];
+        int length = Math.min(key1.length(), key2.length());
+        for (int i = depth; i < length; i++) {
+            int result = key1.charAt(i) - key2.charAt(i);
+            if (result != 0) {
+                return result;
+            }
+        }
+        int result = key1.length() - key2.length();
+        return result != 0 ? result : Integer.compare(row1, row2);
+    }
+
+    private static int charAt(String key, int depth) {
+        return depth < key.length() ? key.charAt(depth) : END;
+    }
+
+    private static int medianOfThree(int a, int b, int c) {
+        if (a < b) {
+            return b < c ? b : Math.max(a, c);
+        }
+        return a < c ? a : Math.max(b, c);
+    }
+
+    private static boolean equalKeys(String key1, String key2) {
+        return key1 == null ? key2 == null : key1.equals(key2);
+    }
+
+    private static void swap(int[] rows, int i, int j) {
+        int swap = rows[i];
+        rows[i] = rows[j];
+        rows[j] = swap;
+    }
+
+    private static void reverse(int[] rows, int from, int to) {
+        for (int i = from, j = to - 1; i < j; i++, j--) {
+            swap(rows, i, j);
+        }
+    }
+}
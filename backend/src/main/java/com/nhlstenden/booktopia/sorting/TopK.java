@@ -0,0 +1,42 @@
+package com.nhlstenden.booktopia.sorting;
+
+import java.util.*;
+
+/**
+ * Selects the first k elements of a sequence in sorted order using a bounded heap.
+ * This costs O(n log k) instead of the O(n log n) of a full sort, which matters when
+ * only the first page of a large result is requested. The heap is an {@link ArrayHeap}
+ * over the element positions.
+ */
+public final class TopK {
+
+    private TopK() {
+    }
+
+    /**
+     * Returns the k smallest elements according to the comparator, in ascending order.
+     *
+     * @param elements The elements to select from
+     * @param comparator The ordering; should be total so ties are resolved deterministically
+     * @param k The number of elements to keep
+     * @return At most k elements in sorted order
+     */
+    public static <T> List<T> select(Iterable<T> elements, Comparator<? super T> comparator, int k) {
+        List<T> list;
+        if (elements instanceof List) {
+            list = (List<T>) elements;
+        } else {
+            list = new ArrayList<>();
+            elements.forEach(list::add);
+        }
+
+        int[] selected = ArrayHeap.topK(list.size(),
+                (a, b) -> comparator.compare(list.get(a), list.get(b)), k, ArrayHeap.DEFAULT_ARITY);
+
+        List<T> result = new ArrayList<>(selected.length);
+        for (int position : selected) {
+            result.add(list.get(position));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,138 @@
+package com.nhlstenden.booktopia.sorting;
+
+import com.nhlstenden.booktopia.services.Projection;
+import com.nhlstenden.booktopia.services.TreeConverterService;
+import org.json.JSONObject;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntFunction;
+
+/**
+ * The JSON records of the active tree as rows, collected in key order in one traversal. The
+ * property sorts of {@link MergeSort}, {@link HeapSort}, {@link RadixSort} and {@link AdaptiveSort}
+ * share this pipeline and differ only in the algorithm that sorts an unlimited page: the property
+ * values are normalized into sort keys once, the page is selected (or sliced from the key order
+ * when the tree already has it), and only the rows of the page are turned into data items.
+ *
+ * @param <K> The type of keys (must be Comparable)
+ */
+final class TreeRows<K extends Comparable<K>> {
+
+    /**
+     * Sorts row indices in place by their sort keys.
+     */
+    @FunctionalInterface
+    interface RowSort {
+        void sort(SortKeys sortKeys, int[] rows, boolean ascending);
+    }
+
+    private final List<K> keys;
+    private final List<JSONObject> values;
+    private final IntFunction<String> keyOf;
+
+    private TreeRows(List<K> keys, List<JSONObject> values) {
+        this.keys = keys;
+        this.values = values;
+        this.keyOf = row -> keys.get(row).toString();
+    }
+
+    /**
+     * Collects the JSON records of the active tree in key order.
+     *
+     * @param source The tree to read
+     * @return The rows
+     */
+    static <K extends Comparable<K>, V> TreeRows<K> collect(TreeConverterService<K, V> source) {
+        List<K> keys = new ArrayList<>();
+        List<JSONObject> values = new ArrayList<>();
+        source.forEach((key, value) -> {
+            if (value instanceof JSONObject) {
+                keys.add(key);
+                values.add((JSONObject) value);
+            }
+        });
+        return new TreeRows<>(keys, values);
+    }
+
+    /**
+     * Extracts the values of a property, normalized into sort keys.
+     *
+     * @param property The property to sort by; "key" sorts by the record key
+     * @return The sort keys, aligned with the rows
+     */
+    SortKeys sortKeys(String property) {
+        List<Object> propertyValues = new ArrayList<>(keys.size());
+        for (int row = 0; row < keys.size(); row++) {
+            propertyValues.add(property.equals("key") ? keys.get(row) : values.get(row).opt(property));
+        }
+        return SortKeys.extract(propertyValues);
+    }
+
+    /**
+     * Selects one page of rows ordered by a property. A limited page is selected with a bounded
+     * heap and an unlimited one is sorted with the given algorithm; a sort by key only slices the
+     * key order. Rows with equal values stay in key order.
+     *
+     * @param property The property to sort by
+     * @param sortKeys The sort keys of the property (see {@link #sortKeys})
+     * @param ascending True for ascending order, false for descending
+     * @param page The requested page
+     * @param sort The algorithm that sorts an unlimited page
+     * @return The row indices of the page
+     */
+    Page<Integer> select(String property, SortKeys sortKeys, boolean ascending, PageRequest page, RowSort sort) {
+        SortPlanner.Plan plan = SortPlanner.planTreeRows(property, ascending, sortKeys.getType());
+        if (plan != SortPlanner.Plan.SORT) {
+            return Page.slice(SortPlanner.orderedRows(keys.size(), plan), page, keyOf);
+        }
+        return sortKeys.select(ascending, page, keyOf, (rows, rowOrder) -> sort.sort(sortKeys, rows, ascending));
+    }
+
+    /**
+     * Selects one page of rows ordered by a property and builds its data items.
+     *
+     * @param property The property to sort by; "key" sorts by the record key
+     * @param ascending True for ascending order, false for descending
+     * @param page The requested page
+     * @param sort The algorithm that sorts an unlimited page
+     * @param projection The properties to include in the data items besides the key
+     * @return The page of data items
+     */
+    Page<Map<String, Object>> sortByProperty(String property, boolean ascending, PageRequest page, RowSort sort,
+                                             Projection projection) {
+        return items(select(property, sortKeys(property), ascending, page, sort), projection);
+    }
+
+    /**
+     * Selects one page of rows ordered by several properties and builds its data items.
+     *
+     * @param order The properties to sort by, each with its own direction
+     * @param page The requested page
+     * @param sorter Sorts an unlimited page of row indices in place with the given order
+     * @param projection The properties to include in the data items besides the key
+     * @return The page of data items
+     */
+    Page<Map<String, Object>> sortBy(SortOrder order, PageRequest page, BiConsumer<int[], IntBinaryOperator> sorter,
+                                     Projection projection) {
+        CompositeSortKeys sortKeys = CompositeSortKeys.extract(order, keys, values);
+        return items(sortKeys.select(page, keyOf, sorter), projection);
+    }
+
+    /**
+     * Builds the data items of a page of rows: the key and the projected properties.
+     *
+     * @param rows The row indices of the page
+     * @param projection The properties to include besides the key
+     * @return The page of data items
+     */
+    Page<Map<String, Object>> items(Page<Integer> rows, Projection projection) {
+        return rows.map(row -> {
+            Map<String, Object> item = new HashMap<>();
+            item.put("key", keys.get(row));
+            projection.copy(values.get(row), item);
+            return item;
+        });
+    }
+}
@@ -0,0 +1,45 @@
+package com.nhlstenden.booktopia;
+
+import com.nhlstenden.booktopia.sorting.ArrayHeap;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ArrayHeapTest {
+
+    @Test
+    public void testSortWithDifferentArities() {
+        int[] values = new Random(3).ints(2000, -500, 500).toArray();
+        int[] expected = values.clone();
+        Arrays.sort(expected);
+
+        for (int arity : new int[]{2, 3, 4, 8}) {
+            int[] sorted = values.clone();
+            ArrayHeap.sort(sorted, Integer::compare, arity);
+            assertArrayEquals(expected, sorted, "arity " + arity);
+        }
+    }
+
+    @Test
+    public void testTopKSelectsSmallestInOrder() {
+        int[] keys = new Random(11).ints(1000, 0, 100).toArray();
+        // Total order: by key, then by position
+        int[] top = ArrayHeap.topK(keys.length, (a, b) -> keys[a] != keys[b]
+                ? Integer.compare(keys[a], keys[b]) : Integer.compare(a, b), 25, 4);
+
+        Integer[] all = new Integer[keys.length];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = i;
+        }
+        Arrays.sort(all, (a, b) -> Integer.compare(keys[a], keys[b]));
+        int[] expected = Arrays.stream(all).limit(25).mapToInt(Integer::intValue).toArray();
+        assertArrayEquals(expected, top);
+
+        assertEquals(3, ArrayHeap.topK(3, Integer::compare, 10, 2).length);
+        assertEquals(0, ArrayHeap.topK(5, Integer::compare, 0, 2).length);
+    }
+}
@@ -0,0 +1,96 @@
+package com.nhlstenden.booktopia;
+
+import com.nhlstenden.booktopia.bplustree.BPlusTree;
+import com.nhlstenden.booktopia.services.TreeService;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BPlusTreeTest {
+
+    private static List<String> keys(BPlusTree<String, Integer> tree) {
+        List<String> keys = new ArrayList<>();
+        tree.forEach((key, value) -> keys.add(key));
+        return keys;
+    }
+
+    @Test
+    public void testMatchesTreeMapUnderRandomWrites() {
+        for (int order : new int[]{3, 4, 5, 64}) {
+            BPlusTree<String, Integer> tree = new BPlusTree<>(order);
+            TreeMap<String, Integer> expected = new TreeMap<>();
+            Random random = new Random(order);
+            for (int i = 0; i < 20000; i++) {
+                String key = String.format("k%04d", random.nextInt(3000));
+                if (random.nextInt(5) < 2) {
+                    assertEquals(expected.remove(key) != null, tree.delete(key), "order " + order);
+                } else {
+                    tree.insert(key, i);
+                    expected.put(key, i);
+                }
+            }
+            assertEquals(expected.size(), tree.size(), "order " + order);
+            assertEquals(new ArrayList<>(expected.keySet()), keys(tree), "order " + order);
+            for (int i = 0; i < 3000; i++) {
+                String key = String.format("k%04d", i);
+                assertEquals(expected.get(key), tree.search(key), "order " + order);
+            }
+
+            // Delete everything, which merges all nodes back into the root leaf
+            for (String key : new ArrayList<>(expected.keySet())) {
+                assertTrue(tree.delete(key));
+            }
+            assertEquals(0, tree.size());
+            assertEquals(1, tree.height());
+            assertTrue(keys(tree).isEmpty());
+        }
+    }
+
+    @Test
+    public void testWalksRangesAlongTheLeaves() {
+        BPlusTree<String, Integer> tree = new BPlusTree<>(4);
+        for (int i = 0; i < 100; i += 2) {
+            tree.insert(String.format("%03d", i), i);
+        }
+        assertTrue(tree.height() > 2);
+
+        List<String> range = new ArrayList<>();
+        tree.forEachInRange("011", "021", (key, value) -> range.add(key));
+        assertEquals(List.of("012", "014", "016", "018", "020"), range);
+
+        List<String> limited = new ArrayList<>();
+        tree.forEachInRange("090", null, (key, value) -> limited.add(key) && limited.size() < 3);
+        assertEquals(List.of("090", "092", "094"), limited);
+
+        List<String> all = new ArrayList<>();
+        tree.forEachInRange(null, "006", (key, value) -> all.add(key));
+        assertEquals(List.of("000", "002", "004"), all);
+    }
+
+    @Test
+    public void testSelectableInTreeService() {
+        TreeService<String, JSONObject> treeService = new TreeService<>();
+        treeService.setBPlusTree(new BPlusTree<>(4));
+        treeService.setCurrentTreeType("BPlusTree");
+        for (int i = 0; i < 50; i++) {
+            treeService.insert(String.format("%02d", i), new JSONObject().put("title", "Book " + i));
+        }
+        treeService.delete("10");
+        treeService.insert("11", new JSONObject().put("title", "Updated"));
+
+        assertEquals(49, treeService.getAllKeys().size());
+        assertEquals(49, treeService.getAllValues().size());
+        assertNull(treeService.search("10"));
+        assertEquals("Updated", treeService.search("11").getString("title"));
+
+        List<String> range = new ArrayList<>();
+        treeService.forEachInRange("08", "13", (key, value) -> range.add(key));
+        assertEquals(List.of("08", "09", "11", "12"), range);
+
+        treeService.clear();
+        assertTrue(treeService.getAllKeys().isEmpty());
+    }
+}
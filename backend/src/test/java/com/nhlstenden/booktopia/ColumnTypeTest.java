@@ -0,0 +1,55 @@
+package com.nhlstenden.booktopia;
+
+import com.nhlstenden.booktopia.sorting.ColumnType;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ColumnTypeTest {
+
+    @Test
+    public void testInferTypes() {
+        assertEquals(ColumnType.INTEGER, ColumnType.infer(List.of("652", "9", "", "1024")));
+        assertEquals(ColumnType.DECIMAL, ColumnType.infer(List.of("4.57", "3", "19000000.0")));
+        assertEquals(ColumnType.DATE, ColumnType.infer(List.of("9/16/2006", "11/1/2003")));
+        assertEquals(ColumnType.STRING, ColumnType.infer(List.of("4.57", "Rowling")));
+
+        // A single malformed row does not turn a large numeric column into text
+        List<Object> ratings = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            ratings.add("3." + i);
+        }
+        ratings.add("Rawles");
+        assertEquals(ColumnType.DECIMAL, ColumnType.infer(ratings));
+        assertEquals(ColumnType.STRING, ColumnType.infer(List.of("", " ")));
+    }
+
+    @Test
+    public void testNumbersAndDatesSortByValue() {
+        List<Object> pages = new ArrayList<>(Arrays.asList("10", "9", null, "100"));
+        pages.sort(ColumnType.INTEGER.comparator());
+        assertEquals(Arrays.asList(null, "9", "10", "100"), pages);
+
+        List<Object> ratings = new ArrayList<>(List.of("4.5", "10.0", "3.92"));
+        ratings.sort(ColumnType.DECIMAL.comparator());
+        assertEquals(List.of("3.92", "4.5", "10.0"), ratings);
+
+        List<Object> dates = new ArrayList<>(List.of("1/2/2004", "12/31/2003", "9/16/2006"));
+        dates.sort(ColumnType.DATE.comparator());
+        assertEquals(List.of("12/31/2003", "1/2/2004", "9/16/2006"), dates);
+    }
+
+    @Test
+    public void testNormalizeAndAccepts() {
+        assertEquals(652L, ColumnType.INTEGER.normalize(" 652 "));
+        assertEquals(20060916, ColumnType.DATE.normalize("9/16/2006"));
+        assertNull(ColumnType.DECIMAL.normalize(""));
+        assertTrue(ColumnType.INTEGER.accepts(""));
+        assertFalse(ColumnType.INTEGER.accepts("4.5"));
+        assertTrue(ColumnType.DECIMAL.accepts("4"));
+    }
+}
@@ -0,0 +1,64 @@
+package com.nhlstenden.booktopia;
+
+import com.nhlstenden.booktopia.sorting.CompositeSortKeys;
+import com.nhlstenden.booktopia.sorting.SortOrder;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class CompositeSortKeysTest {
+
+    @Test
+    public void testParseSortParameter() {
+        SortOrder order = SortOrder.parse("authors:asc, average_rating:DESC,title");
+        assertEquals(3, order.getFields().size());
+        assertEquals("average_rating", order.getFields().get(1).getProperty());
+        assertFalse(order.getFields().get(1).isAscending());
+        assertEquals("authors:asc,average_rating:desc,title:asc", order.toString());
+
+        assertThrows(IllegalArgumentException.class, () -> SortOrder.parse("authors:up"));
+        assertThrows(IllegalArgumentException.class, () -> SortOrder.parse(":asc"));
+        assertThrows(IllegalArgumentException.class, () -> SortOrder.parse(" "));
+    }
+
+    @Test
+    public void testMatchesChainedStableSorts() {
+        Random random = new Random(8);
+        List<String> keys = new ArrayList<>();
+        List<JSONObject> values = new ArrayList<>();
+        for (int i = 0; i < 4000; i++) {
+            JSONObject book = new JSONObject();
+            book.put("authors", "Author " + random.nextInt(40));
+            book.put("average_rating", String.valueOf(random.nextInt(20) / 4.0));
+            book.put("title", "Title " + random.nextInt(100));
+            keys.add(String.format("%05d", i));
+            values.add(book);
+        }
+
+        // The expected order: authors ascending, then rating descending (numerically), then title
+        Integer[] expected = new Integer[keys.size()];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = i;
+        }
+        Comparator<Integer> byAuthor = Comparator.comparing(row -> values.get(row).getString("authors"));
+        Comparator<Integer> byRating = Comparator.comparing(row -> Double.parseDouble(values.get(row).getString("average_rating")));
+        Comparator<Integer> byTitle = Comparator.comparing(row -> values.get(row).getString("title"));
+        Arrays.sort(expected, byAuthor.thenComparing(byRating.reversed()).thenComparing(byTitle));
+        int[] expectedRows = Arrays.stream(expected).mapToInt(Integer::intValue).toArray();
+
+        CompositeSortKeys sortKeys = CompositeSortKeys.extract(
+                SortOrder.parse("authors:asc,average_rating:desc,title:asc"), keys, values);
+        assertArrayEquals(expectedRows, sortKeys.sortedRows(false));
+        assertArrayEquals(expectedRows, sortKeys.sortedRows(true));
+    }
+}
@@ -0,0 +1,82 @@
+package com.nhlstenden.booktopia;
+
+import com.nhlstenden.booktopia.services.TreeService;
+import com.nhlstenden.booktopia.sorting.ExternalSortService;
+import com.nhlstenden.booktopia.sorting.LoserTree;
+import com.nhlstenden.booktopia.sorting.PageRequest;
+import com.nhlstenden.booktopia.sorting.ParallelMergeSort;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ExternalSortServiceTest {
+
+    private static final Pattern KEY = Pattern.compile("\"key\":\"([^\"]*)\"");
+
+    private static List<String> keysOf(ByteArrayOutputStream out) {
+        List<String> keys = new ArrayList<>();
+        Matcher matcher = KEY.matcher(out.toString(StandardCharsets.UTF_8));
+        while (matcher.find()) {
+            keys.add(matcher.group(1));
+        }
+        return keys;
+    }
+
+    @Test
+    public void testLoserTreeMergesSortedSources() {
+        int[][] sources = {{1, 4, 9}, {2, 3, 10, 11}, {}, {0, 5}};
+        int[] positions = new int[sources.length];
+        LoserTree tree = new LoserTree(sources.length, (a, b) -> {
+            boolean doneA = positions[a] == sources[a].length;
+            boolean doneB = positions[b] == sources[b].length;
+            if (doneA || doneB) {
+                return doneA == doneB ? 0 : (doneA ? 1 : -1);
+            }
+            return Integer.compare(sources[a][positions[a]], sources[b][positions[b]]);
+        });
+
+        List<Integer> merged = new ArrayList<>();
+        while (positions[tree.winner()] < sources[tree.winner()].length) {
+            int source = tree.winner();
+            merged.add(sources[source][positions[source]++]);
+            tree.replay();
+        }
+        assertEquals(List.of(0, 1, 2, 3, 4, 5, 9, 10, 11), merged);
+    }
+
+    @Test
+    public void testSpilledRunsMergeInPropertyOrder() throws Exception {
+        TreeService<String, JSONObject> treeService = new TreeService<>();
+        Random random = new Random(5);
+        String padding = "x".repeat(200);
+        for (int i = 0; i < 8000; i++) {
+            JSONObject value = new JSONObject();
+            value.put("rating", String.valueOf(random.nextInt(50) / 10.0));
+            value.put("description", padding);
+            treeService.insert(String.format("book%05d", i), value);
+        }
+
+        // About 2.5 MB of rows with a 1 MB budget, so several runs are spilled and merged
+        ExternalSortService<String, JSONObject> service = new ExternalSortService<>(treeService, 1, "");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int written = service.sortByProperty("rating", false, PageRequest.unpaged(), ParallelMergeSort::sort, out);
+
+        // Expected: descending by rating, equal ratings in key order
+        List<String> expected = new ArrayList<>(treeService.getAllKeys());
+        expected.sort(Comparator.comparingDouble((String key) ->
+                -Double.parseDouble(treeService.search(key).opt("rating").toString())));
+        assertEquals(8000, written);
+        assertEquals(expected, keysOf(out));
+
+        ByteArrayOutputStream page = new ByteArrayOutputStream();
+        service.sortByProperty("rating", false, new PageRequest(10, 100, null), ParallelMergeSort::sort, page);
+        assertEquals(expected.subList(100, 110), keysOf(page));
+    }
+}
@@ -0,0 +1,101 @@
+package com.nhlstenden.booktopia;
+
+import com.nhlstenden.booktopia.services.FuzzyIndex;
+import com.nhlstenden.booktopia.services.TreeService;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static com.nhlstenden.booktopia.TestData.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FuzzyIndexTest {
+
+    @Test
+    public void testFindsRecordsDespiteTypos() {
+        TreeService<String, JSONObject> treeService = avlTreeService();
+        FuzzyIndex<String, JSONObject> index = new FuzzyIndex<>(treeService, "title,authors");
+        treeService.insert("1", book("Harry Potter and the Sorcerer's Stone", "J.K. Rowling"));
+        treeService.insert("2", book("Harry Potter and the Chamber of Secrets", "J.K. Rowling"));
+        treeService.insert("3", book("The Hobbit", "J.R.R. Tolkien"));
+        treeService.insert("4", book("Harriet the Spy", "Louise Fitzhugh"));
+
+        FuzzyIndex.Result<String> result = index.search("Harri Poter", null, 10);
+        assertEquals(List.of("1", "2"), keys(result.getMatches()));
+        assertEquals(2, (int) result.getMatches().get(0).getValue());
+        assertEquals(List.of("potter"), result.getExpansions().get("poter"));
+
+        assertEquals(List.of("3"), keys(index.search("hobit tolkein", null, 10).getMatches()));
+        assertEquals(List.of("1"), keys(index.search("sorcerer", 0, 10).getMatches()));
+        assertTrue(index.search("sorcerr", 0, 10).getMatches().isEmpty());
+        assertEquals(List.of("1", "2"), keys(index.search("rowlnig", 2, 10).getMatches()));
+        assertEquals(1, index.search("harry", 0, 1).getMatches().size());
+        assertEquals(2, index.search("harry", 0, 1).getTotal());
+        assertThrows(IllegalArgumentException.class, () -> index.search("harry", 3, 10));
+    }
+
+    @Test
+    public void testFollowsUpdatesAndDeletes() {
+        TreeService<String, JSONObject> treeService = avlTreeService();
+        FuzzyIndex<String, JSONObject> index = new FuzzyIndex<>(treeService, "title");
+        treeService.insert("1", book("Dune", ""));
+        treeService.insert("2", book("Emma", ""));
+        assertEquals(List.of("1"), keys(index.search("dune", null, 10).getMatches()));
+
+        treeService.insert("1", book("Persuasion", ""));
+        assertTrue(index.search("dune", null, 10).getMatches().isEmpty());
+        assertEquals(List.of("1"), keys(index.search("persuasoin", null, 10).getMatches()));
+
+        treeService.delete("1");
+        assertTrue(index.search("persuasion", null, 10).getMatches().isEmpty());
+        assertEquals(List.of("2"), keys(index.search("emma", null, 10).getMatches()));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void testMatchesBruteForceOverManyWords() {
+        TreeService<String, JSONObject> treeService = new TreeService<>();
+        FuzzyIndex<String, JSONObject> index = new FuzzyIndex<>(treeService, "title");
+        Random random = new Random(42);
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            StringBuilder word = new StringBuilder();
+            int length = 3 + random.nextInt(6);
+            for (int j = 0; j < length; j++) {
+                word.append((char) ('a' + random.nextInt(6)));
+            }
+            words.add(word.toString());
+            treeService.insert(String.format("k%05d", i), book(word.toString(), ""));
+        }
+
+        for (String query : List.of("abcde", "fafa", "bbbbbb", "cadeface")) {
+            Set<String> expected = new TreeSet<>();
+            for (String word : words) {
+                if (levenshtein(query, word) <= 2) {
+                    expected.add(word);
+                }
+            }
+            FuzzyIndex.Result<String> result = index.search(query, 2, 10000);
+            assertEquals(expected, new TreeSet<>(result.getExpansions().get(query)), query);
+            assertTrue(result.getVisitedWords() <= result.getDictionarySize());
+        }
+    }
+
+    private static int levenshtein(String a, String b) {
+        int[][] d = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) {
+            d[i][0] = i;
+        }
+        for (int j = 0; j <= b.length(); j++) {
+            d[0][j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                d[i][j] = Math.min(Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1), d[i - 1][j - 1] + cost);
+            }
+        }
+        return d[a.length()][b.length()];
+    }
+}
@@ -0,0 +1,72 @@
+package com.nhlstenden.booktopia;
+
+import com.nhlstenden.booktopia.AVL.AVLTree;
+import com.nhlstenden.booktopia.services.HashIndex;
+import com.nhlstenden.booktopia.services.TreeService;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static com.nhlstenden.booktopia.TestData.avlTreeService;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HashIndexTest {
+
+    @Test
+    public void testMatchesHashMapUnderRandomWrites() {
+        HashIndex<String, Integer> index = new HashIndex<>();
+        Map<String, Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 200000; i++) {
+            String key = "k" + random.nextInt(5000);
+            if (random.nextInt(3) == 0) {
+                index.remove(key);
+                expected.remove(key);
+            } else {
+                index.put(key, i);
+                expected.put(key, i);
+            }
+        }
+        assertEquals(expected.size(), index.size());
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(expected.get("k" + i), index.get("k" + i));
+        }
+        // Tombstones are cleared by rehashing instead of growing the table
+        assertTrue(index.capacity() <= 16384, "capacity " + index.capacity());
+
+        index.clear();
+        assertEquals(0, index.size());
+        assertNull(index.get("k1"));
+    }
+
+    @Test
+    public void testTreeServiceReadsThroughHashIndex() {
+        TreeService<String, JSONObject> treeService = avlTreeService();
+        treeService.setHashIndexEnabled(true);
+        assertTrue(treeService.isHashIndexEnabled());
+
+        treeService.insert("dune", new JSONObject().put("title", "Dune"));
+        treeService.insert("emma", new JSONObject().put("title", "Emma"));
+        assertEquals("Dune", treeService.search("dune").getString("title"));
+
+        treeService.insert("dune", new JSONObject().put("title", "Dune Messiah"));
+        assertEquals("Dune Messiah", treeService.search("dune").getString("title"));
+        treeService.delete("dune");
+        assertNull(treeService.search("dune"));
+        assertEquals(List.of("emma"), treeService.getAllKeys());
+
+        // A replaced tree is indexed again on the next read
+        AVLTree<String> other = new AVLTree<>();
+        other.insert("hobbit", new JSONObject().put("title", "The Hobbit"));
+        treeService.setAVLTree(other);
+        assertEquals("The Hobbit", treeService.search("hobbit").getString("title"));
+        assertNull(treeService.search("emma"));
+
+        treeService.clear();
+        assertNull(treeService.search("hobbit"));
+        treeService.setHashIndexEnabled(false);
+        treeService.insert("emma", new JSONObject().put("title", "Emma"));
+        assertEquals("Emma", treeService.search("emma").getString("title"));
+    }
+}
@@ -0,0 +1,72 @@
+package com.nhlstenden.booktopia;
+
+import com.nhlstenden.booktopia.services.JsonRowWriter;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class JsonRowWriterTest {
+
+    private static JSONObject record(String property, Object value) {
+        JSONObject record = new JSONObject();
+        record.put(property, value);
+        return record;
+    }
+
+    @Test
+    public void testArrayFormatWritesOneJsonArray() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonRowWriter writer = new JsonRowWriter(out, JsonRowWriter.Format.ARRAY)) {
+            writer.writeItem("Dune", record("year", 1965));
+            writer.writeCard("Emma", record("authors", "Jane \"Austen\""));
+            assertEquals(2, writer.getRows());
+        }
+        assertEquals("[{\"key\":\"Dune\",\"year\":1965},"
+                + "{\"title\":\"Emma\",\"values\":{\"authors\":\"Jane \\\"Austen\\\"\"}}]",
+                out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testNdjsonFormatWritesOneRowPerLine() throws Exception {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("key", "Dune");
+        row.put("rating", 4.25);
+        row.put("series", null);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonRowWriter writer = new JsonRowWriter(out, JsonRowWriter.Format.NDJSON)) {
+            writer.writeRow(row);
+            writer.writeItem("Emma", record("year", 1815));
+        }
+        assertEquals("{\"key\":\"Dune\",\"rating\":4.25,\"series\":null}\n{\"key\":\"Emma\",\"year\":1815}\n",
+                out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testEmptyStreams() throws Exception {
+        ByteArrayOutputStream array = new ByteArrayOutputStream();
+        new JsonRowWriter(array, JsonRowWriter.Format.ARRAY).close();
+        assertEquals("[]", array.toString(StandardCharsets.UTF_8));
+
+        ByteArrayOutputStream ndjson = new ByteArrayOutputStream();
+        new JsonRowWriter(ndjson, JsonRowWriter.Format.NDJSON).close();
+        assertEquals("", ndjson.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testParseFormat() {
+        assertNull(JsonRowWriter.parseFormat("json"));
+        assertNull(JsonRowWriter.parseFormat(null));
+        assertEquals(JsonRowWriter.Format.ARRAY, JsonRowWriter.parseFormat("stream"));
+        assertEquals(JsonRowWriter.Format.NDJSON, JsonRowWriter.parseFormat("NDJSON"));
+        assertThrows(IllegalArgumentException.class, () -> JsonRowWriter.parseFormat("xml"));
+    }
+}
@@ -0,0 +1,70 @@
+package com.nhlstenden.booktopia;
+
+import com.nhlstenden.booktopia.services.KeyFilter;
+import com.nhlstenden.booktopia.services.TreeService;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static com.nhlstenden.booktopia.TestData.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class KeyFilterTest {
+
+    @Test
+    public void testNeverRulesOutPresentKeys() {
+        TreeService<String, JSONObject> treeService = avlTreeService();
+        KeyFilter<String, JSONObject> filter = new KeyFilter<>(treeService, 10);
+        for (int i = 0; i < 5000; i++) {
+            treeService.insert("key" + i, new JSONObject().put("title", "Book " + i));
+        }
+        for (int i = 0; i < 5000; i++) {
+            assertTrue(filter.mightContain("key" + i));
+        }
+
+        int positives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (filter.mightContain("missing" + i)) {
+                positives++;
+            }
+        }
+        assertTrue(positives < 300, "false positives: " + positives);
+        assertTrue((double) filter.getStats().get("expectedFalsePositiveRate") < 0.03);
+    }
+
+    @Test
+    public void testFollowsDeletesAndResets() {
+        TreeService<String, JSONObject> treeService = avlTreeService();
+        KeyFilter<String, JSONObject> filter = new KeyFilter<>(treeService, 10);
+        treeService.insert("dune", new JSONObject().put("title", "Dune"));
+        treeService.insert("emma", new JSONObject().put("title", "Emma"));
+        assertTrue(filter.mightContain("dune"));
+
+        treeService.delete("dune");
+        assertFalse(filter.mightContain("dune"));
+        assertTrue(filter.mightContain("emma"));
+
+        treeService.clear();
+        assertFalse(filter.mightContain("emma"));
+        treeService.insert("emma", new JSONObject().put("title", "Emma"));
+        assertTrue(filter.mightContain("emma"));
+    }
+
+    @Test
+    public void testReportsFalsePositiveRate() {
+        TreeService<String, JSONObject> treeService = avlTreeService();
+        KeyFilter<String, JSONObject> filter = new KeyFilter<>(treeService, 10);
+        treeService.insert("dune", new JSONObject().put("title", "Dune"));
+        assertFalse(filter.mightContain("harry potter"));
+        assertFalse(filter.mightContain("hobbit"));
+        filter.falsePositive();
+
+        Map<String, Object> stats = filter.getStats();
+        assertEquals(2L, stats.get("lookups"));
+        assertEquals(2L, stats.get("negatives"));
+        assertEquals(1L, stats.get("falsePositives"));
+        assertEquals(1.0 / 3, (double) stats.get("falsePositiveRate"), 1e-9);
+        assertEquals(1, stats.get("keys"));
+    }
+}
@@ -0,0 +1,80 @@
+package com.nhlstenden.booktopia;
+
+import com.nhlstenden.booktopia.services.MutationBatch;
+import com.nhlstenden.booktopia.services.TreeService;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.nhlstenden.booktopia.TestData.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MutationBatchTest {
+
+    private static MutationBatch<String, JSONObject> read(String json) throws Exception {
+        return MutationBatch.read(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testReadSortsAndCoalescesByKey() throws Exception {
+        MutationBatch<String, JSONObject> batch = read("["
+                + "{\"op\": \"upsert\", \"key\": \"b\", \"value\": {\"title\": \"First\"}},"
+                + "{\"key\": \"a\", \"op\": \"delete\"},"
+                + "{\"op\": \"upsert\", \"key\": \"b\", \"value\": {\"title\": \"Second\", \"pages\": 12}},"
+                + "{\"op\": \"upsert\", \"key\": 7, \"value\": {}, \"comment\": [1, 2]}"
+                + "]");
+
+        assertEquals(4, batch.getOperations());
+        assertEquals(3, batch.size());
+        List<String> keys = new ArrayList<>();
+        List<JSONObject> values = new ArrayList<>();
+        batch.forEach((key, value) -> {
+            keys.add(key);
+            values.add(value);
+        });
+        assertEquals(List.of("7", "a", "b"), keys);
+        assertNull(values.get(1));
+        assertEquals("Second", values.get(2).getString("title"));
+        assertEquals(12, values.get(2).getInt("pages"));
+    }
+
+    @Test
+    public void testReadRejectsInvalidOperations() {
+        assertThrows(IllegalArgumentException.class, () -> read("{\"op\": \"delete\"}"));
+        assertThrows(IllegalArgumentException.class, () -> read("[{\"op\": \"delete\"}]"));
+        assertThrows(IllegalArgumentException.class, () -> read("[{\"op\": \"upsert\", \"key\": \"a\"}]"));
+        assertThrows(IllegalArgumentException.class, () -> read("[{\"op\": \"replace\", \"key\": \"a\"}]"));
+        assertThrows(IllegalArgumentException.class, () -> read("[{\"op\": \"upsert\", \"key\": \"a\", \"value\": 3}]"));
+        assertThrows(IllegalArgumentException.class, () -> read("[{\"op\": \"delete\", \"key\": \"a\"}"));
+    }
+
+    @Test
+    public void testApplyBatchCountsAndMatchesSingleWrites() throws Exception {
+        TreeService<String, JSONObject> treeService = avlTreeService();
+        treeService.insert("a", new JSONObject().put("title", "A"));
+        treeService.insert("b", new JSONObject().put("title", "B"));
+        long version = treeService.getVersion();
+
+        MutationBatch<String, JSONObject> batch = new MutationBatch<>();
+        batch.upsert("c", new JSONObject().put("title", "C"));
+        batch.delete("a");
+        batch.upsert("b", new JSONObject().put("title", "B2"));
+        batch.delete("x");
+        batch.upsert("x", new JSONObject().put("title", "X"));
+        batch.delete("x");
+        MutationBatch.Result result = treeService.applyBatch(batch);
+
+        assertEquals(1, result.getInserted());
+        assertEquals(1, result.getUpdated());
+        assertEquals(1, result.getDeleted());
+        assertEquals(1, result.getMissing());
+        assertEquals(List.of("b", "c"), treeService.getAllKeys());
+        assertEquals("B2", treeService.search("b").getString("title"));
+        assertNull(treeService.search("a"));
+        assertTrue(treeService.getVersion() > version);
+    }
+}
@@ -0,0 +1,56 @@
+package com.nhlstenden.booktopia;
+
+import com.nhlstenden.booktopia.sorting.ParallelMergeSort;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntBinaryOperator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+public class ParallelMergeSortTest {
+
+    // Sorts row indices by a key with many duplicates; ties must keep the index order
+    private static int[] expectedOrder(int[] keys) {
+        Integer[] rows = new Integer[keys.length];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = i;
+        }
+        Arrays.sort(rows, (a, b) -> Integer.compare(keys[a], keys[b]));
+        return Arrays.stream(rows).mapToInt(Integer::intValue).toArray();
+    }
+
+    private static int[] identity(int length) {
+        int[] rows = new int[length];
+        for (int i = 0; i < length; i++) {
+            rows[i] = i;
+        }
+        return rows;
+    }
+
+    @Test
+    public void testSequentialSortIsStable() {
+        int[] keys = new Random(42).ints(5000, 0, 100).toArray();
+        int[] rows = identity(keys.length);
+        ParallelMergeSort.sort(rows, (a, b) -> Integer.compare(keys[a], keys[b]));
+        assertArrayEquals(expectedOrder(keys), rows);
+    }
+
+    @Test
+    public void testParallelSortMatchesSequential() {
+        int[] keys = new Random(7).ints(100_000, 0, 1000).toArray();
+        IntBinaryOperator byKey = (a, b) -> Integer.compare(keys[a], keys[b]);
+        int[] rows = identity(keys.length);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            // A low threshold forces many forked tasks
+            ParallelMergeSort.parallelSort(rows, byKey, pool, 64);
+        } finally {
+            pool.shutdown();
+        }
+        assertArrayEquals(expectedOrder(keys), rows);
+    }
+}
@@ -0,0 +1,49 @@
+package com.nhlstenden.booktopia;
+
+import com.nhlstenden.booktopia.services.Projection;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProjectionTest {
+
+    private static JSONObject book() {
+        JSONObject book = new JSONObject();
+        book.put("authors", "Frank Herbert");
+        book.put("average_rating", 4.25);
+        book.put("isbn", "0441172717");
+        book.put("num_pages", 604);
+        return book;
+    }
+
+    @Test
+    public void testParseKeepsRequestOrderAndDropsKey() {
+        Projection projection = Projection.parse(" average_rating , key,authors,average_rating");
+        assertEquals(List.of("average_rating", "authors"), projection.getFields());
+        assertTrue(projection.includes("key"));
+        assertTrue(projection.includes("authors"));
+        assertFalse(projection.includes("isbn"));
+        assertThrows(IllegalArgumentException.class, () -> Projection.parse("authors,,isbn"));
+    }
+
+    @Test
+    public void testCopyOnlyReadsRequestedFields() {
+        Map<String, Object> row = new HashMap<>();
+        Projection.of("authors", "series").copy(book(), row);
+        assertEquals(Map.of("authors", "Frank Herbert"), row);
+    }
+
+    @Test
+    public void testMissingFieldsParameterIncludesEverything() {
+        assertSame(Projection.ALL, Projection.parse(null));
+        assertSame(Projection.ALL, Projection.parse(" "));
+        Map<String, Object> row = new HashMap<>();
+        Projection.ALL.copy(book(), row);
+        assertEquals(4, row.size());
+    }
+}
@@ -0,0 +1,80 @@
+package com.nhlstenden.booktopia;
+
+import com.nhlstenden.booktopia.sorting.PropertySortIndex;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class PropertySortIndexTest {
+
+    private static JSONObject book(String author) {
+        JSONObject value = new JSONObject();
+        if (author != null) {
+            value.put("authors", author);
+        }
+        return value;
+    }
+
+    private static List<String> walk(PropertySortIndex<String, JSONObject> index, boolean ascending) {
+        List<String> keys = new ArrayList<>();
+        Iterator<Map.Entry<String, JSONObject>> iterator = index.iterator(ascending);
+        while (iterator.hasNext()) {
+            keys.add(iterator.next().getKey());
+        }
+        return keys;
+    }
+
+    @Test
+    public void testOrderedWalkInBothDirections() {
+        PropertySortIndex<String, JSONObject> index = new PropertySortIndex<>("authors");
+        index.add("D", book("Tolkien"));
+        index.add("A", book("Rowling"));
+        index.add("C", book("Rowling"));
+        index.add("B", book(null));
+
+        // Missing values sort first, equal values stay in key order
+        assertEquals(List.of("B", "A", "C", "D"), walk(index, true));
+        assertEquals(List.of("D", "A", "C", "B"), walk(index, false));
+    }
+
+    @Test
+    public void testUpdatesKeepIndexInSync() {
+        PropertySortIndex<String, JSONObject> index = new PropertySortIndex<>("authors");
+        JSONObject rowling = book("Rowling");
+        index.add("A", rowling);
+        index.add("B", book("Austen"));
+
+        index.remove("A", rowling);
+        index.add("A", book("Adams"));
+        assertEquals(List.of("A", "B"), walk(index, true));
+        assertEquals(2, index.size());
+
+        index.remove("B", book("Austen"));
+        assertEquals(List.of("A"), walk(index, true));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void testKeysetSeekContinuesAfterCursor() {
+        PropertySortIndex<String, JSONObject> index = new PropertySortIndex<>("authors");
+        JSONObject rowlingA = book("Rowling");
+        index.add("A", rowlingA);
+        index.add("C", book("Rowling"));
+        index.add("D", book("Tolkien"));
+        index.add("B", book("Austen"));
+
+        List<String> ascending = new ArrayList<>();
+        index.iterator(true, "A", rowlingA).forEachRemaining(entry -> ascending.add(entry.getKey()));
+        assertEquals(List.of("C", "D"), ascending);
+
+        List<String> descending = new ArrayList<>();
+        index.iterator(false, "A", rowlingA).forEachRemaining(entry -> descending.add(entry.getKey()));
+        assertEquals(List.of("C", "B"), descending);
+    }
+}
@@ -0,0 +1,75 @@
+package com.nhlstenden.booktopia;
+
+import com.nhlstenden.booktopia.services.QueryResultCache;
+import com.nhlstenden.booktopia.services.TreeService;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class QueryResultCacheTest {
+
+    // 1 MB capacity: the protected segment holds 800 KB
+    private static final long KB = 1024;
+
+    @Test
+    public void testRepeatedQueriesAreServedFromTheCache() {
+        TreeService<String, JSONObject> treeService = new TreeService<>();
+        QueryResultCache cache = new QueryResultCache(treeService, 1);
+        AtomicInteger loads = new AtomicInteger();
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("rows", cache.get("table", () -> "rows" + loads.incrementAndGet(), value -> KB).substring(0, 4));
+        }
+        assertEquals(1, loads.get());
+        Map<String, Object> stats = cache.getStats();
+        assertEquals(2L, stats.get("hits"));
+        assertEquals(1L, stats.get("misses"));
+    }
+
+    @Test
+    public void testChangedDataInvalidatesAllEntries() {
+        TreeService<String, JSONObject> treeService = new TreeService<>();
+        QueryResultCache cache = new QueryResultCache(treeService, 1);
+        cache.get("search?query=dune", () -> "before", value -> KB);
+
+        treeService.insert("Dune", new JSONObject().put("year", 1965));
+
+        assertEquals("after", cache.get("search?query=dune", () -> "after", value -> KB));
+        assertEquals(1L, cache.getStats().get("invalidations"));
+    }
+
+    @Test
+    public void testOneOffQueriesDoNotEvictProtectedEntries() {
+        TreeService<String, JSONObject> treeService = new TreeService<>();
+        QueryResultCache cache = new QueryResultCache(treeService, 1);
+        // Hit twice, so the entry moves to the protected segment
+        cache.get("popular", () -> "popular", value -> 300 * KB);
+        cache.get("popular", () -> "popular", value -> 300 * KB);
+
+        for (int i = 0; i < 20; i++) {
+            String query = "scan" + i;
+            cache.get(query, () -> query, value -> 200 * KB);
+        }
+
+        AtomicInteger loads = new AtomicInteger();
+        cache.get("popular", () -> "reloaded" + loads.incrementAndGet(), value -> 300 * KB);
+        assertEquals(0, loads.get());
+        assertEquals(17L, cache.getStats().get("evictions"));
+    }
+
+    @Test
+    public void testResultsLargerThanHalfTheCapacityAreNotCached() {
+        TreeService<String, JSONObject> treeService = new TreeService<>();
+        QueryResultCache cache = new QueryResultCache(treeService, 1);
+        cache.get("huge", () -> "huge", value -> 600 * KB);
+        cache.get("huge", () -> "huge", value -> 600 * KB);
+        Map<String, Object> stats = cache.getStats();
+        assertEquals(2L, stats.get("misses"));
+        assertEquals(2L, stats.get("rejections"));
+        assertEquals(0, stats.get("entries"));
+    }
+}
@@ -0,0 +1,77 @@
+package com.nhlstenden.booktopia;
+
+import com.nhlstenden.booktopia.services.RelevanceIndex;
+import com.nhlstenden.booktopia.services.TreeService;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static com.nhlstenden.booktopia.TestData.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RelevanceIndexTest {
+
+    @Test
+    public void testRanksTitleMatchesAboveOtherColumns() {
+        TreeService<String, JSONObject> treeService = avlTreeService();
+        RelevanceIndex<String, JSONObject> index = new RelevanceIndex<>(treeService, "title^3,authors^2,publisher");
+        treeService.insert("1", book("Collected Essays", "Orwell Society", "Penguin"));
+        treeService.insert("2", book("Essays on Orwell and Other Writers of the Century", "Jane Doe", "Penguin"));
+        treeService.insert("3", book("Orwell", "John Smith", "Vintage"));
+        treeService.insert("4", book("The Hobbit", "J.R.R. Tolkien", "Orwell Press"));
+        treeService.insert("5", book("Dune", "Frank Herbert", "Ace"));
+
+        RelevanceIndex.Result<String> result = index.search("orwell", 10);
+        assertEquals(4, result.getTotal());
+        // A short title beats a long title and the authors, which beat the publisher
+        List<String> ranked = keys(result.getMatches());
+        assertEquals("3", ranked.get(0));
+        assertEquals(Set.of("1", "2"), new HashSet<>(ranked.subList(1, 3)));
+        assertEquals("4", ranked.get(3));
+        assertTrue(result.getMatches().get(0).getValue() > result.getMatches().get(1).getValue());
+
+        assertEquals(ranked.subList(0, 2), keys(index.search("Orwell", 2).getMatches()));
+        assertEquals(Set.of("1", "2"), new HashSet<>(keys(index.search("orwell essays", 2).getMatches())));
+        assertTrue(index.search("tolstoy", 10).getMatches().isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> index.search("orwell", 0));
+    }
+
+    @Test
+    public void testFollowsUpdatesAndDeletes() {
+        TreeService<String, JSONObject> treeService = avlTreeService();
+        RelevanceIndex<String, JSONObject> index = new RelevanceIndex<>(treeService, "title");
+        treeService.insert("1", book("Dune", "", ""));
+        treeService.insert("2", book("Dune Messiah", "", ""));
+        assertEquals(List.of("1", "2"), keys(index.search("dune", 10).getMatches()));
+
+        treeService.insert("1", book("Emma", "", ""));
+        assertEquals(List.of("2"), keys(index.search("dune", 10).getMatches()));
+        treeService.delete("2");
+        assertTrue(index.search("dune", 10).getMatches().isEmpty());
+        assertEquals(List.of("1"), keys(index.search("emma", 10).getMatches()));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void testTopKMatchesFullRanking() {
+        TreeService<String, JSONObject> treeService = new TreeService<>();
+        RelevanceIndex<String, JSONObject> index = new RelevanceIndex<>(treeService, "title^2,authors");
+        Random random = new Random(7);
+        String[] words = {"river", "stone", "night", "garden", "winter", "fire", "glass", "shadow"};
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder title = new StringBuilder();
+            for (int j = random.nextInt(6); j >= 0; j--) {
+                title.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            treeService.insert(String.format("k%04d", i), book(title.toString(), words[random.nextInt(words.length)], ""));
+        }
+
+        List<Map.Entry<String, Double>> all = index.search("winter shadow", 2000).getMatches();
+        List<Map.Entry<String, Double>> top = index.search("winter shadow", 25).getMatches();
+        assertEquals(all.subList(0, 25), top);
+        for (int i = 1; i < all.size(); i++) {
+            assertTrue(all.get(i - 1).getValue() >= all.get(i).getValue());
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.nhlstenden.booktopia;
+
+import com.nhlstenden.booktopia.services.SchemaRegistry;
+import com.nhlstenden.booktopia.services.TreeService;
+import com.nhlstenden.booktopia.sorting.ColumnType;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.nhlstenden.booktopia.TestData.avlTreeService;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SchemaRegistryTest {
+
+    private static JSONObject book(String authors, String rating, String pages) {
+        JSONObject book = new JSONObject();
+        book.put("authors", authors);
+        book.put("average_rating", rating);
+        book.put("num_pages", pages);
+        return book;
+    }
+
+    @Test
+    public void testInsertsUpdateColumnsTypesAndNullCounts() {
+        TreeService<String, JSONObject> treeService = new TreeService<>();
+        SchemaRegistry<String, JSONObject> registry = new SchemaRegistry<>(treeService);
+        treeService.insert("1", book("Tolkien", "4.5", "310"));
+        treeService.insert("2", book("Rowling", "4", ""));
+        treeService.insert("3", book("Tolkien", "3.9", "1024"));
+
+        assertEquals(List.of("authors", "average_rating", "num_pages"), registry.getColumnNames());
+        assertEquals(3, registry.getRowCount());
+        assertEquals(ColumnType.STRING, registry.getType("authors"));
+        assertEquals(ColumnType.DECIMAL, registry.getType("average_rating"));
+        assertEquals(ColumnType.INTEGER, registry.getType("num_pages"));
+        assertNull(registry.getType("isbn"));
+
+        SchemaRegistry.ColumnSchema pages = registry.getColumn("num_pages");
+        assertEquals(2, pages.getValueCount());
+        assertEquals(1, pages.getNullCount());
+        assertEquals(2, registry.getColumn("authors").getDistinctEstimate());
+    }
+
+    @Test
+    public void testUpdatesAndDeletesMatchInferringFromTheTree() {
+        TreeService<String, JSONObject> treeService = avlTreeService();
+        SchemaRegistry<String, JSONObject> registry = new SchemaRegistry<>(treeService);
+        for (int i = 0; i < 200; i++) {
+            treeService.insert("k" + i, book("Author " + i, String.valueOf(i), String.valueOf(i)));
+        }
+        // Overwriting and deleting the only non-numeric ratings turns the column back into numbers
+        treeService.insert("k7", book("Author 7", "n/a", "7"));
+        treeService.insert("k8", book("Author 8", "unknown", "8"));
+        treeService.insert("k9", book("Author 9", "?", "9"));
+        assertEquals(ColumnType.STRING, registry.getType("average_rating"));
+        treeService.insert("k7", book("Author 7", "7", "7"));
+        treeService.delete("k8");
+        treeService.delete("k9");
+
+        List<Object> ratings = new ArrayList<>();
+        treeService.forEach((key, value) -> ratings.add(value.opt("average_rating")));
+        assertEquals(ColumnType.infer(ratings), registry.getType("average_rating"));
+        assertEquals(ColumnType.INTEGER, registry.getType("average_rating"));
+        assertEquals(198, registry.getRowCount());
+    }
+
+    @Test
+    public void testColumnIsDroppedWithItsLastRecord() {
+        TreeService<String, JSONObject> treeService = avlTreeService();
+        SchemaRegistry<String, JSONObject> registry = new SchemaRegistry<>(treeService);
+        treeService.insert("1", book("Tolkien", "4.5", "310"));
+        treeService.insert("2", book("Rowling", "4", "").put("isbn", "0439785960"));
+        treeService.insert("3", new JSONObject().put("isbn", ""));
+
+        assertEquals(List.of("authors", "average_rating", "isbn", "num_pages"), registry.getColumnNames());
+        // A blank value still counts as having the column
+        treeService.delete("2");
+        assertEquals(List.of("authors", "average_rating", "isbn", "num_pages"), registry.getColumnNames());
+        treeService.delete("3");
+        assertEquals(List.of("authors", "average_rating", "num_pages"), registry.getColumnNames());
+        assertNull(registry.getColumn("isbn"));
+        treeService.delete("1");
+        assertEquals(List.of(), registry.getColumnNames());
+    }
+
+    @Test
+    public void testClearedTreeIsRebuiltOnUse() {
+        TreeService<String, JSONObject> treeService = new TreeService<>();
+        SchemaRegistry<String, JSONObject> registry = new SchemaRegistry<>(treeService);
+        treeService.insert("1", book("Tolkien", "4.5", "310"));
+        treeService.clear();
+        assertEquals(0, registry.getRowCount());
+        assertTrue(registry.getColumnNames().isEmpty());
+
+        JSONObject movie = new JSONObject();
+        movie.put("budget", "237000000");
+        treeService.insert("Avatar", movie);
+        assertEquals(List.of("budget"), registry.getColumnNames());
+        assertEquals(1, registry.getRowCount());
+    }
+
+    @Test
+    public void testDistinctEstimateOfALargeColumn() {
+        TreeService<String, JSONObject> treeService = new TreeService<>();
+        SchemaRegistry<String, JSONObject> registry = new SchemaRegistry<>(treeService);
+        for (int i = 0; i < 20000; i++) {
+            treeService.insert("k" + i, book("Author " + (i % 5000), "4", "100"));
+        }
+        long estimate = registry.getColumn("authors").getDistinctEstimate();
+        assertTrue(Math.abs(estimate - 5000) < 5000 * 0.06, "estimate " + estimate);
+        assertEquals(1, registry.getColumn("num_pages").getDistinctEstimate());
+    }
+}
@@ -0,0 +1,43 @@
+package com.nhlstenden.booktopia;
+
+import com.nhlstenden.booktopia.services.SearchSessions;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SearchSessionsTest {
+
+    @Test
+    public void testNewerSearchOfSameClientSupersedesRunningOne() {
+        SearchSessions sessions = new SearchSessions();
+        SearchSessions.Session first = sessions.start("tab-1");
+        SearchSessions.Session other = sessions.start("tab-2");
+        SearchSessions.Session second = sessions.start("tab-1");
+
+        assertTrue(first.isCancelled());
+        assertTrue(first.isSuperseded());
+        assertFalse(second.isCancelled());
+        assertFalse(other.isCancelled());
+        assertEquals(2, sessions.getRunning());
+
+        // Finishing the superseded search must not forget the newer one
+        sessions.finish(first);
+        assertEquals(2, sessions.getRunning());
+        sessions.finish(second);
+        sessions.finish(other);
+        assertEquals(0, sessions.getRunning());
+    }
+
+    @Test
+    public void testSearchesWithoutClientIdAreOnlyCancelledExplicitly() {
+        SearchSessions sessions = new SearchSessions();
+        SearchSessions.Session first = sessions.start(null);
+        SearchSessions.Session second = sessions.start(null);
+        assertFalse(first.isCancelled());
+        assertEquals(0, sessions.getRunning());
+
+        second.cancel();
+        assertTrue(second.isCancelled());
+        assertFalse(second.isSuperseded());
+    }
+}
@@ -0,0 +1,85 @@
+package com.nhlstenden.booktopia;
+
+import com.nhlstenden.booktopia.sorting.ColumnType;
+import com.nhlstenden.booktopia.sorting.SortDispatcher;
+import com.nhlstenden.booktopia.sorting.SortDispatcher.Algorithm;
+import com.nhlstenden.booktopia.sorting.SortKeys;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SortDispatcherTest {
+
+    private static int[] identity(int length) {
+        int[] rows = new int[length];
+        for (int i = 0; i < length; i++) {
+            rows[i] = i;
+        }
+        return rows;
+    }
+
+    private static Algorithm choose(SortKeys keys) {
+        return SortDispatcher.choose(keys, identity(keys.size()), true).getAlgorithm();
+    }
+
+    // Every algorithm must produce the order of SortKeys.compare in both directions
+    private static void assertAllAlgorithmsAgree(SortKeys keys) {
+        for (boolean ascending : new boolean[]{true, false}) {
+            int[] expected = keys.sortedRows(ascending);
+            for (Algorithm algorithm : Algorithm.values()) {
+                int[] rows = identity(keys.size());
+                SortDispatcher.sort(algorithm, keys, rows, ascending);
+                assertArrayEquals(expected, rows, algorithm + " ascending=" + ascending);
+            }
+        }
+    }
+
+    @Test
+    public void testChoosesByColumnStatistics() {
+        Random random = new Random(9);
+        List<Object> languages = new ArrayList<>();
+        List<Object> titles = new ArrayList<>();
+        List<Object> counts = new ArrayList<>();
+        List<Object> years = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            languages.add(new String[]{"eng", "en-US", "fre", "spa", "ger"}[random.nextInt(5)]);
+            titles.add("Title " + random.nextInt(1_000_000));
+            counts.add(String.valueOf(random.nextInt(1_000_000)));
+            years.add(String.valueOf(1980 + i / 100));
+        }
+
+        assertEquals(Algorithm.COUNTING, choose(SortKeys.extract(languages, ColumnType.STRING)));
+        assertEquals(Algorithm.RADIX, choose(SortKeys.extract(titles, ColumnType.STRING)));
+        assertEquals(Algorithm.DUAL_PIVOT, choose(SortKeys.extract(counts, ColumnType.INTEGER)));
+        assertEquals(Algorithm.MERGE, choose(SortKeys.extract(years, ColumnType.INTEGER)));
+    }
+
+    @Test
+    public void testAlgorithmsAgreeOnText() {
+        Random random = new Random(4);
+        List<Object> values = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            values.add(random.nextInt(20) == 0 ? "" : "Author " + random.nextInt(400));
+        }
+        assertAllAlgorithmsAgree(SortKeys.extract(values, ColumnType.STRING));
+    }
+
+    @Test
+    public void testAlgorithmsAgreeOnNumbers() {
+        Random random = new Random(6);
+        List<Object> integers = new ArrayList<>();
+        List<Object> decimals = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            // Blank values and negative numbers widen the key range beyond what can be packed directly
+            integers.add(random.nextInt(30) == 0 ? "" : String.valueOf(random.nextInt(2000) - 1000));
+            decimals.add(random.nextInt(30) == 0 ? "" : String.valueOf(random.nextDouble() * 10 - 5));
+        }
+        assertAllAlgorithmsAgree(SortKeys.extract(integers, ColumnType.INTEGER));
+        assertAllAlgorithmsAgree(SortKeys.extract(decimals, ColumnType.DECIMAL));
+    }
+}
@@ -0,0 +1,34 @@
+package com.nhlstenden.booktopia;
+
+import com.nhlstenden.booktopia.sorting.ColumnType;
+import com.nhlstenden.booktopia.sorting.SortKeys;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SortKeysTest {
+
+    @Test
+    public void testNumericKeysSortByValueAndStable() {
+        List<Object> budgets = Arrays.asList("19000000.0", "", "-2.5", "4.5", "19000000", "n/a");
+        SortKeys keys = SortKeys.extract(budgets, ColumnType.DECIMAL);
+
+        // Blank first, then the unparsable value, then by value; equal values keep row order
+        assertArrayEquals(new int[]{1, 5, 2, 3, 0, 4}, keys.sortedRows(true));
+        assertArrayEquals(new int[]{0, 4, 3, 2, 5, 1}, keys.sortedRows(false));
+    }
+
+    @Test
+    public void testTextKeysMatchStringOrder() {
+        List<Object> authors = Arrays.asList("Tolkien", null, "Rowling", "Austen", "Rowling");
+        SortKeys keys = SortKeys.extract(authors);
+        assertEquals(ColumnType.STRING, keys.getType());
+        assertArrayEquals(new int[]{1, 3, 2, 4, 0}, keys.sortedRows(true));
+        assertEquals(List.of("Austen", "Tolkien"),
+                SortKeys.gather(List.of("Tolkien", "x", "y", "Austen"), new int[]{3, 0}));
+    }
+}
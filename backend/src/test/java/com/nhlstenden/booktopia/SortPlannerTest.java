@@ -0,0 +1,111 @@
+package com.nhlstenden.booktopia;
+
+import com.nhlstenden.booktopia.sorting.ColumnType;
+import com.nhlstenden.booktopia.sorting.Page;
+import com.nhlstenden.booktopia.sorting.PageRequest;
+import com.nhlstenden.booktopia.sorting.ParallelMergeSort;
+import com.nhlstenden.booktopia.sorting.SortPlanner;
+import com.nhlstenden.booktopia.sorting.SortPlanner.Plan;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntBinaryOperator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class SortPlannerTest {
+
+    // Sorts row indices by a key; ties must keep the index order
+    private static int[] expectedOrder(int[] keys) {
+        Integer[] rows = new Integer[keys.length];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = i;
+        }
+        Arrays.sort(rows, (a, b) -> Integer.compare(keys[a], keys[b]));
+        return Arrays.stream(rows).mapToInt(Integer::intValue).toArray();
+    }
+
+    private static int[] naturalSorted(int[] keys) {
+        int[] rows = new int[keys.length];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = i;
+        }
+        ParallelMergeSort.naturalSort(rows, (a, b) -> Integer.compare(keys[a], keys[b]));
+        return rows;
+    }
+
+    @Test
+    public void testTreeRowsAreOnlyReusedForTextKeys() {
+        assertEquals(Plan.KEEP, SortPlanner.planTreeRows("key", true, ColumnType.STRING));
+        assertEquals(Plan.SORT, SortPlanner.planTreeRows("key", true, ColumnType.INTEGER));
+        assertEquals(Plan.REVERSE, SortPlanner.planTreeRows("key", false, ColumnType.STRING));
+        assertEquals(Plan.SORT, SortPlanner.planTreeRows("title", true, ColumnType.STRING));
+        assertArrayEquals(new int[]{2, 1, 0}, SortPlanner.orderedRows(3, Plan.REVERSE));
+    }
+
+    @Test
+    public void testNaturalSortHandlesRuns() {
+        Random random = new Random(3);
+
+        int[] sorted = new int[3000];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = i / 3;
+        }
+        assertArrayEquals(expectedOrder(sorted), naturalSorted(sorted));
+
+        int[] reversed = new int[3000];
+        for (int i = 0; i < reversed.length; i++) {
+            reversed[i] = reversed.length - i;
+        }
+        assertArrayEquals(expectedOrder(reversed), naturalSorted(reversed));
+
+        // A sorted column with a few unsorted records appended at the end
+        int[] appended = Arrays.copyOf(sorted, sorted.length + 100);
+        for (int i = sorted.length; i < appended.length; i++) {
+            appended[i] = random.nextInt(1000);
+        }
+        assertArrayEquals(expectedOrder(appended), naturalSorted(appended));
+
+        int[] shuffled = random.ints(5000, 0, 50).toArray();
+        assertArrayEquals(expectedOrder(shuffled), naturalSorted(shuffled));
+    }
+
+    @Test
+    public void testSliceFollowsCursor() {
+        List<String> keys = List.of("a", "b", "c", "d", "e");
+        int[] rows = SortPlanner.orderedRows(keys.size(), Plan.KEEP);
+
+        Page<Integer> first = Page.slice(rows, new PageRequest(2, 0, null), keys::get);
+        assertEquals(List.of(0, 1), first.getItems());
+        assertEquals("b", first.getNextAfter());
+
+        Page<Integer> last = Page.slice(rows, new PageRequest(2, 0, "d"), keys::get);
+        assertEquals(List.of(4), last.getItems());
+        assertNull(last.getNextAfter());
+        assertEquals(5, last.getTotal());
+    }
+
+    @Test
+    public void testSelectFollowsCursor() {
+        int[] years = {1999, 2005, 1999, 2010, 1985};
+        List<String> keys = List.of("a", "b", "c", "d", "e");
+        IntBinaryOperator order = (row1, row2) -> years[row1] != years[row2]
+                ? Integer.compare(years[row1], years[row2])
+                : Integer.compare(row1, row2);
+
+        Page<Integer> first = Page.select(years.length, order, new PageRequest(2, 0, null), keys::get,
+                rows -> ParallelMergeSort.naturalSort(rows, order));
+        assertEquals(List.of(4, 0), first.getItems());
+        assertEquals("a", first.getNextAfter());
+
+        Page<Integer> rest = Page.select(years.length, order, new PageRequest(null, 0, "a"), keys::get,
+                rows -> ParallelMergeSort.naturalSort(rows, order));
+        assertEquals(List.of(2, 1, 3), rest.getItems());
+        assertNull(rest.getNextAfter());
+        assertEquals(5, rest.getTotal());
+    }
+}
@@ -0,0 +1,78 @@
+package com.nhlstenden.booktopia;
+
+import com.nhlstenden.booktopia.sorting.ColumnType;
+import com.nhlstenden.booktopia.sorting.SortKeys;
+import com.nhlstenden.booktopia.sorting.StringRadixSort;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+public class StringRadixSortTest {
+
+    // Random titles with shared prefixes, duplicates, blanks, missing values and non-ASCII characters
+    private static List<String> randomTitles(int count, long seed) {
+        String[] prefixes = {"The ", "The Lord of the ", "A ", "", "Harry Potter and the ", "Écoute "};
+        String alphabet = "abcdeéABZ ñ'0";
+        Random random = new Random(seed);
+        List<String> titles = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            if (random.nextInt(50) == 0) {
+                titles.add(null);
+                continue;
+            }
+            StringBuilder title = new StringBuilder(prefixes[random.nextInt(prefixes.length)]);
+            int length = random.nextInt(6);
+            for (int j = 0; j < length; j++) {
+                title.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            titles.add(title.toString());
+        }
+        return titles;
+    }
+
+    private static int[] identity(int length) {
+        int[] rows = new int[length];
+        for (int i = 0; i < length; i++) {
+            rows[i] = i;
+        }
+        return rows;
+    }
+
+    @Test
+    public void testMatchesComparisonSort() {
+        List<String> titles = randomTitles(20000, 11);
+        SortKeys keys = SortKeys.extract(titles, ColumnType.STRING);
+        // Blank titles are missing keys, like in the extracted sort keys
+        String[] array = new String[titles.size()];
+        for (int i = 0; i < array.length; i++) {
+            Comparable<?> key = ColumnType.STRING.normalize(titles.get(i));
+            array[i] = key == null ? null : key.toString();
+        }
+
+        for (boolean ascending : new boolean[]{true, false}) {
+            int[] rows = identity(array.length);
+            StringRadixSort.sort(rows, array, ascending);
+            assertArrayEquals(keys.sortedRows(ascending), rows);
+        }
+    }
+
+    @Test
+    public void testSortsSubsetOfRows() {
+        List<String> titles = randomTitles(500, 5);
+        SortKeys keys = SortKeys.extract(titles, ColumnType.STRING);
+
+        // A shuffled subset, as left over after a keyset cursor
+        int[] rows = new Random(2).ints(0, titles.size()).distinct().limit(200).toArray();
+        int[] expected = Arrays.stream(rows).boxed()
+                .sorted(keys.rowOrder(true))
+                .mapToInt(Integer::intValue)
+                .toArray();
+        keys.radixSort(rows, true);
+        assertArrayEquals(expected, rows);
+    }
+}
@@ -0,0 +1,106 @@
+package com.nhlstenden.booktopia;
+
+import com.nhlstenden.booktopia.AVL.AVLTree;
+import com.nhlstenden.booktopia.services.SuggestionIndex;
+import com.nhlstenden.booktopia.services.TreeService;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static com.nhlstenden.booktopia.TestData.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SuggestionIndexTest {
+
+    private static List<String> texts(List<SuggestionIndex.Suggestion> suggestions) {
+        List<String> texts = new ArrayList<>();
+        for (SuggestionIndex.Suggestion suggestion : suggestions) {
+            texts.add(suggestion.getText());
+        }
+        return texts;
+    }
+
+    @Test
+    public void testSuggestsByPrefixMostPopularFirst() {
+        TreeService<String, JSONObject> treeService = avlTreeService();
+        SuggestionIndex<String, JSONObject> index = new SuggestionIndex<>(treeService, "title,authors");
+        treeService.insert("1", book("Harry Potter and the Sorcerer's Stone", "J.K. Rowling/Mary GrandPré"));
+        treeService.insert("2", book("Harry Potter and the Chamber of Secrets", "J.K. Rowling"));
+        treeService.insert("3", book("Hamlet", "William Shakespeare"));
+        treeService.insert("4", book("The Hobbit", "J.R.R. Tolkien"));
+
+        assertEquals(List.of("Hamlet", "Harry Potter and the Chamber of Secrets", "Harry Potter and the Sorcerer's Stone"),
+                texts(index.suggest("HA", 10)));
+        assertEquals(List.of("J.K. Rowling", "J.R.R. Tolkien"), texts(index.suggest("j.", 10)));
+        assertEquals(2, index.suggest("j.k", 1).get(0).getCount());
+        assertEquals(List.of("authors"), index.suggest("j.k", 1).get(0).getFields());
+        assertEquals(List.of("Mary GrandPré"), texts(index.suggest("mary", 10)));
+        assertEquals(List.of("key"), index.suggest("3", 10).get(0).getFields());
+        assertTrue(index.suggest("x", 10).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> index.suggest("h", 0));
+    }
+
+    @Test
+    public void testGrowsBeyondInitialCapacity() {
+        TreeService<String, JSONObject> treeService = new TreeService<>();
+        SuggestionIndex<String, JSONObject> index = new SuggestionIndex<>(treeService, "title");
+        for (int i = 0; i < 2000; i++) {
+            treeService.insert(String.format("%05d", i), book("Volume " + Integer.toHexString(i * 7919) + " of the series", ""));
+        }
+        assertEquals(List.of("Volume " + Integer.toHexString(1234 * 7919) + " of the series"),
+                texts(index.suggest("volume " + Integer.toHexString(1234 * 7919) + " ", 10)));
+        assertEquals(List.of("01234"), texts(index.suggest("01234", 10)));
+        assertEquals(4000, index.size());
+    }
+
+    @Test
+    public void testUpdatesAndDeletesMatchBruteForce() {
+        TreeService<String, JSONObject> treeService = avlTreeService();
+        SuggestionIndex<String, JSONObject> index = new SuggestionIndex<>(treeService, "title,authors");
+        String[] names = {"ann", "anna", "annie", "bob", "bobby", "b", "carl", "an", "a", "anne"};
+        Random random = new Random(7);
+        Map<String, JSONObject> records = new TreeMap<>();
+        for (int step = 0; step < 2000; step++) {
+            String key = "k" + random.nextInt(150);
+            if (random.nextInt(4) == 0) {
+                treeService.delete(key);
+                records.remove(key);
+            } else {
+                JSONObject value = book(names[random.nextInt(names.length)],
+                        names[random.nextInt(names.length)] + "/" + names[random.nextInt(names.length)]);
+                treeService.insert(key, value);
+                records.put(key, value);
+            }
+            if (step % 97 == 0) {
+                for (String prefix : new String[]{"", "a", "an", "ann", "b", "bo", "k1", "c"}) {
+                    assertEquals(bruteForce(records, prefix, 5), texts(index.suggest(prefix, 5)), "prefix " + prefix);
+                }
+            }
+        }
+
+        // A reset rebuilds the index from the tree
+        treeService.setCurrentTreeType("AVL");
+        treeService.setAVLTree(treeService.getAVLTree());
+        assertEquals(bruteForce(records, "an", 20), texts(index.suggest("an", 20)));
+    }
+
+    // Counts every key and '/' separated value per record and returns the most popular ones
+    private static List<String> bruteForce(Map<String, JSONObject> records, String prefix, int limit) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (Map.Entry<String, JSONObject> record : records.entrySet()) {
+            List<String> values = new ArrayList<>();
+            values.add(record.getKey());
+            values.add(record.getValue().getString("title"));
+            values.addAll(Arrays.asList(record.getValue().getString("authors").split("/")));
+            for (String value : values) {
+                if (value.startsWith(prefix)) {
+                    counts.merge(value, 1, Integer::sum);
+                }
+            }
+        }
+        List<String> texts = new ArrayList<>(counts.keySet());
+        texts.sort(Comparator.comparing((String text) -> -counts.get(text)).thenComparing(String::compareToIgnoreCase));
+        return texts.subList(0, Math.min(limit, texts.size()));
+    }
+}
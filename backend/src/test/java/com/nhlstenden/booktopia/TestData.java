@@ -0,0 +1,55 @@
+package com.nhlstenden.booktopia;
+
+import com.nhlstenden.booktopia.AVL.AVLTree;
+import com.nhlstenden.booktopia.services.TreeService;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shared fixtures for the tests of the services that follow the tree: a tree service, records and
+ * the keys of ranked results.
+ */
+final class TestData {
+
+    private TestData() {
+    }
+
+    /**
+     * @return An empty tree service with an AVL tree as the active tree, which supports deletes
+     */
+    static TreeService<String, JSONObject> avlTreeService() {
+        TreeService<String, JSONObject> treeService = new TreeService<>();
+        treeService.setAVLTree(new AVLTree<>());
+        treeService.setCurrentTreeType("AVL");
+        return treeService;
+    }
+
+    /**
+     * @return A book record with a title and authors
+     */
+    static JSONObject book(String title, String authors) {
+        return new JSONObject().put("title", title).put("authors", authors);
+    }
+
+    /**
+     * @return A book record with a title, authors and publisher
+     */
+    static JSONObject book(String title, String authors, String publisher) {
+        return book(title, authors).put("publisher", publisher);
+    }
+
+    /**
+     * @param matches Results as key-score entries
+     * @return The keys of the results in their order
+     */
+    static <K> List<K> keys(List<? extends Map.Entry<K, ?>> matches) {
+        List<K> keys = new ArrayList<>(matches.size());
+        for (Map.Entry<K, ?> match : matches) {
+            keys.add(match.getKey());
+        }
+        return keys;
+    }
+}
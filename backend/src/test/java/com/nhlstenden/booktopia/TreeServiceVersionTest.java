@@ -0,0 +1,44 @@
+package com.nhlstenden.booktopia;
+
+import com.nhlstenden.booktopia.services.TreeService;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TreeServiceVersionTest {
+
+    @Test
+    public void testMutationsIncreaseTheVersion() {
+        TreeService<String, JSONObject> treeService = new TreeService<>();
+        long version = treeService.getVersion();
+
+        treeService.insert("Dune", new JSONObject().put("year", 1965));
+        assertTrue(treeService.getVersion() > version);
+        version = treeService.getVersion();
+
+        treeService.delete("Dune");
+        assertTrue(treeService.getVersion() > version);
+        version = treeService.getVersion();
+
+        treeService.clear();
+        assertTrue(treeService.getVersion() > version);
+        version = treeService.getVersion();
+
+        treeService.setCurrentTreeType("BTree");
+        assertTrue(treeService.getVersion() > version);
+    }
+
+    @Test
+    public void testReadsKeepTheVersion() {
+        TreeService<String, JSONObject> treeService = new TreeService<>();
+        treeService.insert("Dune", new JSONObject().put("year", 1965));
+        long version = treeService.getVersion();
+
+        treeService.search("Dune");
+        treeService.getAllKeys();
+        treeService.forEach((key, value) -> { });
+        assertEquals(version, treeService.getVersion());
+    }
+}
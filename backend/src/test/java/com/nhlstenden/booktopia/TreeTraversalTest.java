@@ -0,0 +1,59 @@
+package com.nhlstenden.booktopia;
+
+import com.nhlstenden.booktopia.AVL.AVLTree;
+import com.nhlstenden.booktopia.BST.BinarySearchTree;
+import com.nhlstenden.booktopia.services.TreeService;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class TreeTraversalTest {
+
+    private static final String[] TREE_TYPES = {"AVL", "BST", "BTree", "BPlusTree"};
+
+    private TreeService<String, JSONObject> treeService(String treeType) {
+        TreeService<String, JSONObject> treeService = new TreeService<>();
+        treeService.setAVLTree(new AVLTree<>());
+        treeService.setBST(new BinarySearchTree<>(Comparator.<String>naturalOrder()));
+        treeService.setCurrentTreeType(treeType);
+        for (String key : new String[] {"e", "b", "h", "a", "c", "g", "d", "f"}) {
+            treeService.insert(key, new JSONObject().put("name", key.toUpperCase()));
+        }
+        return treeService;
+    }
+
+    @Test
+    public void testForEachVisitsAlignedPairsInKeyOrder() {
+        for (String treeType : TREE_TYPES) {
+            List<String> visited = new ArrayList<>();
+            treeService(treeType).forEach((key, value) -> visited.add(key + "=" + value.getString("name")));
+            assertEquals(List.of("a=A", "b=B", "c=C", "d=D", "e=E", "f=F", "g=G", "h=H"), visited, treeType);
+        }
+    }
+
+    @Test
+    public void testForEachInRangeStopsWhenTheActionReturnsFalse() {
+        for (String treeType : TREE_TYPES) {
+            List<String> visited = new ArrayList<>();
+            treeService(treeType).forEachInRange(null, null, (key, value) -> {
+                visited.add(key);
+                return visited.size() < 3;
+            });
+            assertEquals(List.of("a", "b", "c"), visited, treeType);
+        }
+    }
+
+    @Test
+    public void testForEachInRangeStopsAtTheUpperBound() {
+        for (String treeType : TREE_TYPES) {
+            List<String> visited = new ArrayList<>();
+            treeService(treeType).forEachInRange("c", "f", (key, value) -> visited.add(key));
+            assertEquals(List.of("c", "d", "e"), visited, treeType);
+        }
+    }
+}
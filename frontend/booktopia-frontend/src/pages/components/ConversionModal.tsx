@@ -50,6 +50,16 @@ export function ConversionModal({ onClose, onSubmit }) {
                         BTREE
                     </label>
                     <br />
+                    <label>
+                        <input
+                            type="radio"
+                            name="targetTree"
+                            value="BPLUSTREE"
+                            onChange={(e) => setTargetTree(e.target.value)}
+                        />
+                        B+TREE
+                    </label>
+                    <br />
                     <br />
                     <button type="submit">Convert</button>
                 </form>
@@ -1,4 +1,4 @@
-import React, {useEffect, useState} from 'react';
+import React, {useEffect, useRef, useState} from 'react';
 import SearchBar from "../pages/components/SearchBar";
 import SystemMetrics from "../pages/components/SystemMetrics";
 import SortBy from "../pages/components/SortBy";
@@ -27,6 +27,10 @@ export default function Home() {
     const [showConversionModal, setShowConversionModal] = useState(false);
     const [showUploadModal, setShowUploadModal] = useState(false);
 
+    // The running streamed search; a newer query with the same client id cancels it on the server
+    const searchStream = useRef<EventSource | null>(null);
+    const searchClientId = useRef(Math.random().toString(36).slice(2));
+
     useEffect(() => {
         fetch('http://localhost:8080/api/display/table')
             .then(response => response.json())
@@ -67,6 +71,9 @@ export default function Home() {
 
     // Handle search functionality
     const handleSearch = (query) => {
+        searchStream.current?.close();
+        searchStream.current = null;
+
         if (!query.trim()) {
             // If search query is empty, reset to original data
             fetch('http://localhost:8080/api/display/table')
@@ -89,27 +96,41 @@ export default function Home() {
         setIsSearching(true);
         setSearchQuery(query);
 
-        // Call the backend search endpoint
-        fetch(`http://localhost:8080/api/data/search?query=${encodeURIComponent(query)}`)
-            .then(response => response.json())
-            .then(data => {
-                if (data && data.success) {
-                    const results = data.results;
-                    setItems(results);
-                    setSortedItems(results); // Also update sortedItems
-                    setProcessingTimeMs(data.processingTimeMs);
-                    setLastAlgorithm("Search");
-                    setSearchMethod(data.searchMethod || "Unknown");
-                } else {
-                    console.error("Search failed:", data.error);
-                    // Keep the current items if search fails
-                }
-                setIsSearching(false);
-            })
-            .catch(error => {
-                console.error("Error during search:", error);
-                setIsSearching(false);
-            });
+        // Stream the results: the exact key match first, then the partial matches in batches
+        const stream = new EventSource(`http://localhost:8080/api/data/search/stream?query=${encodeURIComponent(query)}`
+            + `&clientId=${searchClientId.current}`);
+        searchStream.current = stream;
+        let results: any[] = [];
+        let method = "Linear Search";
+        const showResults = () => {
+            setItems(results);
+            setSortedItems(results); // Also update sortedItems
+            setLastAlgorithm("Search");
+            setSearchMethod(method);
+        };
+
+        stream.addEventListener("exact", (event) => {
+            results = [JSON.parse((event as MessageEvent).data), ...results];
+            method = "Exact Key Search";
+            showResults();
+        });
+        stream.addEventListener("matches", (event) => {
+            results = [...results, ...JSON.parse((event as MessageEvent).data)];
+            showResults();
+        });
+        stream.addEventListener("done", (event) => {
+            const data = JSON.parse((event as MessageEvent).data);
+            showResults();
+            setProcessingTimeMs(data.processingTimeMs);
+            setIsSearching(false);
+            stream.close();
+        });
+        stream.addEventListener("cancelled", () => stream.close());
+        stream.onerror = (event) => {
+            console.error("Error during search:", event);
+            setIsSearching(false);
+            stream.close();
+        };
     };
 
     // Function to handle adding new item